@@ -58,6 +58,7 @@ import com.android.settings.core.instrumentation.MetricsFeatureProvider;
 import com.android.settings.core.instrumentation.SharedPreferencesLogger;
 import com.android.settings.dashboard.DashboardFeatureProvider;
 import com.android.settings.dashboard.DashboardSummary;
+import com.android.settings.dashboard.TileEnabledSnapshot;
 import com.android.settings.development.DevelopmentSettings;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.search.SearchActivity;
@@ -769,16 +770,15 @@ public class SettingsActivity extends SettingsDrawerActivity
         PackageManager pm = getPackageManager();
         final UserManager um = UserManager.get(this);
         final boolean isAdmin = um.isAdminUser();
-        boolean somethingChanged = false;
+        final TileEnabledSnapshot snapshot = new TileEnabledSnapshot(this);
         String packageName = getPackageName();
-        somethingChanged = setTileEnabled(
+        setTileEnabled(snapshot,
                 new ComponentName(packageName, WifiSettingsActivity.class.getName()),
-                pm.hasSystemFeature(PackageManager.FEATURE_WIFI), isAdmin) || somethingChanged;
+                pm.hasSystemFeature(PackageManager.FEATURE_WIFI), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.BluetoothSettingsActivity.class.getName()),
-                pm.hasSystemFeature(PackageManager.FEATURE_BLUETOOTH), isAdmin)
-                || somethingChanged;
+                pm.hasSystemFeature(PackageManager.FEATURE_BLUETOOTH), isAdmin);
 
         boolean isDataPlanFeatureEnabled = FeatureFactory.getFactory(this)
                 .getDataPlanFeatureProvider()
@@ -790,86 +790,77 @@ public class SettingsActivity extends SettingsDrawerActivity
 
         // Disable DataUsageSummaryActivity if the data plan feature flag is turned on otherwise
         // disable DataPlanUsageSummaryActivity.
-        somethingChanged = setTileEnabled(
+        setTileEnabled(snapshot,
                 new ComponentName(packageName,
                         isDataPlanFeatureEnabled
                                 ? Settings.DataUsageSummaryActivity.class.getName()
                                 : Settings.DataPlanUsageSummaryActivity.class.getName()),
                 false /* enabled */,
-                isAdmin) || somethingChanged;
+                isAdmin);
 
         // Enable DataUsageSummaryActivity if the data plan feature flag is turned on otherwise
         // enable DataPlanUsageSummaryActivity.
-        somethingChanged = setTileEnabled(
+        setTileEnabled(snapshot,
                 new ComponentName(packageName,
                         isDataPlanFeatureEnabled
                                 ? Settings.DataPlanUsageSummaryActivity.class.getName()
                                 : Settings.DataUsageSummaryActivity.class.getName()),
                 Utils.isBandwidthControlEnabled() /* enabled */,
-                isAdmin) || somethingChanged;
+                isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.SimSettingsActivity.class.getName()),
-                Utils.showSimCardTile(this), isAdmin)
-                || somethingChanged;
+                Utils.showSimCardTile(this), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.PowerUsageSummaryActivity.class.getName()),
-                mBatteryPresent, isAdmin) || somethingChanged;
+                mBatteryPresent, isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.UserSettingsActivity.class.getName()),
                 UserHandle.MU_ENABLED && UserManager.supportsMultipleUsers()
-                        && !Utils.isMonkeyRunning(), isAdmin)
-                || somethingChanged;
+                        && !Utils.isMonkeyRunning(), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.NetworkDashboardActivity.class.getName()),
-                !UserManager.isDeviceInDemoMode(this), isAdmin)
-                || somethingChanged;
+                !UserManager.isDeviceInDemoMode(this), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.ConnectedDeviceDashboardActivity.class.getName()),
-                !UserManager.isDeviceInDemoMode(this), isAdmin)
-                || somethingChanged;
+                !UserManager.isDeviceInDemoMode(this), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.DateTimeSettingsActivity.class.getName()),
-                !UserManager.isDeviceInDemoMode(this), isAdmin)
-                || somethingChanged;
+                !UserManager.isDeviceInDemoMode(this), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.PrintSettingsActivity.class.getName()),
-                pm.hasSystemFeature(PackageManager.FEATURE_PRINTING), isAdmin)
-                || somethingChanged;
+                pm.hasSystemFeature(PackageManager.FEATURE_PRINTING), isAdmin);
 
         final boolean showDev = mDevelopmentPreferences.getBoolean(
                 DevelopmentSettings.PREF_SHOW, android.os.Build.TYPE.equals("eng"))
                 && !um.hasUserRestriction(UserManager.DISALLOW_DEBUGGING_FEATURES);
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.DevelopmentSettingsActivity.class.getName()),
-                showDev, isAdmin)
-                || somethingChanged;
+                showDev, isAdmin);
 
         // Enable/disable backup settings depending on whether the user is admin.
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
-                BackupSettingsActivity.class.getName()), true, isAdmin)
-                || somethingChanged;
+        setTileEnabled(snapshot, new ComponentName(packageName,
+                BackupSettingsActivity.class.getName()), true, isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.WifiDisplaySettingsActivity.class.getName()),
-                WifiDisplaySettings.isAvailable(this), isAdmin)
-                || somethingChanged;
+                WifiDisplaySettings.isAvailable(this), isAdmin);
 
         // AicpExtras
         boolean aicpExtrasSupported = false;
         aicpExtrasSupported = AicpUtils.isPackageEnabled("com.aicp.extras", pm);
-        setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.StartAeActivity.class.getName()),
                 aicpExtrasSupported, isAdmin);
 
         // Root management
-        setTileEnabled(new ComponentName(packageName,
+        setTileEnabled(snapshot, new ComponentName(packageName,
                         Settings.RootManagementActivity.class.getName()),
                 isRootAvailable(), isAdmin);
 
@@ -888,14 +879,18 @@ public class SettingsActivity extends SettingsDrawerActivity
                                 SettingsGateway.SETTINGS_FOR_RESTRICTED, name);
                         if (packageName.equals(component.getPackageName())
                                 && !isEnabledForRestricted) {
-                            somethingChanged = setTileEnabled(component, false, isAdmin)
-                                    || somethingChanged;
+                            setTileEnabled(snapshot, component, false, isAdmin);
                         }
                     }
                 }
             }
         }
 
+        // Only call the PackageManager for tiles whose state changed since the last update.
+        final boolean somethingChanged = snapshot.apply(this::setTileEnabled);
+        Log.d(LOG_TAG, "Skipped " + snapshot.getSkippedCount()
+                + " tiles with unchanged enabled state");
+
         // Final step, refresh categories.
         if (somethingChanged) {
             Log.d(LOG_TAG, "Enabled state changed for some tiles, reloading all categories");
@@ -942,15 +937,16 @@ public class SettingsActivity extends SettingsDrawerActivity
     }
 
     /**
-     * @return whether or not the enabled state actually changed.
+     * Records the state {@param component} should have in {@param snapshot}.
      */
-    private boolean setTileEnabled(ComponentName component, boolean enabled, boolean isAdmin) {
+    private void setTileEnabled(TileEnabledSnapshot snapshot, ComponentName component,
+            boolean enabled, boolean isAdmin) {
         if (UserHandle.MU_ENABLED && !isAdmin && getPackageName().equals(component.getPackageName())
                 && !ArrayUtils.contains(SettingsGateway.SETTINGS_FOR_RESTRICTED,
                 component.getClassName())) {
             enabled = false;
         }
-        return setTileEnabled(component, enabled);
+        snapshot.setEnabled(component, enabled);
     }
 
     private void getMetaData() {
@@ -29,6 +29,7 @@ import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.settings.applications.ProcStatsData;
+import com.android.settings.dashboard.SummaryLoaderStats;
 import com.android.settingslib.net.DataUsageController;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -44,6 +45,8 @@ public class SettingsDumpService extends Service {
     @VisibleForTesting static final String KEY_DATAUSAGE = "datausage";
     @VisibleForTesting static final String KEY_MEMORY = "memory";
     @VisibleForTesting static final String KEY_DEFAULT_BROWSER_APP = "default_browser_app";
+    @VisibleForTesting static final String KEY_SUMMARY_LOADER = "summary_loader";
+    @VisibleForTesting static final String KEY_DASHBOARD_LOADS = "dashboard_loads";
     @VisibleForTesting static final Intent BROWSER_INTENT =
             new Intent("android.intent.action.VIEW", Uri.parse("http://"));
 
@@ -62,6 +65,8 @@ public class SettingsDumpService extends Service {
             dump.put(KEY_DATAUSAGE, dumpDataUsage());
             dump.put(KEY_MEMORY, dumpMemory());
             dump.put(KEY_DEFAULT_BROWSER_APP, dumpDefaultBrowser());
+            dump.put(KEY_SUMMARY_LOADER, SummaryLoaderStats.getInstance().toJson());
+            dump.put(KEY_DASHBOARD_LOADS, SummaryLoaderStats.getInstance().loadsToJson());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.Context;
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+
+import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+import com.android.settingslib.applications.ApplicationsState.AppFilter;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Incremental model behind the app list of {@link ManageApplications}.
+ * <p/>
+ * The apps are sorted once per comparator and each filter is evaluated once per app, its result
+ * kept as a bit set. A query then only walks the sorted order, and returns the visible apps
+ * with the insertions and removals since the previous query, so switching filters or updating a
+ * single app does not filter and sort every app again.
+ * <p/>
+ * Apps are identified by their index in the list given to {@link #setApps}, which is also the
+ * bit index of the filter results.
+ * <p/>
+ * The sizes and labels of the apps change on the thread of {@link ApplicationsState} without
+ * this model's lock, so the comparators of {@link ApplicationsState} sort on a copy of them.
+ */
+class AppListModel {
+
+    /**
+     * An insertion or removal of {@link #count} entries at {@link #position}, meant to be
+     * applied in order like RecyclerView's ListUpdateCallback.
+     */
+    static class Update {
+        static final int INSERT = 0;
+        static final int REMOVE = 1;
+
+        final int type;
+        final int position;
+        int count;
+
+        Update(int type, int position, int count) {
+            this.type = type;
+            this.position = position;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return (type == INSERT ? "insert " : "remove ") + count + " at " + position;
+        }
+    }
+
+    /**
+     * The apps shown after a {@link #query}.
+     */
+    static class Result {
+        final ArrayList<AppEntry> entries;
+        // How the previous result becomes this one, or null when everything changed.
+        final List<Update> updates;
+
+        Result(ArrayList<AppEntry> entries, List<Update> updates) {
+            this.entries = entries;
+            this.updates = updates;
+        }
+
+        boolean isUnchanged() {
+            return updates != null && updates.isEmpty();
+        }
+    }
+
+    /**
+     * What the comparators of {@link ApplicationsState} read from an app, copied under the lock
+     * of the entry.
+     */
+    private static class SortKey {
+        final String label;
+        final String packageName;
+        final int uid;
+        final long size;
+        final long internalSize;
+        final long externalSize;
+
+        SortKey(AppEntry entry) {
+            synchronized (entry) {
+                label = entry.label;
+                packageName = entry.info != null ? entry.info.packageName : null;
+                uid = entry.info != null ? entry.info.uid : 0;
+                size = entry.size;
+                internalSize = entry.internalSize;
+                externalSize = entry.externalSize;
+            }
+        }
+    }
+
+    private final Context mContext;
+    private final Collator mCollator = Collator.getInstance();
+
+    // Guarded by this, like everything below. The prefix filter runs on its own thread.
+    private AppEntry[] mApps = new AppEntry[0];
+    // The sort keys of mApps as of the last sort or change of each app.
+    private SortKey[] mKeys = new SortKey[0];
+    // For each comparator, the indices of mApps in sorted order.
+    private final ArrayMap<Comparator<AppEntry>, int[]> mOrders = new ArrayMap<>();
+    // For each filter key, the filter and which of mApps pass it.
+    private final ArrayMap<Object, AppFilter> mFilters = new ArrayMap<>();
+    private final ArrayMap<Object, BitSet> mMatches = new ArrayMap<>();
+
+    // The previous result, as indices of mApps.
+    private int[] mShown;
+    private Comparator<AppEntry> mShownComparator;
+    private String mShownPrefix;
+    // The filtered result before the prefix was applied, to narrow it when the prefix grows.
+    private int[] mUnprefixed;
+
+    AppListModel(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Sets every app that can be shown. Nothing is recomputed when the apps did not change.
+     */
+    @WorkerThread
+    synchronized void setApps(List<AppEntry> apps) {
+        if (apps.size() == mApps.length) {
+            boolean same = true;
+            for (int i = 0; i < mApps.length && same; i++) {
+                same = apps.get(i) == mApps[i];
+            }
+            if (same) {
+                return;
+            }
+        }
+        mApps = apps.toArray(new AppEntry[apps.size()]);
+        mKeys = new SortKey[mApps.length];
+        for (AppEntry entry : mApps) {
+            synchronized (entry) {
+                entry.ensureLabel(mContext);
+            }
+        }
+        mOrders.clear();
+        mFilters.clear();
+        mMatches.clear();
+        mShown = null;
+        mUnprefixed = null;
+    }
+
+    /**
+     * Forgets every filter result, for example when the extra info of the apps was reloaded.
+     */
+    synchronized void invalidateFilters() {
+        mFilters.clear();
+        mMatches.clear();
+    }
+
+    /**
+     * Forgets every order and filter result, for example when apps were updated in place.
+     */
+    synchronized void invalidate() {
+        mOrders.clear();
+        mFilters.clear();
+        mMatches.clear();
+        mShown = null;
+    }
+
+    /**
+     * Forgets the order of {@param comparator}, for example when every size was computed.
+     */
+    synchronized void invalidateOrder(Comparator<AppEntry> comparator) {
+        mOrders.remove(comparator);
+    }
+
+    /**
+     * Re-evaluates the filters and re-sorts the apps of {@param packageName}, whose state
+     * changed.
+     */
+    @WorkerThread
+    synchronized void onPackageChanged(String packageName) {
+        for (int app = 0; app < mApps.length; app++) {
+            if (mApps[app].info == null
+                    || !TextUtils.equals(packageName, mApps[app].info.packageName)) {
+                continue;
+            }
+            for (int i = 0; i < mMatches.size(); i++) {
+                final AppFilter filter = mFilters.get(mMatches.keyAt(i));
+                mMatches.valueAt(i).set(app, filter == null || filter.filterApp(mApps[app]));
+            }
+            mKeys[app] = new SortKey(mApps[app]);
+            for (int i = 0; i < mOrders.size(); i++) {
+                reposition(mOrders.keyAt(i), mOrders.valueAt(i), app);
+            }
+        }
+    }
+
+    /**
+     * @param filterKey identifies {@param filter}, whose result is kept for later queries with
+     *                  the same key.
+     * @param prefix    only shows the apps whose label has a word starting with it, if not empty.
+     * @param dedupeUsers only shows the first of the apps with the same package name.
+     */
+    @WorkerThread
+    synchronized Result query(Object filterKey, AppFilter filter, Comparator<AppEntry> comparator,
+            CharSequence prefix, boolean dedupeUsers) {
+        final int[] order = getOrder(comparator);
+        final BitSet matches = getMatches(filterKey, filter);
+        int[] unprefixed = new int[matches.cardinality()];
+        int count = 0;
+        String lastPackage = null;
+        for (int app : order) {
+            if (!matches.get(app)) {
+                continue;
+            }
+            final String packageName = mApps[app].info != null
+                    ? mApps[app].info.packageName : null;
+            if (dedupeUsers && packageName != null && packageName.equals(lastPackage)) {
+                continue;
+            }
+            lastPackage = packageName;
+            unprefixed[count++] = app;
+        }
+        unprefixed = Arrays.copyOf(unprefixed, count);
+        mUnprefixed = unprefixed;
+        mShownPrefix = null;
+        return show(applyPrefix(unprefixed, prefix), comparator);
+    }
+
+    /**
+     * Applies {@param prefix} to the result of the previous {@link #query}.
+     */
+    synchronized Result filterPrefix(CharSequence prefix) {
+        if (mUnprefixed == null) {
+            return new Result(new ArrayList<>(), null);
+        }
+        final String normalized = normalize(prefix);
+        final boolean narrowing = mShown != null && mShownPrefix != null && normalized != null
+                && normalized.startsWith(mShownPrefix);
+        // A longer prefix only removes apps, so only the apps shown now need checking.
+        final int[] source = narrowing ? mShown : mUnprefixed;
+        return show(applyPrefix(source, prefix), mShownComparator);
+    }
+
+    private int[] applyPrefix(int[] source, CharSequence prefix) {
+        final String prefixStr = normalize(prefix);
+        mShownPrefix = prefixStr;
+        if (prefixStr == null) {
+            return mUnprefixed;
+        }
+        final String spacePrefixStr = " " + prefixStr;
+        final int[] result = new int[source.length];
+        int count = 0;
+        for (int app : source) {
+            final String nlabel = mApps[app].getNormalizedLabel();
+            if (nlabel.startsWith(prefixStr) || nlabel.indexOf(spacePrefixStr) != -1) {
+                result[count++] = app;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private Result show(int[] shown, Comparator<AppEntry> comparator) {
+        List<Update> updates = null;
+        if (mShown != null && comparator == mShownComparator) {
+            updates = diff(mShown, shown, getRanks(mOrders.get(comparator)));
+        }
+        mShown = shown;
+        mShownComparator = comparator;
+        final ArrayList<AppEntry> entries = new ArrayList<>(shown.length);
+        for (int app : shown) {
+            entries.add(mApps[app]);
+        }
+        return new Result(entries, updates);
+    }
+
+    private int[] getOrder(Comparator<AppEntry> comparator) {
+        int[] order = mOrders.get(comparator);
+        if (order == null) {
+            final Integer[] boxed = new Integer[mApps.length];
+            for (int i = 0; i < boxed.length; i++) {
+                boxed[i] = i;
+                mKeys[i] = new SortKey(mApps[i]);
+            }
+            Arrays.sort(boxed, (lhs, rhs) -> compare(comparator, lhs, rhs));
+            order = new int[boxed.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = boxed[i];
+            }
+            mOrders.put(comparator, order);
+            // Ranks from the old order would make a meaningless diff.
+            if (comparator == mShownComparator) {
+                mShown = null;
+            }
+        }
+        return order;
+    }
+
+    private BitSet getMatches(Object filterKey, AppFilter filter) {
+        BitSet matches = mMatches.get(filterKey);
+        if (matches == null) {
+            matches = new BitSet(mApps.length);
+            if (filter != null) {
+                filter.init();
+            }
+            for (int i = 0; i < mApps.length; i++) {
+                if (filter == null || filter.filterApp(mApps[i])) {
+                    matches.set(i);
+                }
+            }
+            mFilters.put(filterKey, filter);
+            mMatches.put(filterKey, matches);
+        }
+        return matches;
+    }
+
+    private void reposition(Comparator<AppEntry> comparator, int[] order, int app) {
+        int from = 0;
+        while (order[from] != app) {
+            from++;
+        }
+        System.arraycopy(order, from + 1, order, from, order.length - from - 1);
+        int low = 0;
+        int high = order.length - 2;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(comparator, order[mid], app) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        System.arraycopy(order, low, order, low + 1, order.length - low - 1);
+        order[low] = app;
+        if (low != from && comparator == mShownComparator) {
+            // The shown apps may no longer be in rank order.
+            mShown = null;
+        }
+    }
+
+    /**
+     * Compares the sort keys of two apps like {@param comparator} compares the apps. Other
+     * comparators than the ones of {@link ApplicationsState} compare the apps themselves.
+     */
+    private int compare(Comparator<AppEntry> comparator, int lhs, int rhs) {
+        final SortKey lhsKey = mKeys[lhs];
+        final SortKey rhsKey = mKeys[rhs];
+        final int result;
+        if (comparator == ApplicationsState.SIZE_COMPARATOR) {
+            result = Long.compare(rhsKey.size, lhsKey.size);
+        } else if (comparator == ApplicationsState.INTERNAL_SIZE_COMPARATOR) {
+            result = Long.compare(rhsKey.internalSize, lhsKey.internalSize);
+        } else if (comparator == ApplicationsState.EXTERNAL_SIZE_COMPARATOR) {
+            result = Long.compare(rhsKey.externalSize, lhsKey.externalSize);
+        } else if (comparator == ApplicationsState.ALPHA_COMPARATOR) {
+            result = 0;
+        } else {
+            return comparator.compare(mApps[lhs], mApps[rhs]);
+        }
+        return result != 0 ? result : compareLabels(lhsKey, rhsKey);
+    }
+
+    private int compareLabels(SortKey lhs, SortKey rhs) {
+        int result = mCollator.compare(lhs.label != null ? lhs.label : "",
+                rhs.label != null ? rhs.label : "");
+        if (result != 0) {
+            return result;
+        }
+        if (lhs.packageName != null && rhs.packageName != null) {
+            result = mCollator.compare(lhs.packageName, rhs.packageName);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(lhs.uid, rhs.uid);
+    }
+
+    private static int[] getRanks(int[] order) {
+        final int[] ranks = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            ranks[order[i]] = i;
+        }
+        return ranks;
+    }
+
+    /**
+     * Both lists are in rank order, so one merge finds every insertion and removal.
+     */
+    static List<Update> diff(int[] before, int[] after, int[] ranks) {
+        final List<Update> updates = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < before.length || j < after.length) {
+            if (j >= after.length
+                    || (i < before.length && ranks[before[i]] < ranks[after[j]])) {
+                addUpdate(updates, Update.REMOVE, position);
+                i++;
+            } else if (i >= before.length || ranks[after[j]] < ranks[before[i]]) {
+                addUpdate(updates, Update.INSERT, position);
+                position++;
+                j++;
+            } else {
+                position++;
+                i++;
+                j++;
+            }
+        }
+        return updates;
+    }
+
+    private static void addUpdate(List<Update> updates, int type, int position) {
+        final Update last = updates.isEmpty() ? null : updates.get(updates.size() - 1);
+        if (last != null && last.type == type && type == Update.REMOVE
+                && last.position == position) {
+            last.count++;
+        } else if (last != null && last.type == type && type == Update.INSERT
+                && last.position + last.count == position) {
+            last.count++;
+        } else {
+            updates.add(new Update(type, position, 1));
+        }
+    }
+
+    private static String normalize(CharSequence prefix) {
+        if (prefix == null || prefix.length() == 0) {
+            return null;
+        }
+        return ApplicationsState.normalize(prefix.toString());
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.WorkerThread;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.util.ArraySet;
+import android.util.LongSparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adapter for the app list of {@link ManageApplications} when shown in a RecyclerView.
+ * <p/>
+ * Rows are bound from {@link Row}s computed on a background thread, so binding never locks an
+ * {@link AppEntry} or computes a summary. Icons not loaded yet are loaded in the background,
+ * ahead of the rows being scrolled to, and their row is rebound once loaded.
+ */
+public class AppListRecyclerAdapter extends RecyclerView.Adapter<AppListRecyclerAdapter.RowHolder> {
+
+    // How many rows past the one being bound get their icon loaded ahead of time.
+    private static final int ICON_PREFETCH_ROWS = 8;
+
+    public interface OnRowClickListener {
+        void onRowClick(AppEntry entry);
+    }
+
+    public interface IconLoader {
+        @WorkerThread
+        Drawable loadIcon(AppEntry entry);
+    }
+
+    /**
+     * Everything shown by a row, computed ahead of binding.
+     */
+    public static class Row {
+        public final AppEntry entry;
+        final long id;
+        final CharSequence label;
+        final CharSequence summary;
+        // Null when the app is neither disabled nor uninstalled.
+        final CharSequence disabledText;
+        final boolean enabled;
+        // Main thread only.
+        Drawable icon;
+
+        public Row(AppEntry entry, long id, CharSequence label, Drawable icon,
+                CharSequence summary, CharSequence disabledText, boolean enabled) {
+            this.entry = entry;
+            this.id = id;
+            this.label = label;
+            this.icon = icon;
+            this.summary = summary;
+            this.disabledText = disabledText;
+            this.enabled = enabled;
+        }
+
+        boolean hasSameContent(Row other) {
+            return TextUtils.equals(label, other.label)
+                    && TextUtils.equals(summary, other.summary)
+                    && TextUtils.equals(disabledText, other.disabledText)
+                    && enabled == other.enabled
+                    && (icon == null || icon == other.icon);
+        }
+    }
+
+    public static class RowHolder extends RecyclerView.ViewHolder {
+        final AppViewHolder mViews;
+
+        RowHolder(AppViewHolder views) {
+            super(views.rootView);
+            mViews = views;
+        }
+    }
+
+    private final LayoutInflater mInflater;
+    private final Handler mBgHandler;
+    private final Handler mFgHandler;
+    private final IconLoader mIconLoader;
+    private final OnRowClickListener mListener;
+    // Rows whose icon is being loaded.
+    private final ArraySet<Row> mLoadingIcons = new ArraySet<>();
+    private List<Row> mRows = new ArrayList<>();
+
+    public AppListRecyclerAdapter(LayoutInflater inflater, Looper bgLooper,
+            IconLoader iconLoader, OnRowClickListener listener) {
+        mInflater = inflater;
+        mBgHandler = new Handler(bgLooper);
+        mFgHandler = new Handler(Looper.getMainLooper());
+        mIconLoader = iconLoader;
+        mListener = listener;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Shows {@param rows}. When {@param updates} describes how the current rows become the new
+     * ones, only the inserted, removed and changed rows are rebound.
+     */
+    @MainThread
+    public void setRows(List<Row> rows, List<AppListModel.Update> updates) {
+        final LongSparseArray<Row> previous = new LongSparseArray<>(mRows.size());
+        for (Row row : mRows) {
+            previous.put(row.id, row);
+        }
+        for (Row row : rows) {
+            final Row old = previous.get(row.id);
+            if (row.icon == null && old != null) {
+                row.icon = old.icon;
+            }
+        }
+        mRows = rows;
+        if (updates == null) {
+            notifyDataSetChanged();
+            return;
+        }
+        for (AppListModel.Update update : updates) {
+            if (update.type == AppListModel.Update.INSERT) {
+                notifyItemRangeInserted(update.position, update.count);
+            } else {
+                notifyItemRangeRemoved(update.position, update.count);
+            }
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            final Row old = previous.get(rows.get(i).id);
+            if (old != null && !old.hasSameContent(rows.get(i))) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    /**
+     * Replaces the row with the same id as {@param row}, if shown.
+     */
+    @MainThread
+    public void updateRow(Row row) {
+        for (int i = 0; i < mRows.size(); i++) {
+            final Row old = mRows.get(i);
+            if (old.id == row.id) {
+                if (row.icon == null) {
+                    row.icon = old.icon;
+                }
+                mRows.set(i, row);
+                if (!old.hasSameContent(row)) {
+                    notifyItemChanged(i);
+                }
+                return;
+            }
+        }
+    }
+
+    public Row getRow(int position) {
+        return mRows.get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mRows.get(position).id;
+    }
+
+    @Override
+    public RowHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        final AppViewHolder views = AppViewHolder.createOrRecycle(mInflater, null);
+        final RowHolder holder = new RowHolder(views);
+        views.rootView.setOnClickListener(v -> {
+            final int position = holder.getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && mListener != null) {
+                mListener.onRowClick(mRows.get(position).entry);
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(RowHolder holder, int position) {
+        final Row row = mRows.get(position);
+        final AppViewHolder views = holder.mViews;
+        views.entry = row.entry;
+        views.appName.setText(row.label);
+        views.appIcon.setImageDrawable(row.icon);
+        views.summary.setText(row.summary);
+        if (row.disabledText != null) {
+            views.disabled.setVisibility(View.VISIBLE);
+            views.disabled.setText(row.disabledText);
+        } else {
+            views.disabled.setVisibility(View.GONE);
+        }
+        views.rootView.setEnabled(row.enabled);
+        final int last = Math.min(position + ICON_PREFETCH_ROWS, mRows.size() - 1);
+        for (int i = position; i <= last; i++) {
+            loadIconIfNeeded(mRows.get(i));
+        }
+    }
+
+    private void loadIconIfNeeded(Row row) {
+        if (row.icon != null || row.entry == null || mIconLoader == null
+                || !mLoadingIcons.add(row)) {
+            return;
+        }
+        mBgHandler.post(() -> {
+            final Drawable icon = mIconLoader.loadIcon(row.entry);
+            mFgHandler.post(() -> {
+                mLoadingIcons.remove(row);
+                row.icon = icon;
+                final int position = mRows.indexOf(row);
+                if (icon != null && position >= 0) {
+                    notifyItemChanged(position);
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.AppGlobals;
+import android.app.AppOpsManager;
+import android.app.AppOpsManager.OpEntry;
+import android.app.AppOpsManager.PackageOps;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.support.annotation.MainThread;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.android.internal.util.ArrayUtils;
+import com.android.settings.applications.AppStateAppOpsBridge.PermissionState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Permission and app op state of the packages in the profiles of the current user, shared by
+ * the bridges that show an app op. Each bridge subscribes to the {@link Slice} of its app op,
+ * and all the slices that need loading are loaded together, so every PackageManager and
+ * AppOpsManager query runs once per pass instead of once per bridge.
+ * <p/>
+ * While a slice is subscribed, and for a short while after, app op changes are watched and only
+ * the changed packages are reloaded on the next {@link #load}.
+ */
+public class AppOpsStateSnapshot {
+
+    private static final String TAG = "AppOpsStateSnapshot";
+
+    // How long the slices stay loaded after their last subscriber left, so going to an app's
+    // details and back does not reload everything.
+    @VisibleForTesting
+    static final long KEEP_WARM_MS = 30 * 1000;
+
+    private static AppOpsStateSnapshot sInstance;
+
+    /**
+     * The state of one app op and the permissions an app requests to use it.
+     */
+    public static class Slice {
+        public final int appOpCode;
+        final String[] mPermissions;
+        int mSubscribers;
+        boolean mLoaded;
+        // Bumped whenever the slice is cleared, so a load started before does not fill it.
+        int mGeneration;
+        // Per user id, the available packages requesting one of mPermissions.
+        final SparseArray<ArrayMap<String, PermissionState>> mEntries = new SparseArray<>();
+        // Per user id, the app op mode of the other packages, when it is not the default.
+        final SparseArray<ArrayMap<String, Integer>> mOtherModes = new SparseArray<>();
+
+        Slice(int appOpCode, String[] permissions) {
+            this.appOpCode = appOpCode;
+            mPermissions = permissions;
+        }
+
+        void clear() {
+            mEntries.clear();
+            mOtherModes.clear();
+            mLoaded = false;
+            mGeneration++;
+        }
+    }
+
+    private final Context mContext;
+    private final IPackageManagerWrapper mIPackageManager;
+    private final AppOpsManager mAppOpsManager;
+    private final List<UserHandle> mProfiles;
+    private final Handler mMainHandler;
+    // Serializes load() and updatePackage(), which query without holding this.
+    private final Object mLoadLock = new Object();
+    // Keyed by app op code. Guarded by this, like everything below.
+    private final SparseArray<Slice> mSlices = new SparseArray<>();
+    private final ArraySet<String> mDirtyPackages = new ArraySet<>();
+    private final SparseBooleanArray mWatchedOps = new SparseBooleanArray();
+    private boolean mWatching;
+
+    private final AppOpsManager.OnOpChangedListener mOpChangedListener = (op, packageName) -> {
+        synchronized (AppOpsStateSnapshot.this) {
+            mDirtyPackages.add(packageName);
+        }
+    };
+
+    private final Runnable mReleaseRunnable = this::releaseUnsubscribed;
+
+    public static synchronized AppOpsStateSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new AppOpsStateSnapshot(appContext,
+                    new IPackageManagerWrapperImpl(AppGlobals.getPackageManager()));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppOpsStateSnapshot(Context context, IPackageManagerWrapper packageManager) {
+        mContext = context;
+        mIPackageManager = packageManager;
+        mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        mProfiles = UserManager.get(context).getUserProfiles();
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Subscribes to the state of {@param appOpCode}, which apps request with one of
+     * {@param permissions}. Call {@link #load} before reading the slice.
+     */
+    @MainThread
+    public synchronized Slice subscribe(int appOpCode, String[] permissions) {
+        Slice slice = mSlices.get(appOpCode);
+        if (slice == null) {
+            slice = new Slice(appOpCode, permissions);
+            mSlices.put(appOpCode, slice);
+        }
+        slice.mSubscribers++;
+        mMainHandler.removeCallbacks(mReleaseRunnable);
+        if (!mWatching) {
+            // Nothing was watched, so nothing loaded can be trusted.
+            for (int i = 0; i < mSlices.size(); i++) {
+                mSlices.valueAt(i).clear();
+            }
+            mDirtyPackages.clear();
+            mWatching = true;
+        }
+        if (!mWatchedOps.get(appOpCode)) {
+            // Watching with the same listener again only adds the op.
+            mAppOpsManager.startWatchingMode(appOpCode, null, mOpChangedListener);
+            mWatchedOps.put(appOpCode, true);
+        }
+        return slice;
+    }
+
+    @MainThread
+    public synchronized void unsubscribe(Slice slice) {
+        if (slice.mSubscribers > 0 && --slice.mSubscribers == 0) {
+            mMainHandler.removeCallbacks(mReleaseRunnable);
+            mMainHandler.postDelayed(mReleaseRunnable, KEEP_WARM_MS);
+        }
+    }
+
+    /**
+     * Forgets every loaded slice, for example when packages were installed or removed.
+     */
+    public synchronized void invalidate() {
+        for (int i = 0; i < mSlices.size(); i++) {
+            mSlices.valueAt(i).clear();
+        }
+        mDirtyPackages.clear();
+    }
+
+    /**
+     * Loads the subscribed slices that are not loaded, all in one pass, then reloads the packages
+     * whose app ops changed since the previous call.
+     * <p/>
+     * The queries run without holding this, so subscribing on the main thread never waits for
+     * them; their results are swapped into the slices that were not cleared meanwhile.
+     */
+    @WorkerThread
+    public void load() {
+        synchronized (mLoadLock) {
+            final List<Slice> toLoad = new ArrayList<>();
+            final ArraySet<String> dirtyPackages;
+            synchronized (this) {
+                for (int i = 0; i < mSlices.size(); i++) {
+                    final Slice slice = mSlices.valueAt(i);
+                    if (slice.mSubscribers > 0 && !slice.mLoaded) {
+                        toLoad.add(slice);
+                    }
+                }
+                // Packages changing from now on are reloaded by the next call.
+                dirtyPackages = new ArraySet<>(mDirtyPackages);
+                mDirtyPackages.clear();
+            }
+            if (!toLoad.isEmpty()) {
+                loadSlices(toLoad);
+            }
+            for (int i = 0; i < dirtyPackages.size(); i++) {
+                final String packageName = dirtyPackages.valueAt(i);
+                for (final UserHandle profile : mProfiles) {
+                    loadPackage(packageName, profile.getIdentifier());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reloads one package of one user in every loaded slice.
+     */
+    @WorkerThread
+    public void updatePackage(String packageName, int uid) {
+        synchronized (mLoadLock) {
+            loadPackage(packageName, UserHandle.getUserId(uid));
+        }
+    }
+
+    /**
+     * @return the state of {@param packageName} for {@param userId} in {@param slice}, or null
+     * if the package does not request the app op.
+     */
+    public synchronized PermissionState getState(Slice slice, String packageName, int userId) {
+        final ArrayMap<String, PermissionState> entries = slice.mEntries.get(userId);
+        return entries != null ? entries.get(packageName) : null;
+    }
+
+    /**
+     * @return the app op mode of {@param packageName} for {@param userId} in {@param slice},
+     * including packages that do not request the app op.
+     */
+    public synchronized int getAppOpMode(Slice slice, String packageName, int userId) {
+        final PermissionState state = getState(slice, packageName, userId);
+        if (state != null) {
+            return state.appOpMode;
+        }
+        final ArrayMap<String, Integer> modes = slice.mOtherModes.get(userId);
+        final Integer mode = modes != null ? modes.get(packageName) : null;
+        return mode != null ? mode : AppOpsManager.MODE_DEFAULT;
+    }
+
+    private void loadSlices(List<Slice> slices) {
+        final int[] generations = new int[slices.size()];
+        synchronized (this) {
+            for (int i = 0; i < slices.size(); i++) {
+                generations[i] = slices.get(i).mGeneration;
+            }
+        }
+        // The queries fill detached copies of the slices, keyed by app op code.
+        final SparseArray<Slice> loaded = new SparseArray<>();
+        final ArraySet<String> permissions = new ArraySet<>();
+        final int[] opCodes = new int[slices.size()];
+        for (int i = 0; i < slices.size(); i++) {
+            final Slice slice = slices.get(i);
+            loaded.put(slice.appOpCode, new Slice(slice.appOpCode, slice.mPermissions));
+            for (String permission : slice.mPermissions) {
+                permissions.add(permission);
+            }
+            opCodes[i] = slice.appOpCode;
+        }
+        try {
+            // Packages requesting each permission, one query per distinct permission.
+            final ArrayMap<String, String[]> requesters = new ArrayMap<>();
+            for (int i = 0; i < permissions.size(); i++) {
+                requesters.put(permissions.valueAt(i),
+                        mIPackageManager.getAppOpPermissionPackages(permissions.valueAt(i)));
+            }
+            final SparseArray<ArrayMap<String, Boolean>> available = new SparseArray<>();
+            for (final UserHandle profile : mProfiles) {
+                final int profileId = profile.getIdentifier();
+                final ArrayMap<String, Boolean> availableForProfile = new ArrayMap<>();
+                available.put(profileId, availableForProfile);
+                for (int j = 0; j < loaded.size(); j++) {
+                    final Slice slice = loaded.valueAt(j);
+                    final ArrayMap<String, PermissionState> entries = new ArrayMap<>();
+                    slice.mEntries.put(profileId, entries);
+                    for (String permission : slice.mPermissions) {
+                        final String[] packages = requesters.get(permission);
+                        if (packages == null) {
+                            continue;
+                        }
+                        for (String packageName : packages) {
+                            if (entries.containsKey(packageName)
+                                    || shouldIgnorePackage(packageName)) {
+                                continue;
+                            }
+                            Boolean isAvailable = availableForProfile.get(packageName);
+                            if (isAvailable == null) {
+                                isAvailable = mIPackageManager.isPackageAvailable(packageName,
+                                        profileId);
+                                availableForProfile.put(packageName, isAvailable);
+                            }
+                            if (isAvailable) {
+                                final PermissionState pe =
+                                        new PermissionState(packageName, profile);
+                                pe.permissionDeclared = true;
+                                entries.put(packageName, pe);
+                            }
+                        }
+                    }
+                }
+            }
+
+            // Static permission grants, one query per profile for every permission.
+            final String[] allPermissions = permissions.toArray(new String[permissions.size()]);
+            for (final UserHandle profile : mProfiles) {
+                final int profileId = profile.getIdentifier();
+                @SuppressWarnings("unchecked")
+                final List<PackageInfo> packageInfos = mIPackageManager
+                        .getPackagesHoldingPermissions(allPermissions,
+                                PackageManager.GET_PERMISSIONS, profileId).getList();
+                final int packageInfoCount = packageInfos != null ? packageInfos.size() : 0;
+                for (int i = 0; i < packageInfoCount; i++) {
+                    final PackageInfo packageInfo = packageInfos.get(i);
+                    for (int j = 0; j < loaded.size(); j++) {
+                        final Slice slice = loaded.valueAt(j);
+                        final PermissionState pe =
+                                slice.mEntries.get(profileId).get(packageInfo.packageName);
+                        if (pe != null && holdsAnyPermission(packageInfo, slice.mPermissions)) {
+                            pe.packageInfo = packageInfo;
+                            pe.staticPermissionGranted = true;
+                        }
+                    }
+                }
+            }
+        } catch (RemoteException e) {
+            Log.w(TAG, "PackageManager is dead. Can't get packages requesting app ops", e);
+            return;
+        }
+
+        // App op modes, one query for every op.
+        final List<PackageOps> packageOps = mAppOpsManager.getPackagesForOps(opCodes);
+        final int packageOpsCount = packageOps != null ? packageOps.size() : 0;
+        for (int i = 0; i < packageOpsCount; i++) {
+            final PackageOps packageOp = packageOps.get(i);
+            final int userId = UserHandle.getUserId(packageOp.getUid());
+            for (OpEntry opEntry : packageOp.getOps()) {
+                final Slice slice = loaded.get(opEntry.getOp());
+                if (slice != null) {
+                    setAppOpMode(slice, packageOp.getPackageName(), userId, opEntry.getMode());
+                }
+            }
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < slices.size(); i++) {
+                final Slice slice = slices.get(i);
+                if (slice.mGeneration != generations[i]) {
+                    // Cleared while loading, what was loaded may be stale.
+                    continue;
+                }
+                final Slice result = loaded.get(slice.appOpCode);
+                slice.mEntries.clear();
+                slice.mOtherModes.clear();
+                for (int j = 0; j < result.mEntries.size(); j++) {
+                    slice.mEntries.put(result.mEntries.keyAt(j), result.mEntries.valueAt(j));
+                }
+                for (int j = 0; j < result.mOtherModes.size(); j++) {
+                    slice.mOtherModes.put(result.mOtherModes.keyAt(j),
+                            result.mOtherModes.valueAt(j));
+                }
+                slice.mLoaded = true;
+            }
+        }
+    }
+
+    private void loadPackage(String packageName, int userId) {
+        final List<Slice> slices = new ArrayList<>();
+        final int[] generations;
+        synchronized (this) {
+            for (int i = 0; i < mSlices.size(); i++) {
+                final Slice slice = mSlices.valueAt(i);
+                if (slice.mLoaded && slice.mEntries.get(userId) != null) {
+                    slices.add(slice);
+                }
+            }
+            generations = new int[slices.size()];
+            for (int i = 0; i < slices.size(); i++) {
+                generations[i] = slices.get(i).mGeneration;
+            }
+        }
+        if (slices.isEmpty()) {
+            return;
+        }
+        final int[] opCodes = new int[slices.size()];
+        for (int i = 0; i < slices.size(); i++) {
+            opCodes[i] = slices.get(i).appOpCode;
+        }
+        PackageInfo packageInfo = null;
+        boolean isAvailable = false;
+        try {
+            packageInfo = mIPackageManager.getPackageInfo(packageName,
+                    PackageManager.GET_PERMISSIONS, userId);
+            isAvailable = packageInfo != null
+                    && mIPackageManager.isPackageAvailable(packageName, userId);
+        } catch (RemoteException e) {
+            Log.w(TAG, "PackageManager is dead. Can't get package info " + packageName, e);
+        }
+        final List<PackageOps> packageOps = packageInfo != null
+                ? mAppOpsManager.getOpsForPackage(packageInfo.applicationInfo.uid, packageName,
+                        opCodes)
+                : null;
+
+        synchronized (this) {
+            final SparseArray<Slice> current = new SparseArray<>();
+            for (int i = 0; i < slices.size(); i++) {
+                final Slice slice = slices.get(i);
+                final ArrayMap<String, PermissionState> entries = slice.mEntries.get(userId);
+                if (slice.mGeneration != generations[i] || entries == null) {
+                    // Cleared while loading, the next full load picks the package up.
+                    continue;
+                }
+                current.put(slice.appOpCode, slice);
+                entries.remove(packageName);
+                final ArrayMap<String, Integer> modes = slice.mOtherModes.get(userId);
+                if (modes != null) {
+                    modes.remove(packageName);
+                }
+                if (isAvailable && !shouldIgnorePackage(packageName)
+                        && requestsAnyPermission(packageInfo, slice.mPermissions)) {
+                    final PermissionState pe =
+                            new PermissionState(packageName, UserHandle.of(userId));
+                    pe.permissionDeclared = true;
+                    if (holdsAnyPermission(packageInfo, slice.mPermissions)) {
+                        pe.packageInfo = packageInfo;
+                        pe.staticPermissionGranted = true;
+                    }
+                    entries.put(packageName, pe);
+                }
+            }
+            final int packageOpsCount = packageOps != null ? packageOps.size() : 0;
+            for (int i = 0; i < packageOpsCount; i++) {
+                for (OpEntry opEntry : packageOps.get(i).getOps()) {
+                    final Slice slice = current.get(opEntry.getOp());
+                    if (slice != null) {
+                        setAppOpMode(slice, packageName, userId, opEntry.getMode());
+                    }
+                }
+            }
+        }
+    }
+
+    private void setAppOpMode(Slice slice, String packageName, int userId, int mode) {
+        final ArrayMap<String, PermissionState> entries = slice.mEntries.get(userId);
+        if (entries == null) {
+            // This app op does not belong to any of this user's profiles.
+            return;
+        }
+        final PermissionState pe = entries.get(packageName);
+        if (pe != null) {
+            pe.appOpMode = mode;
+        } else if (mode != AppOpsManager.MODE_DEFAULT) {
+            ArrayMap<String, Integer> modes = slice.mOtherModes.get(userId);
+            if (modes == null) {
+                modes = new ArrayMap<>();
+                slice.mOtherModes.put(userId, modes);
+            }
+            modes.put(packageName, mode);
+        }
+    }
+
+    private synchronized void releaseUnsubscribed() {
+        boolean subscribed = false;
+        for (int i = 0; i < mSlices.size(); i++) {
+            final Slice slice = mSlices.valueAt(i);
+            if (slice.mSubscribers == 0) {
+                slice.clear();
+            } else {
+                subscribed = true;
+            }
+        }
+        if (!subscribed && mWatching) {
+            mAppOpsManager.stopWatchingMode(mOpChangedListener);
+            mWatchedOps.clear();
+            mWatching = false;
+        }
+    }
+
+    private static boolean requestsAnyPermission(PackageInfo packageInfo, String[] permissions) {
+        final String[] requested = packageInfo.requestedPermissions;
+        if (requested == null) {
+            return false;
+        }
+        for (String permission : requested) {
+            if (ArrayUtils.contains(permissions, permission)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean holdsAnyPermission(PackageInfo packageInfo, String[] permissions) {
+        final String[] requested = packageInfo.requestedPermissions;
+        final int[] flags = packageInfo.requestedPermissionsFlags;
+        if (requested == null || flags == null) {
+            return false;
+        }
+        for (int i = 0; i < requested.length; i++) {
+            if (ArrayUtils.contains(permissions, requested[i])
+                    && (flags[i] & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean shouldIgnorePackage(String packageName) {
+        return packageName.equals("android") || packageName.equals(mContext.getPackageName());
+    }
+}
@@ -53,6 +53,9 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
     private final Context mContext;
     private final int[] mAppOpsOpCodes;
     private final String[] mPermissions;
+    private AppOpsStateSnapshot mSnapshot;
+    // Set while resumed, read on the background thread.
+    private volatile AppOpsStateSnapshot.Slice mSlice;
 
     public AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int appOpsOpCode, String[] permissions) {
@@ -85,6 +88,30 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
 
     protected abstract void updateExtraInfo(AppEntry app, String pkg, int uid);
 
+    @Override
+    public void resume() {
+        mSnapshot = AppOpsStateSnapshot.getInstance(mContext);
+        mSlice = mSnapshot.subscribe(mAppOpsOpCodes[0], mPermissions);
+        super.resume();
+    }
+
+    @Override
+    public void pause() {
+        super.pause();
+        if (mSlice != null) {
+            mSnapshot.unsubscribe(mSlice);
+            mSlice = null;
+        }
+    }
+
+    @Override
+    public void onPackageListChanged() {
+        if (mSnapshot != null) {
+            mSnapshot.invalidate();
+        }
+        super.onPackageListChanged();
+    }
+
     private boolean doesAnyPermissionMatch(String permissionToMatch, String[] permissions) {
         for (String permission : permissions) {
             if (permissionToMatch.equals(permission)) {
@@ -95,6 +122,16 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
     }
 
     public PermissionState getPermissionInfo(String pkg, int uid) {
+        final AppOpsStateSnapshot.Slice slice = mSlice;
+        if (slice != null) {
+            // Refresh this package in the shared snapshot rather than only in this bridge.
+            mSnapshot.updatePackage(pkg, uid);
+            final PermissionState state =
+                    mSnapshot.getState(slice, pkg, UserHandle.getUserId(uid));
+            if (state != null) {
+                return state;
+            }
+        }
         PermissionState permissionState = new PermissionState(pkg, new UserHandle(UserHandle
                 .getUserId(uid)));
         try {
@@ -131,6 +168,18 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
 
     @Override
     protected void loadAllExtraInfo() {
+        final AppOpsStateSnapshot.Slice slice = mSlice;
+        if (slice != null) {
+            mSnapshot.load();
+            final List<AppEntry> apps = mAppSession.getAllApps();
+            final int N = apps.size();
+            for (int i = 0; i < N; i++) {
+                final AppEntry app = apps.get(i);
+                app.extraInfo = mSnapshot.getState(slice, app.info.packageName,
+                        UserHandle.getUserId(app.info.uid));
+            }
+            return;
+        }
         SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
 
         // Load state info.
@@ -22,10 +22,12 @@ import android.content.Context;
 import android.content.pm.IPackageManager;
 import android.content.pm.PackageManager;
 import android.os.RemoteException;
+import android.os.UserHandle;
 import android.util.Log;
 
 import com.android.internal.util.ArrayUtils;
 import com.android.settings.R;
+import com.android.settings.applications.AppStateAppOpsBridge.PermissionState;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 import com.android.settingslib.applications.ApplicationsState.AppFilter;
@@ -40,26 +42,73 @@ import java.util.List;
 public class AppStateInstallAppsBridge extends AppStateBaseBridge {
 
     private static final String TAG = AppStateInstallAppsBridge.class.getSimpleName();
+    private static final String[] PM_PERMISSION = {
+            Manifest.permission.REQUEST_INSTALL_PACKAGES
+    };
 
+    private final Context mContext;
     private final IPackageManager mIpm;
     private final AppOpsManager mAppOpsManager;
+    private AppOpsStateSnapshot mSnapshot;
+    // Set while resumed, read on the background thread.
+    private volatile AppOpsStateSnapshot.Slice mSlice;
 
     public AppStateInstallAppsBridge(Context context, ApplicationsState appState,
             Callback callback) {
         super(appState, callback);
+        mContext = context;
         mIpm = AppGlobals.getPackageManager();
         mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
     }
 
+    @Override
+    public void resume() {
+        mSnapshot = AppOpsStateSnapshot.getInstance(mContext);
+        mSlice = mSnapshot.subscribe(AppOpsManager.OP_REQUEST_INSTALL_PACKAGES, PM_PERMISSION);
+        super.resume();
+    }
+
+    @Override
+    public void pause() {
+        super.pause();
+        if (mSlice != null) {
+            mSnapshot.unsubscribe(mSlice);
+            mSlice = null;
+        }
+    }
+
+    @Override
+    public void onPackageListChanged() {
+        if (mSnapshot != null) {
+            mSnapshot.invalidate();
+        }
+        super.onPackageListChanged();
+    }
+
     @Override
     protected void updateExtraInfo(AppEntry app, String packageName, int uid) {
-        app.extraInfo = createInstallAppsStateFor(packageName, uid);
+        final AppOpsStateSnapshot.Slice slice = mSlice;
+        if (slice != null) {
+            mSnapshot.updatePackage(packageName, uid);
+            app.extraInfo = createInstallAppsStateFrom(slice, packageName, uid);
+        } else {
+            app.extraInfo = createInstallAppsStateFor(packageName, uid);
+        }
     }
 
     @Override
     protected void loadAllExtraInfo() {
-        // TODO: consider making this a batch operation with a single binder call
         final List<AppEntry> allApps = mAppSession.getAllApps();
+        final AppOpsStateSnapshot.Slice slice = mSlice;
+        if (slice != null) {
+            mSnapshot.load();
+            for (int i = 0; i < allApps.size(); i++) {
+                final AppEntry currentEntry = allApps.get(i);
+                currentEntry.extraInfo = createInstallAppsStateFrom(slice,
+                        currentEntry.info.packageName, currentEntry.info.uid);
+            }
+            return;
+        }
         for (int i = 0; i < allApps.size(); i++) {
             AppEntry currentEntry = allApps.get(i);
             updateExtraInfo(currentEntry, currentEntry.info.packageName, currentEntry.info.uid);
@@ -101,6 +150,18 @@ public class AppStateInstallAppsBridge extends AppStateBaseBridge {
         return appState;
     }
 
+    private InstallAppsState createInstallAppsStateFrom(AppOpsStateSnapshot.Slice slice,
+            String packageName, int uid) {
+        final int userId = UserHandle.getUserId(uid);
+        final PermissionState permissionState = mSnapshot.getState(slice, packageName, userId);
+        final InstallAppsState appState = new InstallAppsState();
+        appState.permissionRequested = permissionState != null;
+        appState.permissionGranted = permissionState != null
+                && permissionState.staticPermissionGranted;
+        appState.appOpMode = mSnapshot.getAppOpMode(slice, packageName, userId);
+        return appState;
+    }
+
     /**
      * Collection of information to be used as {@link AppEntry#extraInfo} objects
      */
@@ -61,20 +61,29 @@ public class AppViewHolder {
     void updateSizeText(CharSequence invalidSizeStr, int whichSize) {
         if (ManageApplications.DEBUG) Log.i(ManageApplications.TAG, "updateSizeText of "
                 + entry.label + " " + entry + ": " + entry.sizeStr);
+        final CharSequence sizeText = getSizeText(entry, invalidSizeStr, whichSize);
+        if (sizeText != null) {
+            summary.setText(sizeText);
+        }
+    }
+
+    /**
+     * @return the size of {@param entry} to show, or null if it is still being computed.
+     */
+    static CharSequence getSizeText(ApplicationsState.AppEntry entry,
+            CharSequence invalidSizeStr, int whichSize) {
         if (entry.sizeStr != null) {
             switch (whichSize) {
                 case ManageApplications.SIZE_INTERNAL:
-                    summary.setText(entry.internalSizeStr);
-                    break;
+                    return entry.internalSizeStr;
                 case ManageApplications.SIZE_EXTERNAL:
-                    summary.setText(entry.externalSizeStr);
-                    break;
+                    return entry.externalSizeStr;
                 default:
-                    summary.setText(entry.sizeStr);
-                    break;
+                    return entry.sizeStr;
             }
         } else if (entry.size == ApplicationsState.SIZE_INVALID) {
-            summary.setText(invalidSizeStr);
+            return invalidSizeStr;
         }
+        return null;
     }
-}
\ No newline at end of file
+}
@@ -23,18 +23,23 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageItemInfo;
 import android.content.pm.PackageManager;
 import android.icu.text.AlphabeticIndex;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.LocaleList;
+import android.os.Parcelable;
+import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.preference.PreferenceFrameLayout;
 import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -95,6 +100,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 
@@ -125,6 +131,12 @@ public class ManageApplications extends InstrumentedPreferenceFragment
     private static final String EXTRA_HAS_ENTRIES = "hasEntries";
     private static final String EXTRA_HAS_BRIDGE = "hasBridge";
 
+    // Shows the app list in a RecyclerView whose rows are computed in the background.
+    @VisibleForTesting
+    static final String PROPERTY_RECYCLER_LIST = "settings.apps.recycler_list";
+    // Rows kept bound off screen, so scrolling back and forth does not rebind them.
+    private static final int RECYCLER_VIEW_CACHE_SIZE = 10;
+
     // attributes used as keys when passing values to InstalledAppDetails activity
     public static final String APP_CHG = "chg";
 
@@ -250,6 +262,10 @@ public class ManageApplications extends InstrumentedPreferenceFragment
     // ListView used to display list
     private ListView mListView;
 
+    // Used instead of mListView when PROPERTY_RECYCLER_LIST is set.
+    private RecyclerView mRecyclerView;
+    private View mEmptyView;
+
     // Size resource used for packages whose size computation failed for some reason
     CharSequence mInvalidSizeStr;
 
@@ -407,11 +423,15 @@ public class ManageApplications extends InstrumentedPreferenceFragment
                                 mVolumeUuid,
                                 UserHandle.of(userId)));
             }
-            mListView.setAdapter(mApplications);
-            mListView.setRecyclerListener(mApplications);
-            mListView.setFastScrollEnabled(isFastScrollEnabled());
+            if (useRecyclerList()) {
+                setUpRecyclerList(container, lv, emptyView);
+            } else {
+                mListView.setAdapter(mApplications);
+                mListView.setRecyclerListener(mApplications);
+                mListView.setFastScrollEnabled(isFastScrollEnabled());
 
-            Utils.prepareCustomPreferencesList(container, mRootView, mListView, false);
+                Utils.prepareCustomPreferencesList(container, mRootView, mListView, false);
+            }
         }
 
         // We have to do this now because PreferenceFrameLayout looks at it
@@ -427,6 +447,40 @@ public class ManageApplications extends InstrumentedPreferenceFragment
         return mRootView;
     }
 
+    private boolean useRecyclerList() {
+        // The extra storage row and type-to-filter are only supported by the ListView.
+        return mStorageType == STORAGE_TYPE_DEFAULT
+                && SystemProperties.getBoolean(PROPERTY_RECYCLER_LIST, false);
+    }
+
+    private void setUpRecyclerList(ViewGroup container, ListView listView, View emptyView) {
+        final Context context = getContext();
+        final RecyclerView recyclerView = new RecyclerView(context);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(context);
+        layoutManager.setItemPrefetchEnabled(true);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setItemViewCacheSize(RECYCLER_VIEW_CACHE_SIZE);
+        recyclerView.setClipToPadding(false);
+        recyclerView.setScrollBarStyle(listView.getScrollBarStyle());
+        recyclerView.setVerticalScrollBarEnabled(true);
+        recyclerView.setAdapter(mApplications.createRecyclerAdapter(entry -> {
+            mCurrentPkgName = entry.info.packageName;
+            mCurrentUid = entry.info.uid;
+            startApplicationDetailsActivity();
+        }));
+
+        final ViewGroup parent = (ViewGroup) listView.getParent();
+        parent.addView(recyclerView, parent.indexOfChild(listView), listView.getLayoutParams());
+        parent.removeView(listView);
+        if (emptyView != null) {
+            emptyView.setVisibility(View.GONE);
+        }
+        mRecyclerView = recyclerView;
+        mEmptyView = emptyView;
+        Utils.prepareCustomPreferencesList(container, mRootView, mRecyclerView, false);
+    }
+
     @VisibleForTesting
     void createHeader() {
         Activity activity = getActivity();
@@ -906,9 +960,11 @@ public class ManageApplications extends InstrumentedPreferenceFragment
         private final Handler mBgHandler;
         private final Handler mFgHandler;
         private final LoadingViewController mLoadingViewController;
+        private final AppListModel mModel;
+        // Set when the list is a RecyclerView, before the first rebuild.
+        private AppListRecyclerAdapter mRecyclerAdapter;
 
         private int mFilterMode;
-        private ArrayList<ApplicationsState.AppEntry> mBaseEntries;
         private ArrayList<ApplicationsState.AppEntry> mEntries;
         private boolean mResumed;
         private int mLastSortMode = -1;
@@ -925,29 +981,29 @@ public class ManageApplications extends InstrumentedPreferenceFragment
         // when we rebuild the list after the user made some changes, like uninstalling an app.
         private int mLastIndex = -1;
         private int mLastTop;
+        // The same for the RecyclerView, as saved by its layout manager.
+        private Parcelable mLastRecyclerState;
 
         private AlphabeticIndex.ImmutableIndex<Locale> mIndex;
         private SectionInfo[] mSections = EMPTY_SECTIONS;
         private int[] mPositionToSectionIndex;
+        // Bucket index of each label, since labels rarely change between rebuilds.
+        private final ArrayMap<String, Integer> mBucketIndices = new ArrayMap<>();
 
         private Filter mFilter = new Filter() {
             @Override
             protected FilterResults performFiltering(CharSequence constraint) {
-                ArrayList<ApplicationsState.AppEntry> entries
-                        = applyPrefixFilter(constraint, mBaseEntries);
+                final AppListModel.Result result = mModel.filterPrefix(constraint);
                 FilterResults fr = new FilterResults();
-                fr.values = entries;
-                fr.count = entries.size();
+                fr.values = result;
+                fr.count = result.entries.size();
                 return fr;
             }
 
             @Override
-            @SuppressWarnings("unchecked")
             protected void publishResults(CharSequence constraint, FilterResults results) {
                 mCurFilterPrefix = constraint;
-                mEntries = (ArrayList<ApplicationsState.AppEntry>) results.values;
-                rebuildSections();
-                notifyDataSetChanged();
+                applyResult((AppListModel.Result) results.values);
             }
         };
 
@@ -966,6 +1022,7 @@ public class ManageApplications extends InstrumentedPreferenceFragment
             mContext = manageApplications.getActivity();
             mPm = mContext.getPackageManager();
             mFilterMode = filterMode;
+            mModel = new AppListModel(mContext);
             if (mManageApplications.mListType == LIST_TYPE_NOTIFICATION) {
                 mExtraInfoBridge = new AppStateNotificationBridge(mContext, mState, this,
                         manageApplications.mNotifBackend);
@@ -1028,6 +1085,11 @@ public class ManageApplications extends InstrumentedPreferenceFragment
                 }
             }
             // Record the current scroll position before pausing.
+            final RecyclerView recyclerView = mManageApplications.mRecyclerView;
+            if (recyclerView != null) {
+                mLastRecyclerState = recyclerView.getLayoutManager().onSaveInstanceState();
+                return;
+            }
             mLastIndex = mManageApplications.mListView.getFirstVisiblePosition();
             View v = mManageApplications.mListView.getChildAt(0);
             mLastTop =
@@ -1110,68 +1172,99 @@ public class ManageApplications extends InstrumentedPreferenceFragment
             }
 
             filterObj = new CompoundFilter(filterObj, ApplicationsState.FILTER_NOT_HIDE);
-            AppFilter finalFilterObj = filterObj;
+            final AppFilter finalFilterObj = filterObj;
+            // Everything the filter depends on, so its result can be reused by the model.
+            final Object filterKey = Arrays.asList(mFilterMode, mCompositeFilter,
+                    mManageApplications.mShowSystem, mManageApplications.mShowSubstratum);
+            final boolean dedupeUsers = mFilterMode == FILTER_APPS_POWER_WHITELIST
+                    || mFilterMode == FILTER_APPS_POWER_WHITELIST_ALL;
+            final CharSequence prefix = mCurFilterPrefix;
+            final AppListRecyclerAdapter recyclerAdapter = mRecyclerAdapter;
             mBgHandler.post(() -> {
-                final ArrayList<AppEntry> entries = mSession.rebuild(finalFilterObj,
-                        comparatorObj, false);
-                if (entries != null) {
-                    mFgHandler.post(() -> onRebuildComplete(entries));
-                }
+                mModel.setApps(mSession.getAllApps());
+                final AppListModel.Result result = mModel.query(filterKey, finalFilterObj,
+                        comparatorObj, prefix, dedupeUsers);
+                final List<AppListRecyclerAdapter.Row> rows = recyclerAdapter != null
+                        ? createRows(result.entries) : null;
+                mFgHandler.post(() -> onModelUpdated(result, rows));
             });
         }
 
+        @VisibleForTesting
+        void onModelUpdated(AppListModel.Result result,
+                List<AppListRecyclerAdapter.Row> rows) {
+            applyResult(result);
+            if (rows != null) {
+                mRecyclerAdapter.setRows(rows, result.updates);
+                if (mManageApplications.mEmptyView != null) {
+                    mManageApplications.mEmptyView.setVisibility(
+                            rows.isEmpty() ? View.VISIBLE : View.GONE);
+                }
+            }
+            onEntriesUpdated();
+        }
+
+        AppListRecyclerAdapter createRecyclerAdapter(
+                AppListRecyclerAdapter.OnRowClickListener listener) {
+            mRecyclerAdapter = new AppListRecyclerAdapter(mManageApplications.mInflater,
+                    mState.getBackgroundLooper(), entry -> {
+                        mState.ensureIcon(entry);
+                        return entry.icon;
+                    }, listener);
+            return mRecyclerAdapter;
+        }
 
-        static private boolean packageNameEquals(PackageItemInfo info1, PackageItemInfo info2) {
-            if (info1 == null || info2 == null) {
-                return false;
+        @WorkerThread
+        private List<AppListRecyclerAdapter.Row> createRows(List<AppEntry> entries) {
+            final List<AppListRecyclerAdapter.Row> rows = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                rows.add(createRow(entries.get(i)));
             }
-            if (info1.packageName == null || info2.packageName == null) {
-                return false;
+            return rows;
+        }
+
+        /**
+         * Computes everything a row shows, so binding it needs no lock on the entry.
+         */
+        @WorkerThread
+        private AppListRecyclerAdapter.Row createRow(AppEntry entry) {
+            synchronized (entry) {
+                final int disabledRes = getDisabledTextRes(entry.info);
+                return new AppListRecyclerAdapter.Row(entry, entry.id, entry.label, entry.icon,
+                        getSummary(entry), disabledRes != 0 ? mContext.getText(disabledRes) : null,
+                        isEntryEnabled(entry));
             }
-            return info1.packageName.equals(info2.packageName);
-        }
-
-        private ArrayList<ApplicationsState.AppEntry> removeDuplicateIgnoringUser(
-                ArrayList<ApplicationsState.AppEntry> entries) {
-            int size = entries.size();
-            // returnList will not have more entries than entries
-            ArrayList<ApplicationsState.AppEntry> returnEntries = new
-                    ArrayList<ApplicationsState.AppEntry>(size);
-
-            // assume appinfo of same package but different users are grouped together
-            PackageItemInfo lastInfo = null;
-            for (int i = 0; i < size; i++) {
-                AppEntry appEntry = entries.get(i);
-                PackageItemInfo info = appEntry.info;
-                if (!packageNameEquals(lastInfo, appEntry.info)) {
-                    returnEntries.add(appEntry);
-                }
-                lastInfo = info;
+        }
+
+        private void applyResult(AppListModel.Result result) {
+            if (mEntries != null && result.isUnchanged()
+                    && result.entries.size() == mEntries.size()) {
+                // Same apps in the same order, the rows redraw themselves on info changes.
+                return;
             }
-            returnEntries.trimToSize();
-            return returnEntries;
+            mEntries = result.entries;
+            rebuildSections();
+            notifyDataSetChanged();
         }
 
         @Override
         public void onRebuildComplete(ArrayList<AppEntry> entries) {
-            if (mFilterMode == FILTER_APPS_POWER_WHITELIST ||
-                    mFilterMode == FILTER_APPS_POWER_WHITELIST_ALL) {
-                entries = removeDuplicateIgnoringUser(entries);
-            }
-            mBaseEntries = entries;
-            if (mBaseEntries != null) {
-                mEntries = applyPrefixFilter(mCurFilterPrefix, mBaseEntries);
-                rebuildSections();
-            } else {
-                mEntries = null;
-                mSections = EMPTY_SECTIONS;
-                mPositionToSectionIndex = null;
-            }
+            // The list is sorted and filtered by mModel, which the session's own rebuild knows
+            // nothing about.
+            rebuild(false);
+        }
 
-            notifyDataSetChanged();
+        private void onEntriesUpdated() {
             // Restore the last scroll position if the number of entries added so far is bigger than
             // it.
-            if (mLastIndex != -1 && getCount() > mLastIndex) {
+            final RecyclerView recyclerView = mManageApplications.mRecyclerView;
+            if (recyclerView != null) {
+                // The model delivers every entry at once, so any row means the list is complete.
+                if (mLastRecyclerState != null && getCount() > 0) {
+                    recyclerView.getLayoutManager().onRestoreInstanceState(mLastRecyclerState);
+                    mLastRecyclerState = null;
+                }
+            } else if (mLastIndex != -1 && getCount() > mLastIndex) {
                 mManageApplications.mListView.setSelectionFromTop(mLastIndex, mLastTop);
                 mLastIndex = -1;
             }
@@ -1214,7 +1307,15 @@ public class ManageApplications extends InstrumentedPreferenceFragment
 
                 for (int pos = 0; pos < totalEntries; pos++) {
                     String label = mEntries.get(pos).label;
-                    int secId = mIndex.getBucketIndex(TextUtils.isEmpty(label) ? "" : label);
+                    if (TextUtils.isEmpty(label)) {
+                        label = "";
+                    }
+                    Integer bucketIndex = mBucketIndices.get(label);
+                    if (bucketIndex == null) {
+                        bucketIndex = mIndex.getBucketIndex(label);
+                        mBucketIndices.put(label, bucketIndex);
+                    }
+                    int secId = bucketIndex;
                     if (secId != lastSecId) {
                         lastSecId = secId;
                         sections.add(new SectionInfo(mIndex.getBucket(secId).getLabel(), pos));
@@ -1238,29 +1339,10 @@ public class ManageApplications extends InstrumentedPreferenceFragment
             }
         }
 
-        ArrayList<ApplicationsState.AppEntry> applyPrefixFilter(CharSequence prefix,
-                ArrayList<ApplicationsState.AppEntry> origEntries) {
-            if (prefix == null || prefix.length() == 0) {
-                return origEntries;
-            } else {
-                String prefixStr = ApplicationsState.normalize(prefix.toString());
-                final String spacePrefixStr = " " + prefixStr;
-                ArrayList<ApplicationsState.AppEntry> newEntries
-                        = new ArrayList<ApplicationsState.AppEntry>();
-                for (int i = 0; i < origEntries.size(); i++) {
-                    ApplicationsState.AppEntry entry = origEntries.get(i);
-                    String nlabel = entry.getNormalizedLabel();
-                    if (nlabel.startsWith(prefixStr) || nlabel.indexOf(spacePrefixStr) != -1) {
-                        newEntries.add(entry);
-                    }
-                }
-                return newEntries;
-            }
-        }
-
         @Override
         public void onExtraInfoUpdated() {
             mHasReceivedBridgeCallback = true;
+            mBgHandler.post(mModel::invalidateFilters);
             rebuild(false);
         }
 
@@ -1271,6 +1353,8 @@ public class ManageApplications extends InstrumentedPreferenceFragment
 
         @Override
         public void onPackageListChanged() {
+            // Apps may have been updated in place, so nothing computed can be trusted.
+            mBgHandler.post(mModel::invalidate);
             rebuild(false);
         }
 
@@ -1289,6 +1373,21 @@ public class ManageApplications extends InstrumentedPreferenceFragment
 
         @Override
         public void onPackageSizeChanged(String packageName) {
+            if (mLastSortMode == R.id.sort_order_size) {
+                mBgHandler.post(() -> mModel.onPackageChanged(packageName));
+            }
+            if (mRecyclerAdapter != null && mEntries != null) {
+                final ArrayList<AppEntry> entries = mEntries;
+                mBgHandler.post(() -> {
+                    for (int i = 0; i < entries.size(); i++) {
+                        final AppEntry entry = entries.get(i);
+                        if (entry.info != null && packageName.equals(entry.info.packageName)) {
+                            final AppListRecyclerAdapter.Row row = createRow(entry);
+                            mFgHandler.post(() -> mRecyclerAdapter.updateRow(row));
+                        }
+                    }
+                });
+            }
             for (int i = 0; i < mActive.size(); i++) {
                 AppViewHolder holder = (AppViewHolder) mActive.get(i).getTag();
                 if (holder == null || holder.entry == null) {
@@ -1317,6 +1416,7 @@ public class ManageApplications extends InstrumentedPreferenceFragment
 
         @Override
         public void onLauncherInfoChanged() {
+            mBgHandler.post(mModel::invalidateFilters);
             if (!mManageApplications.mShowSystem) {
                 rebuild(false);
             }
@@ -1325,6 +1425,11 @@ public class ManageApplications extends InstrumentedPreferenceFragment
         @Override
         public void onAllSizesComputed() {
             if (mLastSortMode == R.id.sort_order_size) {
+                mBgHandler.post(() -> {
+                    mModel.invalidateOrder(ApplicationsState.SIZE_COMPARATOR);
+                    mModel.invalidateOrder(ApplicationsState.INTERNAL_SIZE_COMPARATOR);
+                    mModel.invalidateOrder(ApplicationsState.EXTERNAL_SIZE_COMPARATOR);
+                });
                 rebuild(false);
             }
         }
@@ -1389,10 +1494,13 @@ public class ManageApplications extends InstrumentedPreferenceFragment
                 return true;
             }
 
+            return isEntryEnabled(mEntries.get(position));
+        }
+
+        private boolean isEntryEnabled(AppEntry entry) {
             if (mManageApplications.mListType != LIST_TYPE_HIGH_POWER) {
                 return true;
             }
-            ApplicationsState.AppEntry entry = mEntries.get(position);
             return !PowerWhitelistBackend.getInstance().isSysWhitelisted(entry.info.packageName);
         }
 
@@ -1432,61 +1540,72 @@ public class ManageApplications extends InstrumentedPreferenceFragment
 
         @VisibleForTesting
         void updateDisableView(TextView view, ApplicationInfo info) {
-            if ((info.flags & ApplicationInfo.FLAG_INSTALLED) == 0) {
-                view.setVisibility(View.VISIBLE);
-                view.setText(R.string.not_installed);
-            } else if (!info.enabled || info.enabledSetting
-                    == PackageManager.COMPONENT_ENABLED_STATE_DISABLED_UNTIL_USED) {
+            final int disabledRes = getDisabledTextRes(info);
+            if (disabledRes != 0) {
                 view.setVisibility(View.VISIBLE);
-                view.setText(R.string.disabled);
+                view.setText(disabledRes);
             } else {
                 view.setVisibility(View.GONE);
             }
         }
 
+        private int getDisabledTextRes(ApplicationInfo info) {
+            if ((info.flags & ApplicationInfo.FLAG_INSTALLED) == 0) {
+                return R.string.not_installed;
+            } else if (!info.enabled || info.enabledSetting
+                    == PackageManager.COMPONENT_ENABLED_STATE_DISABLED_UNTIL_USED) {
+                return R.string.disabled;
+            }
+            return 0;
+        }
+
         private void updateSummary(AppViewHolder holder) {
             switch (mManageApplications.mListType) {
                 case LIST_TYPE_NOTIFICATION:
-                    if (holder.entry.extraInfo != null) {
-                        holder.summary.setText(InstalledAppDetails.getNotificationSummary(
-                                (AppRow) holder.entry.extraInfo, mContext));
-                    } else {
-                        holder.summary.setText(null);
-                    }
+                case LIST_TYPE_USAGE_ACCESS:
+                case LIST_TYPE_HIGH_POWER:
+                case LIST_TYPE_OVERLAY:
+                case LIST_TYPE_WRITE_SETTINGS:
+                case LIST_TYPE_MANAGE_SOURCES:
+                    holder.summary.setText(getSummary(holder.entry));
                     break;
 
+                default:
+                    holder.updateSizeText(mManageApplications.mInvalidSizeStr, mWhichSize);
+                    break;
+            }
+        }
+
+        private CharSequence getSummary(AppEntry entry) {
+            switch (mManageApplications.mListType) {
+                case LIST_TYPE_NOTIFICATION:
+                    return entry.extraInfo != null ? InstalledAppDetails.getNotificationSummary(
+                            (AppRow) entry.extraInfo, mContext) : null;
+
                 case LIST_TYPE_USAGE_ACCESS:
-                    if (holder.entry.extraInfo != null) {
-                        holder.summary.setText((new UsageState((PermissionState) holder.entry
-                                .extraInfo)).isPermissible()
-                                ? R.string.app_permission_summary_allowed
-                                : R.string.app_permission_summary_not_allowed);
-                    } else {
-                        holder.summary.setText(null);
+                    if (entry.extraInfo == null) {
+                        return null;
                     }
-                    break;
+                    return mContext.getText(
+                            (new UsageState((PermissionState) entry.extraInfo)).isPermissible()
+                            ? R.string.app_permission_summary_allowed
+                            : R.string.app_permission_summary_not_allowed);
 
                 case LIST_TYPE_HIGH_POWER:
-                    holder.summary.setText(HighPowerDetail.getSummary(mContext, holder.entry));
-                    break;
+                    return HighPowerDetail.getSummary(mContext, entry);
 
                 case LIST_TYPE_OVERLAY:
-                    holder.summary.setText(DrawOverlayDetails.getSummary(mContext, holder.entry));
-                    break;
+                    return DrawOverlayDetails.getSummary(mContext, entry);
 
                 case LIST_TYPE_WRITE_SETTINGS:
-                    holder.summary.setText(WriteSettingsDetails.getSummary(mContext,
-                            holder.entry));
-                    break;
+                    return WriteSettingsDetails.getSummary(mContext, entry);
 
                 case LIST_TYPE_MANAGE_SOURCES:
-                    holder.summary.setText(ExternalSourcesDetails.getPreferenceSummary(mContext,
-                            holder.entry));
-                    break;
+                    return ExternalSourcesDetails.getPreferenceSummary(mContext, entry);
 
                 default:
-                    holder.updateSizeText(mManageApplications.mInvalidSizeStr, mWhichSize);
-                    break;
+                    return AppViewHolder.getSizeText(entry, mManageApplications.mInvalidSizeStr,
+                            mWhichSize);
             }
         }
 
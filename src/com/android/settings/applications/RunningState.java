@@ -37,8 +37,10 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.support.annotation.VisibleForTesting;
 import android.text.format.Formatter;
 import android.util.Log;
 import android.util.SparseArray;
@@ -72,6 +74,11 @@ public class RunningState {
 
     static final long TIME_UPDATE_DELAY = 1000;
     static final long CONTENTS_UPDATE_DELAY = 2000;
+    // While no service or process changes, the contents are polled less and less often, up to
+    // this delay.
+    static final long MAX_CONTENTS_UPDATE_DELAY = 16000;
+    // The PSS of a process whose state did not change is sampled again after this long.
+    static final long PSS_MAX_AGE = 10000;
 
     static final int MAX_SERVICES = 100;
 
@@ -125,7 +132,7 @@ public class RunningState {
     final SparseArray<MergedItem> mOtherUserBackgroundItems = new SparseArray<MergedItem>();
 
     static class AppProcessInfo {
-        final ActivityManager.RunningAppProcessInfo info;
+        ActivityManager.RunningAppProcessInfo info;
         boolean hasServices;
         boolean hasForegroundServices;
 
@@ -137,6 +144,14 @@ public class RunningState {
     // Temporary structure used when updating above information.
     final SparseArray<AppProcessInfo> mTmpAppProcesses = new SparseArray<AppProcessInfo>();
 
+    // Temporary structures reused by every update, so polling does not allocate them each time.
+    final ArrayList<AppProcessInfo> mAppProcessInfoPool = new ArrayList<AppProcessInfo>();
+    final ArrayList<ProcessItem> mTmpSortedProcesses = new ArrayList<ProcessItem>();
+    int[] mTmpPssPids = new int[0];
+
+    // Whether the last update saw a process start, stop or change importance.
+    boolean mProcessStateChanged;
+
     int mSequence = 0;
 
     final Comparator<RunningState.MergedItem> mBackgroundComparator
@@ -222,10 +237,16 @@ public class RunningState {
 
     final HandlerThread mBackgroundThread;
     final class BackgroundHandler extends Handler {
+        private volatile long mUpdateDelay = CONTENTS_UPDATE_DELAY;
+
         public BackgroundHandler(Looper looper) {
             super(looper);
         }
 
+        void resetUpdateDelay() {
+            mUpdateDelay = CONTENTS_UPDATE_DELAY;
+        }
+
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
@@ -239,16 +260,30 @@ public class RunningState {
                         }
                     }
                     Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI);
-                    cmd.arg1 = update(mApplicationContext, mAm) ? 1 : 0;
+                    boolean changed = update(mApplicationContext, mAm);
+                    cmd.arg1 = changed ? 1 : 0;
                     mHandler.sendMessage(cmd);
+                    // Back off while nothing but memory use changes; sizes of processes still
+                    // get refreshed, just less often.
+                    mUpdateDelay = getNextUpdateDelay(mUpdateDelay,
+                            changed || mProcessStateChanged);
                     removeMessages(MSG_UPDATE_CONTENTS);
                     msg = obtainMessage(MSG_UPDATE_CONTENTS);
-                    sendMessageDelayed(msg, CONTENTS_UPDATE_DELAY);
+                    sendMessageDelayed(msg, mUpdateDelay);
                     break;
             }
         }
     };
 
+    /**
+     * @return the delay before the contents are polled again, doubled up to
+     * {@link #MAX_CONTENTS_UPDATE_DELAY} while nothing changes.
+     */
+    @VisibleForTesting
+    static long getNextUpdateDelay(long delay, boolean changed) {
+        return changed ? CONTENTS_UPDATE_DELAY : Math.min(delay * 2, MAX_CONTENTS_UPDATE_DELAY);
+    }
+
     final BackgroundHandler mBackgroundHandler;
 
     final Handler mHandler = new Handler() {
@@ -294,6 +329,7 @@ public class RunningState {
                     mBackgroundHandler.removeMessages(MSG_RESET_CONTENTS);
                     mBackgroundHandler.sendEmptyMessage(MSG_RESET_CONTENTS);
                     mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
+                    mBackgroundHandler.resetUpdateDelay();
                     mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
                 } else {
                     usersChanged = true;
@@ -395,6 +431,15 @@ public class RunningState {
         
         int mRunningSeq;
         ActivityManager.RunningAppProcessInfo mRunningProcessInfo;
+
+        // The last PSS sampled, in kB, and the pid and time it was sampled at.
+        long mPss;
+        int mPssPid;
+        long mPssTime;
+        // Whether the state changed since the PSS was sampled.
+        boolean mStateChanged;
+        // Index in the pids whose PSS is being sampled, or -1.
+        int mPssIndex;
         
         MergedItem mMergedItem;
 
@@ -548,6 +593,34 @@ public class RunningState {
             return changed;
         }
         
+        /**
+         * Sets the running state of this process.
+         *
+         * @return whether it differs from the previous state.
+         */
+        boolean updateRunningInfo(ActivityManager.RunningAppProcessInfo pi) {
+            final ActivityManager.RunningAppProcessInfo old = mRunningProcessInfo;
+            mRunningProcessInfo = pi;
+            if (old == null || old.importance != pi.importance || old.lru != pi.lru
+                    || old.flags != pi.flags
+                    || old.importanceReasonPid != pi.importanceReasonPid) {
+                mStateChanged = true;
+                return true;
+            }
+            return false;
+        }
+
+        boolean needsPss(long now) {
+            return mStateChanged || mPssPid != mPid || now - mPssTime >= PSS_MAX_AGE;
+        }
+
+        void setPss(long pss, long now) {
+            mPss = pss;
+            mPssPid = mPid;
+            mPssTime = now;
+            mStateChanged = false;
+        }
+
         boolean updateSize(Context context, long pss, int curSeq) {
             mSize = pss * 1024;
             if (mCurSeq == curSeq) {
@@ -789,6 +862,29 @@ public class RunningState {
         mUmBroadcastReceiver.register(mApplicationContext);
     }
 
+    private AppProcessInfo obtainAppProcessInfo(ActivityManager.RunningAppProcessInfo pi) {
+        final int last = mAppProcessInfoPool.size() - 1;
+        if (last < 0) {
+            return new AppProcessInfo(pi);
+        }
+        final AppProcessInfo ainfo = mAppProcessInfoPool.remove(last);
+        ainfo.info = pi;
+        ainfo.hasServices = false;
+        ainfo.hasForegroundServices = false;
+        return ainfo;
+    }
+
+    /**
+     * Returns the merged item showing {@param proc} alone, reusing the one from earlier updates.
+     */
+    private MergedItem obtainProcessMergedItem(ProcessItem proc) {
+        if (proc.mMergedItem == null) {
+            proc.mMergedItem = new MergedItem(proc.mUserId);
+            proc.mMergedItem.mProcess = proc;
+        }
+        return proc.mMergedItem;
+    }
+
     void resume(OnRefreshUiListener listener) {
         synchronized (mLock) {
             mResumed = true;
@@ -802,6 +898,7 @@ public class RunningState {
                 mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
                 mBackgroundHandler.sendEmptyMessage(MSG_RESET_CONTENTS);
             }
+            mBackgroundHandler.resetUpdateDelay();
             if (!mBackgroundHandler.hasMessages(MSG_UPDATE_CONTENTS)) {
                 mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
             }
@@ -812,6 +909,7 @@ public class RunningState {
     void updateNow() {
         synchronized (mLock) {
             mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
+            mBackgroundHandler.resetUpdateDelay();
             mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
         }
     }
@@ -893,12 +991,51 @@ public class RunningState {
         userItem.mChildren.add(newItem);
     }
 
+    /**
+     * Picks the processes whose PSS to sample, setting their {@link ProcessItem#mPssIndex}.
+     * <p/>
+     * The pids are sent to the system as a whole array. Rather than allocating one whenever the
+     * number of processes to sample changes, the array only grows, and spare slots are filled
+     * with processes sampled ahead of time. It shrinks only when processes went away.
+     *
+     * @return the pids to sample, or null if none needs sampling.
+     */
+    @VisibleForTesting
+    int[] collectPssPids(long now) {
+        final int numProc = mAllProcessItems.size();
+        int numPss = 0;
+        for (int i=0; i<numProc; i++) {
+            ProcessItem proc = mAllProcessItems.get(i);
+            proc.mPssIndex = proc.needsPss(now) ? numPss++ : -1;
+        }
+        if (numPss == 0) {
+            return null;
+        }
+        if (mTmpPssPids.length < numPss || mTmpPssPids.length > numProc) {
+            mTmpPssPids = new int[numPss];
+        }
+        for (int i=0; i<numProc && numPss < mTmpPssPids.length; i++) {
+            ProcessItem proc = mAllProcessItems.get(i);
+            if (proc.mPssIndex < 0) {
+                proc.mPssIndex = numPss++;
+            }
+        }
+        for (int i=0; i<numProc; i++) {
+            ProcessItem proc = mAllProcessItems.get(i);
+            if (proc.mPssIndex >= 0) {
+                mTmpPssPids[proc.mPssIndex] = proc.mPid;
+            }
+        }
+        return mTmpPssPids;
+    }
+
     private boolean update(Context context, ActivityManager am) {
         final PackageManager pm = context.getPackageManager();
 
         mSequence++;
         
         boolean changed = false;
+        mProcessStateChanged = false;
 
         // Retrieve list of services, filtering out anything that definitely
         // won't be shown in the UI.
@@ -932,10 +1069,13 @@ public class RunningState {
         List<ActivityManager.RunningAppProcessInfo> processes
                 = am.getRunningAppProcesses();
         final int NP = processes != null ? processes.size() : 0;
+        for (int i=0; i<mTmpAppProcesses.size(); i++) {
+            mAppProcessInfoPool.add(mTmpAppProcesses.valueAt(i));
+        }
         mTmpAppProcesses.clear();
         for (int i=0; i<NP; i++) {
             ActivityManager.RunningAppProcessInfo pi = processes.get(i);
-            mTmpAppProcesses.put(pi.pid, new AppProcessInfo(pi));
+            mTmpAppProcesses.put(pi.pid, obtainAppProcessInfo(pi));
         }
 
         // Initial iteration through running services to collect per-process
@@ -1054,7 +1194,7 @@ public class RunningState {
             }
             
             proc.mRunningSeq = mSequence;
-            proc.mRunningProcessInfo = pi;
+            mProcessStateChanged |= proc.updateRunningInfo(pi);
         }
 
         // Build the chains from client processes to the process they are
@@ -1081,6 +1221,7 @@ public class RunningState {
                 i++;
             } else {
                 changed = true;
+                mProcessStateChanged = true;
                 mRunningProcesses.remove(mRunningProcesses.keyAt(i));
                 NRP--;
             }
@@ -1110,8 +1251,8 @@ public class RunningState {
         }
         
         // Look for services and their primary processes that no longer exist...
-        ArrayList<Integer> uidToDelete = null;
-        for (int i=0; i<mServiceProcessesByName.size(); i++) {
+        // Walked backwards so that uids left without processes can be removed in place.
+        for (int i=mServiceProcessesByName.size()-1; i>=0; i--) {
             HashMap<String, ProcessItem> procs = mServiceProcessesByName.valueAt(i);
             Iterator<ProcessItem> pit = procs.values().iterator();
             while (pit.hasNext()) {
@@ -1126,12 +1267,6 @@ public class RunningState {
                 } else {
                     changed = true;
                     pit.remove();
-                    if (procs.size() == 0) {
-                        if (uidToDelete == null) {
-                            uidToDelete = new ArrayList<Integer>();
-                        }
-                        uidToDelete.add(mServiceProcessesByName.keyAt(i));
-                    }
                     if (pi.mPid != 0) {
                         mServiceProcessesByPid.remove(pi.mPid);
                     }
@@ -1146,18 +1281,15 @@ public class RunningState {
                     }
                 }
             }
-        }
-        
-        if (uidToDelete != null) {
-            for (int i = 0; i < uidToDelete.size(); i++) {
-                int uid = uidToDelete.get(i);
-                mServiceProcessesByName.remove(uid);
+            if (procs.size() == 0) {
+                mServiceProcessesByName.removeAt(i);
             }
         }
 
         if (changed) {
             // First determine an order for the services.
-            ArrayList<ProcessItem> sortedProcesses = new ArrayList<ProcessItem>();
+            final ArrayList<ProcessItem> sortedProcesses = mTmpSortedProcesses;
+            sortedProcesses.clear();
             for (int i=0; i<mServiceProcessesByName.size(); i++) {
                 for (ProcessItem pi : mServiceProcessesByName.valueAt(i).values()) {
                     pi.mIsSystem = false;
@@ -1246,11 +1378,7 @@ public class RunningState {
             for (int i=0; i<NHP; i++) {
                 ProcessItem proc = mInterestingProcesses.get(i);
                 if (proc.mClient == null && proc.mServices.size() <= 0) {
-                    if (proc.mMergedItem == null) {
-                        proc.mMergedItem = new MergedItem(proc.mUserId);
-                        proc.mMergedItem.mProcess = proc;
-                    }
-                    proc.mMergedItem.update(context, false);
+                    obtainProcessMergedItem(proc).update(context, false);
                     if (proc.mMergedItem.mUserId != mMyUserId) {
                         addOtherUserItem(context, newMergedItems, mOtherUserMergedItems,
                                 proc.mMergedItem);
@@ -1271,6 +1399,8 @@ public class RunningState {
                 }
             }
 
+            sortedProcesses.clear();
+
             synchronized (mLock) {
                 mItems = newItems;
                 mMergedItems = newMergedItems;
@@ -1314,17 +1444,19 @@ public class RunningState {
         ArrayList<MergedItem> newUserBackgroundItems = null;
         boolean diffUsers = false;
         try {
+            // Only sample the PSS of processes whose state changed or whose sample is old.
             final int numProc = mAllProcessItems.size();
-            int[] pids = new int[numProc];
-            for (int i=0; i<numProc; i++) {
-                pids[i] = mAllProcessItems.get(i).mPid;
-            }
-            long[] pss = ActivityManager.getService()
-                    .getProcessPss(pids);
+            final long now = SystemClock.uptimeMillis();
+            final int[] pssPids = collectPssPids(now);
+            long[] pss = pssPids != null
+                    ? ActivityManager.getService().getProcessPss(pssPids) : null;
             int bgIndex = 0;
-            for (int i=0; i<pids.length; i++) {
+            for (int i=0; i<numProc; i++) {
                 ProcessItem proc = mAllProcessItems.get(i);
-                changed |= proc.updateSize(context, pss[i], mSequence);
+                if (proc.mPssIndex >= 0) {
+                    proc.setPss(pss[proc.mPssIndex], now);
+                }
+                changed |= proc.updateSize(context, proc.mPss, mSequence);
                 if (proc.mCurSeq == mSequence) {
                     serviceProcessMemory += proc.mSize;
                 } else if (proc.mRunningProcessInfo.importance >=
@@ -1332,8 +1464,7 @@ public class RunningState {
                     backgroundProcessMemory += proc.mSize;
                     MergedItem mergedItem;
                     if (newBackgroundItems != null) {
-                        mergedItem = proc.mMergedItem = new MergedItem(proc.mUserId);
-                        proc.mMergedItem.mProcess = proc;
+                        mergedItem = obtainProcessMergedItem(proc);
                         diffUsers |= mergedItem.mUserId != mMyUserId;
                         newBackgroundItems.add(mergedItem);
                     } else {
@@ -1345,8 +1476,7 @@ public class RunningState {
                                 diffUsers |= mergedItem.mUserId != mMyUserId;
                                 newBackgroundItems.add(mergedItem);
                             }
-                            mergedItem = proc.mMergedItem = new MergedItem(proc.mUserId);
-                            proc.mMergedItem.mProcess = proc;
+                            mergedItem = obtainProcessMergedItem(proc);
                             diffUsers |= mergedItem.mUserId != mMyUserId;
                             newBackgroundItems.add(mergedItem);
                         } else {
@@ -71,6 +71,11 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
     static final int SUGGESTION_CONDITION_HEADER_POSITION = 0;
     @VisibleForTesting
     static final int MAX_SUGGESTION_TO_SHOW = 5;
+    /**
+     * Alpha of tile summaries restored from a previous launch, until their provider reports.
+     */
+    @VisibleForTesting
+    static final float STALE_SUMMARY_ALPHA = 0.5f;
 
     private final IconCache mCache;
     private final Context mContext;
@@ -471,6 +476,7 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
             holder.title.setText(tile.title);
             if (!TextUtils.isEmpty(tile.summary)) {
                 holder.summary.setText(tile.summary);
+                holder.summary.setAlpha(isSummaryStale(tile) ? STALE_SUMMARY_ALPHA : 1f);
                 holder.summary.setVisibility(View.VISIBLE);
             } else {
                 holder.summary.setVisibility(View.GONE);
@@ -478,6 +484,11 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
         }
     }
 
+    private boolean isSummaryStale(Tile tile) {
+        return SummaryCache.getInstance(mContext)
+                .isStale(mDashboardFeatureProvider.getDashboardKeyForTile(tile));
+    }
+
     private void tintIcons(DashboardCategory category, List<Tile> suggestions) {
         if (!mDashboardFeatureProvider.shouldTintIcon()) {
             return;
@@ -18,6 +18,7 @@ package com.android.settings.dashboard;
 import android.app.Activity;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.drawable.Icon;
 import android.os.Bundle;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.preference.Preference;
@@ -25,7 +26,6 @@ import android.support.v7.preference.PreferenceManager;
 import android.support.v7.preference.PreferenceScreen;
 import android.text.TextUtils;
 import android.util.ArrayMap;
-import android.util.ArraySet;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -44,7 +44,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Objects;
+import java.util.concurrent.Executor;
 
 /**
  * Base fragment for dashboard style UI containing a list of static and dynamic setting items.
@@ -56,13 +57,17 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
 
     private final Map<Class, AbstractPreferenceController> mPreferenceControllers =
             new ArrayMap<>();
-    private final Set<String> mDashboardTilePrefKeys = new ArraySet<>();
+    // Keyed by preference key, the state of each tile when its preference was last bound.
+    private final Map<String, BoundTile> mDashboardTiles = new ArrayMap<>();
 
     protected ProgressiveDisclosureMixin mProgressiveDisclosureMixin;
     protected DashboardFeatureProvider mDashboardFeatureProvider;
     private DashboardTilePlaceholderPreferenceController mPlaceholderPreferenceController;
     private boolean mListeningToCategoryChange;
     private SummaryLoader mSummaryLoader;
+    private DashboardTileLoader mTileLoader;
+    @VisibleForTesting
+    Executor mTileLoadExecutor = DashboardTileLoader.getDefaultExecutor();
 
     @Override
     public void onAttach(Context context) {
@@ -72,6 +77,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         mProgressiveDisclosureMixin = mDashboardFeatureProvider
                 .getProgressiveDisclosureMixin(context, this, getArguments());
         getLifecycle().addObserver(mProgressiveDisclosureMixin);
+        mTileLoader = new DashboardTileLoader(mDashboardFeatureProvider, mTileLoadExecutor);
 
         List<AbstractPreferenceController> controllers = getPreferenceControllers(context);
         if (controllers == null) {
@@ -105,11 +111,6 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
 
     @Override
     public void onCategoriesChanged() {
-        final DashboardCategory category =
-                mDashboardFeatureProvider.getTilesForCategory(getCategoryKey());
-        if (category == null) {
-            return;
-        }
         refreshDashboardTiles(getLogTag());
     }
 
@@ -122,11 +123,6 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     @Override
     public void onStart() {
         super.onStart();
-        final DashboardCategory category =
-                mDashboardFeatureProvider.getTilesForCategory(getCategoryKey());
-        if (category == null) {
-            return;
-        }
         if (mSummaryLoader != null) {
             // SummaryLoader can be null when there is no dynamic tiles.
             mSummaryLoader.setListening(true);
@@ -189,6 +185,12 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mTileLoader.cancel();
+    }
+
     protected <T extends AbstractPreferenceController> T getPreferenceController(Class<T> clazz) {
         AbstractPreferenceController controller = mPreferenceControllers.get(clazz);
         return (T) controller;
@@ -302,14 +304,16 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     }
 
     /**
-     * Refresh preference items backed by DashboardCategory.
+     * Refresh preference items backed by DashboardCategory. The category is loaded on a
+     * background thread, then only the tiles which changed are applied.
      */
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
     void refreshDashboardTiles(final String TAG) {
-        final PreferenceScreen screen = getPreferenceScreen();
+        mTileLoader.load(getCategoryKey(), category -> applyDashboardTiles(TAG, category));
+    }
 
-        final DashboardCategory category =
-                mDashboardFeatureProvider.getTilesForCategory(getCategoryKey());
+    private void applyDashboardTiles(final String TAG, DashboardCategory category) {
+        final PreferenceScreen screen = getPreferenceScreen();
         if (category == null) {
             Log.d(TAG, "NO dashboard tiles for " + TAG);
             return;
@@ -320,15 +324,10 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
             return;
         }
         // Create a list to track which tiles are to be removed.
-        final List<String> remove = new ArrayList<>(mDashboardTilePrefKeys);
+        final List<String> remove = new ArrayList<>(mDashboardTiles.keySet());
+        boolean changed = mSummaryLoader == null;
 
-        // There are dashboard tiles, so we need to install SummaryLoader.
-        if (mSummaryLoader != null) {
-            mSummaryLoader.release();
-        }
         final Context context = getContext();
-        mSummaryLoader = new SummaryLoader(getActivity(), getCategoryKey());
-        mSummaryLoader.setSummaryConsumer(this);
         final TypedArray a = context.obtainStyledAttributes(new int[]{
                 android.R.attr.colorControlNormal});
         final int tintColor = a.getColor(0, context.getColor(android.R.color.white));
@@ -346,7 +345,13 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
             if (tintTileIcon(tile)) {
                 tile.icon.setTint(tintColor);
             }
-            if (mDashboardTilePrefKeys.contains(key)) {
+            remove.remove(key);
+            final BoundTile boundTile = mDashboardTiles.get(key);
+            if (boundTile != null) {
+                if (boundTile.matches(tile)) {
+                    // Nothing the preference shows has changed.
+                    continue;
+                }
                 // Have the key already, will rebind.
                 final Preference preference = mProgressiveDisclosureMixin.findPreference(
                         screen, key);
@@ -358,15 +363,55 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
                 mDashboardFeatureProvider.bindPreferenceToTile(getActivity(), getMetricsCategory(),
                         pref, tile, key, mPlaceholderPreferenceController.getOrder());
                 mProgressiveDisclosureMixin.addPreference(screen, pref);
-                mDashboardTilePrefKeys.add(key);
             }
-            remove.remove(key);
+            mDashboardTiles.put(key, new BoundTile(tile));
+            changed = true;
         }
         // Finally remove tiles that are gone.
         for (String key : remove) {
-            mDashboardTilePrefKeys.remove(key);
+            mDashboardTiles.remove(key);
             mProgressiveDisclosureMixin.removePreference(screen, key);
+            changed = true;
+        }
+        if (!changed) {
+            return;
         }
+        // The tiles changed, so SummaryLoader needs to be installed again.
+        if (mSummaryLoader != null) {
+            mSummaryLoader.release();
+        }
+        mSummaryLoader = new SummaryLoader(getActivity(), getCategoryKey());
+        mSummaryLoader.setSummaryConsumer(this);
         mSummaryLoader.setListening(true);
     }
+
+    /**
+     * What a dashboard tile preference was last bound with. Tiles can be updated in place when
+     * categories reload, so the values are copied. The summary is left out: summary loaders
+     * write it into the tile and the preference themselves.
+     */
+    private static class BoundTile {
+        private final Tile mTile;
+        private final CharSequence mTitle;
+        private final Icon mIcon;
+        private final int mPriority;
+        private final String mIntentUri;
+
+        BoundTile(Tile tile) {
+            mTile = tile;
+            mTitle = tile.title;
+            mIcon = tile.icon;
+            mPriority = tile.priority;
+            mIntentUri = tile.intent != null ? tile.intent.toUri(0) : null;
+        }
+
+        boolean matches(Tile tile) {
+            return mTile == tile
+                    && TextUtils.equals(mTitle, tile.title)
+                    && mIcon == tile.icon
+                    && mPriority == tile.priority
+                    && Objects.equals(mIntentUri,
+                            tile.intent != null ? tile.intent.toUri(0) : null);
+        }
+    }
 }
@@ -155,7 +155,7 @@ public class DashboardSummary extends InstrumentedFragment
             Log.d(TAG, "Listening for condition changes");
             mConditionManager.addListener(this);
             Log.d(TAG, "conditions refreshed");
-            mConditionManager.refreshAll();
+            mConditionManager.refreshStale();
         } else {
             Log.d(TAG, "Stopped listening for condition changes");
             mConditionManager.remListener(this);
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.MainThread;
+
+import com.android.settingslib.drawer.DashboardCategory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Resolves the {@link DashboardCategory} of a dashboard on a background thread, since loading
+ * tiles for the first time queries the PackageManager, and delivers it on the main thread.
+ * <p/>
+ * Only the result of the latest {@link #load} is delivered.
+ */
+public class DashboardTileLoader {
+
+    private static Executor sDefaultExecutor;
+
+    /**
+     * Called on the main thread with the loaded category, which may be null.
+     */
+    public interface Callback {
+        void onTilesLoaded(DashboardCategory category);
+    }
+
+    private final DashboardFeatureProvider mDashboardFeatureProvider;
+    private final Executor mExecutor;
+    private final Handler mMainHandler;
+    // Main thread only.
+    private int mGeneration;
+
+    public DashboardTileLoader(DashboardFeatureProvider dashboardFeatureProvider,
+            Executor executor) {
+        mDashboardFeatureProvider = dashboardFeatureProvider;
+        mExecutor = executor;
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Loads the tiles of {@param categoryKey}, dropping the result of any load still running.
+     */
+    @MainThread
+    public void load(String categoryKey, Callback callback) {
+        final int generation = ++mGeneration;
+        mExecutor.execute(() -> {
+            final DashboardCategory category =
+                    mDashboardFeatureProvider.getTilesForCategory(categoryKey);
+            final Runnable deliver = () -> {
+                if (generation == mGeneration) {
+                    callback.onTilesLoaded(category);
+                }
+            };
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                deliver.run();
+            } else {
+                mMainHandler.post(deliver);
+            }
+        });
+    }
+
+    /**
+     * Drops the result of any load still running.
+     */
+    @MainThread
+    public void cancel() {
+        mGeneration++;
+    }
+
+    public static synchronized Executor getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            sDefaultExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "DashboardTileLoader"));
+        }
+        return sDefaultExecutor;
+    }
+}
@@ -21,27 +21,44 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
-import android.text.TextUtils;
 import android.util.Log;
+import android.util.Pair;
 
 import com.android.settings.SettingsActivity;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.search.IndexDatabaseHelper;
 import com.android.settings.search.IndexDatabaseHelper.IndexColumns;
 import com.android.settings.search.IndexDatabaseHelper.SiteMapColumns;
+import com.android.settingslib.drawer.CategoryManager;
 import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.android.settings.dashboard.DashboardFragmentRegistry.CATEGORY_KEY_TO_PARENT_MAP;
 
 /**
  * A manager class that maintains a "site map" and look up breadcrumb for a certain page on demand.
  * <p/>
+ * The site map is indexed by child page, and each breadcrumb is built once and then memoized.
+ * Once loaded, lookups do not take any lock. Every breadcrumb is also stored in
+ * {@link IndexDatabaseHelper.Tables#TABLE_BREADCRUMBS}, so later processes can look them up one
+ * at a time instead of loading the whole site map. Both are dropped when the index changes, see
+ * {@link IndexDatabaseHelper#getSiteMapGeneration()}, and when the injected tiles change, which
+ * {@link CategoryManager} reloads on package changes. The tiles are compared through
+ * {@link #getTilesFingerprint(List)}.
+ * <p/>
  * The methods on this class can only be called on a background thread.
  */
 public class SiteMapManager {
@@ -62,9 +79,8 @@ public class SiteMapManager {
             IndexColumns.SCREEN_TITLE,
     };
 
-    private final List<SiteMapPair> mPairs = new ArrayList<>();
-
-    private boolean mInitialized;
+    private volatile SiteMap mSiteMap;
+    private volatile StoredBreadcrumbs mStoredBreadcrumbs;
 
     /**
      * Given a fragment class name and its screen title, build a breadcrumb from Settings root to
@@ -74,38 +90,38 @@ public class SiteMapManager {
      * page in the breadcrumb path is not indexed, or it's only reachable via search.
      */
     @WorkerThread
-    public synchronized List<String> buildBreadCrumb(Context context, String clazz,
-            String screenTitle) {
-        init(context);
+    public List<String> buildBreadCrumb(Context context, String clazz, String screenTitle) {
         final long startTime = System.currentTimeMillis();
-        final List<String> breadcrumbs = new ArrayList<>();
-        if (!mInitialized) {
-            Log.w(TAG, "SiteMap is not initialized yet, skipping");
-            return breadcrumbs;
+        final int generation = IndexDatabaseHelper.getSiteMapGeneration();
+        final String tilesFingerprint = getTilesFingerprint(getAllCategories(context));
+        SiteMap siteMap = mSiteMap;
+        List<String> breadcrumbs = null;
+        if (siteMap == null || !siteMap.isCurrent(generation, tilesFingerprint)) {
+            breadcrumbs = lookUpStoredBreadCrumb(context, generation, tilesFingerprint, clazz,
+                    screenTitle);
+            if (breadcrumbs == null) {
+                init(context);
+                siteMap = mSiteMap;
+            }
         }
-        breadcrumbs.add(screenTitle);
-        String currentClass = clazz;
-        String currentTitle = screenTitle;
-        // Look up current page's parent, if found add it to breadcrumb string list, and repeat.
-        while (true) {
-            final SiteMapPair pair = lookUpParent(currentClass, currentTitle);
-            if (pair == null) {
-                if (DEBUG_TIMING) {
-                    Log.d(TAG, "BreadCrumb timing: " + (System.currentTimeMillis() - startTime));
-                }
-                return breadcrumbs;
+        if (breadcrumbs == null) {
+            if (siteMap == null) {
+                Log.w(TAG, "SiteMap is not initialized yet, skipping");
+                return new ArrayList<>();
             }
-            breadcrumbs.add(0, pair.parentTitle);
-            currentClass = pair.parentClass;
-            currentTitle = pair.parentTitle;
+            breadcrumbs = siteMap.getBreadCrumb(clazz, screenTitle);
+        }
+        if (DEBUG_TIMING) {
+            Log.d(TAG, "BreadCrumb timing: " + (System.currentTimeMillis() - startTime));
         }
+        return new ArrayList<>(breadcrumbs);
     }
 
     /**
-     * Initialize a list of {@link SiteMapPair}s. Each pair knows about a single parent-child
-     * page relationship.
+     * Initialize an index of {@link SiteMapPair}s by child page. Each pair knows about a single
+     * parent-child page relationship.
      *
-     * We get the knowledge of such mPairs from 2 sources:
+     * We get the knowledge of such pairs from 2 sources:
      * 1. Static indexing time: we know which page(s) a parent can open by parsing its pref xml.
      * 2. IA: We know from {@link DashboardFeatureProvider} which page can be dynamically
      * injected to where.
@@ -113,14 +129,19 @@ public class SiteMapManager {
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
     @WorkerThread
     synchronized void init(Context context) {
-        if (mInitialized) {
-            // Make sure only init once.
+        final int generation = IndexDatabaseHelper.getSiteMapGeneration();
+        final List<DashboardCategory> categories = getAllCategories(context);
+        final String tilesFingerprint = getTilesFingerprint(categories);
+        if (mSiteMap != null && mSiteMap.isCurrent(generation, tilesFingerprint)) {
+            // Make sure only init once per version of the index and of the tiles.
             return;
         }
         final long startTime = System.currentTimeMillis();
+        final Map<Pair<String, String>, SiteMapPair> parents = new HashMap<>();
         // First load site map from static index table.
         final Context appContext = context.getApplicationContext();
-        final SQLiteDatabase db = IndexDatabaseHelper.getInstance(appContext).getReadableDatabase();
+        final IndexDatabaseHelper helper = IndexDatabaseHelper.getInstance(appContext);
+        final SQLiteDatabase db = helper.getReadableDatabase();
         Cursor sitemap = db.query(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, SITE_MAP_COLUMNS, null,
                 null, null, null, null);
         while (sitemap.moveToNext()) {
@@ -129,7 +150,7 @@ public class SiteMapManager {
                     sitemap.getString(sitemap.getColumnIndex(SiteMapColumns.PARENT_TITLE)),
                     sitemap.getString(sitemap.getColumnIndex(SiteMapColumns.CHILD_CLASS)),
                     sitemap.getString(sitemap.getColumnIndex(SiteMapColumns.CHILD_TITLE)));
-            mPairs.add(pair);
+            addPair(parents, pair);
         }
         sitemap.close();
 
@@ -146,9 +167,6 @@ public class SiteMapManager {
         titleQuery.close();
 
         // Loop through all IA categories and pages and build additional SiteMapPairs
-        List<DashboardCategory> categories = FeatureFactory.getFactory(context)
-                .getDashboardFeatureProvider(context).getAllCategories();
-
         for (DashboardCategory category : categories) {
             // Find the category key first.
             final String parentClass = CATEGORY_KEY_TO_PARENT_MAP.get(category.key);
@@ -160,7 +178,7 @@ public class SiteMapManager {
             if (parentName == null) {
                 continue;
             }
-            // Build parent-child mPairs for all children listed under this key.
+            // Build parent-child pairs for all children listed under this key.
             for (Tile tile : category.tiles) {
                 final String childTitle = tile.title.toString();
                 String childClass = null;
@@ -171,25 +189,213 @@ public class SiteMapManager {
                 if (childClass == null) {
                     continue;
                 }
-                mPairs.add(new SiteMapPair(parentClass, parentName, childClass, childTitle));
+                addPair(parents, new SiteMapPair(parentClass, parentName, childClass, childTitle));
             }
         }
+        final SiteMap siteMap = new SiteMap(generation, tilesFingerprint, parents);
+        mSiteMap = siteMap;
+
+        // Store the breadcrumb of every page, so the next process does not need to do this again.
+        final Map<Pair<String, String>, List<String>> breadcrumbs = siteMap.getAllBreadCrumbs();
+        if (breadcrumbs != null && tilesFingerprint != null) {
+            IndexDatabaseHelper.setBreadcrumbs(appContext, helper.getWritableDatabase(),
+                    generation, tilesFingerprint, breadcrumbs);
+        }
         // Done.
-        mInitialized = true;
         if (DEBUG_TIMING) {
             Log.d(TAG, "Init timing: " + (System.currentTimeMillis() - startTime));
         }
     }
 
+    /**
+     * @return the breadcrumb stored in the index for the page, or null if breadcrumbs are not
+     * stored for the current site map.
+     */
     @WorkerThread
-    private SiteMapPair lookUpParent(String clazz, String title) {
-        for (SiteMapPair pair : mPairs) {
-            if (TextUtils.equals(pair.childClass, clazz)
-                    && TextUtils.equals(title, pair.childTitle)) {
-                return pair;
+    private List<String> lookUpStoredBreadCrumb(Context context, int generation,
+            String tilesFingerprint, String clazz, String screenTitle) {
+        if (clazz == null || screenTitle == null || tilesFingerprint == null) {
+            // Not stored, see SiteMap#getAllBreadCrumbs().
+            return null;
+        }
+        final Context appContext = context.getApplicationContext();
+        final SQLiteDatabase db = IndexDatabaseHelper.getInstance(appContext)
+                .getReadableDatabase();
+        StoredBreadcrumbs stored = mStoredBreadcrumbs;
+        if (stored == null || stored.generation != generation
+                || !tilesFingerprint.equals(stored.tilesFingerprint)) {
+            stored = new StoredBreadcrumbs(generation, tilesFingerprint,
+                    IndexDatabaseHelper.hasBreadcrumbs(appContext, db, tilesFingerprint));
+            mStoredBreadcrumbs = stored;
+        }
+        if (!stored.available) {
+            return null;
+        }
+        final Pair<String, String> key = Pair.create(clazz, screenTitle);
+        List<String> breadcrumbs = stored.breadcrumbs.get(key);
+        if (breadcrumbs == null) {
+            breadcrumbs = IndexDatabaseHelper.getBreadcrumb(db, clazz, screenTitle);
+            if (breadcrumbs == null) {
+                // Pages without a parent are not stored.
+                breadcrumbs = Collections.singletonList(screenTitle);
+            }
+            stored.breadcrumbs.put(key, breadcrumbs);
+        }
+        return breadcrumbs;
+    }
+
+    private static List<DashboardCategory> getAllCategories(Context context) {
+        return FeatureFactory.getFactory(context).getDashboardFeatureProvider(context)
+                .getAllCategories();
+    }
+
+    /**
+     * @return a digest of the category keys, titles and fragment classes of the injected tiles,
+     * which are the part of the site map the index does not know about, or null if it can not be
+     * computed.
+     */
+    @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
+    public static String getTilesFingerprint(List<DashboardCategory> categories) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(TAG, "Cannot compute tiles fingerprint", e);
+            return null;
+        }
+        if (categories != null) {
+            for (DashboardCategory category : categories) {
+                updateDigest(digest, category.key);
+                for (Tile tile : category.tiles) {
+                    updateDigest(digest, tile.title);
+                    updateDigest(digest, tile.metaData != null ? tile.metaData.getString(
+                            SettingsActivity.META_DATA_KEY_FRAGMENT_CLASS) : null);
+                }
+                // Ends the category, so tiles can not move between categories unnoticed.
+                updateDigest(digest, null);
+            }
+        }
+        final StringBuilder fingerprint = new StringBuilder();
+        for (byte b : digest.digest()) {
+            fingerprint.append(String.format("%02x", b));
+        }
+        return fingerprint.toString();
+    }
+
+    private static void updateDigest(MessageDigest digest, CharSequence value) {
+        if (value == null) {
+            digest.update((byte) 0);
+            return;
+        }
+        // Length-prefixed, so the boundaries between values are part of the digest.
+        final byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) 1);
+        digest.update(new byte[] {
+                (byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+                (byte) (bytes.length >>> 8), (byte) bytes.length});
+        digest.update(bytes);
+    }
+
+    private static void addPair(Map<Pair<String, String>, SiteMapPair> parents,
+            SiteMapPair pair) {
+        final Pair<String, String> key = Pair.create(pair.childClass, pair.childTitle);
+        // Keep the first pair found for a page, like a linear search of all pairs would.
+        if (!parents.containsKey(key)) {
+            parents.put(key, pair);
+        }
+    }
+
+    /**
+     * Immutable index of parent pages by child page, with the breadcrumbs built from it.
+     */
+    private static class SiteMap {
+        final int generation;
+        final String tilesFingerprint;
+        private final Map<Pair<String, String>, SiteMapPair> mParents;
+        private final Map<Pair<String, String>, List<String>> mBreadcrumbs =
+                new ConcurrentHashMap<>();
+
+        SiteMap(int generation, String tilesFingerprint,
+                Map<Pair<String, String>, SiteMapPair> parents) {
+            this.generation = generation;
+            this.tilesFingerprint = tilesFingerprint;
+            mParents = parents;
+        }
+
+        boolean isCurrent(int generation, String tilesFingerprint) {
+            return this.generation == generation
+                    && Objects.equals(this.tilesFingerprint, tilesFingerprint);
+        }
+
+        List<String> getBreadCrumb(String clazz, String screenTitle) {
+            final Pair<String, String> key = Pair.create(clazz, screenTitle);
+            final List<String> cached = mBreadcrumbs.get(key);
+            if (cached != null) {
+                return cached;
             }
+            // Look up current page's parent, if found add it to breadcrumb string list, and
+            // repeat until a page without parent, or one whose breadcrumb is already known.
+            final List<String> titles = new ArrayList<>();
+            final Set<Pair<String, String>> visited = new HashSet<>();
+            List<String> ancestors = Collections.emptyList();
+            Pair<String, String> current = key;
+            while (visited.add(current)) {
+                final List<String> known = mBreadcrumbs.get(current);
+                if (known != null) {
+                    ancestors = known;
+                    break;
+                }
+                titles.add(current.second);
+                final SiteMapPair pair = mParents.get(current);
+                if (pair == null) {
+                    break;
+                }
+                current = Pair.create(pair.parentClass, pair.parentTitle);
+            }
+            final List<String> breadcrumbs = new ArrayList<>(ancestors.size() + titles.size());
+            breadcrumbs.addAll(ancestors);
+            for (int i = titles.size() - 1; i >= 0; i--) {
+                breadcrumbs.add(titles.get(i));
+            }
+            final List<String> result = Collections.unmodifiableList(breadcrumbs);
+            mBreadcrumbs.put(key, result);
+            return result;
+        }
+
+        /**
+         * @return the breadcrumbs of every page which has a parent, or null if some of them can
+         * not be stored because of a missing class name or title.
+         */
+        Map<Pair<String, String>, List<String>> getAllBreadCrumbs() {
+            final Map<Pair<String, String>, List<String>> breadcrumbs = new HashMap<>();
+            for (Pair<String, String> child : mParents.keySet()) {
+                if (child.first == null || child.second == null) {
+                    return null;
+                }
+                final List<String> breadcrumb = getBreadCrumb(child.first, child.second);
+                if (breadcrumb.contains(null)) {
+                    return null;
+                }
+                breadcrumbs.put(child, breadcrumb);
+            }
+            return breadcrumbs;
+        }
+    }
+
+    /**
+     * Breadcrumbs read one at a time from {@link IndexDatabaseHelper.Tables#TABLE_BREADCRUMBS}.
+     */
+    private static class StoredBreadcrumbs {
+        final int generation;
+        final String tilesFingerprint;
+        final boolean available;
+        final Map<Pair<String, String>, List<String>> breadcrumbs = new ConcurrentHashMap<>();
+
+        StoredBreadcrumbs(int generation, String tilesFingerprint, boolean available) {
+            this.generation = generation;
+            this.tilesFingerprint = tilesFingerprint;
+            this.available = available;
         }
-        return null;
     }
 
     /**
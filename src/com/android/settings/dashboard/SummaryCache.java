@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.LocaleList;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last summary set for each dashboard tile on disk, keyed by
+ * {@link DashboardFeatureProvider#getDashboardKeyForTile}, so a cold start can show them before
+ * the {@link SummaryLoader.SummaryProvider}s report.
+ * <p/>
+ * A restored summary is stale until a provider sets a fresh one for the same tile. Summaries
+ * are only restored in the locale they were stored in.
+ * <p/>
+ * The file is read and written on a thread of its own, so the read does not wait behind other
+ * background work. Summaries are not restored until it was read; see {@link OnLoadedListener}.
+ */
+public class SummaryCache {
+
+    @VisibleForTesting
+    static final String PREF_NAME = "dashboard_summary_cache";
+    // Not a dashboard key, those start with "dashboard_tile_pref_".
+    @VisibleForTesting
+    static final String KEY_LOCALE = "locale";
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static SummaryCache sInstance;
+
+    private final SharedPreferences mPrefs;
+    // Serial, so the file is read before any write and writes apply in order.
+    private final Executor mExecutor;
+    // Guarded by this, like the fields below. The summaries of mLocale, null once removed.
+    private final ArrayMap<String, String> mSummaries = new ArrayMap<>();
+    private final ArraySet<String> mStaleKeys = new ArraySet<>();
+    private String mLocale;
+    private boolean mLoaded;
+    private final ArraySet<OnLoadedListener> mLoadedListeners = new ArraySet<>();
+
+    public static synchronized SummaryCache getInstance(Context context) {
+        if (sInstance == null) {
+            // A single thread, which ends once idle.
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+            executor.allowCoreThreadTimeOut(true);
+            sInstance = new SummaryCache(context.getApplicationContext()
+                    .getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE), executor);
+            sInstance.startLoading();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SummaryCache(SharedPreferences prefs, Executor executor) {
+        mPrefs = prefs;
+        mExecutor = executor;
+        mLocale = getCurrentLocale();
+    }
+
+    @VisibleForTesting
+    void startLoading() {
+        mExecutor.execute(this::load);
+    }
+
+    @WorkerThread
+    private void load() {
+        final Map<String, ?> stored = mPrefs.getAll();
+        final ArraySet<OnLoadedListener> listeners;
+        synchronized (this) {
+            if (!TextUtils.equals(mLocale, (String) stored.get(KEY_LOCALE))) {
+                // Stored in another locale, or never. Writes queued since are kept.
+                mPrefs.edit().clear().putString(KEY_LOCALE, mLocale).apply();
+            } else {
+                for (Map.Entry<String, ?> entry : stored.entrySet()) {
+                    final String key = entry.getKey();
+                    // Summaries put since are newer.
+                    if (!KEY_LOCALE.equals(key) && !mSummaries.containsKey(key)) {
+                        mSummaries.put(key, (String) entry.getValue());
+                    }
+                }
+            }
+            mLoaded = true;
+            listeners = new ArraySet<>(mLoadedListeners);
+            mLoadedListeners.clear();
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.valueAt(i).onSummaryCacheLoaded();
+        }
+    }
+
+    public synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Calls {@param listener} once the file was read, right away if it already was.
+     */
+    public void addOnLoadedListener(OnLoadedListener listener) {
+        synchronized (this) {
+            if (!mLoaded) {
+                mLoadedListeners.add(listener);
+                return;
+            }
+        }
+        listener.onSummaryCacheLoaded();
+    }
+
+    public synchronized void removeOnLoadedListener(OnLoadedListener listener) {
+        mLoadedListeners.remove(listener);
+    }
+
+    /**
+     * @return the last summary stored for {@param key}, or null. A non-null summary is stale
+     * until {@link #put} is called for the same key.
+     */
+    public synchronized CharSequence restore(String key) {
+        if (key == null || !mLoaded) {
+            return null;
+        }
+        checkLocaleLocked();
+        final String summary = mSummaries.get(key);
+        if (summary != null) {
+            mStaleKeys.add(key);
+        }
+        return summary;
+    }
+
+    /**
+     * Stores the fresh {@param summary} of {@param key}. The write happens in the background.
+     */
+    public synchronized void put(String key, CharSequence summary) {
+        if (key == null) {
+            return;
+        }
+        checkLocaleLocked();
+        mStaleKeys.remove(key);
+        final String value = summary != null ? summary.toString() : null;
+        if (mSummaries.containsKey(key) && TextUtils.equals(mSummaries.get(key), value)) {
+            return;
+        }
+        mSummaries.put(key, value);
+        mExecutor.execute(() -> {
+            if (value != null) {
+                mPrefs.edit().putString(key, value).apply();
+            } else {
+                mPrefs.edit().remove(key).apply();
+            }
+        });
+    }
+
+    /**
+     * @return whether the summary shown for {@param key} was restored from disk and no provider
+     * has set a fresh one yet.
+     */
+    public synchronized boolean isStale(String key) {
+        return key != null && mStaleKeys.contains(key);
+    }
+
+    private void checkLocaleLocked() {
+        final String locale = getCurrentLocale();
+        if (TextUtils.equals(mLocale, locale)) {
+            return;
+        }
+        mLocale = locale;
+        mSummaries.clear();
+        mStaleKeys.clear();
+        mExecutor.execute(() -> mPrefs.edit().clear().putString(KEY_LOCALE, locale).apply());
+    }
+
+    private static String getCurrentLocale() {
+        return LocaleList.getDefault().toLanguageTags();
+    }
+
+    public interface OnLoadedListener {
+        /**
+         * Called once summaries can be restored, on the thread that read the file, or on the
+         * caller of {@link #addOnLoadedListener} if it was already read.
+         */
+        void onSummaryCacheLoaded();
+    }
+}
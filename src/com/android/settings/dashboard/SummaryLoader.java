@@ -25,6 +25,7 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.ArrayMap;
@@ -37,43 +38,114 @@ import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the {@link SummaryProvider}s of a set of tiles, tells them when to listen, and delivers
+ * the summaries they set to the main thread.
+ * <p/>
+ * Providers are created and called on a worker thread with a {@link Looper}, one call at a time.
+ * A call still running after {@link #PROVIDER_TIMEOUT_MS} keeps its worker to itself, and the
+ * other providers of that worker move to a new one, so a slow provider only delays its own tile.
+ * A provider is never called by two threads at once, but one which moved is called on another
+ * thread than the one it was created on. The providers of Settings only register receivers and
+ * listeners delivered on the main thread, or start AsyncTasks, so they do not depend on it.
+ * <p/>
+ * Summaries set by any provider are delivered together, once per main thread message.
+ * <p/>
+ * Every summary delivered is also stored in the {@link SummaryCache}, which
+ * {@link #updateSummaryToCache} falls back to for tiles no provider has reported yet. When the
+ * cache is still being read, its summaries are applied to that category once it is.
+ */
 public class SummaryLoader {
     private static final boolean DEBUG = DashboardSummary.DEBUG;
     private static final String TAG = "SummaryLoader";
 
     public static final String SUMMARY_PROVIDER_FACTORY = "SUMMARY_PROVIDER_FACTORY";
 
+    /**
+     * Calls to a provider which take longer than this are logged and counted in
+     * {@link SummaryLoaderStats}, and the providers waiting behind them move to a new worker.
+     */
+    @VisibleForTesting
+    static final long PROVIDER_TIMEOUT_MS = 1000;
+    /**
+     * The most workers a loader starts, so a burst of slow providers cannot start a thread each.
+     */
+    @VisibleForTesting
+    static final int MAX_WORKERS = 4;
+
     private final Activity mActivity;
+    // Guarded by itself, so providers can set summaries while others are being called.
     private final ArrayMap<SummaryProvider, ComponentName> mSummaryProviderMap = new ArrayMap<>();
+    // Guarded by this, like the worker state below.
+    private final ArrayList<ProviderRecord> mRecords = new ArrayList<>();
+    private final ArrayList<Worker> mWorkers = new ArrayList<>();
+    // Guarded by itself.
+    private final ArrayMap<ComponentName, CharSequence> mPendingSummaries = new ArrayMap<>();
     private final ArrayMap<String, CharSequence> mSummaryTextMap = new ArrayMap<>();
     private final DashboardFeatureProvider mDashboardFeatureProvider;
+    private final SummaryCache mSummaryCache;
     private final String mCategoryKey;
+    private final long mCreationTime = SystemClock.elapsedRealtime();
+    // Tiles whose provider could not be created, so they will never report a summary.
+    private final AtomicInteger mNoProviderCount = new AtomicInteger();
+    // Main thread only.
+    private final ArraySet<ComponentName> mReportedComponents = new ArraySet<>();
+    private int mTileCount;
+    private int mRestoredCount;
+    private boolean mFullyLoaded;
 
-    private final Worker mWorker;
     private final Handler mHandler;
-    private final HandlerThread mWorkerThread;
+    // Runs every worker when set, instead of a thread for each.
+    private final Looper mWorkerLooper;
+    // The worker of new providers, and of those no slow provider held up.
+    private Worker mSharedWorker;
+
+    private final SummaryCache.OnLoadedListener mCacheLoadedListener =
+            () -> mHandler.post(this::restoreSummaries);
+    // Main thread only. The category to restore summaries into once the cache was read.
+    private DashboardCategory mRestoreCategory;
+
+    private final Runnable mDeliverSummaries = new Runnable() {
+        @Override
+        public void run() {
+            deliverPendingSummaries();
+        }
+    };
 
     private SummaryConsumer mSummaryConsumer;
     private boolean mListening;
     private boolean mWorkerListening;
+    private boolean mDeliveryScheduled;
+    private boolean mReleased;
     private ArraySet<BroadcastReceiver> mReceivers = new ArraySet<>();
 
     public SummaryLoader(Activity activity, List<DashboardCategory> categories) {
+        this(activity, categories, null /* workerLooper */);
+    }
+
+    /**
+     * @param workerLooper runs every worker, or null to start a thread for each.
+     */
+    @VisibleForTesting
+    SummaryLoader(Activity activity, List<DashboardCategory> categories, Looper workerLooper) {
         mDashboardFeatureProvider = FeatureFactory.getFactory(activity)
                 .getDashboardFeatureProvider(activity);
+        mSummaryCache = SummaryCache.getInstance(activity);
         mCategoryKey = null;
         mHandler = new Handler();
-        mWorkerThread = new HandlerThread("SummaryLoader", Process.THREAD_PRIORITY_BACKGROUND);
-        mWorkerThread.start();
-        mWorker = new Worker(mWorkerThread.getLooper());
+        mWorkerLooper = workerLooper;
         mActivity = activity;
+        synchronized (this) {
+            mSharedWorker = startWorkerLocked();
+        }
         for (int i = 0; i < categories.size(); i++) {
             List<Tile> tiles = categories.get(i).tiles;
             for (int j = 0; j < tiles.size(); j++) {
-                Tile tile = tiles.get(j);
-                mWorker.obtainMessage(Worker.MSG_GET_PROVIDER, tile).sendToTarget();
+                loadProvider(tiles.get(j));
             }
         }
     }
@@ -81,12 +153,14 @@ public class SummaryLoader {
     public SummaryLoader(Activity activity, String categoryKey) {
         mDashboardFeatureProvider = FeatureFactory.getFactory(activity)
                 .getDashboardFeatureProvider(activity);
+        mSummaryCache = SummaryCache.getInstance(activity);
         mCategoryKey = categoryKey;
         mHandler = new Handler();
-        mWorkerThread = new HandlerThread("SummaryLoader", Process.THREAD_PRIORITY_BACKGROUND);
-        mWorkerThread.start();
-        mWorker = new Worker(mWorkerThread.getLooper());
+        mWorkerLooper = null;
         mActivity = activity;
+        synchronized (this) {
+            mSharedWorker = startWorkerLocked();
+        }
 
         final DashboardCategory category =
                 mDashboardFeatureProvider.getTilesForCategory(categoryKey);
@@ -96,14 +170,26 @@ public class SummaryLoader {
 
         List<Tile> tiles = category.tiles;
         for (Tile tile : tiles) {
-            mWorker.obtainMessage(Worker.MSG_GET_PROVIDER, tile).sendToTarget();
+            loadProvider(tile);
         }
     }
 
     public void release() {
-        mWorkerThread.quitSafely();
-        // Make sure we aren't listening.
-        setListeningW(false);
+        mHandler.removeCallbacks(mDeliverSummaries);
+        mSummaryCache.removeOnLoadedListener(mCacheLoadedListener);
+        mRestoreCategory = null;
+        synchronized (this) {
+            mReleased = true;
+            // Make sure we aren't listening, then let the workers end once they are done.
+            mWorkerListening = false;
+            for (int i = 0; i < mWorkers.size(); i++) {
+                final Worker worker = mWorkers.get(i);
+                worker.schedule();
+                if (worker.mThread != null) {
+                    worker.mThread.quitSafely();
+                }
+            }
+        }
     }
 
     public void setSummaryConsumer(SummaryConsumer summaryConsumer) {
@@ -111,38 +197,77 @@ public class SummaryLoader {
     }
 
     public void setSummary(SummaryProvider provider, final CharSequence summary) {
-        final ComponentName component = mSummaryProviderMap.get(provider);
-        mHandler.post(new Runnable() {
-            @Override
-            public void run() {
+        final ComponentName component;
+        synchronized (mSummaryProviderMap) {
+            component = mSummaryProviderMap.get(provider);
+        }
+        if (component == null) {
+            if (DEBUG) {
+                Log.d(TAG, "Summary set by unknown provider " + provider);
+            }
+            return;
+        }
+        synchronized (mPendingSummaries) {
+            // Only the latest summary of each tile is delivered.
+            mPendingSummaries.put(component, summary);
+            if (!mDeliveryScheduled) {
+                mDeliveryScheduled = true;
+                mHandler.post(mDeliverSummaries);
+            }
+        }
+    }
 
-                final Tile tile = getTileFromCategory(
-                        mDashboardFeatureProvider.getTilesForCategory(mCategoryKey), component);
+    /**
+     * Updates the tiles of all summaries set since the last delivery, in a single pass on the
+     * main thread.
+     */
+    @VisibleForTesting
+    void deliverPendingSummaries() {
+        final ArrayMap<ComponentName, CharSequence> summaries;
+        synchronized (mPendingSummaries) {
+            summaries = new ArrayMap<>(mPendingSummaries);
+            mPendingSummaries.clear();
+            mDeliveryScheduled = false;
+        }
+        if (summaries.isEmpty()) {
+            return;
+        }
+        final DashboardCategory category =
+                mDashboardFeatureProvider.getTilesForCategory(mCategoryKey);
+        for (int i = 0; i < summaries.size(); i++) {
+            final ComponentName component = summaries.keyAt(i);
+            final CharSequence summary = summaries.valueAt(i);
+            final Tile tile = getTileFromCategory(category, component);
 
-                if (tile == null) {
-                    if (DEBUG) {
-                        Log.d(TAG, "Can't find tile for " + component);
-                    }
-                    return;
-                }
+            if (tile == null) {
                 if (DEBUG) {
-                    Log.d(TAG, "setSummary " + tile.title + " - " + summary);
+                    Log.d(TAG, "Can't find tile for " + component);
                 }
-
-                updateSummaryIfNeeded(tile, summary);
+                continue;
             }
-        });
+            if (DEBUG) {
+                Log.d(TAG, "setSummary " + tile.title + " - " + summary);
+            }
+
+            updateSummaryIfNeeded(tile, summary);
+            mReportedComponents.add(component);
+        }
+        checkFullyLoaded();
     }
 
     @VisibleForTesting
     void updateSummaryIfNeeded(Tile tile, CharSequence summary) {
-        if (TextUtils.equals(tile.summary, summary)) {
+        final String key = mDashboardFeatureProvider.getDashboardKeyForTile(tile);
+        final boolean wasStale = mSummaryCache.isStale(key);
+        mSummaryCache.put(key, summary);
+        // A fresh summary equal to the restored one still needs to clear the staleness marker.
+        if (TextUtils.equals(tile.summary, summary) && !wasStale) {
             if (DEBUG) {
                 Log.d(TAG, "Summary doesn't change, skipping summary update for " + tile.title);
             }
             return;
         }
-        mSummaryTextMap.put(mDashboardFeatureProvider.getDashboardKeyForTile(tile), summary);
+        mSummaryTextMap.put(key, summary);
         tile.summary = summary;
         if (mSummaryConsumer != null) {
             mSummaryConsumer.notifySummaryChanged(tile);
@@ -165,8 +290,13 @@ public class SummaryLoader {
             mActivity.unregisterReceiver(mReceivers.valueAt(i));
         }
         mReceivers.clear();
-        mWorker.removeMessages(Worker.MSG_SET_LISTENING);
-        mWorker.obtainMessage(Worker.MSG_SET_LISTENING, listening ? 1 : 0, 0).sendToTarget();
+        synchronized (this) {
+            mWorkerListening = listening;
+            if (DEBUG) Log.d(TAG, "Listening " + listening);
+            for (int i = 0; i < mWorkers.size(); i++) {
+                mWorkers.get(i).schedule();
+            }
+        }
     }
 
     private SummaryProvider getSummaryProvider(Tile tile) {
@@ -226,7 +356,9 @@ public class SummaryLoader {
 
     /**
      * Updates all tile's summary to latest cached version. This is necessary to handle the case
-     * where category is updated after summary change.
+     * where category is updated after summary change. Tiles without a summary yet get the one
+     * stored in {@link SummaryCache} by a previous launch, marked stale until their provider
+     * reports.
      */
     public void updateSummaryToCache(DashboardCategory category) {
         if (category == null) {
@@ -236,29 +368,249 @@ public class SummaryLoader {
             final String key = mDashboardFeatureProvider.getDashboardKeyForTile(tile);
             if (mSummaryTextMap.containsKey(key)) {
                 tile.summary = mSummaryTextMap.get(key);
+            } else {
+                restoreSummary(tile, key);
+            }
+        }
+        if (!mSummaryCache.isLoaded()) {
+            mRestoreCategory = category;
+            mSummaryCache.addOnLoadedListener(mCacheLoadedListener);
+        }
+    }
+
+    /**
+     * Applies the summaries of the cache, now read, to the category last updated before, and
+     * tells the consumer about each tile it changed.
+     */
+    private void restoreSummaries() {
+        final DashboardCategory category = mRestoreCategory;
+        mRestoreCategory = null;
+        if (category == null) {
+            return;
+        }
+        for (Tile tile : category.tiles) {
+            final String key = mDashboardFeatureProvider.getDashboardKeyForTile(tile);
+            if (!mSummaryTextMap.containsKey(key) && restoreSummary(tile, key)
+                    && mSummaryConsumer != null) {
+                mSummaryConsumer.notifySummaryChanged(tile);
             }
         }
     }
 
-    private synchronized void setListeningW(boolean listening) {
-        if (mWorkerListening == listening) return;
-        mWorkerListening = listening;
-        if (DEBUG) Log.d(TAG, "Listening " + listening);
-        for (SummaryProvider p : mSummaryProviderMap.keySet()) {
+    /**
+     * Shows the cached summary of {@param tile} if it has none yet.
+     *
+     * @return whether the summary was restored.
+     */
+    private boolean restoreSummary(Tile tile, String key) {
+        if (!TextUtils.isEmpty(tile.summary)) {
+            return false;
+        }
+        final CharSequence restored = mSummaryCache.restore(key);
+        if (restored == null) {
+            return false;
+        }
+        tile.summary = restored;
+        mRestoredCount++;
+        return true;
+    }
+
+    private synchronized void loadProvider(Tile tile) {
+        mTileCount++;
+        mRecords.add(new ProviderRecord(tile, mSharedWorker));
+        mSharedWorker.schedule();
+    }
+
+    /**
+     * Makes the calls the providers of {@param worker} need, one after another, until each of
+     * them is created and in the listening state of the loader.
+     */
+    private void runCalls(Worker worker) {
+        while (true) {
+            final ProviderRecord record;
+            final boolean create;
+            final boolean listening;
+            final int callId;
+            synchronized (this) {
+                record = getNextCallLocked(worker);
+                if (record == null) {
+                    return;
+                }
+                create = !record.mCreated;
+                listening = mWorkerListening;
+                callId = ++worker.mCallId;
+                worker.mCalling = record;
+            }
+            final Runnable overdue = () -> onCallOverdue(worker, callId);
+            mHandler.postDelayed(overdue, PROVIDER_TIMEOUT_MS);
+            final long startTime = SystemClock.elapsedRealtime();
+            SummaryProvider provider = null;
             try {
-                p.setListening(listening);
+                if (create) {
+                    provider = createProvider(record);
+                } else {
+                    record.mProvider.setListening(listening);
+                }
             } catch (Exception e) {
-                Log.d(TAG, "Problem in setListening", e);
+                Log.d(TAG, "Problem calling provider for " + record.mComponent, e);
+            } finally {
+                mHandler.removeCallbacks(overdue);
+                SummaryLoaderStats.getInstance().onCall(record.mComponent.getClassName(),
+                        SystemClock.elapsedRealtime() - startTime);
+            }
+            synchronized (this) {
+                if (create) {
+                    record.mCreated = true;
+                    record.mProvider = provider;
+                } else {
+                    record.mListening = listening;
+                }
+                worker.mCalling = null;
+            }
+        }
+    }
+
+    /**
+     * @return the provider of {@param worker} to create, or else the first one to bring to the
+     * listening state of the loader, or null if there is none.
+     */
+    private ProviderRecord getNextCallLocked(Worker worker) {
+        if (!mReleased) {
+            for (int i = 0; i < mRecords.size(); i++) {
+                final ProviderRecord record = mRecords.get(i);
+                if (record.mWorker == worker && !record.mCreated) {
+                    return record;
+                }
+            }
+        }
+        for (int i = 0; i < mRecords.size(); i++) {
+            final ProviderRecord record = mRecords.get(i);
+            if (record.mWorker == worker && record.mProvider != null
+                    && record.mListening != mWorkerListening) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    private SummaryProvider createProvider(ProviderRecord record) {
+        final SummaryProvider provider = getSummaryProvider(record.mTile);
+        if (provider == null) {
+            onNoProvider();
+            return null;
+        }
+        if (DEBUG) Log.d(TAG, "Creating " + record.mTile);
+        synchronized (mSummaryProviderMap) {
+            mSummaryProviderMap.put(provider, record.mComponent);
+        }
+        return provider;
+    }
+
+    /**
+     * Called on the main thread when call {@param callId} of {@param worker} runs longer than
+     * {@link #PROVIDER_TIMEOUT_MS}. Leaves the worker to the provider being called, and moves
+     * its other providers to a new worker.
+     */
+    private void onCallOverdue(Worker worker, int callId) {
+        final String name;
+        synchronized (this) {
+            if (worker.mCalling == null || worker.mCallId != callId) {
+                // Finished in the meantime.
+                return;
+            }
+            name = worker.mCalling.mComponent.getClassName();
+            if (!mReleased && worker == mSharedWorker && mWorkers.size() < MAX_WORKERS) {
+                mSharedWorker = startWorkerLocked();
+                for (int i = 0; i < mRecords.size(); i++) {
+                    final ProviderRecord record = mRecords.get(i);
+                    if (record.mWorker == worker && record != worker.mCalling) {
+                        record.mWorker = mSharedWorker;
+                    }
+                }
+                mSharedWorker.schedule();
+            }
+        }
+        Log.w(TAG, "Summary provider for " + name + " still running after "
+                + PROVIDER_TIMEOUT_MS + "ms");
+        SummaryLoaderStats.getInstance().onTimeout(name);
+    }
+
+    /**
+     * Handles the call running for the provider of {@param component} as overdue.
+     */
+    @VisibleForTesting
+    void onCallOverdue(ComponentName component) {
+        final Worker worker;
+        final int callId;
+        synchronized (this) {
+            final ProviderRecord record = getRecordLocked(component);
+            if (record == null) {
+                return;
+            }
+            worker = record.mWorker;
+            callId = worker.mCallId;
+        }
+        onCallOverdue(worker, callId);
+    }
+
+    /**
+     * @return whether the provider of {@param component} shares its worker with another one.
+     */
+    @VisibleForTesting
+    synchronized boolean hasSharedWorker(ComponentName component) {
+        final ProviderRecord record = getRecordLocked(component);
+        for (int i = 0; i < mRecords.size(); i++) {
+            if (mRecords.get(i) != record && mRecords.get(i).mWorker == record.mWorker) {
+                return true;
             }
         }
+        return false;
+    }
+
+    private ProviderRecord getRecordLocked(ComponentName component) {
+        for (int i = 0; i < mRecords.size(); i++) {
+            if (mRecords.get(i).mComponent.equals(component)) {
+                return mRecords.get(i);
+            }
+        }
+        return null;
+    }
+
+    private Worker startWorkerLocked() {
+        final Worker worker;
+        if (mWorkerLooper != null) {
+            worker = new Worker(null /* thread */, mWorkerLooper);
+        } else {
+            final HandlerThread thread =
+                    new HandlerThread("SummaryLoader", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            worker = new Worker(thread, thread.getLooper());
+        }
+        mWorkers.add(worker);
+        return worker;
     }
 
-    private synchronized void makeProviderW(Tile tile) {
-        SummaryProvider provider = getSummaryProvider(tile);
-        if (provider != null) {
-            if (DEBUG) Log.d(TAG, "Creating " + tile);
-            mSummaryProviderMap.put(provider, tile.intent.getComponent());
+    private void onNoProvider() {
+        mNoProviderCount.incrementAndGet();
+        mHandler.post(this::checkFullyLoaded);
+    }
+
+    /**
+     * Records the time from creation until every tile with a provider has a fresh summary, split
+     * by whether summaries from a previous launch were shown in the meantime.
+     */
+    private void checkFullyLoaded() {
+        if (mFullyLoaded || mTileCount == 0
+                || mReportedComponents.size() + mNoProviderCount.get() < mTileCount) {
+            return;
         }
+        mFullyLoaded = true;
+        final long duration = SystemClock.elapsedRealtime() - mCreationTime;
+        if (DEBUG) {
+            Log.d(TAG, "All summaries loaded in " + duration + "ms, " + mRestoredCount
+                    + " restored from cache");
+        }
+        SummaryLoaderStats.getInstance().onFullyLoaded(mRestoredCount > 0, duration);
     }
 
     private Tile getTileFromCategory(DashboardCategory category, ComponentName component) {
@@ -275,8 +627,6 @@ public class SummaryLoader {
         return null;
     }
 
-
-
     public interface SummaryProvider {
         void setListening(boolean listening);
     }
@@ -289,24 +639,52 @@ public class SummaryLoader {
         SummaryProvider createSummaryProvider(Activity activity, SummaryLoader summaryLoader);
     }
 
+    /**
+     * A tile, its provider once created and the worker all of the provider's calls run on.
+     * Guarded by SummaryLoader.this.
+     */
+    private static class ProviderRecord {
+        final Tile mTile;
+        final ComponentName mComponent;
+        Worker mWorker;
+        boolean mCreated;
+        SummaryProvider mProvider;
+        // The state the provider was last told.
+        boolean mListening;
+
+        ProviderRecord(Tile tile, Worker worker) {
+            mTile = tile;
+            mComponent = tile.intent.getComponent();
+            mWorker = worker;
+        }
+    }
+
     private class Worker extends Handler {
-        private static final int MSG_GET_PROVIDER = 1;
-        private static final int MSG_SET_LISTENING = 2;
+        private static final int MSG_RUN_CALLS = 1;
+
+        // Null when running on a looper the loader does not own.
+        private final HandlerThread mThread;
+        // Guarded by SummaryLoader.this. Which call is running, so an overdue check can tell
+        // whether the call it was posted for is still the one running.
+        private int mCallId;
+        private ProviderRecord mCalling;
 
-        public Worker(Looper looper) {
+        public Worker(HandlerThread thread, Looper looper) {
             super(looper);
+            mThread = thread;
+        }
+
+        void schedule() {
+            if (!hasMessages(MSG_RUN_CALLS)) {
+                sendEmptyMessage(MSG_RUN_CALLS);
+            }
         }
 
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
-                case MSG_GET_PROVIDER:
-                    Tile tile = (Tile) msg.obj;
-                    makeProviderW(tile);
-                    break;
-                case MSG_SET_LISTENING:
-                    boolean listening = msg.arg1 != 0;
-                    setListeningW(listening);
+                case MSG_RUN_CALLS:
+                    runCalls(this);
                     break;
             }
         }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Process-wide latency stats of the {@link SummaryLoader.SummaryProvider}s, keyed by the class
+ * of the tile they provide a summary for, and of how long each {@link SummaryLoader} took to get
+ * every summary. Dumped by {@link com.android.settings.SettingsDumpService}.
+ */
+public class SummaryLoaderStats {
+
+    @VisibleForTesting
+    static final String KEY_CALLS = "calls";
+    @VisibleForTesting
+    static final String KEY_TOTAL_MS = "total_ms";
+    @VisibleForTesting
+    static final String KEY_MAX_MS = "max_ms";
+    @VisibleForTesting
+    static final String KEY_TIMEOUTS = "timeouts";
+    @VisibleForTesting
+    static final String KEY_WARM = "warm";
+    @VisibleForTesting
+    static final String KEY_COLD = "cold";
+    @VisibleForTesting
+    static final String KEY_LOADS = "loads";
+    @VisibleForTesting
+    static final String KEY_LAST_MS = "last_ms";
+
+    private static SummaryLoaderStats sInstance;
+
+    private final ArrayMap<String, ProviderStats> mStats = new ArrayMap<>();
+    private final LoadStats mWarmLoads = new LoadStats();
+    private final LoadStats mColdLoads = new LoadStats();
+
+    public static synchronized SummaryLoaderStats getInstance() {
+        if (sInstance == null) {
+            sInstance = new SummaryLoaderStats();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SummaryLoaderStats() {
+    }
+
+    /**
+     * Records a call to {@param provider} (creation or setListening) which took
+     * {@param durationMs}.
+     */
+    public synchronized void onCall(String provider, long durationMs) {
+        final ProviderStats stats = getStats(provider);
+        stats.calls++;
+        stats.totalMs += durationMs;
+        stats.maxMs = Math.max(stats.maxMs, durationMs);
+    }
+
+    /**
+     * Records a call to {@param provider} which ran longer than
+     * {@link SummaryLoader#PROVIDER_TIMEOUT_MS}.
+     */
+    public synchronized void onTimeout(String provider) {
+        getStats(provider).timeouts++;
+    }
+
+    /**
+     * Records that a loader got a fresh summary for every tile {@param durationMs} after it was
+     * created. {@param warm} tells whether summaries from a previous launch were shown meanwhile.
+     */
+    public synchronized void onFullyLoaded(boolean warm, long durationMs) {
+        final LoadStats stats = warm ? mWarmLoads : mColdLoads;
+        stats.loads++;
+        stats.totalMs += durationMs;
+        stats.lastMs = durationMs;
+    }
+
+    public synchronized JSONObject toJson() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        for (int i = 0; i < mStats.size(); i++) {
+            final ProviderStats stats = mStats.valueAt(i);
+            final JSONObject providerObj = new JSONObject();
+            providerObj.put(KEY_CALLS, stats.calls);
+            providerObj.put(KEY_TOTAL_MS, stats.totalMs);
+            providerObj.put(KEY_MAX_MS, stats.maxMs);
+            providerObj.put(KEY_TIMEOUTS, stats.timeouts);
+            obj.put(mStats.keyAt(i), providerObj);
+        }
+        return obj;
+    }
+
+    /**
+     * @return the time to fully load a dashboard, with and without summaries from a previous
+     * launch.
+     */
+    public synchronized JSONObject loadsToJson() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put(KEY_WARM, mWarmLoads.toJson());
+        obj.put(KEY_COLD, mColdLoads.toJson());
+        return obj;
+    }
+
+    private ProviderStats getStats(String provider) {
+        ProviderStats stats = mStats.get(provider);
+        if (stats == null) {
+            stats = new ProviderStats();
+            mStats.put(provider, stats);
+        }
+        return stats;
+    }
+
+    private static class ProviderStats {
+        int calls;
+        long totalMs;
+        long maxMs;
+        int timeouts;
+    }
+
+    private static class LoadStats {
+        int loads;
+        long totalMs;
+        long lastMs;
+
+        JSONObject toJson() throws JSONException {
+            final JSONObject obj = new JSONObject();
+            obj.put(KEY_LOADS, loads);
+            obj.put(KEY_TOTAL_MS, totalMs);
+            obj.put(KEY_LAST_MS, lastMs);
+            return obj;
+        }
+    }
+}
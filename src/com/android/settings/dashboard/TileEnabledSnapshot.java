@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+
+/**
+ * The enabled state every tile component of Settings should have, compared with the state
+ * applied by the previous launch so only the components whose state changed go through
+ * {@link TileEnabler#setTileEnabled}.
+ * <p/>
+ * The applied states are kept per user, and forgotten when the system or Settings is updated,
+ * which can change the components and their default state. Nothing reads the actual state of
+ * the components, so one changed behind Settings' back, e.g. from the shell, is only corrected
+ * after such an update or once the data of Settings is cleared.
+ */
+public class TileEnabledSnapshot {
+
+    @VisibleForTesting
+    static final String PREF_NAME = "tile_enabled_snapshot";
+    @VisibleForTesting
+    static final String KEY_BUILD_ID = "build_id";
+
+    /**
+     * Sets the enabled state of a tile component.
+     */
+    public interface TileEnabler {
+        /**
+         * @return whether the enabled state actually changed.
+         */
+        boolean setTileEnabled(ComponentName component, boolean enabled);
+    }
+
+    private final SharedPreferences mPrefs;
+    private final String mBuildId;
+    private final ArrayMap<ComponentName, Boolean> mDesiredStates = new ArrayMap<>();
+    private int mSkippedCount;
+
+    public TileEnabledSnapshot(Context context) {
+        this(context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE), getBuildId(context));
+    }
+
+    @VisibleForTesting
+    TileEnabledSnapshot(SharedPreferences prefs, String buildId) {
+        mPrefs = prefs;
+        mBuildId = buildId;
+    }
+
+    /**
+     * Sets the state {@param component} should have. A later call for the same component
+     * replaces the earlier one.
+     */
+    public void setEnabled(ComponentName component, boolean enabled) {
+        mDesiredStates.put(component, enabled);
+    }
+
+    /**
+     * Sets the state of every component whose desired state differs from the state applied by
+     * the previous snapshot, then records the desired states.
+     *
+     * @return whether the enabled state of any component actually changed.
+     */
+    @WorkerThread
+    public boolean apply(TileEnabler enabler) {
+        final boolean sameBuild = TextUtils.equals(
+                mPrefs.getString(KEY_BUILD_ID, null), mBuildId);
+        final SharedPreferences.Editor editor = mPrefs.edit();
+        if (!sameBuild) {
+            editor.clear().putString(KEY_BUILD_ID, mBuildId);
+        }
+        boolean somethingChanged = false;
+        mSkippedCount = 0;
+        for (int i = 0; i < mDesiredStates.size(); i++) {
+            final String key = mDesiredStates.keyAt(i).flattenToShortString();
+            final boolean enabled = mDesiredStates.valueAt(i);
+            if (sameBuild && mPrefs.contains(key) && mPrefs.getBoolean(key, false) == enabled) {
+                mSkippedCount++;
+                continue;
+            }
+            somethingChanged = enabler.setTileEnabled(mDesiredStates.keyAt(i), enabled)
+                    || somethingChanged;
+            editor.putBoolean(key, enabled);
+        }
+        editor.apply();
+        return somethingChanged;
+    }
+
+    /**
+     * @return how many components the last {@link #apply} did not need to set.
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * @return an id of the system build and of the install of Settings.
+     */
+    private static String getBuildId(Context context) {
+        long lastUpdateTime = 0;
+        try {
+            lastUpdateTime = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // Cannot happen for our own package, and only costs applying every state again.
+        }
+        return Build.FINGERPRINT + "/" + lastUpdateTime;
+    }
+}
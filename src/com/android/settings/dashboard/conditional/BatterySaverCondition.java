@@ -33,6 +33,11 @@ public class BatterySaverCondition extends Condition {
         setActive(powerManager.isPowerSaveMode());
     }
 
+    @Override
+    protected String[] getRefreshActions() {
+        return new String[] { PowerManager.ACTION_POWER_SAVE_MODE_CHANGED };
+    }
+
     @Override
     public Icon getIcon() {
         return Icon.createWithResource(mManager.getContext(), R.drawable.ic_settings_battery);
@@ -27,6 +27,10 @@ import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.settings.core.instrumentation.MetricsFeatureProvider;
 import com.android.settings.overlay.FeatureFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public abstract class Condition {
 
     private static final String KEY_SILENCE = "silence";
@@ -51,23 +55,34 @@ public abstract class Condition {
         mMetricsFeatureProvider = metricsFeatureProvider;
     }
 
+    /**
+     * Restores the state saved by older versions, which kept it in an XML file.
+     */
     void restoreState(PersistableBundle bundle) {
         mIsSilenced = bundle.getBoolean(KEY_SILENCE);
         mIsActive = bundle.getBoolean(KEY_ACTIVE);
         mLastStateChange = bundle.getLong(KEY_LAST_STATE);
     }
 
-    boolean saveState(PersistableBundle bundle) {
-        if (mIsSilenced) {
-            bundle.putBoolean(KEY_SILENCE, mIsSilenced);
-        }
-        if (mIsActive) {
-            bundle.putBoolean(KEY_ACTIVE, mIsActive);
-            bundle.putLong(KEY_LAST_STATE, mLastStateChange);
-        }
+    void readState(DataInput in) throws IOException {
+        mIsSilenced = in.readBoolean();
+        mIsActive = in.readBoolean();
+        mLastStateChange = in.readLong();
+    }
+
+    /**
+     * @return whether this condition has any state worth saving.
+     */
+    boolean hasState() {
         return mIsSilenced || mIsActive;
     }
 
+    void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(mIsSilenced);
+        out.writeBoolean(mIsActive);
+        out.writeLong(mIsActive ? mLastStateChange : 0);
+    }
+
     protected void notifyChanged() {
         mManager.notifyChanged(this);
     }
@@ -131,6 +146,25 @@ public abstract class Condition {
         return null;
     }
 
+    /**
+     * @return the broadcasts which can change the state of this condition, so
+     * {@link ConditionManager#refreshStale} only refreshes it after one of them, or null to
+     * refresh it every time. A condition which registers its own receiver while resumed returns
+     * an empty array, so the broadcast does not refresh it twice. Defaults to the actions of
+     * {@link #getIntentFilter}.
+     */
+    protected String[] getRefreshActions() {
+        final IntentFilter filter = getIntentFilter();
+        if (filter == null) {
+            return null;
+        }
+        final String[] actions = new String[filter.countActions()];
+        for (int i = 0; i < actions.length; i++) {
+            actions[i] = filter.getAction(i);
+        }
+        return actions;
+    }
+
     public boolean shouldShow() {
         return isActive() && !isSilenced();
     }
@@ -15,27 +15,40 @@
  */
 package com.android.settings.dashboard.conditional;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.AsyncTask;
 import android.os.PersistableBundle;
+import android.os.SystemProperties;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArraySet;
+import android.util.AtomicFile;
 import android.util.Log;
 import android.util.Xml;
 
+import com.android.internal.util.ArrayUtils;
 import com.android.settingslib.core.lifecycle.LifecycleObserver;
 import com.android.settingslib.core.lifecycle.events.OnPause;
 import com.android.settingslib.core.lifecycle.events.OnResume;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlSerializer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
 
@@ -45,8 +58,28 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
 
     private static final String PKG = "com.android.settings.dashboard.conditional.";
 
-    private static final String FILE_NAME = "condition_state.xml";
-    private static final String TAG_CONDITIONS = "cs";
+    /**
+     * When true, {@link #refreshStale} only refreshes the conditions affected by the broadcasts
+     * received since their last refresh. When false it refreshes every condition.
+     */
+    @VisibleForTesting
+    static final String PROPERTY_SCOPED_REFRESH = "settings.condition.scoped_refresh";
+
+    @VisibleForTesting
+    static final String FILE_NAME = "condition_state";
+    // Version 2 added the zen mode of DndCondition. Version 3 prefixes each record with its
+    // length, so unknown records can be skipped; later versions must keep that layout, and only
+    // add fields at the end of a record.
+    @VisibleForTesting
+    static final int STATE_VERSION = 3;
+    // Versions 1 and 2 wrote records without their length, which are known instead: two booleans
+    // and a long for every condition, followed in version 2 by the zen mode of DndCondition.
+    private static final int LEGACY_RECORD_LENGTH = 10;
+    private static final int LEGACY_DND_ZEN_LENGTH = 4;
+
+    // Only read, to migrate the state saved by older versions.
+    @VisibleForTesting
+    static final String LEGACY_FILE_NAME = "condition_state.xml";
     private static final String TAG_CONDITION = "c";
     private static final String ATTR_CLASS = "cls";
 
@@ -54,13 +87,37 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
 
     private final Context mContext;
     private final ArrayList<Condition> mConditions;
-    private File mXmlFile;
+    private final Executor mWriteExecutor;
+    private final boolean mScopedRefresh;
+    private AtomicFile mStateFile;
+    private File mLegacyXmlFile;
 
     private final ArrayList<ConditionListener> mListeners = new ArrayList<>();
+    // Conditions which may have changed since their last refresh.
+    private final ArraySet<Condition> mStaleConditions = new ArraySet<>();
+    private final Object mWriteLock = new Object();
+    // Guarded by mWriteLock. The latest state which is not written yet, or null.
+    private byte[] mPendingState;
+    private boolean mResumed;
+    private boolean mReceiverRegistered;
+
+    private final Runnable mWriteState = new Runnable() {
+        @Override
+        public void run() {
+            writePendingState();
+        }
+    };
+
+    private final BroadcastReceiver mRefreshReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            refreshForAction(intent.getAction());
+        }
+    };
 
     private ConditionManager(Context context, boolean loadConditionsNow) {
-        mContext = context;
-        mConditions = new ArrayList<>();
+        this(context, AsyncTask.SERIAL_EXECUTOR,
+                SystemProperties.getBoolean(PROPERTY_SCOPED_REFRESH, true /* default */));
         if (loadConditionsNow) {
             Log.d(TAG, "conditions loading synchronously");
             ConditionLoader loader = new ConditionLoader();
@@ -71,13 +128,199 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
         }
     }
 
+    /**
+     * Creates a manager without any condition, which tests load through
+     * {@link #readSavedConditions} and {@link #onConditionsLoaded}.
+     */
+    @VisibleForTesting
+    ConditionManager(Context context, Executor writeExecutor, boolean scopedRefresh) {
+        mContext = context;
+        mConditions = new ArrayList<>();
+        mWriteExecutor = writeExecutor;
+        mScopedRefresh = scopedRefresh;
+    }
+
     public void refreshAll() {
+        mStaleConditions.clear();
         final int N = mConditions.size();
         for (int i = 0; i < N; i++) {
             mConditions.get(i).refreshState();
         }
     }
 
+    /**
+     * Refreshes the conditions which may have changed since they were last refreshed: those
+     * which do not declare {@link Condition#getRefreshActions}, and those which could have
+     * missed their broadcasts while the manager was paused. Others are refreshed as soon as
+     * one of their broadcasts is received.
+     */
+    public void refreshStale() {
+        if (!mScopedRefresh) {
+            refreshAll();
+            return;
+        }
+        final int N = mConditions.size();
+        for (int i = 0; i < N; i++) {
+            final Condition condition = mConditions.get(i);
+            if (mStaleConditions.contains(condition) || condition.getRefreshActions() == null) {
+                condition.refreshState();
+            }
+        }
+        mStaleConditions.clear();
+    }
+
+    @VisibleForTesting
+    void refreshForAction(String action) {
+        if (DEBUG) Log.d(TAG, "Refreshing conditions for " + action);
+        final int N = mConditions.size();
+        for (int i = 0; i < N; i++) {
+            final Condition condition = mConditions.get(i);
+            if (ArrayUtils.contains(condition.getRefreshActions(), action)) {
+                mStaleConditions.remove(condition);
+                condition.refreshState();
+            }
+        }
+    }
+
+    private void registerRefreshReceiver() {
+        if (!mScopedRefresh || mReceiverRegistered) {
+            return;
+        }
+        final IntentFilter filter = new IntentFilter();
+        final int N = mConditions.size();
+        for (int i = 0; i < N; i++) {
+            final String[] actions = mConditions.get(i).getRefreshActions();
+            if (actions == null) {
+                continue;
+            }
+            for (String action : actions) {
+                if (!filter.hasAction(action)) {
+                    filter.addAction(action);
+                }
+            }
+        }
+        if (filter.countActions() == 0) {
+            return;
+        }
+        mContext.registerReceiver(mRefreshReceiver, filter);
+        mReceiverRegistered = true;
+    }
+
+    private void unregisterRefreshReceiver() {
+        if (mReceiverRegistered) {
+            mContext.unregisterReceiver(mRefreshReceiver);
+            mReceiverRegistered = false;
+        }
+        // Broadcasts are missed until the next resume.
+        mStaleConditions.addAll(mConditions);
+    }
+
+    private void readState(AtomicFile stateFile, ArrayList<Condition> conditions) {
+        if (DEBUG) Log.d(TAG, "Reading from " + stateFile.getBaseFile());
+        try (DataInputStream in = new DataInputStream(stateFile.openRead())) {
+            final int version = in.readInt();
+            if (version < 1) {
+                Log.w(TAG, "Ignoring " + FILE_NAME + " with version " + version);
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String name = in.readUTF();
+                final int length = version >= 3
+                        ? in.readInt() : getLegacyRecordLength(version, name);
+                if (length < 0 || length > in.available()) {
+                    throw new IOException("Bad length " + length + " for " + name);
+                }
+                final byte[] record = new byte[length];
+                in.readFully(record);
+                final Condition condition = createCondition(name);
+                if (condition == null) {
+                    Log.w(TAG, "Skipping state of unknown condition: " + name);
+                    continue;
+                }
+                try {
+                    condition.readState(new DataInputStream(new ByteArrayInputStream(record)));
+                } catch (EOFException e) {
+                    // Written by a version without the last fields, which keep their defaults.
+                }
+                conditions.add(condition);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Problem reading " + FILE_NAME, e);
+        }
+    }
+
+    private static int getLegacyRecordLength(int version, String name) {
+        if (version >= 2 && DndCondition.class.getSimpleName().equals(name)) {
+            return LEGACY_RECORD_LENGTH + LEGACY_DND_ZEN_LENGTH;
+        }
+        return LEGACY_RECORD_LENGTH;
+    }
+
+    /**
+     * Serializes the state of the conditions, and writes it on the write executor. When several
+     * states are saved before the write runs, only the latest is written.
+     */
+    private void saveState() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            final int N = mConditions.size();
+            int count = 0;
+            for (int i = 0; i < N; i++) {
+                if (mConditions.get(i).hasState()) {
+                    count++;
+                }
+            }
+            out.writeInt(STATE_VERSION);
+            out.writeInt(count);
+            for (int i = 0; i < N; i++) {
+                final Condition condition = mConditions.get(i);
+                if (condition.hasState()) {
+                    final ByteArrayOutputStream record = new ByteArrayOutputStream();
+                    condition.writeState(new DataOutputStream(record));
+                    out.writeUTF(condition.getClass().getSimpleName());
+                    out.writeInt(record.size());
+                    record.writeTo(out);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Problem serializing conditions", e);
+            return;
+        }
+        synchronized (mWriteLock) {
+            final boolean writeScheduled = mPendingState != null;
+            mPendingState = bytes.toByteArray();
+            if (!writeScheduled) {
+                mWriteExecutor.execute(mWriteState);
+            }
+        }
+    }
+
+    private void writePendingState() {
+        final byte[] state;
+        synchronized (mWriteLock) {
+            state = mPendingState;
+            mPendingState = null;
+        }
+        if (state == null || mStateFile == null) {
+            return;
+        }
+        if (DEBUG) Log.d(TAG, "Writing to " + mStateFile.getBaseFile());
+        FileOutputStream out = null;
+        try {
+            out = mStateFile.startWrite();
+            out.write(state);
+            mStateFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Problem writing " + FILE_NAME, e);
+            mStateFile.failWrite(out);
+            return;
+        }
+        if (mLegacyXmlFile != null && mLegacyXmlFile.exists()) {
+            mLegacyXmlFile.delete();
+        }
+    }
+
     private void readFromXml(File xmlFile, ArrayList<Condition> conditions) {
         if (DEBUG) Log.d(TAG, "Reading from " + xmlFile.toString());
         try {
@@ -110,37 +353,7 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
             }
             in.close();
         } catch (XmlPullParserException | IOException | ClassNotFoundException e) {
-            Log.w(TAG, "Problem reading " + FILE_NAME, e);
-        }
-    }
-
-    private void saveToXml() {
-        if (DEBUG) Log.d(TAG, "Writing to " + mXmlFile.toString());
-        try {
-            XmlSerializer serializer = Xml.newSerializer();
-            FileWriter writer = new FileWriter(mXmlFile);
-            serializer.setOutput(writer);
-
-            serializer.startDocument("UTF-8", true);
-            serializer.startTag("", TAG_CONDITIONS);
-
-            final int N = mConditions.size();
-            for (int i = 0; i < N; i++) {
-                PersistableBundle bundle = new PersistableBundle();
-                if (mConditions.get(i).saveState(bundle)) {
-                    serializer.startTag("", TAG_CONDITION);
-                    final String clz = mConditions.get(i).getClass().getSimpleName();
-                    serializer.attribute("", ATTR_CLASS, clz);
-                    bundle.saveToXml(serializer);
-                    serializer.endTag("", TAG_CONDITION);
-                }
-            }
-
-            serializer.endTag("", TAG_CONDITIONS);
-            serializer.flush();
-            writer.close();
-        } catch (XmlPullParserException | IOException e) {
-            Log.w(TAG, "Problem writing " + FILE_NAME, e);
+            Log.w(TAG, "Problem reading " + LEGACY_FILE_NAME, e);
         }
     }
 
@@ -166,6 +379,18 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
         }
     }
 
+    /**
+     * @return a new condition of the class named {@param simpleName} in this package, or null if
+     * there is none.
+     */
+    private Condition createCondition(String simpleName) {
+        try {
+            return createCondition(Class.forName(PKG + simpleName));
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
     private Condition createCondition(Class<?> clz) {
         if (AirplaneModeCondition.class == clz) {
             return new AirplaneModeCondition(this);
@@ -222,7 +447,7 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
     }
 
     public void notifyChanged(Condition condition) {
-        saveToXml();
+        saveState();
         Collections.sort(mConditions, CONDITION_COMPARATOR);
         final int N = mListeners.size();
         for (int i = 0; i < N; i++) {
@@ -239,8 +464,39 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
         mListeners.remove(listener);
     }
 
+    /**
+     * @return the conditions saved in the state file, or in the file of older versions when
+     * there is no state file yet.
+     */
+    @VisibleForTesting
+    ArrayList<Condition> readSavedConditions() {
+        final ArrayList<Condition> conditions = new ArrayList<>();
+        mStateFile = new AtomicFile(new File(mContext.getFilesDir(), FILE_NAME));
+        mLegacyXmlFile = new File(mContext.getFilesDir(), LEGACY_FILE_NAME);
+        if (mStateFile.getBaseFile().exists()) {
+            readState(mStateFile, conditions);
+        } else if (mLegacyXmlFile.exists()) {
+            readFromXml(mLegacyXmlFile, conditions);
+        }
+        return conditions;
+    }
+
+    @VisibleForTesting
+    void onConditionsLoaded(List<Condition> conditions) {
+        mConditions.clear();
+        mConditions.addAll(conditions);
+        refreshAll();
+        if (mResumed) {
+            // Resumed before the conditions were loaded, so their broadcasts are not
+            // received yet.
+            registerRefreshReceiver();
+        }
+    }
+
     @Override
     public void onResume() {
+        mResumed = true;
+        registerRefreshReceiver();
         for (int i = 0, size = mConditions.size(); i < size; i++) {
             mConditions.get(i).onResume();
         }
@@ -248,6 +504,8 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
 
     @Override
     public void onPause() {
+        mResumed = false;
+        unregisterRefreshReceiver();
         for (int i = 0, size = mConditions.size(); i < size; i++) {
             mConditions.get(i).onPause();
         }
@@ -256,22 +514,16 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
     private class ConditionLoader extends AsyncTask<Void, Void, ArrayList<Condition>> {
         @Override
         protected ArrayList<Condition> doInBackground(Void... params) {
-            Log.d(TAG, "loading conditions from xml");
-            ArrayList<Condition> conditions = new ArrayList<>();
-            mXmlFile = new File(mContext.getFilesDir(), FILE_NAME);
-            if (mXmlFile.exists()) {
-                readFromXml(mXmlFile, conditions);
-            }
+            Log.d(TAG, "loading conditions from state file");
+            ArrayList<Condition> conditions = readSavedConditions();
             addMissingConditions(conditions);
             return conditions;
         }
 
         @Override
         protected void onPostExecute(ArrayList<Condition> conditions) {
-            Log.d(TAG, "conditions loaded from xml, refreshing conditions");
-            mConditions.clear();
-            mConditions.addAll(conditions);
-            refreshAll();
+            Log.d(TAG, "conditions loaded from state file, refreshing conditions");
+            onConditionsLoaded(conditions);
         }
     }
 
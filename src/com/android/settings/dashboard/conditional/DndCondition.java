@@ -32,6 +32,10 @@ import android.support.annotation.VisibleForTesting;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.settings.R;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class DndCondition extends Condition {
 
     private static final String TAG = "DndCondition";
@@ -68,18 +72,24 @@ public class DndCondition extends Condition {
         setActive(zenModeEnabled);
     }
 
-    @Override
-    boolean saveState(PersistableBundle bundle) {
-        bundle.putInt(KEY_STATE, mZen);
-        return super.saveState(bundle);
-    }
-
     @Override
     void restoreState(PersistableBundle bundle) {
         super.restoreState(bundle);
         mZen = bundle.getInt(KEY_STATE, Global.ZEN_MODE_OFF);
     }
 
+    @Override
+    void readState(DataInput in) throws IOException {
+        super.readState(in);
+        mZen = in.readInt();
+    }
+
+    @Override
+    void writeState(DataOutput out) throws IOException {
+        super.writeState(out);
+        out.writeInt(mZen);
+    }
+
     private CharSequence getZenState() {
         switch (mZen) {
             case Settings.Global.ZEN_MODE_ALARMS:
@@ -93,6 +103,12 @@ public class DndCondition extends Condition {
         return null;
     }
 
+    @Override
+    protected String[] getRefreshActions() {
+        // mReceiver already refreshes this condition while resumed.
+        return new String[0];
+    }
+
     @Override
     public Icon getIcon() {
         return Icon.createWithResource(mManager.getContext(), R.drawable.ic_zen);
@@ -58,6 +58,16 @@ public class WorkModeCondition extends Condition {
         setActive(mUserHandle != null && mUm.isQuietModeEnabled(mUserHandle));
     }
 
+    @Override
+    protected String[] getRefreshActions() {
+        return new String[] {
+                Intent.ACTION_MANAGED_PROFILE_ADDED,
+                Intent.ACTION_MANAGED_PROFILE_REMOVED,
+                Intent.ACTION_MANAGED_PROFILE_AVAILABLE,
+                Intent.ACTION_MANAGED_PROFILE_UNAVAILABLE
+        };
+    }
+
     @Override
     public Icon getIcon() {
         return Icon.createWithResource(mManager.getContext(),
@@ -53,6 +53,20 @@ public class BatteryBroadcastReceiver extends BroadcastReceiver {
         updateBatteryStatus(intent, false /* forceUpdate */);
     }
 
+    /**
+     * Returns the battery level last reported to the listener.
+     */
+    public String getBatteryLevel() {
+        return mBatteryLevel;
+    }
+
+    /**
+     * Returns the battery status last reported to the listener.
+     */
+    public String getBatteryStatus() {
+        return mBatteryStatus;
+    }
+
     public void setBatteryChangedListener(OnBatteryChangedListener lsn) {
         mBatteryListener = lsn;
     }
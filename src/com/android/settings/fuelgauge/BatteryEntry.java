@@ -30,14 +30,24 @@ import android.os.Process;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
 
 import com.android.internal.os.BatterySipper;
 import com.android.settings.R;
 import com.android.settingslib.Utils;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Wraps the power usage data of a BatterySipper with information about package name
@@ -50,71 +60,149 @@ public class BatteryEntry {
     private static final String TAG = "BatteryEntry";
     private static final String PACKAGE_SYSTEM = "android";
 
-    static final HashMap<String,UidToDetail> sUidCache = new HashMap<String,UidToDetail>();
+    @VisibleForTesting
+    static final int UID_CACHE_SIZE = 256;
+    @VisibleForTesting
+    static final int POOL_SIZE = 2;
+    private static final long POOL_KEEP_ALIVE_SECONDS = 10;
+
+    static final LruCache<Integer, UidToDetail> sUidCache = new LruCache<>(UID_CACHE_SIZE);
+
+    static volatile Handler sHandler;
+
+    private static final Object sRequestLock = new Object();
+    // Guarded by sRequestLock, like the other request state below.
+    static final ArrayDeque<BatteryEntry> sRequestQueue = new ArrayDeque<>();
+    // Entries waiting for the name and icon of their uid, which is being loaded.
+    private static final SparseArray<ArrayList<BatteryEntry>> sPendingRequests =
+            new SparseArray<>();
+    private static final ArrayList<Future<?>> sRequestTasks = new ArrayList<>();
+    // Incremented when the requests are stopped, so that loads started before do not report.
+    private static int sRequestGeneration;
+    // Runs the loads; a bounded pool unless a test set it.
+    @VisibleForTesting
+    static Executor sLoaderExecutor;
 
-    static final ArrayList<BatteryEntry> mRequestQueue = new ArrayList<BatteryEntry>();
-    static Handler sHandler;
-
-    static private class NameAndIconLoader extends Thread {
-        private boolean mAbort = false;
-
-        public NameAndIconLoader() {
-            super("BatteryUsage Icon Loader");
+    /**
+     * Loads the names and icons of the queued entries, one load per uid, and reports each
+     * entry with {@link #MSG_UPDATE_NAME_ICON}, then {@link #MSG_REPORT_FULLY_DRAWN} once all
+     * are loaded.
+     */
+    public static void startRequestQueue() {
+        final ArrayList<Runnable> tasks = new ArrayList<>();
+        final Executor executor;
+        synchronized (sRequestLock) {
+            final Handler handler = sHandler;
+            if (handler == null || sRequestQueue.isEmpty()) {
+                return;
+            }
+            executor = getLoaderExecutor();
+            final int generation = sRequestGeneration;
+            BatteryEntry entry;
+            while ((entry = sRequestQueue.poll()) != null) {
+                final int uid = entry.sipper.uidObj.getUid();
+                ArrayList<BatteryEntry> pending = sPendingRequests.get(uid);
+                if (pending != null) {
+                    // Already being loaded, so only needs to be reported.
+                    pending.add(entry);
+                    continue;
+                }
+                pending = new ArrayList<>();
+                pending.add(entry);
+                sPendingRequests.put(uid, pending);
+                final FutureTask<Void> task = new FutureTask<>(
+                        () -> loadNameAndIconForUid(uid, generation, handler), null);
+                sRequestTasks.add(task);
+                tasks.add(task);
+            }
         }
-
-        public void abort() {
-            mAbort = true;
+        // Only run the loads once every entry is pending, so that just the last load to finish
+        // reports fully drawn, even when the executor runs them right away.
+        for (int i = 0, size = tasks.size(); i < size; i++) {
+            executor.execute(tasks.get(i));
         }
+    }
 
-        @Override
-        public void run() {
-            while (true) {
-                BatteryEntry be;
-                synchronized (mRequestQueue) {
-                    if (mRequestQueue.isEmpty() || mAbort) {
-                        if (sHandler != null) {
-                            sHandler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
-                        }
-                        mRequestQueue.clear();
-                        return;
-                    }
-                    be = mRequestQueue.remove(0);
-                }
-                be.loadNameAndIcon();
+    /**
+     * Cancels the loads that have not started yet, and stops reporting the others.
+     */
+    public static void stopRequestQueue() {
+        synchronized (sRequestLock) {
+            sRequestGeneration++;
+            for (int i = 0, size = sRequestTasks.size(); i < size; i++) {
+                sRequestTasks.get(i).cancel(false /* mayInterruptIfRunning */);
             }
+            sRequestTasks.clear();
+            sPendingRequests.clear();
+            sRequestQueue.clear();
+            sHandler = null;
         }
     }
 
-    private static NameAndIconLoader mRequestThread;
+    public static void clearUidCache() {
+        sUidCache.evictAll();
+    }
 
-    public static void startRequestQueue() {
-        if (sHandler != null) {
-            synchronized (mRequestQueue) {
-                if (!mRequestQueue.isEmpty()) {
-                    if (mRequestThread != null) {
-                        mRequestThread.abort();
-                    }
-                    mRequestThread = new NameAndIconLoader();
-                    mRequestThread.setPriority(Thread.MIN_PRIORITY);
-                    mRequestThread.start();
-                    mRequestQueue.notify();
-                }
+    /**
+     * Loads the name and icon of {@param uid} and reports its pending entries to
+     * {@param handler}, unless the requests of {@param generation} were stopped meanwhile.
+     */
+    private static void loadNameAndIconForUid(int uid, int generation, Handler handler) {
+        final BatteryEntry first;
+        synchronized (sRequestLock) {
+            if (generation != sRequestGeneration) {
+                return;
             }
+            first = sPendingRequests.get(uid).get(0);
         }
-    }
-
-    public static void stopRequestQueue() {
-        synchronized (mRequestQueue) {
-            if (mRequestThread != null) {
-                mRequestThread.abort();
-                mRequestThread = null;
-                sHandler = null;
+        // Another screen may have loaded it meanwhile.
+        final UidToDetail cached = sUidCache.get(uid);
+        if (cached == null) {
+            first.loadNameAndIcon();
+        }
+        final String name = cached != null ? cached.name : first.name;
+        final Drawable icon = cached != null ? cached.icon : first.icon;
+        final String packageName = cached != null ? cached.packageName
+                : first.defaultPackageName;
+
+        final ArrayList<BatteryEntry> pending;
+        final boolean done;
+        synchronized (sRequestLock) {
+            if (generation != sRequestGeneration) {
+                return;
             }
+            pending = sPendingRequests.get(uid);
+            sPendingRequests.remove(uid);
+            done = sPendingRequests.size() == 0;
+            if (done) {
+                sRequestTasks.clear();
+            }
+        }
+        for (int i = 0, size = pending.size(); i < size; i++) {
+            final BatteryEntry entry = pending.get(i);
+            entry.name = name;
+            entry.icon = icon;
+            entry.defaultPackageName = packageName;
+            handler.sendMessage(handler.obtainMessage(MSG_UPDATE_NAME_ICON, entry));
+        }
+        if (done) {
+            handler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
         }
     }
 
-    public static void clearUidCache() {
-        sUidCache.clear();
+    private static Executor getLoaderExecutor() {
+        if (sLoaderExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                    POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, "BatteryUsage Icon Loader-" + threadCount.incrementAndGet()));
+            pool.allowCoreThreadTimeOut(true);
+            sLoaderExecutor = pool;
+        }
+        return sLoaderExecutor;
     }
 
     public final Context context;
@@ -227,9 +315,8 @@ public class BatteryEntry {
     }
 
     void getQuickNameIconForUid(final int uid) {
-        final String uidString = Integer.toString(uid);
-        if (sUidCache.containsKey(uidString)) {
-            UidToDetail utd = sUidCache.get(uidString);
+        final UidToDetail utd = sUidCache.get(uid);
+        if (utd != null) {
             defaultPackageName = utd.packageName;
             name = utd.name;
             icon = utd.icon;
@@ -249,9 +336,9 @@ public class BatteryEntry {
             icon = context.getDrawable(iconId);
         }
 
-        if (sHandler != null) {
-            synchronized (mRequestQueue) {
-                mRequestQueue.add(this);
+        synchronized (sRequestLock) {
+            if (sHandler != null) {
+                sRequestQueue.add(this);
             }
         }
     }
@@ -335,9 +422,8 @@ public class BatteryEntry {
             }
         }
 
-        final String uidString = Integer.toString(uid);
         if (name == null) {
-            name = uidString;
+            name = Integer.toString(uid);
         }
 
         if (icon == null) {
@@ -348,10 +434,7 @@ public class BatteryEntry {
         utd.name = name;
         utd.icon = icon;
         utd.packageName = defaultPackageName;
-        sUidCache.put(uidString, utd);
-        if (sHandler != null) {
-            sHandler.sendMessage(sHandler.obtainMessage(MSG_UPDATE_NAME_ICON, this));
-        }
+        sUidCache.put(uid, utd);
     }
 
     String[] extractPackagesFromSipper(BatterySipper sipper) {
@@ -19,8 +19,9 @@ package com.android.settings.fuelgauge;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.ColorStateList;
+import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.DashPathEffect;
 import android.graphics.Paint;
@@ -45,6 +46,7 @@ import libcore.icu.LocaleData;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Locale;
+import java.util.Objects;
 
 public class BatteryHistoryChart extends View {
     static final boolean DEBUG = false;
@@ -74,7 +76,9 @@ public class BatteryHistoryChart extends View {
 
         void init(int width) {
             if (width > 0) {
-                mTicks = new int[width*2];
+                if (mTicks == null || mTicks.length != width*2) {
+                    mTicks = new int[width*2];
+                }
             } else {
                 mTicks = null;
             }
@@ -193,6 +197,9 @@ public class BatteryHistoryChart extends View {
 
     int mLastWidth = -1;
     int mLastHeight = -1;
+    // Identifies what the chart shows, to tell whether the paths are still current.
+    ContentKey mContentKey;
+    ContentKey mBuiltContentKey;
 
     int mLineWidth;
     int mThinLineWidth;
@@ -210,7 +217,7 @@ public class BatteryHistoryChart extends View {
     int mLevelLeft;
     int mLevelRight;
 
-    int mNumHist;
+    BatteryHistoryTimeline mHistoryTimeline;
     long mHistStart;
     long mHistDataEnd;
     long mHistEnd;
@@ -228,8 +235,56 @@ public class BatteryHistoryChart extends View {
     final ArrayList<TimeLabel> mTimeLabels = new ArrayList<TimeLabel>();
     final ArrayList<DateLabel> mDateLabels = new ArrayList<DateLabel>();
 
-    Bitmap mBitmap;
-    Canvas mCanvas;
+    /**
+     * Everything the rendering of the chart depends on besides its size and layout direction.
+     * Fields are compared exactly; the theme is compared by identity.
+     */
+    static class ContentKey {
+        BatteryHistoryTimeline timeline;
+        long endWallTime;
+        int batteryLevel;
+        boolean discharging;
+        String chargeLabel;
+        boolean havePhoneSignal;
+        boolean is24Hour;
+        Locale locale;
+        float fontScale;
+        int uiMode;
+        Resources.Theme theme;
+        int textColor;
+        int headerTextColor;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ContentKey)) {
+                return false;
+            }
+            final ContentKey other = (ContentKey) o;
+            return timeline == other.timeline
+                    && endWallTime == other.endWallTime
+                    && batteryLevel == other.batteryLevel
+                    && discharging == other.discharging
+                    && Objects.equals(chargeLabel, other.chargeLabel)
+                    && havePhoneSignal == other.havePhoneSignal
+                    && is24Hour == other.is24Hour
+                    && Objects.equals(locale, other.locale)
+                    && Float.compare(fontScale, other.fontScale) == 0
+                    && uiMode == other.uiMode
+                    && theme == other.theme
+                    && textColor == other.textColor
+                    && headerTextColor == other.headerTextColor;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(timeline), endWallTime, batteryLevel,
+                    discharging, chargeLabel, havePhoneSignal, is24Hour, locale, fontScale,
+                    uiMode, System.identityHashCode(theme), textColor, headerTextColor);
+        }
+    }
 
     static class TextAttrs {
         ColorStateList textColor = null;
@@ -512,64 +567,18 @@ public class BatteryHistoryChart extends View {
             mChargeDurationString = "";
             setContentDescription(mInfo.chargeLabel);
 
-            int pos = 0;
-            int lastInteresting = 0;
-            byte lastLevel = -1;
             mBatLow = 0;
             mBatHigh = 100;
-            mStartWallTime = 0;
-            mEndDataWallTime = 0;
-            mEndWallTime = 0;
-            mHistStart = 0;
-            mHistEnd = 0;
-            long lastWallTime = 0;
-            long lastRealtime = 0;
-            int aggrStates = 0;
-            int aggrStates2 = 0;
-            boolean first = true;
-            if (stats.startIteratingHistoryLocked()) {
-                final HistoryItem rec = new HistoryItem();
-                while (stats.getNextHistoryLocked(rec)) {
-                    pos++;
-                    if (first) {
-                        first = false;
-                        mHistStart = rec.time;
-                    }
-                    if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                            || rec.cmd == HistoryItem.CMD_RESET) {
-                        // If there is a ridiculously large jump in time, then we won't be
-                        // able to create a good chart with that data, so just ignore the
-                        // times we got before and pretend like our data extends back from
-                        // the time we have now.
-                        // Also, if we are getting a time change and we are less than 5 minutes
-                        // since the start of the history real time, then also use this new
-                        // time to compute the base time, since whatever time we had before is
-                        // pretty much just noise.
-                        if (rec.currentTime > (lastWallTime+(180*24*60*60*1000L))
-                                || rec.time < (mHistStart+(5*60*1000L))) {
-                            mStartWallTime = 0;
-                        }
-                        lastWallTime = rec.currentTime;
-                        lastRealtime = rec.time;
-                        if (mStartWallTime == 0) {
-                            mStartWallTime = lastWallTime - (lastRealtime-mHistStart);
-                        }
-                    }
-                    if (rec.isDeltaData()) {
-                        if (rec.batteryLevel != lastLevel || pos == 1) {
-                            lastLevel = rec.batteryLevel;
-                        }
-                        lastInteresting = pos;
-                        mHistDataEnd = rec.time;
-                        aggrStates |= rec.states;
-                        aggrStates2 |= rec.states2;
-                    }
-                }
-            }
+            final BatteryHistoryTimeline timeline = mInfo.getHistoryTimeline();
+            mHistoryTimeline = timeline;
+            mHistStart = timeline.getHistoryStart();
+            mHistDataEnd = timeline.getHistoryEnd();
+            mStartWallTime = timeline.getStartWalltime();
+            final int aggrStates = timeline.getAggregatedStates();
+            final int aggrStates2 = timeline.getAggregatedStates2();
             mHistEnd = mHistDataEnd + (mInfo.remainingTimeUs/1000);
-            mEndDataWallTime = lastWallTime + mHistDataEnd - lastRealtime;
+            mEndDataWallTime = timeline.getEndWalltime();
             mEndWallTime = mEndDataWallTime + (mInfo.remainingTimeUs/1000);
-            mNumHist = lastInteresting;
             mHaveGps = (aggrStates&HistoryItem.STATE_GPS_ON_FLAG) != 0;
             mHaveFlashlight = (aggrStates2&HistoryItem.STATE2_FLASHLIGHT_FLAG) != 0;
             mHaveCamera = (aggrStates2&HistoryItem.STATE2_CAMERA_FLAG) != 0;
@@ -581,6 +590,23 @@ public class BatteryHistoryChart extends View {
                 mHavePhoneSignal = true;
             }
             if (mHistEnd <= mHistStart) mHistEnd = mHistStart+1;
+            final Configuration config = getResources().getConfiguration();
+            final ContentKey key = new ContentKey();
+            key.timeline = timeline;
+            key.endWallTime = mEndWallTime;
+            key.batteryLevel = mInfo.batteryLevel;
+            key.discharging = mInfo.discharging;
+            key.chargeLabel = String.valueOf(mInfo.chargeLabel);
+            key.havePhoneSignal = mHavePhoneSignal;
+            key.is24Hour = is24Hour();
+            key.locale = config.locale;
+            key.fontScale = config.fontScale;
+            key.uiMode = config.uiMode;
+            key.theme = getContext().getTheme();
+            key.textColor = mTextPaint.getColor();
+            key.headerTextColor = mHeaderTextPaint.getColor();
+            mContentKey = key;
+            invalidate();
         }, mStats, false /* shortString */);
     }
 
@@ -659,8 +685,11 @@ public class BatteryHistoryChart extends View {
         super.onSizeChanged(w, h, oldw, oldh);
 
         if (DEBUG) Log.d(TAG, "onSizeChanged: " + oldw + "x" + oldh + " to " + w + "x" + h);
+        // The chart is built when it is next drawn, unless it is current.
+    }
 
-        if (mLastWidth == w && mLastHeight == h) {
+    void buildChart(int w, int h) {
+        if (mLastWidth == w && mLastHeight == h && Objects.equals(mBuiltContentKey, mContentKey)) {
             return;
         }
 
@@ -672,8 +701,7 @@ public class BatteryHistoryChart extends View {
 
         mLastWidth = w;
         mLastHeight = h;
-        mBitmap = null;
-        mCanvas = null;
+        mBuiltContentKey = mContentKey;
 
         int textHeight = mTextDescent - mTextAscent;
         if (h > ((textHeight*10)+mChartMinHeight)) {
@@ -754,8 +782,6 @@ public class BatteryHistoryChart extends View {
         final long walltimeStart = mStartWallTime;
         final long walltimeChange = mEndWallTime > walltimeStart
                 ? (mEndWallTime-walltimeStart) : 1;
-        long curWalltime = mStartWallTime;
-        long lastRealtime = 0;
 
         final int batLow = mBatLow;
         final int batChange = mBatHigh-mBatLow;
@@ -764,42 +790,43 @@ public class BatteryHistoryChart extends View {
         mLevelBottom = mLevelTop + levelh;
 
         int x = mLevelLeft, y = 0, startX = mLevelLeft, lastX = -1, lastY = -1;
-        int i = 0;
         Path curLevelPath = null;
         Path lastLinePath = null;
         boolean lastCharging = false, lastScreenOn = false, lastGpsOn = false;
         boolean lastFlashlightOn = false, lastCameraOn = false;
         boolean lastWifiRunning = false, lastWifiSupplRunning = false, lastCpuRunning = false;
         int lastWifiSupplState = BatteryStats.WIFI_SUPPL_STATE_INVALID;
-        final int N = mNumHist;
-        if (mEndDataWallTime > mStartWallTime && mStats.startIteratingHistoryLocked()) {
-            final HistoryItem rec = new HistoryItem();
-            while (mStats.getNextHistoryLocked(rec) && i < N) {
-                if (rec.isDeltaData()) {
-                    curWalltime += rec.time-lastRealtime;
-                    lastRealtime = rec.time;
-                    x = mLevelLeft + (int)(((curWalltime-walltimeStart)*levelWidth)/walltimeChange);
+        final BatteryHistoryTimeline timeline = mHistoryTimeline;
+        final int N = timeline != null ? timeline.size() : 0;
+        if (mEndDataWallTime > mStartWallTime) {
+            for (int i = 0; i < N; i++) {
+                if (!timeline.isGap(i)) {
+                    final long walloff = timeline.getTime(i);
+                    final int batteryLevel = timeline.getBatteryLevel(i);
+                    final int states = timeline.getStates(i);
+                    final int states2 = timeline.getStates2(i);
+                    x = mLevelLeft + (int)((walloff*levelWidth)/walltimeChange);
                     if (x < 0) {
                         x = 0;
                     }
                     if (false) {
                         StringBuilder sb = new StringBuilder(128);
                         sb.append("walloff=");
-                        TimeUtils.formatDuration(curWalltime - walltimeStart, sb);
+                        TimeUtils.formatDuration(walloff, sb);
                         sb.append(" wallchange=");
                         TimeUtils.formatDuration(walltimeChange, sb);
                         sb.append(" x=");
                         sb.append(x);
                         Log.d("foo", sb.toString());
                     }
-                    y = mLevelTop + levelh - ((rec.batteryLevel-batLow)*(levelh-1))/batChange;
+                    y = mLevelTop + levelh - ((batteryLevel-batLow)*(levelh-1))/batChange;
 
                     if (lastX != x) {
                         // We have moved by at least a pixel.
                         if (lastY != y) {
                             // Don't plot changes within a pixel.
                             Path path;
-                            byte value = rec.batteryLevel;
+                            int value = batteryLevel;
                             if (value <= mBatteryCriticalLevel) path = mBatCriticalPath;
                             else if (value <= mBatteryWarnLevel) path = mBatWarnPath;
                             else path = null; //mBatGoodPath;
@@ -830,7 +857,7 @@ public class BatteryHistoryChart extends View {
 
                     if (mLargeMode) {
                         final boolean charging =
-                            (rec.states&HistoryItem.STATE_BATTERY_PLUGGED_FLAG) != 0;
+                            (states&HistoryItem.STATE_BATTERY_PLUGGED_FLAG) != 0;
                         if (charging != lastCharging) {
                             if (charging) {
                                 mChargingPath.moveTo(x, h-mChargingOffset);
@@ -841,7 +868,7 @@ public class BatteryHistoryChart extends View {
                         }
 
                         final boolean screenOn =
-                            (rec.states&HistoryItem.STATE_SCREEN_ON_FLAG) != 0;
+                            (states&HistoryItem.STATE_SCREEN_ON_FLAG) != 0;
                         if (screenOn != lastScreenOn) {
                             if (screenOn) {
                                 mScreenOnPath.moveTo(x, h-mScreenOnOffset);
@@ -852,7 +879,7 @@ public class BatteryHistoryChart extends View {
                         }
 
                         final boolean gpsOn =
-                            (rec.states&HistoryItem.STATE_GPS_ON_FLAG) != 0;
+                            (states&HistoryItem.STATE_GPS_ON_FLAG) != 0;
                         if (gpsOn != lastGpsOn) {
                             if (gpsOn) {
                                 mGpsOnPath.moveTo(x, h-mGpsOnOffset);
@@ -863,7 +890,7 @@ public class BatteryHistoryChart extends View {
                         }
 
                         final boolean flashlightOn =
-                            (rec.states2&HistoryItem.STATE2_FLASHLIGHT_FLAG) != 0;
+                            (states2&HistoryItem.STATE2_FLASHLIGHT_FLAG) != 0;
                         if (flashlightOn != lastFlashlightOn) {
                             if (flashlightOn) {
                                 mFlashlightOnPath.moveTo(x, h-mFlashlightOnOffset);
@@ -874,7 +901,7 @@ public class BatteryHistoryChart extends View {
                         }
 
                         final boolean cameraOn =
-                            (rec.states2&HistoryItem.STATE2_CAMERA_FLAG) != 0;
+                            (states2&HistoryItem.STATE2_CAMERA_FLAG) != 0;
                         if (cameraOn != lastCameraOn) {
                             if (cameraOn) {
                                 mCameraOnPath.moveTo(x, h-mCameraOnOffset);
@@ -885,7 +912,7 @@ public class BatteryHistoryChart extends View {
                         }
 
                         final int wifiSupplState =
-                            ((rec.states2&HistoryItem.STATE2_WIFI_SUPPL_STATE_MASK)
+                            ((states2&HistoryItem.STATE2_WIFI_SUPPL_STATE_MASK)
                                     >> HistoryItem.STATE2_WIFI_SUPPL_STATE_SHIFT);
                         boolean wifiRunning;
                         if (lastWifiSupplState != wifiSupplState) {
@@ -906,7 +933,7 @@ public class BatteryHistoryChart extends View {
                         } else {
                             wifiRunning = lastWifiSupplRunning;
                         }
-                        if ((rec.states&(HistoryItem.STATE_WIFI_FULL_LOCK_FLAG
+                        if ((states&(HistoryItem.STATE_WIFI_FULL_LOCK_FLAG
                                 |HistoryItem.STATE_WIFI_MULTICAST_ON_FLAG
                                 |HistoryItem.STATE_WIFI_SCAN_FLAG)) != 0) {
                             wifiRunning = true;
@@ -921,7 +948,7 @@ public class BatteryHistoryChart extends View {
                         }
 
                         final boolean cpuRunning =
-                            (rec.states&HistoryItem.STATE_CPU_RUNNING_FLAG) != 0;
+                            (states&HistoryItem.STATE_CPU_RUNNING_FLAG) != 0;
                         if (cpuRunning != lastCpuRunning) {
                             if (cpuRunning) {
                                 mCpuRunningPath.moveTo(x, h - mCpuRunningOffset);
@@ -933,14 +960,14 @@ public class BatteryHistoryChart extends View {
 
                         if (mLargeMode && mHavePhoneSignal) {
                             int bin;
-                            if (((rec.states&HistoryItem.STATE_PHONE_STATE_MASK)
+                            if (((states&HistoryItem.STATE_PHONE_STATE_MASK)
                                     >> HistoryItem.STATE_PHONE_STATE_SHIFT)
                                     == ServiceState.STATE_POWER_OFF) {
                                 bin = 0;
-                            } else if ((rec.states&HistoryItem.STATE_PHONE_SCANNING_FLAG) != 0) {
+                            } else if ((states&HistoryItem.STATE_PHONE_SCANNING_FLAG) != 0) {
                                 bin = 1;
                             } else {
-                                bin = (rec.states&HistoryItem.STATE_PHONE_SIGNAL_STRENGTH_MASK)
+                                bin = (states&HistoryItem.STATE_PHONE_SIGNAL_STRENGTH_MASK)
                                         >> HistoryItem.STATE_PHONE_SIGNAL_STRENGTH_SHIFT;
                                 bin += 2;
                             }
@@ -948,37 +975,17 @@ public class BatteryHistoryChart extends View {
                         }
                     }
 
-                } else {
-                    long lastWalltime = curWalltime;
-                    if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                            || rec.cmd == HistoryItem.CMD_RESET) {
-                        if (rec.currentTime >= mStartWallTime) {
-                            curWalltime = rec.currentTime;
-                        } else {
-                            curWalltime = mStartWallTime + (rec.time-mHistStart);
-                        }
-                        lastRealtime = rec.time;
-                    }
-
-                    if (rec.cmd != HistoryItem.CMD_OVERFLOW
-                            && (rec.cmd != HistoryItem.CMD_CURRENT_TIME
-                                    || Math.abs(lastWalltime-curWalltime) > (60*60*1000))) {
-                        if (curLevelPath != null) {
-                            finishPaths(x+1, h, levelh, startX, lastY, curLevelPath, lastX,
-                                    lastCharging, lastScreenOn, lastGpsOn, lastFlashlightOn,
-                                    lastCameraOn, lastWifiRunning, lastCpuRunning, lastLinePath);
-                            lastX = lastY = -1;
-                            curLevelPath = null;
-                            lastLinePath = null;
-                            lastCharging = lastScreenOn = lastGpsOn = lastFlashlightOn =
-                                    lastCameraOn = lastCpuRunning = false;
-                        }
-                    }
+                } else if (curLevelPath != null) {
+                    finishPaths(x+1, h, levelh, startX, lastY, curLevelPath, lastX,
+                            lastCharging, lastScreenOn, lastGpsOn, lastFlashlightOn,
+                            lastCameraOn, lastWifiRunning, lastCpuRunning, lastLinePath);
+                    lastX = lastY = -1;
+                    curLevelPath = null;
+                    lastLinePath = null;
+                    lastCharging = lastScreenOn = lastGpsOn = lastFlashlightOn =
+                            lastCameraOn = lastCpuRunning = false;
                 }
-
-                i++;
             }
-            mStats.finishIteratingHistoryLocked();
         }
 
         if (lastY < 0 || lastX < 0) {
@@ -1126,24 +1133,13 @@ public class BatteryHistoryChart extends View {
         final int width = getWidth();
         final int height = getHeight();
 
-        //buildBitmap(width, height);
-
         if (DEBUG) Log.d(TAG, "onDraw: " + width + "x" + height);
-        //canvas.drawBitmap(mBitmap, 0, 0, null);
-        drawChart(canvas, width, height);
-    }
-
-    void buildBitmap(int width, int height) {
-        if (mBitmap != null && width == mBitmap.getWidth() && height == mBitmap.getHeight()) {
+        if (mInfo == null || width <= 0 || height <= 0) {
             return;
         }
-
-        if (DEBUG) Log.d(TAG, "buildBitmap: " + width + "x" + height);
-
-        mBitmap = Bitmap.createBitmap(getResources().getDisplayMetrics(), width, height,
-                Bitmap.Config.ARGB_8888);
-        mCanvas = new Canvas(mBitmap);
-        drawChart(mCanvas, width, height);
+        // Only rebuilds the paths when the size or the content key changed.
+        buildChart(width, height);
+        drawChart(canvas, width, height);
     }
 
     void drawChart(Canvas canvas, int width, int height) {
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+
+/**
+ * Battery history decoded with a single walk over {@link BatteryStats}, kept as one primitive
+ * array per signal so that the history graph and chart can read it as often as they need
+ * without iterating the stats again.
+ * <p/>
+ * Each row is either a data point or a gap, where the graph should break its lines. Times are
+ * in milliseconds since {@link #getStartWalltime()}; rows after the last data point are dropped.
+ */
+public class BatteryHistoryTimeline {
+
+    @VisibleForTesting
+    static final int INITIAL_CAPACITY = 256;
+
+    // Battery level of gap rows, which have no other data.
+    private static final int LEVEL_GAP = -1;
+
+    // Kinds of the rows while decoding, before the wall clock changes are resolved.
+    private static final int ROW_GAP = 0;
+    private static final int ROW_CURRENT_TIME = 1;
+    private static final int ROW_RESET = 2;
+
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private int[] mLevels = new int[INITIAL_CAPACITY];
+    private int[] mStates = new int[INITIAL_CAPACITY];
+    private int[] mStates2 = new int[INITIAL_CAPACITY];
+    private int mSize;
+
+    private long mStartWalltime;
+    private long mEndWalltime;
+    private long mHistoryStart;
+    private long mHistoryEnd;
+    private int mAggregatedStates;
+    private int mAggregatedStates2;
+
+    /**
+     * Decodes the whole history of {@param stats}.
+     */
+    public static BatteryHistoryTimeline decode(BatteryStats stats) {
+        final BatteryHistoryTimeline timeline = new BatteryHistoryTimeline();
+        // Until the wall clock is resolved, mTimes holds the elapsed realtime of each row and
+        // mStates the kind of the gap rows, whose wall clock, if any, goes in walltimes.
+        long[] walltimes = new long[INITIAL_CAPACITY];
+        long lastWalltime = 0;
+        long lastRealtime = 0;
+        int lastInteresting = 0;
+        boolean first = true;
+        if (stats.startIteratingHistoryLocked()) {
+            final HistoryItem rec = new HistoryItem();
+            while (stats.getNextHistoryLocked(rec)) {
+                if (first) {
+                    first = false;
+                    timeline.mHistoryStart = rec.time;
+                }
+                if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
+                        || rec.cmd == HistoryItem.CMD_RESET) {
+                    // If there is a ridiculously large jump in time, then we won't be
+                    // able to create a good chart with that data, so just ignore the
+                    // times we got before and pretend like our data extends back from
+                    // the time we have now.
+                    // Also, if we are getting a time change and we are less than 5 minutes
+                    // since the start of the history real time, then also use this new
+                    // time to compute the base time, since whatever time we had before is
+                    // pretty much just noise.
+                    if (rec.currentTime > (lastWalltime + (180 * 24 * 60 * 60 * 1000L))
+                            || rec.time < (timeline.mHistoryStart + (5 * 60 * 1000L))) {
+                        timeline.mStartWalltime = 0;
+                    }
+                    lastWalltime = rec.currentTime;
+                    lastRealtime = rec.time;
+                    if (timeline.mStartWalltime == 0) {
+                        timeline.mStartWalltime =
+                                lastWalltime - (lastRealtime - timeline.mHistoryStart);
+                    }
+                }
+                if (rec.isDeltaData()) {
+                    timeline.add(rec.time, rec.batteryLevel, rec.states, rec.states2);
+                    lastInteresting = timeline.mSize;
+                    timeline.mHistoryEnd = rec.time;
+                    timeline.mAggregatedStates |= rec.states;
+                    timeline.mAggregatedStates2 |= rec.states2;
+                } else if (rec.cmd != HistoryItem.CMD_OVERFLOW) {
+                    final int row = timeline.mSize;
+                    final boolean clock = rec.cmd == HistoryItem.CMD_CURRENT_TIME
+                            || rec.cmd == HistoryItem.CMD_RESET;
+                    timeline.add(rec.time, LEVEL_GAP, !clock ? ROW_GAP
+                            : rec.cmd == HistoryItem.CMD_RESET ? ROW_RESET : ROW_CURRENT_TIME,
+                            0);
+                    if (walltimes.length < timeline.mTimes.length) {
+                        walltimes = Arrays.copyOf(walltimes, timeline.mTimes.length);
+                    }
+                    walltimes[row] = rec.currentTime;
+                }
+            }
+        }
+        stats.finishIteratingHistoryLocked();
+        timeline.mEndWalltime = lastWalltime + timeline.mHistoryEnd - lastRealtime;
+        timeline.resolveWalltimes(walltimes, lastInteresting);
+        return timeline;
+    }
+
+    @VisibleForTesting
+    BatteryHistoryTimeline() {
+    }
+
+    public long getStartWalltime() {
+        return mStartWalltime;
+    }
+
+    public long getEndWalltime() {
+        return mEndWalltime;
+    }
+
+    /**
+     * Returns the elapsed realtime of the first history record.
+     */
+    public long getHistoryStart() {
+        return mHistoryStart;
+    }
+
+    /**
+     * Returns the elapsed realtime of the last data point.
+     */
+    public long getHistoryEnd() {
+        return mHistoryEnd;
+    }
+
+    /**
+     * Returns the {@link HistoryItem#states} flags set in at least one data point.
+     */
+    public int getAggregatedStates() {
+        return mAggregatedStates;
+    }
+
+    /**
+     * Returns the {@link HistoryItem#states2} flags set in at least one data point.
+     */
+    public int getAggregatedStates2() {
+        return mAggregatedStates2;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isGap(int row) {
+        return mLevels[row] == LEVEL_GAP;
+    }
+
+    /**
+     * Returns the time of {@param row} since the start, which is negative for data recorded
+     * before the wall clock was known.
+     */
+    public long getTime(int row) {
+        return mTimes[row];
+    }
+
+    public int getBatteryLevel(int row) {
+        return mLevels[row];
+    }
+
+    public int getStates(int row) {
+        return mStates[row];
+    }
+
+    public int getStates2(int row) {
+        return mStates2[row];
+    }
+
+    /**
+     * Feeds the timeline to {@param parsers} as if they were walking the history.
+     */
+    public void replay(BatteryInfo.BatteryDataParser... parsers) {
+        for (int j = 0; j < parsers.length; j++) {
+            parsers[j].onParsingStarted(mStartWalltime, mEndWalltime);
+        }
+        if (mEndWalltime > mStartWalltime) {
+            final HistoryItem rec = new HistoryItem();
+            rec.cmd = HistoryItem.CMD_UPDATE;
+            for (int i = 0; i < mSize; i++) {
+                if (isGap(i)) {
+                    for (int j = 0; j < parsers.length; j++) {
+                        parsers[j].onDataGap();
+                    }
+                    continue;
+                }
+                rec.batteryLevel = (byte) mLevels[i];
+                rec.states = mStates[i];
+                rec.states2 = mStates2[i];
+                final long time = Math.max(mTimes[i], 0);
+                for (int j = 0; j < parsers.length; j++) {
+                    parsers[j].onDataPoint(time, rec);
+                }
+            }
+        }
+        for (int j = 0; j < parsers.length; j++) {
+            parsers[j].onParsingDone();
+        }
+    }
+
+    @VisibleForTesting
+    void add(long time, int level, int states, int states2) {
+        if (mSize == mTimes.length) {
+            final int capacity = mSize * 2;
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mLevels = Arrays.copyOf(mLevels, capacity);
+            mStates = Arrays.copyOf(mStates, capacity);
+            mStates2 = Arrays.copyOf(mStates2, capacity);
+        }
+        mTimes[mSize] = time;
+        mLevels[mSize] = level;
+        mStates[mSize] = states;
+        mStates2[mSize] = states2;
+        mSize++;
+    }
+
+    /**
+     * Turns the elapsed realtime of the first {@param count} rows into times since the start,
+     * now that it is known, and turns the clock rows into gaps or drops them.
+     */
+    private void resolveWalltimes(long[] walltimes, int count) {
+        long curWalltime = mStartWalltime;
+        long lastRealtime = 0;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            final long realtime = mTimes[i];
+            if (mLevels[i] != LEVEL_GAP) {
+                curWalltime += realtime - lastRealtime;
+                lastRealtime = realtime;
+                mTimes[size] = curWalltime - mStartWalltime;
+                mLevels[size] = mLevels[i];
+                mStates[size] = mStates[i];
+                mStates2[size] = mStates2[i];
+                size++;
+                continue;
+            }
+            final int kind = mStates[i];
+            final long lastWalltime = curWalltime;
+            if (kind == ROW_CURRENT_TIME || kind == ROW_RESET) {
+                if (walltimes[i] >= mStartWalltime) {
+                    curWalltime = walltimes[i];
+                } else {
+                    curWalltime = mStartWalltime + (realtime - mHistoryStart);
+                }
+                lastRealtime = realtime;
+            }
+            if (kind != ROW_CURRENT_TIME
+                    || Math.abs(lastWalltime - curWalltime) > (60 * 60 * 1000)) {
+                mTimes[size] = curWalltime - mStartWalltime;
+                mLevels[size] = LEVEL_GAP;
+                mStates[size] = 0;
+                mStates2[size] = 0;
+                size++;
+            }
+        }
+        mSize = size;
+    }
+}
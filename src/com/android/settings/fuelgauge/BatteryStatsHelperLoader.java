@@ -26,28 +26,51 @@ import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.utils.AsyncLoader;
 
 /**
- * Loader to get new {@link BatteryStatsHelper} in the background
+ * Loader to get new {@link BatteryStatsHelper} in the background. A recent one loaded by another
+ * battery screen is reused, see {@link BatteryStatsSnapshot}.
  */
 public class BatteryStatsHelperLoader extends AsyncLoader<BatteryStatsHelper> {
     @VisibleForTesting
     UserManager mUserManager;
     @VisibleForTesting
     BatteryUtils mBatteryUtils;
+    @VisibleForTesting
+    BatteryStatsSnapshot mBatteryStatsSnapshot;
+    @VisibleForTesting
+    boolean mResetStats;
 
     public BatteryStatsHelperLoader(Context context) {
+        this(context, false /* resetStats */);
+    }
+
+    /**
+     * @param resetStats whether to reset the stats, which are then shared with the other
+     *                   battery screens in place of the ones they show.
+     */
+    public BatteryStatsHelperLoader(Context context, boolean resetStats) {
         super(context);
+        mResetStats = resetStats;
         mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
         mBatteryUtils = BatteryUtils.getInstance(context);
+        mBatteryStatsSnapshot = BatteryStatsSnapshot.getInstance();
     }
 
     @Override
     public BatteryStatsHelper loadInBackground() {
-        Context context = getContext();
-        final BatteryStatsHelper statsHelper = new BatteryStatsHelper(context,
-                true /* collectBatteryBroadcast */);
-        mBatteryUtils.initBatteryStatsHelper(statsHelper, null /* bundle */, mUserManager);
+        if (mResetStats) {
+            mBatteryStatsSnapshot.invalidate();
+        }
+        return mBatteryStatsSnapshot.get(() -> {
+            Context context = getContext();
+            final BatteryStatsHelper statsHelper = new BatteryStatsHelper(context,
+                    true /* collectBatteryBroadcast */);
+            mBatteryUtils.initBatteryStatsHelper(statsHelper, null /* bundle */, mUserManager);
+            if (mResetStats) {
+                mBatteryUtils.resetBatteryStatsHelper(statsHelper, mUserManager);
+            }
 
-        return statsHelper;
+            return statsHelper;
+        });
     }
 
     @Override
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.ArraySet;
+
+import com.android.internal.os.BatteryStatsHelper;
+
+/**
+ * Process wide {@link BatteryStatsHelper} shared by the battery screens, so that moving between
+ * them does not refresh and parse the battery stats again each time.
+ * <p/>
+ * A loaded helper is kept for {@link #MAX_AGE_MS} while at least one screen holds a reference
+ * through {@link #acquire()}, and dropped once the last one calls {@link #release()}.
+ */
+public class BatteryStatsSnapshot {
+
+    @VisibleForTesting
+    static final long MAX_AGE_MS = 10000;
+
+    private static BatteryStatsSnapshot sInstance;
+
+    public interface StatsLoader {
+        /**
+         * Creates a new helper with refreshed stats.
+         */
+        @WorkerThread
+        BatteryStatsHelper load();
+    }
+
+    public interface OnBatteryStatsChangedListener {
+        /**
+         * Called when newer stats than the ones shown may be available.
+         */
+        @MainThread
+        void onBatteryStatsChanged(BatteryStatsHelper statsHelper);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Held while loading, so that concurrent requests wait for and share one load.
+    private final Object mLoadLock = new Object();
+
+    // Guarded by this.
+    private final ArraySet<OnBatteryStatsChangedListener> mListeners = new ArraySet<>();
+    private int mRefCount;
+    private BatteryStatsHelper mStatsHelper;
+    private long mLoadedTime;
+    // Incremented by invalidate(), so a load started before it is not kept.
+    private int mGeneration;
+    // Last battery state reported by the holders.
+    private String mBatteryLevel;
+    private String mBatteryStatus;
+
+    public static synchronized BatteryStatsSnapshot getInstance() {
+        if (sInstance == null) {
+            sInstance = new BatteryStatsSnapshot();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BatteryStatsSnapshot() {
+    }
+
+    public synchronized void acquire() {
+        mRefCount++;
+    }
+
+    public synchronized void release() {
+        if (mRefCount > 0 && --mRefCount == 0) {
+            mStatsHelper = null;
+            mBatteryLevel = null;
+            mBatteryStatus = null;
+        }
+    }
+
+    public synchronized void addListener(OnBatteryStatsChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    public synchronized void removeListener(OnBatteryStatsChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Makes the next {@link #get} load new stats, for example after they were reset.
+     */
+    public synchronized void invalidate() {
+        mStatsHelper = null;
+        mGeneration++;
+    }
+
+    /**
+     * Makes the next {@link #get} load new stats if the battery level or status differ from the
+     * ones last reported, so that only the first holder to see a change reloads for all.
+     */
+    public synchronized void onBatteryChanged(String batteryLevel, String batteryStatus) {
+        if (mBatteryLevel != null && (!mBatteryLevel.equals(batteryLevel)
+                || !mBatteryStatus.equals(batteryStatus))) {
+            invalidate();
+        }
+        mBatteryLevel = batteryLevel;
+        mBatteryStatus = batteryStatus;
+    }
+
+    /**
+     * Returns the shared helper if it is recent enough, or loads a new one with {@param loader}
+     * and shares it with the other holders, which are then notified.
+     */
+    @WorkerThread
+    public BatteryStatsHelper get(StatsLoader loader) {
+        synchronized (mLoadLock) {
+            final int generation;
+            synchronized (this) {
+                if (mStatsHelper != null
+                        && SystemClock.elapsedRealtime() - mLoadedTime < MAX_AGE_MS) {
+                    return mStatsHelper;
+                }
+                generation = mGeneration;
+            }
+            final BatteryStatsHelper statsHelper = loader.load();
+            final OnBatteryStatsChangedListener[] listeners;
+            synchronized (this) {
+                if (mRefCount == 0 || generation != mGeneration) {
+                    return statsHelper;
+                }
+                mStatsHelper = statsHelper;
+                mLoadedTime = SystemClock.elapsedRealtime();
+                listeners = mListeners.toArray(
+                        new OnBatteryStatsChangedListener[mListeners.size()]);
+            }
+            mMainHandler.post(() -> {
+                for (OnBatteryStatsChangedListener listener : listeners) {
+                    synchronized (this) {
+                        if (!mListeners.contains(listener)) {
+                            continue;
+                        }
+                    }
+                    listener.onBatteryStatsChanged(statsHelper);
+                }
+            });
+            return statsHelper;
+        }
+    }
+}
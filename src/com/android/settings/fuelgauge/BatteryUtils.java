@@ -41,6 +41,7 @@ import com.android.settings.overlay.FeatureFactory;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -326,6 +327,27 @@ public class BatteryUtils {
         });
     }
 
+    /**
+     * Copy the {@link BatterySipper}s in {@code usageList}, so that they can be coalesced, smeared
+     * or annotated without changing the ones of a {@link BatteryStatsHelper} shared through
+     * {@link BatteryStatsSnapshot}.
+     *
+     * @return a new list holding a copy of each sipper
+     */
+    public static List<BatterySipper> copyUsageList(List<BatterySipper> usageList) {
+        final List<BatterySipper> copies = new ArrayList<>(usageList.size());
+        for (int i = 0, size = usageList.size(); i < size; i++) {
+            final BatterySipper sipper = usageList.get(i);
+            final BatterySipper copy = new BatterySipper(sipper.drainType, sipper.uidObj, 0);
+            copy.add(sipper);
+            copy.userId = sipper.userId;
+            copy.packageWithHighestDrain = sipper.packageWithHighestDrain;
+            copy.mPackages = sipper.mPackages;
+            copies.add(copy);
+        }
+        return copies;
+    }
+
     /**
      * Calculate the time since last full charge, including the device off time
      *
@@ -388,6 +410,15 @@ public class BatteryUtils {
         statsHelper.refreshStats(BatteryStats.STATS_SINCE_CHARGED, userManager.getUserProfiles());
     }
 
+    /**
+     * Resets the stats of {@param statsHelper}, which must not be shown yet, and refreshes it.
+     */
+    public void resetBatteryStatsHelper(BatteryStatsHelper statsHelper,
+            UserManager userManager) {
+        statsHelper.resetStatistics();
+        statsHelper.refreshStats(BatteryStats.STATS_SINCE_CHARGED, userManager.getUserProfiles());
+    }
+
     private boolean isDataCorrupted() {
         return mPackageManager == null || mAppOpsManager == null;
     }
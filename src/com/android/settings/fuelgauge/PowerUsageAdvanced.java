@@ -262,7 +262,9 @@ public class PowerUsageAdvanced extends PowerUsageBase {
 
     @VisibleForTesting
     List<PowerUsageData> parsePowerUsageData(BatteryStatsHelper statusHelper) {
-        final List<BatterySipper> batterySippers = statusHelper.getUsageList();
+        // The helper may be shared with other screens, so only change copies of its sippers.
+        final List<BatterySipper> batterySippers =
+                BatteryUtils.copyUsageList(statusHelper.getUsageList());
         final Map<Integer, PowerUsageData> batteryDataMap = new HashMap<>();
 
         for (final @UsageType Integer type : mUsageTypes) {
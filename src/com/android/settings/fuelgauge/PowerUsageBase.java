@@ -38,10 +38,22 @@ public abstract class PowerUsageBase extends DashboardFragment
     @VisibleForTesting
     static final int MENU_STATS_REFRESH = Menu.FIRST + 1;
     private static final String TAG = "PowerUsageBase";
+    private static final String KEY_RESET_STATS = "reset_stats";
 
     protected BatteryStatsHelper mStatsHelper;
     protected UserManager mUm;
     private BatteryBroadcastReceiver mBatteryBroadcastReceiver;
+    private BatteryStatsSnapshot mBatteryStatsSnapshot;
+    // Whether the stats loader has not delivered its result yet.
+    private boolean mStatsLoading;
+
+    private final BatteryStatsSnapshot.OnBatteryStatsChangedListener mStatsChangedListener =
+            statsHelper -> {
+                // Another battery screen loaded newer stats, show them here as well.
+                if (!mStatsLoading && statsHelper != mStatsHelper) {
+                    restartBatteryStatsLoader();
+                }
+            };
 
     @Override
     public void onAttach(Activity activity) {
@@ -56,8 +68,14 @@ public abstract class PowerUsageBase extends DashboardFragment
         mStatsHelper.create(icicle);
         setHasOptionsMenu(true);
 
+        mBatteryStatsSnapshot = BatteryStatsSnapshot.getInstance();
+        mBatteryStatsSnapshot.acquire();
+        mBatteryStatsSnapshot.addListener(mStatsChangedListener);
+
         mBatteryBroadcastReceiver = new BatteryBroadcastReceiver(getContext());
         mBatteryBroadcastReceiver.setBatteryChangedListener(() -> {
+            mBatteryStatsSnapshot.onBatteryChanged(mBatteryBroadcastReceiver.getBatteryLevel(),
+                    mBatteryBroadcastReceiver.getBatteryStatus());
             restartBatteryStatsLoader();
         });
 
@@ -83,10 +101,27 @@ public abstract class PowerUsageBase extends DashboardFragment
         mBatteryBroadcastReceiver.unRegister();
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mBatteryStatsSnapshot.removeListener(mStatsChangedListener);
+        mBatteryStatsSnapshot.release();
+    }
+
     protected void restartBatteryStatsLoader() {
         getLoaderManager().restartLoader(0, Bundle.EMPTY, this);
     }
 
+    /**
+     * Resets the battery stats in the background, then shows them here and on the other battery
+     * screens.
+     */
+    protected void resetBatteryStats() {
+        final Bundle args = new Bundle();
+        args.putBoolean(KEY_RESET_STATS, true);
+        getLoaderManager().restartLoader(0, args, this);
+    }
+
     protected abstract void refreshUi();
 
     protected void updatePreference(BatteryHistoryPreference historyPref) {
@@ -98,12 +133,15 @@ public abstract class PowerUsageBase extends DashboardFragment
     @Override
     public Loader<BatteryStatsHelper> onCreateLoader(int id,
             Bundle args) {
-        return new BatteryStatsHelperLoader(getContext());
+        mStatsLoading = true;
+        return new BatteryStatsHelperLoader(getContext(),
+                args != null && args.getBoolean(KEY_RESET_STATS));
     }
 
     @Override
     public void onLoadFinished(Loader<BatteryStatsHelper> loader,
             BatteryStatsHelper statsHelper) {
+        mStatsLoading = false;
         mStatsHelper = statsHelper;
         refreshUi();
     }
@@ -31,7 +31,6 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.Process;
 import android.os.UserHandle;
-import android.os.UserManager;
 import android.provider.SearchIndexableResource;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.preference.Preference;
@@ -362,13 +361,9 @@ public class PowerUsageSummary extends PowerUsageBase implements
             .setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
                 @Override
                 public void onClick(DialogInterface dialog, int which) {
-                    final UserManager mUserManager = (UserManager) getActivity()
-                            .getSystemService(Context.USER_SERVICE);
-                    // Reset stats and request a refresh to initialize vars
-                    mStatsHelper.resetStatistics();
-                    mStatsHelper.refreshStats(BatteryStats.STATS_SINCE_CHARGED,
-                            mUserManager.getUserProfiles());
-                    refreshUi();
+                    // The helper shown is shared with the other battery screens, so reset
+                    // and refresh a new one instead.
+                    resetBatteryStats();
                 }
             })
             .setNegativeButton(R.string.cancel, null)
@@ -598,11 +593,8 @@ public class PowerUsageSummary extends PowerUsageBase implements
         mAppListGroup.setOrderingAsAdded(false);
 
         if (averagePower >= MIN_AVERAGE_POWER_THRESHOLD_MILLI_AMP || USE_FAKE_DATA) {
-            final List<BatterySipper> usageList = getCoalescedUsageList(
-                    USE_FAKE_DATA ? getFakeStats() : mStatsHelper.getUsageList());
-            double hiddenPowerMah = mShowAllApps ? 0 :
-                    mBatteryUtils.removeHiddenBatterySippers(usageList);
-            mBatteryUtils.sortUsageList(usageList);
+            final List<BatterySipper> usageList = new ArrayList<>();
+            final double hiddenPowerMah = buildUsageList(usageList);
 
             final int numSippers = usageList.size();
             for (int i = 0; i < numSippers; i++) {
@@ -666,6 +658,23 @@ public class PowerUsageSummary extends PowerUsageBase implements
         BatteryEntry.startRequestQueue();
     }
 
+    /**
+     * Adds the sippers to list to {@param usageList}, coalesced, without the hidden ones and
+     * sorted by power use. The helper may be shared with other screens through
+     * {@link BatteryStatsSnapshot}, so only copies of its sippers are changed.
+     *
+     * @return the power of the hidden sippers
+     */
+    @VisibleForTesting
+    double buildUsageList(List<BatterySipper> usageList) {
+        usageList.addAll(getCoalescedUsageList(USE_FAKE_DATA
+                ? getFakeStats() : BatteryUtils.copyUsageList(mStatsHelper.getUsageList())));
+        final double hiddenPowerMah = mShowAllApps ? 0 :
+                mBatteryUtils.removeHiddenBatterySippers(usageList);
+        mBatteryUtils.sortUsageList(usageList);
+        return hiddenPowerMah;
+    }
+
     @VisibleForTesting
     boolean shouldHideSipper(BatterySipper sipper) {
         // Don't show over-counted and unaccounted in any condition
@@ -26,6 +26,7 @@ import android.util.Log;
 
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.internal.util.ArrayUtils;
+import com.android.settings.fuelgauge.BatteryStatsSnapshot;
 import com.android.settings.utils.AsyncLoader;
 
 import java.io.FileDescriptor;
@@ -62,7 +63,8 @@ public class AnomalyLoader extends AsyncLoader<List<Anomaly>> {
      * detect anomalies related to {@code packageName}, or check all apps if {@code packageName}
      * is {@code null}.
      *
-     * This constructor will create {@link BatteryStatsHelper} in background thread.
+     * This constructor will get {@link BatteryStatsHelper} in background thread, reusing the one
+     * of the other battery screens when recent enough.
      *
      * @param packageName if set, only finds anomalies for this package. If {@code null},
      *                    detects all anomalies of this type.
@@ -91,14 +93,25 @@ public class AnomalyLoader extends AsyncLoader<List<Anomaly>> {
         if (USE_FAKE_DATA) {
             return generateFakeData();
         }
-        if (mBatteryStatsHelper == null) {
-            mBatteryStatsHelper = new BatteryStatsHelper(getContext());
-            mBatteryStatsHelper.create((Bundle) null);
-            mBatteryStatsHelper.refreshStats(BatteryStats.STATS_SINCE_CHARGED,
-                    mUserManager.getUserProfiles());
+        if (mBatteryStatsHelper != null) {
+            return mAnomalyUtils.detectAnomalies(mBatteryStatsHelper, mPolicy, mPackageName);
         }
 
-        return mAnomalyUtils.detectAnomalies(mBatteryStatsHelper, mPolicy, mPackageName);
+        final BatteryStatsSnapshot snapshot = BatteryStatsSnapshot.getInstance();
+        snapshot.acquire();
+        try {
+            final BatteryStatsHelper batteryStatsHelper = snapshot.get(() -> {
+                final BatteryStatsHelper statsHelper = new BatteryStatsHelper(getContext(),
+                        true /* collectBatteryBroadcast */);
+                statsHelper.create((Bundle) null);
+                statsHelper.refreshStats(BatteryStats.STATS_SINCE_CHARGED,
+                        mUserManager.getUserProfiles());
+                return statsHelper;
+            });
+            return mAnomalyUtils.detectAnomalies(batteryStatsHelper, mPolicy, mPackageName);
+        } finally {
+            snapshot.release();
+        }
     }
 
     @VisibleForTesting
@@ -19,6 +19,7 @@ package com.android.settings.fuelgauge.anomaly.checker;
 
 import android.annotation.Nullable;
 
+import com.android.internal.os.BatterySipper;
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.fuelgauge.anomaly.Anomaly;
 
@@ -43,4 +44,17 @@ public interface AnomalyDetector {
      */
     List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             @Nullable String targetPackageName);
+
+    /**
+     * Detect whether there is anomaly among {@code batterySippers}, a part of the usage list of
+     * {@code batteryStatsHelper}, so different parts can be checked in parallel. Must not modify
+     * any shared state.
+     *
+     * @param batteryStatsHelper used to detect the anomaly
+     * @param batterySippers     the apps to check, in the order of the returned anomalies
+     * @param targetPackageName  represents the app need to be detected
+     * @return anomaly list
+     */
+    List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
+            List<BatterySipper> batterySippers, @Nullable String targetPackageName);
 }
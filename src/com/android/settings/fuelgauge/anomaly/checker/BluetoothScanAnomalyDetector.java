@@ -68,7 +68,13 @@ public class BluetoothScanAnomalyDetector implements AnomalyDetector {
     @Override
     public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             String targetPackageName) {
-        final List<BatterySipper> batterySippers = batteryStatsHelper.getUsageList();
+        return detectAnomalies(batteryStatsHelper, batteryStatsHelper.getUsageList(),
+                targetPackageName);
+    }
+
+    @Override
+    public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
+            List<BatterySipper> batterySippers, String targetPackageName) {
         final List<Anomaly> anomalies = new ArrayList<>();
         final int targetUid = mBatteryUtils.getPackageUid(targetPackageName);
         final long elapsedRealtimeMs = SystemClock.elapsedRealtime();
@@ -69,7 +69,13 @@ public class WakeLockAnomalyDetector implements AnomalyDetector {
     @Override
     public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             String targetPackageName) {
-        final List<BatterySipper> batterySippers = batteryStatsHelper.getUsageList();
+        return detectAnomalies(batteryStatsHelper, batteryStatsHelper.getUsageList(),
+                targetPackageName);
+    }
+
+    @Override
+    public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
+            List<BatterySipper> batterySippers, String targetPackageName) {
         final List<Anomaly> anomalies = new ArrayList<>();
         final long rawRealtime = SystemClock.elapsedRealtime();
         final int targetUid = mBatteryUtils.getPackageUid(targetPackageName);
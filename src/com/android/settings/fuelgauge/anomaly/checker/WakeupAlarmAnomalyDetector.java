@@ -70,7 +70,13 @@ public class WakeupAlarmAnomalyDetector implements AnomalyDetector {
     @Override
     public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             String targetPackageName) {
-        final List<BatterySipper> batterySippers = batteryStatsHelper.getUsageList();
+        return detectAnomalies(batteryStatsHelper, batteryStatsHelper.getUsageList(),
+                targetPackageName);
+    }
+
+    @Override
+    public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
+            List<BatterySipper> batterySippers, String targetPackageName) {
         final List<Anomaly> anomalies = new ArrayList<>();
         final double totalRunningHours = mBatteryUtils.calculateRunningTimeBasedOnStatsType(
                 batteryStatsHelper, BatteryStats.STATS_SINCE_CHARGED)
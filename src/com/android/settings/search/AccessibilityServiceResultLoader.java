@@ -35,7 +35,6 @@ import com.android.settings.accessibility.AccessibilitySettings;
 import com.android.settings.dashboard.SiteMapManager;
 import com.android.settings.utils.AsyncLoader;
 
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -64,12 +63,13 @@ public class AccessibilityServiceResultLoader extends AsyncLoader<Set<? extends
 
     @Override
     public Set<? extends SearchResult> loadInBackground() {
-        final Set<SearchResult> results = new HashSet<>();
+        final Set<SearchResult> results = new RankedSearchResults<>();
         final Context context = getContext();
         final List<AccessibilityServiceInfo> services = mAccessibilityManager
                 .getInstalledAccessibilityServiceList();
         final String screenTitle = context.getString(R.string.accessibility_settings);
         for (AccessibilityServiceInfo service : services) {
+            throwIfLoadInBackgroundCanceled();
             if (service == null) {
                 continue;
             }
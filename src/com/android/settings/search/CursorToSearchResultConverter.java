@@ -18,24 +18,21 @@
 package com.android.settings.search;
 
 import android.content.Context;
-import android.content.pm.PackageManager;
-import android.content.res.Resources;
 import android.database.Cursor;
-import android.graphics.drawable.Drawable;
 import android.os.BadParcelableException;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.android.settings.dashboard.SiteMapManager;
+import com.android.settings.search.SearchResult.BreadcrumbHandle;
+import com.android.settings.search.SearchResult.IconHandle;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import static com.android.settings.search.DatabaseResultLoader.BASE_RANKS;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_BASE_RANK;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_CLASS_NAME;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_ICON;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_ID;
@@ -55,7 +52,7 @@ import static com.android.settings.search.SearchResult.TOP_RANK;
  * - String Title
  * - String Summary
  * - int rank
- * - {@link Drawable} icon
+ * - {@link IconHandle} for the icon, loaded when the result is displayed
  * - {@link ResultPayload} payload
  */
 public class CursorToSearchResultConverter {
@@ -90,12 +87,34 @@ public class CursorToSearchResultConverter {
         if (cursorResults == null) {
             return null;
         }
-        final Map<String, Context> contextMap = new HashMap<>();
-        final Set<SearchResult> results = new HashSet<>();
+        final Set<SearchResult> results = new RankedSearchResults<>();
 
         while (cursorResults.moveToNext()) {
             SearchResult result = buildSingleSearchResultFromCursor(sitemapManager,
-                    contextMap, cursorResults, baseRank);
+                    cursorResults, baseRank);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Same as {@link #convertCursor(SiteMapManager, Cursor, int)}, but reads the base rank of each
+     * row from {@link DatabaseResultLoader#COLUMN_INDEX_BASE_RANK}, as returned by
+     * {@link FtsQueryEngine}.
+     */
+    public Set<SearchResult> convertRankedCursor(SiteMapManager sitemapManager,
+            Cursor cursorResults) {
+        if (cursorResults == null) {
+            return null;
+        }
+        final Set<SearchResult> results = new RankedSearchResults<>();
+
+        while (cursorResults.moveToNext()) {
+            final int baseRank = cursorResults.getInt(COLUMN_INDEX_BASE_RANK);
+            SearchResult result = buildSingleSearchResultFromCursor(sitemapManager,
+                    cursorResults, baseRank);
             if (result != null) {
                 results.add(result);
             }
@@ -124,7 +143,7 @@ public class CursorToSearchResultConverter {
     }
 
     private SearchResult buildSingleSearchResultFromCursor(SiteMapManager sitemapManager,
-            Map<String, Context> contextMap, Cursor cursor, int baseRank) {
+            Cursor cursor, int baseRank) {
         final int docId = cursor.getInt(COLUMN_INDEX_ID);
         final String pkgName = cursor.getString(COLUMN_INDEX_INTENT_ACTION_TARGET_PACKAGE);
         final String title = cursor.getString(COLUMN_INDEX_TITLE);
@@ -136,57 +155,41 @@ public class CursorToSearchResultConverter {
         final byte[] marshalledPayload = cursor.getBlob(COLUMN_INDEX_PAYLOAD);
         final ResultPayload payload = getUnmarshalledPayload(marshalledPayload, payloadType);
 
-        final List<String> breadcrumbs = getBreadcrumbs(sitemapManager, cursor);
         final int rank = getRank(title, baseRank, key);
 
         final SearchResult.Builder builder = new SearchResult.Builder()
                 .setStableId(docId)
                 .setTitle(title)
                 .setSummary(summaryOn)
-                .addBreadcrumbs(breadcrumbs)
+                .setBreadcrumbHandle(getBreadcrumbHandle(sitemapManager, cursor))
                 .setRank(rank)
-                .setIcon(getIconForPackage(contextMap, pkgName, className, iconResStr))
+                .setIconHandle(getIconHandle(pkgName, className, iconResStr))
                 .setPayload(payload);
         return builder.build();
     }
 
-    private Drawable getIconForPackage(Map<String, Context> contextMap, String pkgName,
-            String className, String iconResStr) {
+    /**
+     * Icons are loaded by {@link ResultResourceLoader} when the result is displayed. Icons of
+     * rows without a class come from the target package, others from Settings itself.
+     */
+    private IconHandle getIconHandle(String pkgName, String className, String iconResStr) {
         final int iconId = TextUtils.isEmpty(iconResStr)
                 ? 0 : Integer.parseInt(iconResStr);
-        Drawable icon;
-        Context packageContext;
         if (iconId == 0) {
-            icon = null;
-        } else {
-            if (TextUtils.isEmpty(className) && !TextUtils.isEmpty(pkgName)) {
-                packageContext = contextMap.get(pkgName);
-                if (packageContext == null) {
-                    try {
-                        packageContext = mContext.createPackageContext(pkgName, 0);
-                    } catch (PackageManager.NameNotFoundException e) {
-                        Log.e(TAG, "Cannot create Context for package: " + pkgName);
-                        return null;
-                    }
-                    contextMap.put(pkgName, packageContext);
-                }
-            } else {
-                packageContext = mContext;
-            }
-            try {
-                icon = packageContext.getDrawable(iconId);
-            } catch (Resources.NotFoundException nfe) {
-                icon = null;
-            }
+            return null;
         }
-        return icon;
+        final String iconPackage = TextUtils.isEmpty(className) && !TextUtils.isEmpty(pkgName)
+                ? pkgName : null;
+        return new IconHandle(iconPackage, iconId);
     }
 
-    private List<String> getBreadcrumbs(SiteMapManager siteMapManager, Cursor cursor) {
+    private BreadcrumbHandle getBreadcrumbHandle(SiteMapManager siteMapManager, Cursor cursor) {
+        if (siteMapManager == null) {
+            return null;
+        }
         final String screenTitle = cursor.getString(COLUMN_INDEX_SCREEN_TITLE);
         final String screenClass = cursor.getString(COLUMN_INDEX_CLASS_NAME);
-        return siteMapManager == null ? null : siteMapManager.buildBreadCrumb(mContext, screenClass,
-                screenTitle);
+        return new BreadcrumbHandle(siteMapManager, screenClass, screenTitle);
     }
 
     /** Uses the breadcrumbs to determine the offset to the base rank.
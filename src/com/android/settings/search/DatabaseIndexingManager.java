@@ -43,30 +43,9 @@ import static com.android.settings.search.DatabaseResultLoader
         .COLUMN_INDEX_INTENT_ACTION_TARGET_PACKAGE;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_KEY;
 import static com.android.settings.search.DatabaseResultLoader.SELECT_COLUMNS;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.CLASS_NAME;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_ENTRIES;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_KEYWORDS;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_KEY_REF;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_RANK;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_OFF;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns
-        .DATA_SUMMARY_OFF_NORMALIZED;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_ON;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns
-        .DATA_SUMMARY_ON_NORMALIZED;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_TITLE;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_TITLE_NORMALIZED;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DOCID;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.ENABLED;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.ICON;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.INTENT_ACTION;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.INTENT_TARGET_CLASS;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.INTENT_TARGET_PACKAGE;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.LOCALE;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.PAYLOAD;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.PAYLOAD_TYPE;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.SCREEN_TITLE;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.USER_ID;
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.PROVIDER_PACKAGE;
 import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX;
 
 import android.content.ComponentName;
@@ -110,6 +89,11 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -134,6 +118,14 @@ public class DatabaseIndexingManager {
 
     private static final List<String> EMPTY_LIST = Collections.emptyList();
 
+    /**
+     * Maximum number of providers queried at the same time while indexing.
+     */
+    @VisibleForTesting
+    static final int PROVIDER_QUERY_THREAD_COUNT = 4;
+
+    private static final long PROVIDER_POLL_INTERVAL_MS = 50;
+
     private final String mBaseAuthority;
 
     @VisibleForTesting
@@ -174,34 +166,31 @@ public class DatabaseIndexingManager {
 
         final String localeStr = Locale.getDefault().toString();
         final String fingerprint = Build.FINGERPRINT;
-        final String providerVersionedNames =
-                IndexDatabaseHelper.buildProviderVersionedNames(providers);
 
         final boolean isFullIndex = IndexDatabaseHelper.isFullIndex(mContext, localeStr,
-                fingerprint, providerVersionedNames);
+                fingerprint);
 
         if (isFullIndex) {
             rebuildDatabase();
         }
 
+        final List<ResolveInfo> wellKnownProviders = new ArrayList<>();
         for (final ResolveInfo info : providers) {
-            if (!DatabaseIndexingUtils.isWellKnownProvider(info, mContext)) {
-                continue;
-            }
-            final String authority = info.providerInfo.authority;
-            final String packageName = info.providerInfo.packageName;
-
-            if (isFullIndex) {
-                addIndexablesFromRemoteProvider(packageName, authority);
-            }
-            final long nonIndexableStartTime = System.currentTimeMillis();
-            addNonIndexablesKeysFromRemoteProvider(packageName, authority);
-            if (SettingsSearchIndexablesProvider.DEBUG) {
-                final long nonIndextableTime = System.currentTimeMillis() - nonIndexableStartTime;
-                Log.d(LOG_TAG, "performIndexing update non-indexable for package " + packageName
-                        + " took time: " + nonIndextableTime);
+            if (DatabaseIndexingUtils.isWellKnownProvider(info, mContext)) {
+                wellKnownProviders.add(info);
             }
         }
+        // After a rebuild no provider versions are recorded, so every provider is reindexed.
+        final List<ResolveInfo> updatedProviders = removeUpdatedProviderRows(wellKnownProviders);
+        // Providers whose data could not be fetched get no version, so they are fetched again
+        // on the next pass.
+        final List<ResolveInfo> indexedProviders = new ArrayList<>(wellKnownProviders);
+        indexedProviders.removeAll(updatedProviders);
+        if (!wellKnownProviders.isEmpty()) {
+            indexedProviders.addAll(
+                    indexProviders(wellKnownProviders, updatedProviders, localeStr));
+        }
+
         final long updateDatabaseStartTime = System.currentTimeMillis();
         updateDatabase(isFullIndex, localeStr);
         if (SettingsSearchIndexablesProvider.DEBUG) {
@@ -212,7 +201,10 @@ public class DatabaseIndexingManager {
         //TODO(63922686): Setting indexed should be a single method, not 3 separate setters.
         IndexDatabaseHelper.setLocaleIndexed(mContext, localeStr);
         IndexDatabaseHelper.setBuildIndexed(mContext, fingerprint);
-        IndexDatabaseHelper.setProvidersIndexed(mContext, providerVersionedNames);
+        final SQLiteDatabase database = getWritableDatabase();
+        if (database != null) {
+            IndexDatabaseHelper.setProvidersIndexed(database, indexedProviders);
+        }
 
         if (SettingsSearchIndexablesProvider.DEBUG) {
             final long indexingTime = System.currentTimeMillis() - startTime;
@@ -221,6 +213,210 @@ public class DatabaseIndexingManager {
         }
     }
 
+    /**
+     * Finds the providers whose package version changed since they were last indexed, or that
+     * were never indexed, and deletes the rows of their packages so they can be reinserted. Rows
+     * of packages which no longer have a provider are deleted as well.
+     * <p/>
+     * Rows only record their package, so every provider of such a package is fetched again, not
+     * only the one which changed.
+     *
+     * @return the providers which need their indexable data to be fetched again.
+     */
+    @VisibleForTesting
+    List<ResolveInfo> removeUpdatedProviderRows(List<ResolveInfo> providers) {
+        final List<ResolveInfo> updatedProviders = new ArrayList<>();
+        final SQLiteDatabase database = getWritableDatabase();
+        if (database == null) {
+            Log.w(LOG_TAG, "Cannot indexDatabase Index as I cannot get a writable database");
+            return updatedProviders;
+        }
+
+        final Map<String, String> indexedVersions =
+                IndexDatabaseHelper.getIndexedProviderVersions(database);
+        final Set<String> currentAuthorities = new ArraySet<>();
+        final Set<String> currentPackages = new ArraySet<>();
+        final Set<String> updatedPackages = new ArraySet<>();
+        for (ResolveInfo info : providers) {
+            final String authority = info.providerInfo.authority;
+            currentAuthorities.add(authority);
+            currentPackages.add(info.providerInfo.packageName);
+            if (!TextUtils.equals(indexedVersions.get(authority),
+                    IndexDatabaseHelper.buildProviderVersion(info))) {
+                updatedPackages.add(info.providerInfo.packageName);
+            }
+        }
+        for (ResolveInfo info : providers) {
+            if (updatedPackages.contains(info.providerInfo.packageName)) {
+                updatedProviders.add(info);
+            }
+        }
+        final boolean hasRemovedProviders =
+                !currentAuthorities.containsAll(indexedVersions.keySet());
+        if (updatedPackages.isEmpty() && !hasRemovedProviders) {
+            return updatedProviders;
+        }
+
+        try {
+            database.beginTransaction();
+            for (String packageName : updatedPackages) {
+                database.delete(TABLE_PREFS_INDEX, PROVIDER_PACKAGE + " = ?",
+                        new String[] {packageName});
+            }
+            if (hasRemovedProviders) {
+                deleteRowsNotFromPackages(database, currentPackages);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            SearchIndexCache.getInstance().invalidate();
+            IndexDatabaseHelper.clearBreadcrumbs(database);
+        }
+        if (SettingsSearchIndexablesProvider.DEBUG) {
+            Log.d(LOG_TAG, "Reindexing provider packages: " + updatedPackages
+                    + ", removed providers: " + hasRemovedProviders);
+        }
+        return updatedProviders;
+    }
+
+    private static void deleteRowsNotFromPackages(SQLiteDatabase database, Set<String> packages) {
+        final StringBuilder whereClause = new StringBuilder(PROVIDER_PACKAGE)
+                .append(" NOT IN (");
+        final String[] whereArgs = new String[packages.size()];
+        int i = 0;
+        for (String packageName : packages) {
+            whereClause.append(i == 0 ? "?" : ", ?");
+            whereArgs[i++] = packageName;
+        }
+        whereClause.append(')');
+        database.delete(TABLE_PREFS_INDEX, whereClause.toString(), whereArgs);
+    }
+
+    /**
+     * Queries the providers on a bounded pool of worker threads.
+     *
+     * The non-indexable keys of every provider are fetched first, since they decide the enabled
+     * state of rows from any package. The indexable data of the updated providers is then fetched
+     * concurrently, while the calling thread acts as the single writer: it drains
+     * {@link #mDataToProcess} as the workers fill it, and inserts each batch in one transaction.
+     *
+     * @return the updated providers whose indexable data was fetched.
+     */
+    private List<ResolveInfo> indexProviders(List<ResolveInfo> providers,
+            List<ResolveInfo> updatedProviders, String localeStr) {
+        final List<ResolveInfo> fetchedProviders = Collections.synchronizedList(new ArrayList<>());
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(PROVIDER_QUERY_THREAD_COUNT, providers.size()));
+        try {
+            final long nonIndexableStartTime = System.currentTimeMillis();
+            final List<Future<?>> nonIndexableFutures = new ArrayList<>();
+            for (final ResolveInfo info : providers) {
+                final String authority = info.providerInfo.authority;
+                final String packageName = info.providerInfo.packageName;
+                nonIndexableFutures.add(executor.submit(
+                        () -> addNonIndexablesKeysFromRemoteProvider(packageName, authority)));
+            }
+            waitForProviders(nonIndexableFutures);
+            if (SettingsSearchIndexablesProvider.DEBUG) {
+                final long nonIndexableTime = System.currentTimeMillis() - nonIndexableStartTime;
+                Log.d(LOG_TAG, "performIndexing update non-indexable for " + providers.size()
+                        + " providers took time: " + nonIndexableTime);
+            }
+
+            if (updatedProviders.isEmpty()) {
+                return fetchedProviders;
+            }
+
+            final long indexablesStartTime = System.currentTimeMillis();
+            final CountDownLatch pendingProviders = new CountDownLatch(updatedProviders.size());
+            final List<Future<?>> indexableFutures = new ArrayList<>();
+            for (final ResolveInfo info : updatedProviders) {
+                final String authority = info.providerInfo.authority;
+                final String packageName = info.providerInfo.packageName;
+                indexableFutures.add(executor.submit(() -> {
+                    try {
+                        if (addIndexablesFromRemoteProvider(packageName, authority)) {
+                            fetchedProviders.add(info);
+                        }
+                    } finally {
+                        pendingProviders.countDown();
+                        synchronized (mDataToProcess) {
+                            mDataToProcess.notifyAll();
+                        }
+                    }
+                }));
+            }
+            writeIndexablesWhileFetching(pendingProviders, localeStr);
+            waitForProviders(indexableFutures);
+            if (SettingsSearchIndexablesProvider.DEBUG) {
+                final long indexablesTime = System.currentTimeMillis() - indexablesStartTime;
+                Log.d(LOG_TAG, "performIndexing fetch and insert indexables took time: "
+                        + indexablesTime);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        synchronized (fetchedProviders) {
+            return new ArrayList<>(fetchedProviders);
+        }
+    }
+
+    /**
+     * Consumes the indexable data produced by the provider workers until all of them are done.
+     * Anything left over is picked up by {@link #updateDatabase(boolean, String)}.
+     */
+    private void writeIndexablesWhileFetching(CountDownLatch pendingProviders, String localeStr) {
+        final SQLiteDatabase database = getWritableDatabase();
+        if (database == null) {
+            Log.w(LOG_TAG, "Cannot indexDatabase Index as I cannot get a writable database");
+            return;
+        }
+        final Map<String, Set<String>> nonIndexableKeys;
+        synchronized (mDataToProcess) {
+            nonIndexableKeys = new HashMap<>(mDataToProcess.nonIndexableKeys);
+        }
+
+        try {
+            database.beginTransaction();
+            while (true) {
+                final List<SearchIndexableData> batch;
+                synchronized (mDataToProcess) {
+                    while (mDataToProcess.dataToUpdate.isEmpty()
+                            && pendingProviders.getCount() > 0) {
+                        try {
+                            mDataToProcess.wait(PROVIDER_POLL_INTERVAL_MS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    if (mDataToProcess.dataToUpdate.isEmpty()) {
+                        break;
+                    }
+                    batch = new ArrayList<>(mDataToProcess.dataToUpdate);
+                    mDataToProcess.dataToUpdate.clear();
+                }
+                addDataToDatabase(database, localeStr, batch, nonIndexableKeys);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static void waitForProviders(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Log.w(LOG_TAG, "Error while querying search index provider", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
     /**
      * Reconstruct the database in the following cases:
      * - Language has changed
@@ -231,6 +427,8 @@ public class DatabaseIndexingManager {
         // dynamically inserted in the old language, or deprecated settings.
         final SQLiteDatabase db = getWritableDatabase();
         IndexDatabaseHelper.getInstance(mContext).reconstruct(db);
+        SearchIndexCache.getInstance().invalidate();
+        IndexDatabaseHelper.clearBreadcrumbs(db);
     }
 
     /**
@@ -278,6 +476,11 @@ public class DatabaseIndexingManager {
             database.setTransactionSuccessful();
         } finally {
             database.endTransaction();
+            SearchIndexCache.getInstance().invalidate();
+            if (dataToUpdate.size() > 0) {
+                // New rows can add site map pairs and screen titles.
+                IndexDatabaseHelper.clearBreadcrumbs(database);
+            }
         }
     }
 
@@ -294,19 +497,44 @@ public class DatabaseIndexingManager {
     void addDataToDatabase(SQLiteDatabase database, String localeStr,
             List<SearchIndexableData> dataToUpdate, Map<String, Set<String>> nonIndexableKeys) {
         final long current = System.currentTimeMillis();
+        final IndexRowWriter writer = new IndexRowWriter(database);
+        // Per phase stats, only logged in debug builds: resources and raw data.
+        int resourceCount = 0;
+        int rawCount = 0;
+        long resourceTime = 0;
+        long rawTime = 0;
 
-        for (SearchIndexableData data : dataToUpdate) {
-            try {
-                indexOneSearchIndexableData(database, localeStr, data, nonIndexableKeys);
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "Cannot index: " + (data != null ? data.className : data)
-                        + " for locale: " + localeStr, e);
+        try {
+            for (SearchIndexableData data : dataToUpdate) {
+                final long dataStartTime = System.currentTimeMillis();
+                try {
+                    indexOneSearchIndexableData(writer, localeStr, data, nonIndexableKeys);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "Cannot index: " + (data != null ? data.className : data)
+                            + " for locale: " + localeStr, e);
+                }
+                if (data instanceof SearchIndexableResource) {
+                    resourceCount++;
+                    resourceTime += System.currentTimeMillis() - dataStartTime;
+                } else {
+                    rawCount++;
+                    rawTime += System.currentTimeMillis() - dataStartTime;
+                }
             }
+        } finally {
+            writer.close();
         }
 
         final long now = System.currentTimeMillis();
         Log.d(LOG_TAG, "Indexing locale '" + localeStr + "' took " +
                 (now - current) + " millis");
+        if (SettingsSearchIndexablesProvider.DEBUG) {
+            Log.d(LOG_TAG, "Indexed " + resourceCount + " resources in " + resourceTime
+                    + " millis and " + rawCount + " raw data in " + rawTime + " millis. Wrote "
+                    + writer.getRowCount() + " rows and " + writer.getSiteMapCount()
+                    + " site map pairs in " + writer.getFlushCount() + " chunks, "
+                    + writer.getFailedRowCount() + " rows failed");
+        }
     }
 
     /**
@@ -385,13 +613,13 @@ public class DatabaseIndexingManager {
                     mContext : mContext.createPackageContext(packageName, 0);
 
             final Uri uriForResources = buildUriForXmlResources(authority);
-            addIndexablesForXmlResourceUri(context, packageName, uriForResources,
-                    SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS);
+            final boolean addedXmlResources = addIndexablesForXmlResourceUri(context, packageName,
+                    uriForResources, SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS);
 
             final Uri uriForRawData = buildUriForRawData(authority);
-            addIndexablesForRawDataUri(context, packageName, uriForRawData,
-                    SearchIndexablesContract.INDEXABLES_RAW_COLUMNS);
-            return true;
+            final boolean addedRawData = addIndexablesForRawDataUri(context, packageName,
+                    uriForRawData, SearchIndexablesContract.INDEXABLES_RAW_COLUMNS);
+            return addedXmlResources && addedRawData;
         } catch (PackageManager.NameNotFoundException e) {
             Log.w(LOG_TAG, "Could not create context for " + packageName + ": "
                     + Log.getStackTraceString(e));
@@ -459,6 +687,7 @@ public class DatabaseIndexingManager {
     public void addIndexableData(SearchIndexableData data) {
         synchronized (mDataToProcess) {
             mDataToProcess.dataToUpdate.add(data);
+            mDataToProcess.notifyAll();
         }
     }
 
@@ -487,6 +716,7 @@ public class DatabaseIndexingManager {
             return;
         }
         res.context = mContext;
+        res.packageName = mContext.getPackageName();
         res.enabled = includeInSearchResults;
         AsyncTask.execute(new Runnable() {
             @Override
@@ -522,7 +752,7 @@ public class DatabaseIndexingManager {
                 SearchIndexablesContract.NON_INDEXABLES_KEYS_PATH);
     }
 
-    private void addIndexablesForXmlResourceUri(Context packageContext, String packageName,
+    private boolean addIndexablesForXmlResourceUri(Context packageContext, String packageName,
             Uri uri, String[] projection) {
 
         final ContentResolver resolver = packageContext.getContentResolver();
@@ -530,7 +760,7 @@ public class DatabaseIndexingManager {
 
         if (cursor == null) {
             Log.w(LOG_TAG, "Cannot add index data for Uri: " + uri.toString());
-            return;
+            return false;
         }
 
         try {
@@ -563,9 +793,10 @@ public class DatabaseIndexingManager {
         } finally {
             cursor.close();
         }
+        return true;
     }
 
-    private void addIndexablesForRawDataUri(Context packageContext, String packageName,
+    private boolean addIndexablesForRawDataUri(Context packageContext, String packageName,
             Uri uri, String[] projection) {
 
         final ContentResolver resolver = packageContext.getContentResolver();
@@ -573,7 +804,7 @@ public class DatabaseIndexingManager {
 
         if (cursor == null) {
             Log.w(LOG_TAG, "Cannot add index data for Uri: " + uri.toString());
-            return;
+            return false;
         }
 
         try {
@@ -624,18 +855,29 @@ public class DatabaseIndexingManager {
         } finally {
             cursor.close();
         }
+        return true;
     }
 
     public void indexOneSearchIndexableData(SQLiteDatabase database, String localeStr,
             SearchIndexableData data, Map<String, Set<String>> nonIndexableKeys) {
+        final IndexRowWriter writer = new IndexRowWriter(database);
+        try {
+            indexOneSearchIndexableData(writer, localeStr, data, nonIndexableKeys);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void indexOneSearchIndexableData(IndexRowWriter writer, String localeStr,
+            SearchIndexableData data, Map<String, Set<String>> nonIndexableKeys) {
         if (data instanceof SearchIndexableResource) {
-            indexOneResource(database, localeStr, (SearchIndexableResource) data, nonIndexableKeys);
+            indexOneResource(writer, localeStr, (SearchIndexableResource) data, nonIndexableKeys);
         } else if (data instanceof SearchIndexableRaw) {
-            indexOneRaw(database, localeStr, (SearchIndexableRaw) data, nonIndexableKeys);
+            indexOneRaw(writer, localeStr, (SearchIndexableRaw) data, nonIndexableKeys);
         }
     }
 
-    private void indexOneRaw(SQLiteDatabase database, String localeStr,
+    private void indexOneRaw(IndexRowWriter writer, String localeStr,
             SearchIndexableRaw raw, Map<String, Set<String>> nonIndexableKeysFromResource) {
         // Should be the same locale as the one we are processing
         if (!raw.locale.toString().equalsIgnoreCase(localeStr)) {
@@ -661,13 +903,14 @@ public class DatabaseIndexingManager {
                 .setIntentTargetClass(raw.intentTargetClass)
                 .setEnabled(enabled)
                 .setKey(raw.key)
-                .setUserId(raw.userId);
+                .setUserId(raw.userId)
+                .setProviderPackage(raw.packageName);
 
-        updateOneRowWithFilteredData(database, builder, raw.title, raw.summaryOn, raw.summaryOff,
+        updateOneRowWithFilteredData(writer, builder, raw.title, raw.summaryOn, raw.summaryOff,
                 raw.keywords);
     }
 
-    private void indexOneResource(SQLiteDatabase database, String localeStr,
+    private void indexOneResource(IndexRowWriter writer, String localeStr,
             SearchIndexableResource sir, Map<String, Set<String>> nonIndexableKeysFromResource) {
 
         if (sir == null) {
@@ -683,37 +926,30 @@ public class DatabaseIndexingManager {
                 nonIndexableKeys.addAll(resNonIndexableKeys);
             }
 
-            indexFromResource(database, localeStr, sir, nonIndexableKeys);
+            indexFromResource(writer, localeStr, sir, nonIndexableKeys);
         } else {
             if (TextUtils.isEmpty(sir.className)) {
                 Log.w(LOG_TAG, "Cannot index an empty Search Provider name!");
                 return;
             }
 
-            final Class<?> clazz = DatabaseIndexingUtils.getIndexableClass(sir.className);
-            if (clazz == null) {
-                Log.d(LOG_TAG, "SearchIndexableResource '" + sir.className +
-                        "' should implement the " + Indexable.class.getName() + " interface!");
-                return;
-            }
-
             // Will be non null only for a Local provider implementing a
             // SEARCH_INDEX_DATA_PROVIDER field
             final Indexable.SearchIndexProvider provider =
-                    DatabaseIndexingUtils.getSearchIndexProvider(clazz);
+                    DatabaseIndexingUtils.getSearchIndexProvider(sir.className);
             if (provider != null) {
                 List<String> providerNonIndexableKeys = provider.getNonIndexableKeys(sir.context);
                 if (providerNonIndexableKeys != null && providerNonIndexableKeys.size() > 0) {
                     nonIndexableKeys.addAll(providerNonIndexableKeys);
                 }
 
-                indexFromProvider(database, localeStr, provider, sir, nonIndexableKeys);
+                indexFromProvider(writer, localeStr, provider, sir, nonIndexableKeys);
             }
         }
     }
 
     @VisibleForTesting
-    void indexFromResource(SQLiteDatabase database, String localeStr,
+    void indexFromResource(IndexRowWriter writer, String localeStr,
             SearchIndexableResource sir, List<String> nonIndexableKeys) {
         final Context context = sir.context;
         XmlResourceParser parser = null;
@@ -783,7 +1019,8 @@ public class DatabaseIndexingManager {
                     .setIntentTargetClass(intentTargetClass)
                     .setEnabled(enabled)
                     .setKey(key)
-                    .setUserId(-1 /* default user id */);
+                    .setUserId(-1 /* default user id */)
+                    .setProviderPackage(sir.packageName);
 
             // Flag for XML headers which a child element's title.
             boolean isHeaderUnique = true;
@@ -818,7 +1055,8 @@ public class DatabaseIndexingManager {
                         .setIntentTargetClass(intentTargetClass)
                         .setEnabled(enabled)
                         .setKey(key)
-                        .setUserId(-1 /* default user id */);
+                        .setUserId(-1 /* default user id */)
+                        .setProviderPackage(sir.packageName);
 
                 if (!nodeName.equals(NODE_NAME_CHECK_BOX_PREFERENCE)) {
                     summary = XmlParserUtils.getDataSummary(context, attrs);
@@ -838,7 +1076,7 @@ public class DatabaseIndexingManager {
                             .setPayload(payload);
 
                     // Insert rows for the child nodes of PreferenceScreen
-                    updateOneRowWithFilteredData(database, builder, title, summary,
+                    updateOneRowWithFilteredData(writer, builder, title, summary,
                             null /* summary off */, keywords);
                 } else {
                     String summaryOn = XmlParserUtils.getDataSummaryOn(context, attrs);
@@ -848,14 +1086,14 @@ public class DatabaseIndexingManager {
                         summaryOn = XmlParserUtils.getDataSummary(context, attrs);
                     }
 
-                    updateOneRowWithFilteredData(database, builder, title, summaryOn, summaryOff,
+                    updateOneRowWithFilteredData(writer, builder, title, summaryOn, summaryOff,
                             keywords);
                 }
             }
 
             // The xml header's title does not match the title of one of the child settings.
             if (isHeaderUnique) {
-                updateOneRowWithFilteredData(database, headerBuilder, headerTitle, headerSummary,
+                updateOneRowWithFilteredData(writer, headerBuilder, headerTitle, headerSummary,
                         null /* summary off */, headerKeywords);
             }
         } catch (XmlPullParserException e) {
@@ -867,7 +1105,7 @@ public class DatabaseIndexingManager {
         }
     }
 
-    private void indexFromProvider(SQLiteDatabase database, String localeStr,
+    private void indexFromProvider(IndexRowWriter writer, String localeStr,
             Indexable.SearchIndexProvider provider, SearchIndexableResource sir,
             List<String> nonIndexableKeys) {
 
@@ -906,9 +1144,10 @@ public class DatabaseIndexingManager {
                         .setIntentTargetClass(raw.intentTargetClass)
                         .setEnabled(enabled)
                         .setKey(raw.key)
-                        .setUserId(raw.userId);
+                        .setUserId(raw.userId)
+                        .setProviderPackage(sir.packageName);
 
-                updateOneRowWithFilteredData(database, builder, raw.title, raw.summaryOn,
+                updateOneRowWithFilteredData(writer, builder, raw.title, raw.summaryOn,
                         raw.summaryOff, raw.keywords);
             }
         }
@@ -934,13 +1173,16 @@ public class DatabaseIndexingManager {
                 item.intentTargetPackage = TextUtils.isEmpty(item.intentTargetPackage)
                         ? intentTargetPackage
                         : item.intentTargetPackage;
+                item.packageName = TextUtils.isEmpty(item.packageName)
+                        ? sir.packageName
+                        : item.packageName;
 
-                indexFromResource(database, localeStr, item, nonIndexableKeys);
+                indexFromResource(writer, localeStr, item, nonIndexableKeys);
             }
         }
     }
 
-    private void updateOneRowWithFilteredData(SQLiteDatabase database, DatabaseRow.Builder builder,
+    private void updateOneRowWithFilteredData(IndexRowWriter writer, DatabaseRow.Builder builder,
             String title, String summaryOn, String summaryOff, String keywords) {
 
         final String updatedTitle = DatabaseIndexingUtils.normalizeHyphen(title);
@@ -962,52 +1204,7 @@ public class DatabaseIndexingManager {
                 .setNormalizedSummaryOff(normalizedSummaryOff)
                 .setSpaceDelimitedKeywords(spaceDelimitedKeywords);
 
-        updateOneRow(database, builder.build(mContext));
-    }
-
-    private void updateOneRow(SQLiteDatabase database, DatabaseRow row) {
-
-        if (TextUtils.isEmpty(row.updatedTitle)) {
-            return;
-        }
-
-        ContentValues values = new ContentValues();
-        values.put(IndexDatabaseHelper.IndexColumns.DOCID, row.getDocId());
-        values.put(LOCALE, row.locale);
-        values.put(DATA_RANK, row.rank);
-        values.put(DATA_TITLE, row.updatedTitle);
-        values.put(DATA_TITLE_NORMALIZED, row.normalizedTitle);
-        values.put(DATA_SUMMARY_ON, row.updatedSummaryOn);
-        values.put(DATA_SUMMARY_ON_NORMALIZED, row.normalizedSummaryOn);
-        values.put(DATA_SUMMARY_OFF, row.updatedSummaryOff);
-        values.put(DATA_SUMMARY_OFF_NORMALIZED, row.normalizedSummaryOff);
-        values.put(DATA_ENTRIES, row.entries);
-        values.put(DATA_KEYWORDS, row.spaceDelimitedKeywords);
-        values.put(CLASS_NAME, row.className);
-        values.put(SCREEN_TITLE, row.screenTitle);
-        values.put(INTENT_ACTION, row.intentAction);
-        values.put(INTENT_TARGET_PACKAGE, row.intentTargetPackage);
-        values.put(INTENT_TARGET_CLASS, row.intentTargetClass);
-        values.put(ICON, row.iconResId);
-        values.put(ENABLED, row.enabled);
-        values.put(DATA_KEY_REF, row.key);
-        values.put(USER_ID, row.userId);
-        values.put(PAYLOAD_TYPE, row.payloadType);
-        values.put(PAYLOAD, row.payload);
-
-        database.replaceOrThrow(TABLE_PREFS_INDEX, null, values);
-
-        if (!TextUtils.isEmpty(row.className) && !TextUtils.isEmpty(row.childClassName)) {
-            ContentValues siteMapPair = new ContentValues();
-            final int pairDocId = Objects.hash(row.className, row.childClassName);
-            siteMapPair.put(IndexDatabaseHelper.SiteMapColumns.DOCID, pairDocId);
-            siteMapPair.put(IndexDatabaseHelper.SiteMapColumns.PARENT_CLASS, row.className);
-            siteMapPair.put(IndexDatabaseHelper.SiteMapColumns.PARENT_TITLE, row.screenTitle);
-            siteMapPair.put(IndexDatabaseHelper.SiteMapColumns.CHILD_CLASS, row.childClassName);
-            siteMapPair.put(IndexDatabaseHelper.SiteMapColumns.CHILD_TITLE, row.updatedTitle);
-
-            database.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, null, siteMapPair);
-        }
+        writer.write(builder.build(mContext));
     }
 
     /**
@@ -1065,6 +1262,7 @@ public class DatabaseIndexingManager {
         public final int userId;
         public final int payloadType;
         public final byte[] payload;
+        public final String providerPackage;
 
         private DatabaseRow(Builder builder) {
             locale = builder.mLocale;
@@ -1090,6 +1288,7 @@ public class DatabaseIndexingManager {
             payloadType = builder.mPayloadType;
             payload = builder.mPayload != null ? ResultPayloadUtils.marshall(builder.mPayload)
                     : null;
+            providerPackage = builder.mProviderPackage;
         }
 
         /**
@@ -1127,6 +1326,7 @@ public class DatabaseIndexingManager {
             @ResultPayload.PayloadType
             private int mPayloadType;
             private ResultPayload mPayload;
+            private String mProviderPackage;
 
             public Builder setLocale(String locale) {
                 mLocale = locale;
@@ -1228,6 +1428,15 @@ public class DatabaseIndexingManager {
                 return this;
             }
 
+            /**
+             * Sets the package of the search index provider this row came from. It is used to
+             * reindex only the rows of a provider whose package was updated.
+             */
+            public Builder setProviderPackage(String providerPackage) {
+                mProviderPackage = providerPackage;
+                return this;
+            }
+
             public Builder setPayload(ResultPayload payload) {
                 mPayload = payload;
 
@@ -1315,6 +1524,11 @@ public class DatabaseIndexingManager {
         @Override
         protected Void doInBackground(Void... voids) {
             performIndexing();
+            // Warm up the in-memory search index before the callback lets queries through.
+            final SQLiteDatabase database = getWritableDatabase();
+            if (database != null) {
+                SearchIndexCache.getInstance().rebuild(database);
+            }
             return null;
         }
 
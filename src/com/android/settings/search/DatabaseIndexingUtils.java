@@ -87,18 +87,14 @@ public class DatabaseIndexingUtils {
             return null;
         }
 
-        final Class<?> clazz = getIndexableClass(className);
+        // Will be non null only for a Local provider implementing a
+        // SEARCH_INDEX_DATA_PROVIDER field
+        final Indexable.SearchIndexProvider provider = getSearchIndexProvider(className);
 
-        if (clazz == null) {
-            Log.d(TAG, "SearchIndexableResource '" + className +
-                    "' should implement the " + Indexable.class.getName() + " interface!");
+        if (provider == null) {
             return null;
         }
 
-        // Will be non null only for a Local provider implementing a
-        // SEARCH_INDEX_DATA_PROVIDER field
-        final Indexable.SearchIndexProvider provider = getSearchIndexProvider(clazz);
-
         List<AbstractPreferenceController> controllers =
                 provider.getPreferenceControllers(context);
 
@@ -156,6 +152,24 @@ public class DatabaseIndexingUtils {
         return (clazz != null) && Indexable.class.isAssignableFrom(clazz);
     }
 
+    /**
+     * @return the {@link Indexable.SearchIndexProvider} of {@param className}, or null if it
+     * has none. Classes in {@link SearchIndexableResources} are looked up in its registry, only
+     * other classes are resolved by reflection.
+     */
+    public static Indexable.SearchIndexProvider getSearchIndexProvider(String className) {
+        if (SearchIndexableResources.contains(className)) {
+            return SearchIndexableResources.getProviderByName(className);
+        }
+        final Class<?> clazz = getIndexableClass(className);
+        if (clazz == null) {
+            Log.d(TAG, "SearchIndexableResource '" + className +
+                    "' should implement the " + Indexable.class.getName() + " interface!");
+            return null;
+        }
+        return getSearchIndexProvider(clazz);
+    }
+
     public static Indexable.SearchIndexProvider getSearchIndexProvider(final Class<?> clazz) {
         try {
             final Field f = clazz.getField(FIELD_NAME_SEARCH_INDEX_DATA_PROVIDER);
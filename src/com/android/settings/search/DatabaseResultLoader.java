@@ -18,17 +18,17 @@
 package com.android.settings.search;
 
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns;
-import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX;
 
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.support.annotation.VisibleForTesting;
 
 import com.android.settings.dashboard.SiteMapManager;
 import com.android.settings.utils.AsyncLoader;
 
-import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -53,6 +53,8 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
     static final int COLUMN_INDEX_KEY = 10;
     static final int COLUMN_INDEX_PAYLOAD_TYPE = 11;
     static final int COLUMN_INDEX_PAYLOAD = 12;
+    /* Only present in the cursors returned by FtsQueryEngine */
+    static final int COLUMN_INDEX_BASE_RANK = 13;
 
     public static final String[] SELECT_COLUMNS = {
             IndexColumns.DOCID,
@@ -102,6 +104,8 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
     private final Context mContext;
     private final CursorToSearchResultConverter mConverter;
     private final SiteMapManager mSiteMapManager;
+    private final FtsQueryEngine mQueryEngine;
+    private CancellationSignal mCancellationSignal;
 
     public DatabaseResultLoader(Context context, String queryText, SiteMapManager mapManager) {
         super(context);
@@ -109,6 +113,7 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
         mContext = context;
         mQueryText = queryText;
         mConverter = new CursorToSearchResultConverter(context);
+        mQueryEngine = new FtsQueryEngine();
     }
 
     @Override
@@ -122,155 +127,53 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
             return null;
         }
 
-        final Set<SearchResult> results = new HashSet<>();
-
-        results.addAll(firstWordQuery(MATCH_COLUMNS_PRIMARY, BASE_RANKS[0]));
-        results.addAll(secondaryWordQuery(MATCH_COLUMNS_PRIMARY, BASE_RANKS[1]));
-        results.addAll(anyWordQuery(MATCH_COLUMNS_SECONDARY, BASE_RANKS[2]));
-        results.addAll(anyWordQuery(MATCH_COLUMNS_TERTIARY, BASE_RANKS[3]));
-        return results;
-    }
-
-    @Override
-    protected boolean onCancelLoad() {
-        // TODO
-        return super.onCancelLoad();
-    }
-
-    /**
-     * Creates and executes the query which matches prefixes of the first word of the given columns.
-     *
-     * @param matchColumns The columns to match on
-     * @param baseRank The highest rank achievable by these results
-     * @return A set of the matching results.
-     */
-    private Set<SearchResult> firstWordQuery(String[] matchColumns, int baseRank) {
-        final String whereClause = buildSingleWordWhereClause(matchColumns);
-        final String query = mQueryText + "%";
-        final String[] selection = buildSingleWordSelection(query, matchColumns.length);
-
-        return query(whereClause, selection, baseRank);
-    }
-
-    /**
-     * Creates and executes the query which matches prefixes of the non-first words of the
-     * given columns.
-     *
-     * @param matchColumns The columns to match on
-     * @param baseRank The highest rank achievable by these results
-     * @return A set of the matching results.
-     */
-    private Set<SearchResult> secondaryWordQuery(String[] matchColumns, int baseRank) {
-        final String whereClause = buildSingleWordWhereClause(matchColumns);
-        final String query = "% " + mQueryText + "%";
-        final String[] selection = buildSingleWordSelection(query, matchColumns.length);
-
-        return query(whereClause, selection, baseRank);
-    }
-
-    /**
-     * Creates and executes the query which matches prefixes of the any word of the given columns.
-     *
-     * @param matchColumns The columns to match on
-     * @param baseRank The highest rank achievable by these results
-     * @return A set of the matching results.
-     */
-    private Set<SearchResult> anyWordQuery(String[] matchColumns, int baseRank) {
-        final String whereClause = buildTwoWordWhereClause(matchColumns);
-        final String[] selection = buildAnyWordSelection(matchColumns.length * 2);
-
-        return query(whereClause, selection, baseRank);
-    }
-
-    /**
-     * Generic method used by all of the query methods above to execute a query.
-     *
-     * @param whereClause Where clause for the SQL query which uses bindings.
-     * @param selection List of the transformed query to match each bind in the whereClause
-     * @param baseRank The highest rank achievable by these results.
-     * @return A set of the matching results.
-     */
-    private Set<SearchResult> query(String whereClause, String[] selection, int baseRank) {
-        final SQLiteDatabase database =
-                IndexDatabaseHelper.getInstance(mContext).getReadableDatabase();
-        try (Cursor resultCursor = database.query(TABLE_PREFS_INDEX, SELECT_COLUMNS, whereClause,
-                selection, null, null, null)) {
-            return mConverter.convertCursor(mSiteMapManager, resultCursor, baseRank);
-        }
-    }
-
-    /**
-     * Builds the SQLite WHERE clause that matches all matchColumns for a single query.
-     *
-     * @param matchColumns List of columns that will be used for matching.
-     * @return The constructed WHERE clause.
-     */
-    private static String buildSingleWordWhereClause(String[] matchColumns) {
-        StringBuilder sb = new StringBuilder(" (");
-        final int count = matchColumns.length;
-        for (int n = 0; n < count; n++) {
-            sb.append(matchColumns[n]);
-            sb.append(" like ? ");
-            if (n < count - 1) {
-                sb.append(" OR ");
+        final CancellationSignal cancellationSignal;
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
             }
+            cancellationSignal = mCancellationSignal = new CancellationSignal();
         }
-        sb.append(") AND enabled = 1");
-        return sb.toString();
-    }
-
-    /**
-     * Builds the SQLite WHERE clause that matches all matchColumns to two different queries.
-     *
-     * @param matchColumns List of columns that will be used for matching.
-     * @return The constructed WHERE clause.
-     */
-    private static String buildTwoWordWhereClause(String[] matchColumns) {
-        StringBuilder sb = new StringBuilder(" (");
-        final int count = matchColumns.length;
-        for (int n = 0; n < count; n++) {
-            sb.append(matchColumns[n]);
-            sb.append(" like ? OR ");
-            sb.append(matchColumns[n]);
-            sb.append(" like ?");
-            if (n < count - 1) {
-                sb.append(" OR ");
+        try {
+            final SQLiteDatabase database =
+                    IndexDatabaseHelper.getInstance(mContext).getReadableDatabase();
+            try (Cursor resultCursor = query(database, cancellationSignal)) {
+                if (resultCursor == null) {
+                    return new RankedSearchResults<>();
+                }
+                return mConverter.convertRankedCursor(mSiteMapManager, resultCursor);
+            }
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
             }
         }
-        sb.append(") AND enabled = 1");
-        return sb.toString();
     }
 
     /**
-     * Fills out the selection array to match the query as the prefix of a single word.
-     *
-     * @param size is the number of columns to be matched.
+     * Answers the query from {@link SearchIndexCache} when possible, and from the database
+     * otherwise.
      */
-    private String[] buildSingleWordSelection(String query, int size) {
-        String[] selection = new String[size];
-
-        for(int i = 0; i < size; i ++) {
-            selection[i] = query;
+    private Cursor query(SQLiteDatabase database, CancellationSignal cancellationSignal) {
+        final Cursor cachedCursor = SearchIndexCache.getInstance()
+                .query(database, mQueryText, cancellationSignal);
+        if (cachedCursor != null) {
+            return cachedCursor;
         }
-        return selection;
+        return mQueryEngine.query(database, mQueryText, cancellationSignal);
     }
 
     /**
-     * Fills out the selection array to match the query as the prefix of a word.
-     *
-     * @param size is twice the number of columns to be matched. The first match is for the prefix
-     *             of the first word in the column. The second match is for any subsequent word
-     *             prefix match.
+     * Interrupts the running query, so a stale query does not hold the loader thread while the
+     * user keeps typing.
      */
-    private String[] buildAnyWordSelection(int size) {
-        String[] selection = new String[size];
-        final String query = mQueryText + "%";
-        final String subStringQuery = "% " + mQueryText + "%";
-
-        for(int i = 0; i < (size - 1); i += 2) {
-            selection[i] = query;
-            selection[i + 1] = subStringQuery;
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
         }
-        return selection;
     }
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.android.settings.search.DatabaseResultLoader.BASE_RANKS;
+import static com.android.settings.search.DatabaseResultLoader.MATCH_COLUMNS_PRIMARY;
+import static com.android.settings.search.DatabaseResultLoader.MATCH_COLUMNS_SECONDARY;
+import static com.android.settings.search.DatabaseResultLoader.MATCH_COLUMNS_TERTIARY;
+import static com.android.settings.search.DatabaseResultLoader.SELECT_COLUMNS;
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns;
+import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds and runs the full-text query backing {@link DatabaseResultLoader}.
+ *
+ * The query text is split into prefix tokens and matched against the FTS index of
+ * {@link IndexDatabaseHelper.Tables#TABLE_PREFS_INDEX} with column scoped MATCH expressions,
+ * one per column and rank tier. All of the tiers are combined into a single ranked statement,
+ * so each row is returned once with the best base rank it achieved, in the
+ * {@link DatabaseResultLoader#COLUMN_INDEX_BASE_RANK} column.
+ */
+public class FtsQueryEngine {
+
+    static final String COLUMN_BASE_RANK = "base_rank";
+
+    /**
+     * ASCII characters other than letters and digits separate tokens. This mirrors the "simple"
+     * tokenizer used by the index, which keeps every non-ASCII character in its tokens, including
+     * punctuation, and strips any FTS operator from the user's input.
+     */
+    private static final String TOKEN_DELIMITERS = "[\\p{ASCII}&&[^a-zA-Z0-9]]+";
+
+    private final String mRankedQuery;
+
+    public FtsQueryEngine() {
+        mRankedQuery = buildRankedQuery();
+    }
+
+    /**
+     * Runs the ranked query for {@param queryText}.
+     *
+     * @return a {@link Cursor} with {@link DatabaseResultLoader#SELECT_COLUMNS} followed by the
+     * base rank of each row, ordered by base rank, or null when the query has no tokens.
+     */
+    public Cursor query(SQLiteDatabase database, String queryText) {
+        return query(database, queryText, null /* cancellationSignal */);
+    }
+
+    /**
+     * Same as {@link #query(SQLiteDatabase, String)}, but the statement is interrupted with an
+     * {@link android.os.OperationCanceledException} once {@param cancellationSignal} is canceled.
+     */
+    public Cursor query(SQLiteDatabase database, String queryText,
+            CancellationSignal cancellationSignal) {
+        final List<String> tokens = tokenize(queryText);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        final String firstWordMatch = buildMatchExpression(tokens, true /* anchorFirstWord */);
+        final String anyWordMatch = buildMatchExpression(tokens, false /* anchorFirstWord */);
+
+        final List<String> selectionArgs = new ArrayList<>();
+        addSelectionArgs(selectionArgs, firstWordMatch, MATCH_COLUMNS_PRIMARY.length);
+        addSelectionArgs(selectionArgs, anyWordMatch, MATCH_COLUMNS_PRIMARY.length);
+        addSelectionArgs(selectionArgs, anyWordMatch, MATCH_COLUMNS_SECONDARY.length);
+        addSelectionArgs(selectionArgs, anyWordMatch, MATCH_COLUMNS_TERTIARY.length);
+
+        return database.rawQuery(mRankedQuery,
+                selectionArgs.toArray(new String[selectionArgs.size()]), cancellationSignal);
+    }
+
+    /**
+     * Splits the query into tokens, dropping any ASCII punctuation. Like the "simple" tokenizer,
+     * only ASCII letters are folded to lower case, so {@link SearchIndexCache} matches the same
+     * rows as the FTS index whatever the script.
+     */
+    static List<String> tokenize(String queryText) {
+        final List<String> tokens = new ArrayList<>();
+        if (TextUtils.isEmpty(queryText)) {
+            return tokens;
+        }
+        for (String token : toLowerCaseAscii(queryText).split(TOKEN_DELIMITERS)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static String toLowerCaseAscii(String text) {
+        final char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Builds a phrase MATCH expression where the last token is a prefix, e.g.
+     * "wi-fi call" becomes <code>"wi fi call*"</code>.
+     *
+     * @param anchorFirstWord when true, the phrase must start at the first word of the column.
+     */
+    @VisibleForTesting
+    static String buildMatchExpression(List<String> tokens, boolean anchorFirstWord) {
+        final StringBuilder sb = new StringBuilder("\"");
+        if (anchorFirstWord) {
+            sb.append('^');
+        }
+        sb.append(TextUtils.join(" ", tokens));
+        sb.append("*\"");
+        return sb.toString();
+    }
+
+    private static void addSelectionArgs(List<String> args, String match, int count) {
+        for (int i = 0; i < count; i++) {
+            args.add(match);
+        }
+    }
+
+    /**
+     * Builds a statement that is the union of one column scoped MATCH per column and tier, and
+     * keeps the lowest base rank for every docid. The order of the tiers here must match the order
+     * of the selection arguments in {@link #query(SQLiteDatabase, String)}.
+     */
+    @VisibleForTesting
+    static String buildRankedQuery() {
+        final String columns = TextUtils.join(", ", SELECT_COLUMNS);
+        final StringBuilder union = new StringBuilder();
+        appendTier(union, columns, MATCH_COLUMNS_PRIMARY, BASE_RANKS[0]);
+        appendTier(union, columns, MATCH_COLUMNS_PRIMARY, BASE_RANKS[1]);
+        appendTier(union, columns, MATCH_COLUMNS_SECONDARY, BASE_RANKS[2]);
+        appendTier(union, columns, MATCH_COLUMNS_TERTIARY, BASE_RANKS[3]);
+
+        return "SELECT " + columns + ", MIN(" + COLUMN_BASE_RANK + ") AS " + COLUMN_BASE_RANK
+                + " FROM (" + union + ")"
+                + " GROUP BY " + IndexColumns.DOCID
+                + " ORDER BY " + COLUMN_BASE_RANK;
+    }
+
+    private static void appendTier(StringBuilder sb, String columns, String[] matchColumns,
+            int baseRank) {
+        for (String matchColumn : matchColumns) {
+            if (sb.length() > 0) {
+                sb.append(" UNION ALL ");
+            }
+            sb.append("SELECT ").append(columns)
+                    .append(", ").append(baseRank).append(" AS ").append(COLUMN_BASE_RANK)
+                    .append(" FROM ").append(TABLE_PREFS_INDEX)
+                    .append(" WHERE ").append(matchColumn).append(" MATCH ?")
+                    .append(" AND ").append(IndexColumns.ENABLED).append(" = 1");
+        }
+    }
+}
@@ -16,34 +16,45 @@
 
 package com.android.settings.search;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.ResolveInfo;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
 import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.Log;
+import android.util.Pair;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class IndexDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "IndexDatabaseHelper";
 
     private static final String DATABASE_NAME = "search_index.db";
-    private static final int DATABASE_VERSION = 117;
+    private static final int DATABASE_VERSION = 120;
 
     private static final String INDEX = "index";
-
-    private static final String PREF_KEY_INDEXED_PROVIDERS = "indexed_providers";
+    // Fingerprint of the tiles the stored breadcrumbs were built with, in the INDEX preferences.
+    private static final String KEY_BREADCRUMBS_TILES = "breadcrumbs_tiles";
 
     public interface Tables {
         String TABLE_PREFS_INDEX = "prefs_index";
         String TABLE_SITE_MAP = "site_map";
         String TABLE_META_INDEX = "meta_index";
         String TABLE_SAVED_QUERIES = "saved_queries";
+        String TABLE_PROVIDER_VERSIONS = "provider_versions";
+        String TABLE_BREADCRUMBS = "breadcrumbs";
     }
 
     public interface IndexColumns {
@@ -69,12 +80,25 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         String USER_ID = "user_id";
         String PAYLOAD_TYPE = "payload_type";
         String PAYLOAD = "payload";
+        String PROVIDER_PACKAGE = "provider_package";
     }
 
     public interface MetaColumns {
         String BUILD = "build";
     }
 
+    public interface ProviderVersionColumns {
+        String AUTHORITY = "authority";
+        String PACKAGE_NAME = "package_name";
+        String VERSION = "version";
+    }
+
+    public interface BreadcrumbColumns {
+        String CHILD_CLASS = "child_class";
+        String CHILD_TITLE = "child_title";
+        String BREADCRUMB = "breadcrumb";
+    }
+
     public interface SavedQueriesColumns {
         String QUERY = "query";
         String TIME_STAMP = "timestamp";
@@ -132,6 +156,12 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                     IndexColumns.PAYLOAD_TYPE +
                     ", " +
                     IndexColumns.PAYLOAD +
+                    ", " +
+                    IndexColumns.PROVIDER_PACKAGE +
+                    ", " +
+                    "notindexed=" + IndexColumns.PROVIDER_PACKAGE +
+                    ", " +
+                    "prefix=\"1,2,3\"" +
                     ");";
 
     private static final String CREATE_META_TABLE =
@@ -140,6 +170,29 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                     MetaColumns.BUILD + " VARCHAR(32) NOT NULL" +
                     ")";
 
+    private static final String CREATE_PROVIDER_VERSIONS_TABLE =
+            "CREATE TABLE " + Tables.TABLE_PROVIDER_VERSIONS +
+                    "(" +
+                    ProviderVersionColumns.AUTHORITY + " VARCHAR(255) PRIMARY KEY" +
+                    ", " +
+                    ProviderVersionColumns.PACKAGE_NAME + " VARCHAR(255) NOT NULL" +
+                    ", " +
+                    ProviderVersionColumns.VERSION + " VARCHAR(32) NOT NULL" +
+                    ")";
+
+    private static final String CREATE_BREADCRUMBS_TABLE =
+            "CREATE TABLE " + Tables.TABLE_BREADCRUMBS +
+                    "(" +
+                    BreadcrumbColumns.CHILD_CLASS + " TEXT NOT NULL" +
+                    ", " +
+                    BreadcrumbColumns.CHILD_TITLE + " TEXT NOT NULL" +
+                    ", " +
+                    BreadcrumbColumns.BREADCRUMB + " TEXT NOT NULL" +
+                    ", " +
+                    "PRIMARY KEY (" + BreadcrumbColumns.CHILD_CLASS + ", "
+                    + BreadcrumbColumns.CHILD_TITLE + ")" +
+                    ")";
+
     private static final String CREATE_SAVED_QUERIES_TABLE =
             "CREATE TABLE " + Tables.TABLE_SAVED_QUERIES +
                     "(" +
@@ -166,6 +219,19 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     private static final String SELECT_BUILD_VERSION =
             "SELECT " + MetaColumns.BUILD + " FROM " + Tables.TABLE_META_INDEX + " LIMIT 1;";
 
+    /**
+     * Separates the titles of a breadcrumb in {@link BreadcrumbColumns#BREADCRUMB}.
+     */
+    private static final String BREADCRUMB_SEPARATOR = "\u001f";
+
+    private static final String BREADCRUMB_SELECTION = BreadcrumbColumns.CHILD_CLASS + " = ? AND "
+            + BreadcrumbColumns.CHILD_TITLE + " = ?";
+
+    /**
+     * Incremented each time the site map changes, see {@link #clearBreadcrumbs(SQLiteDatabase)}.
+     */
+    private static final AtomicInteger sSiteMapGeneration = new AtomicInteger();
+
     private static IndexDatabaseHelper sSingleton;
 
     private final Context mContext;
@@ -190,6 +256,8 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     private void bootstrapDB(SQLiteDatabase db) {
         db.execSQL(CREATE_INDEX_TABLE);
         db.execSQL(CREATE_META_TABLE);
+        db.execSQL(CREATE_PROVIDER_VERSIONS_TABLE);
+        db.execSQL(CREATE_BREADCRUMBS_TABLE);
         db.execSQL(CREATE_SAVED_QUERIES_TABLE);
         db.execSQL(CREATE_SITE_MAP_TABLE);
         db.execSQL(INSERT_BUILD_VERSION);
@@ -253,33 +321,164 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Perform a full index on an OTA or when the locale has changed
+     * Perform a full index on an OTA or when the locale has changed. Updates to a single provider
+     * package are handled incrementally, see {@link #getIndexedProviderVersions(SQLiteDatabase)}.
      *
      * @param locale      is the default for the device
      * @param fingerprint id for the current build.
      * @return true when the locale or build has changed since last index.
      */
     @VisibleForTesting
-    static boolean isFullIndex(Context context, String locale, String fingerprint,
-            String providerVersionedNames) {
+    static boolean isFullIndex(Context context, String locale, String fingerprint) {
         final boolean isLocaleIndexed = IndexDatabaseHelper.isLocaleAlreadyIndexed(context, locale);
         final boolean isBuildIndexed = IndexDatabaseHelper.isBuildIndexed(context, fingerprint);
-        final boolean areProvidersIndexed = IndexDatabaseHelper
-                .areProvidersIndexed(context, providerVersionedNames);
 
-        return !(isLocaleIndexed && isBuildIndexed && areProvidersIndexed);
+        return !(isLocaleIndexed && isBuildIndexed);
     }
 
+    /**
+     * @return the version of the provider package, as recorded by
+     * {@link #setProvidersIndexed(SQLiteDatabase, List)}.
+     */
     @VisibleForTesting
-    static String buildProviderVersionedNames(List<ResolveInfo> providers) {
-        StringBuilder sb = new StringBuilder();
-        for (ResolveInfo info : providers) {
-            sb.append(info.providerInfo.packageName)
-                    .append(':')
-                    .append(info.providerInfo.applicationInfo.versionCode)
-                    .append(',');
+    static String buildProviderVersion(ResolveInfo info) {
+        return String.valueOf(info.providerInfo.applicationInfo.versionCode);
+    }
+
+    /**
+     * @return a map from authority to the provider version it was last indexed with.
+     */
+    static Map<String, String> getIndexedProviderVersions(SQLiteDatabase db) {
+        final Map<String, String> versions = new ArrayMap<>();
+        try (Cursor cursor = db.query(Tables.TABLE_PROVIDER_VERSIONS,
+                new String[] {ProviderVersionColumns.AUTHORITY, ProviderVersionColumns.VERSION},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                versions.put(cursor.getString(0), cursor.getString(1));
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Cannot get provider versions from Index metadata");
+        }
+        return versions;
+    }
+
+    /**
+     * Replaces the recorded provider versions with the versions of {@param providers}.
+     */
+    static void setProvidersIndexed(SQLiteDatabase db, List<ResolveInfo> providers) {
+        try {
+            db.beginTransaction();
+            db.delete(Tables.TABLE_PROVIDER_VERSIONS, null, null);
+            final ContentValues values = new ContentValues();
+            for (ResolveInfo info : providers) {
+                values.put(ProviderVersionColumns.AUTHORITY, info.providerInfo.authority);
+                values.put(ProviderVersionColumns.PACKAGE_NAME, info.providerInfo.packageName);
+                values.put(ProviderVersionColumns.VERSION, buildProviderVersion(info));
+                db.replaceOrThrow(Tables.TABLE_PROVIDER_VERSIONS, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return a number which changes each time the site map or the screen titles in the index
+     * change, so in-memory copies of them can tell they are stale.
+     */
+    public static int getSiteMapGeneration() {
+        return sSiteMapGeneration.get();
+    }
+
+    /**
+     * Drops the breadcrumbs stored by {@link #setBreadcrumbs(SQLiteDatabase, int, Map)}. Call after
+     * committing any change to the site map or to the screen titles in the index.
+     */
+    static void clearBreadcrumbs(SQLiteDatabase db) {
+        synchronized (sSiteMapGeneration) {
+            try {
+                db.delete(Tables.TABLE_BREADCRUMBS, null, null);
+            } catch (SQLiteException e) {
+                Log.e(TAG, "Cannot clear breadcrumbs");
+            }
+            sSiteMapGeneration.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return true if breadcrumbs were stored for the current site map and for the tiles of
+     * {@param tilesFingerprint}. A screen which is not in the table then has no parent.
+     */
+    public static boolean hasBreadcrumbs(Context context, SQLiteDatabase db,
+            String tilesFingerprint) {
+        if (!TextUtils.equals(tilesFingerprint, context.getSharedPreferences(INDEX,
+                Context.MODE_PRIVATE).getString(KEY_BREADCRUMBS_TILES, null))) {
+            return false;
+        }
+        try {
+            return DatabaseUtils.queryNumEntries(db, Tables.TABLE_BREADCRUMBS) > 0;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Cannot count breadcrumbs");
+            return false;
+        }
+    }
+
+    /**
+     * @return the breadcrumb stored for the screen, from the root to the screen itself, or null if
+     * none is stored.
+     */
+    public static List<String> getBreadcrumb(SQLiteDatabase db, String childClass,
+            String childTitle) {
+        try (Cursor cursor = db.query(Tables.TABLE_BREADCRUMBS,
+                new String[] {BreadcrumbColumns.BREADCRUMB}, BREADCRUMB_SELECTION,
+                new String[] {childClass, childTitle}, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                return Arrays.asList(cursor.getString(0).split(BREADCRUMB_SEPARATOR, -1));
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Cannot get breadcrumb from Index metadata");
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the stored breadcrumbs with {@param breadcrumbs}, keyed by child class and title,
+     * and built with the tiles of {@param tilesFingerprint}, unless the site map changed since
+     * {@param generation}.
+     */
+    public static void setBreadcrumbs(Context context, SQLiteDatabase db, int generation,
+            String tilesFingerprint, Map<Pair<String, String>, List<String>> breadcrumbs) {
+        synchronized (sSiteMapGeneration) {
+            if (generation != sSiteMapGeneration.get()) {
+                return;
+            }
+            final SharedPreferences prefs =
+                    context.getSharedPreferences(INDEX, Context.MODE_PRIVATE);
+            // Dropped first, so breadcrumbs only partly replaced are never read.
+            prefs.edit().remove(KEY_BREADCRUMBS_TILES).commit();
+            boolean stored = false;
+            try {
+                db.beginTransaction();
+                db.delete(Tables.TABLE_BREADCRUMBS, null, null);
+                final ContentValues values = new ContentValues();
+                for (Map.Entry<Pair<String, String>, List<String>> entry : breadcrumbs.entrySet()) {
+                    values.put(BreadcrumbColumns.CHILD_CLASS, entry.getKey().first);
+                    values.put(BreadcrumbColumns.CHILD_TITLE, entry.getKey().second);
+                    values.put(BreadcrumbColumns.BREADCRUMB,
+                            TextUtils.join(BREADCRUMB_SEPARATOR, entry.getValue()));
+                    db.replaceOrThrow(Tables.TABLE_BREADCRUMBS, null, values);
+                }
+                db.setTransactionSuccessful();
+                stored = true;
+            } catch (SQLiteException e) {
+                Log.e(TAG, "Cannot store breadcrumbs");
+            } finally {
+                db.endTransaction();
+            }
+            if (stored) {
+                prefs.edit().putString(KEY_BREADCRUMBS_TILES, tilesFingerprint).commit();
+            }
         }
-        return sb.toString();
     }
 
     static void clearCachedIndexed(Context context) {
@@ -293,23 +492,10 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                 .apply();
     }
 
-    static void setProvidersIndexed(Context context, String providerVersionedNames) {
-        context.getSharedPreferences(INDEX, Context.MODE_PRIVATE)
-                .edit()
-                .putString(PREF_KEY_INDEXED_PROVIDERS, providerVersionedNames)
-                .apply();
-    }
-
     static boolean isLocaleAlreadyIndexed(Context context, String locale) {
         return context.getSharedPreferences(INDEX, Context.MODE_PRIVATE).getBoolean(locale, false);
     }
 
-    static boolean areProvidersIndexed(Context context, String providerVersionedNames) {
-        final String indexedProviders = context.getSharedPreferences(INDEX, Context.MODE_PRIVATE)
-                .getString(PREF_KEY_INDEXED_PROVIDERS, null);
-        return TextUtils.equals(indexedProviders, providerVersionedNames);
-    }
-
     static boolean isBuildIndexed(Context context, String buildNo) {
         return context.getSharedPreferences(INDEX, Context.MODE_PRIVATE).getBoolean(buildNo, false);
     }
@@ -321,6 +507,8 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     private void dropTables(SQLiteDatabase db) {
         clearCachedIndexed(mContext);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_META_INDEX);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_PROVIDER_VERSIONS);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_BREADCRUMBS);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_PREFS_INDEX);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SAVED_QUERIES);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SITE_MAP);
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns;
+import static com.android.settings.search.IndexDatabaseHelper.SiteMapColumns;
+import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX;
+import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_SITE_MAP;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.settings.search.DatabaseIndexingManager.DatabaseRow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Writes {@link DatabaseRow}s into {@link IndexDatabaseHelper.Tables#TABLE_PREFS_INDEX} and
+ * {@link IndexDatabaseHelper.Tables#TABLE_SITE_MAP} through compiled statements which are reused
+ * for every row, instead of building and parsing a new insert per row.
+ *
+ * Rows are buffered and written in chunks of {@link #BATCH_SIZE}. A row which cannot be inserted
+ * is logged and skipped, without dropping the rest of its chunk. The writer does not manage
+ * transactions, callers are expected to use it inside their own and to {@link #close()} it before
+ * committing.
+ */
+public class IndexRowWriter {
+
+    private static final String TAG = "IndexRowWriter";
+
+    @VisibleForTesting
+    static final int BATCH_SIZE = 64;
+
+    private static final String[] PREFS_INDEX_COLUMNS = {
+            IndexColumns.DOCID,
+            IndexColumns.LOCALE,
+            IndexColumns.DATA_RANK,
+            IndexColumns.DATA_TITLE,
+            IndexColumns.DATA_TITLE_NORMALIZED,
+            IndexColumns.DATA_SUMMARY_ON,
+            IndexColumns.DATA_SUMMARY_ON_NORMALIZED,
+            IndexColumns.DATA_SUMMARY_OFF,
+            IndexColumns.DATA_SUMMARY_OFF_NORMALIZED,
+            IndexColumns.DATA_ENTRIES,
+            IndexColumns.DATA_KEYWORDS,
+            IndexColumns.CLASS_NAME,
+            IndexColumns.SCREEN_TITLE,
+            IndexColumns.INTENT_ACTION,
+            IndexColumns.INTENT_TARGET_PACKAGE,
+            IndexColumns.INTENT_TARGET_CLASS,
+            IndexColumns.ICON,
+            IndexColumns.ENABLED,
+            IndexColumns.DATA_KEY_REF,
+            IndexColumns.USER_ID,
+            IndexColumns.PAYLOAD_TYPE,
+            IndexColumns.PAYLOAD,
+            IndexColumns.PROVIDER_PACKAGE,
+    };
+
+    private static final String[] SITE_MAP_COLUMNS = {
+            SiteMapColumns.DOCID,
+            SiteMapColumns.PARENT_CLASS,
+            SiteMapColumns.PARENT_TITLE,
+            SiteMapColumns.CHILD_CLASS,
+            SiteMapColumns.CHILD_TITLE,
+    };
+
+    private final SQLiteDatabase mDatabase;
+    private final List<DatabaseRow> mPendingRows = new ArrayList<>(BATCH_SIZE);
+
+    private SQLiteStatement mPrefsIndexStatement;
+    private SQLiteStatement mSiteMapStatement;
+    private int mRowCount;
+    private int mSiteMapCount;
+    private int mFlushCount;
+    private int mFailedRowCount;
+
+    public IndexRowWriter(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Queues {@param row} for insertion. Rows without a title are dropped.
+     */
+    public void write(DatabaseRow row) {
+        if (TextUtils.isEmpty(row.updatedTitle)) {
+            return;
+        }
+        mPendingRows.add(row);
+        if (mPendingRows.size() >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Inserts all of the queued rows.
+     */
+    public void flush() {
+        if (mPendingRows.isEmpty()) {
+            return;
+        }
+        if (mPrefsIndexStatement == null) {
+            mPrefsIndexStatement = mDatabase.compileStatement(
+                    buildInsertOrReplace(TABLE_PREFS_INDEX, PREFS_INDEX_COLUMNS));
+        }
+        try {
+            for (DatabaseRow row : mPendingRows) {
+                try {
+                    insertRow(row);
+                    if (!TextUtils.isEmpty(row.className)
+                            && !TextUtils.isEmpty(row.childClassName)) {
+                        insertSiteMapPair(row);
+                    }
+                } catch (SQLException e) {
+                    // Rows of a chunk come from several indexables, so only this one is lost.
+                    Log.e(TAG, "Cannot insert " + row.key + " of " + row.className
+                            + " for locale: " + row.locale, e);
+                    mFailedRowCount++;
+                }
+            }
+        } finally {
+            mPendingRows.clear();
+            mFlushCount++;
+        }
+    }
+
+    /**
+     * Flushes the queued rows and releases the compiled statements.
+     */
+    public void close() {
+        flush();
+        if (mPrefsIndexStatement != null) {
+            mPrefsIndexStatement.close();
+            mPrefsIndexStatement = null;
+        }
+        if (mSiteMapStatement != null) {
+            mSiteMapStatement.close();
+            mSiteMapStatement = null;
+        }
+    }
+
+    /**
+     * @return the number of rows inserted into the prefs index so far.
+     */
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * @return the number of rows inserted into the site map so far.
+     */
+    public int getSiteMapCount() {
+        return mSiteMapCount;
+    }
+
+    /**
+     * @return the number of rows which could not be inserted so far.
+     */
+    public int getFailedRowCount() {
+        return mFailedRowCount;
+    }
+
+    /**
+     * @return the number of chunks written so far.
+     */
+    public int getFlushCount() {
+        return mFlushCount;
+    }
+
+    private void insertRow(DatabaseRow row) {
+        final SQLiteStatement statement = mPrefsIndexStatement;
+        statement.clearBindings();
+        // Bind indices follow the order of PREFS_INDEX_COLUMNS, and start at 1.
+        statement.bindLong(1, row.getDocId());
+        bindStringOrNull(statement, 2, row.locale);
+        statement.bindLong(3, row.rank);
+        bindStringOrNull(statement, 4, row.updatedTitle);
+        bindStringOrNull(statement, 5, row.normalizedTitle);
+        bindStringOrNull(statement, 6, row.updatedSummaryOn);
+        bindStringOrNull(statement, 7, row.normalizedSummaryOn);
+        bindStringOrNull(statement, 8, row.updatedSummaryOff);
+        bindStringOrNull(statement, 9, row.normalizedSummaryOff);
+        bindStringOrNull(statement, 10, row.entries);
+        bindStringOrNull(statement, 11, row.spaceDelimitedKeywords);
+        bindStringOrNull(statement, 12, row.className);
+        bindStringOrNull(statement, 13, row.screenTitle);
+        bindStringOrNull(statement, 14, row.intentAction);
+        bindStringOrNull(statement, 15, row.intentTargetPackage);
+        bindStringOrNull(statement, 16, row.intentTargetClass);
+        statement.bindLong(17, row.iconResId);
+        statement.bindLong(18, row.enabled ? 1 : 0);
+        bindStringOrNull(statement, 19, row.key);
+        statement.bindLong(20, row.userId);
+        statement.bindLong(21, row.payloadType);
+        if (row.payload != null) {
+            statement.bindBlob(22, row.payload);
+        } else {
+            statement.bindNull(22);
+        }
+        bindStringOrNull(statement, 23, row.providerPackage);
+        statement.executeInsert();
+        mRowCount++;
+    }
+
+    private void insertSiteMapPair(DatabaseRow row) {
+        if (mSiteMapStatement == null) {
+            mSiteMapStatement = mDatabase.compileStatement(
+                    buildInsertOrReplace(TABLE_SITE_MAP, SITE_MAP_COLUMNS));
+        }
+        final SQLiteStatement statement = mSiteMapStatement;
+        statement.clearBindings();
+        statement.bindLong(1, Objects.hash(row.className, row.childClassName));
+        bindStringOrNull(statement, 2, row.className);
+        bindStringOrNull(statement, 3, row.screenTitle);
+        bindStringOrNull(statement, 4, row.childClassName);
+        bindStringOrNull(statement, 5, row.updatedTitle);
+        statement.executeInsert();
+        mSiteMapCount++;
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    @VisibleForTesting
+    static String buildInsertOrReplace(String table, String[] columns) {
+        final StringBuilder sb = new StringBuilder("INSERT OR REPLACE INTO ")
+                .append(table)
+                .append(" (")
+                .append(TextUtils.join(", ", columns))
+                .append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -81,7 +81,7 @@ public class InputDeviceResultLoader extends AsyncLoader<Set<? extends SearchRes
 
     @Override
     public Set<? extends SearchResult> loadInBackground() {
-        final Set<SearchResult> results = new HashSet<>();
+        final Set<SearchResult> results = new RankedSearchResults<>();
         results.addAll(buildPhysicalKeyboardSearchResults());
         results.addAll(buildVirtualKeyboardSearchResults());
         return results;
@@ -93,6 +93,7 @@ public class InputDeviceResultLoader extends AsyncLoader<Set<? extends SearchRes
         final String screenTitle = context.getString(R.string.physical_keyboard_title);
 
         for (final InputDevice device : getPhysicalFullKeyboards()) {
+            throwIfLoadInBackgroundCanceled();
             final String deviceName = device.getName();
             final int wordDiff = InstalledAppResultLoader.getWordDifference(deviceName, mQuery);
             if (wordDiff == NAME_NO_MATCH) {
@@ -127,6 +128,7 @@ public class InputDeviceResultLoader extends AsyncLoader<Set<? extends SearchRes
         final String screenTitle = context.getString(R.string.add_virtual_keyboard);
         final List<InputMethodInfo> inputMethods = mImm.getInputMethodList();
         for (InputMethodInfo info : inputMethods) {
+            throwIfLoadInBackgroundCanceled();
             final String title = info.loadLabel(mPackageManager).toString();
             final String summary = InputMethodAndSubtypeUtil
                     .getSubtypeLocaleNameListAsSentence(getAllSubtypesOf(info), context, info);
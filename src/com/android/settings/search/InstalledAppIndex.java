@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.UserInfo;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Pair;
+
+import com.android.settings.applications.PackageManagerWrapper;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An in-memory index of the labels of the installed apps, for every profile of the current user,
+ * used by {@link InstalledAppResultLoader}.
+ *
+ * The index is built on the first query. When {@link #startTracking()} has been called, package
+ * broadcasts mark the affected packages as stale, and only those packages are reloaded from
+ * {@link PackageManager} on the next query. Changes which affect every label, like the locale or
+ * the set of profiles, drop the whole index instead.
+ */
+public class InstalledAppIndex {
+
+    private static final String TAG = "InstalledAppIndex";
+
+    private static final Intent LAUNCHER_PROBE = new Intent(Intent.ACTION_MAIN)
+            .addCategory(Intent.CATEGORY_LAUNCHER);
+
+    /**
+     * One installed app in one profile.
+     */
+    public static class Entry {
+        public final ApplicationInfo info;
+        public final int userId;
+        public final CharSequence label;
+        /**
+         * Lower cased label, matched against the query by
+         * {@link InstalledAppResultLoader#getWordDifference(char[], char[])}.
+         */
+        public final char[] normalizedLabel;
+        /**
+         * True when the app is shown in the app list, see
+         * {@link #isLauncherEligible(ApplicationInfo, int, List)}.
+         */
+        public final boolean launcherEligible;
+
+        Entry(ApplicationInfo info, int userId, CharSequence label, boolean launcherEligible) {
+            this.info = info;
+            this.userId = userId;
+            this.label = label;
+            this.normalizedLabel = label == null
+                    ? new char[0]
+                    : label.toString().toLowerCase().toCharArray();
+            this.launcherEligible = launcherEligible;
+        }
+    }
+
+    private final Context mContext;
+    private final PackageManagerWrapper mPackageManager;
+    private final UserManager mUserManager;
+    private final Object mLock = new Object();
+
+    /**
+     * Packages which changed since the index was built, as (userId, packageName) pairs.
+     */
+    private final Set<Pair<Integer, String>> mStalePackages = new HashSet<>();
+
+    private Entry[] mEntries;
+    private boolean mTracking;
+
+    @VisibleForTesting
+    final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            if (TextUtils.isEmpty(packageName)) {
+                return;
+            }
+            onPackageChanged(getSendingUserId(), packageName);
+        }
+    };
+
+    @VisibleForTesting
+    final BroadcastReceiver mConfigurationReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    public InstalledAppIndex(Context context, PackageManagerWrapper pmWrapper) {
+        mContext = context;
+        mPackageManager = pmWrapper;
+        mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
+    }
+
+    /**
+     * Starts listening for package, profile and locale changes. Without this the index is built
+     * once and never updated.
+     */
+    public void startTracking() {
+        synchronized (mLock) {
+            if (mTracking) {
+                return;
+            }
+            mTracking = true;
+        }
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, packageFilter,
+                null /* broadcastPermission */, null /* scheduler */);
+
+        final IntentFilter configurationFilter = new IntentFilter();
+        configurationFilter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        configurationFilter.addAction(Intent.ACTION_MANAGED_PROFILE_ADDED);
+        configurationFilter.addAction(Intent.ACTION_MANAGED_PROFILE_REMOVED);
+        configurationFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        configurationFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        mContext.registerReceiver(mConfigurationReceiver, configurationFilter);
+    }
+
+    /**
+     * Drops the whole index, it is rebuilt on the next query.
+     */
+    public void invalidate() {
+        synchronized (mLock) {
+            mEntries = null;
+            mStalePackages.clear();
+        }
+    }
+
+    /**
+     * Marks {@param packageName} in {@param userId} as stale, it is reloaded on the next query.
+     */
+    @VisibleForTesting
+    void onPackageChanged(int userId, String packageName) {
+        synchronized (mLock) {
+            if (mEntries == null) {
+                return;
+            }
+            if (userId == UserHandle.USER_ALL) {
+                // Rare enough that it is not worth resolving which profiles are affected.
+                mEntries = null;
+                mStalePackages.clear();
+                return;
+            }
+            mStalePackages.add(Pair.create(userId, packageName));
+        }
+    }
+
+    /**
+     * Returns the indexed apps, building the index or reloading stale packages as needed.
+     * Must not be called on the main thread.
+     */
+    public Entry[] getEntries() {
+        synchronized (mLock) {
+            if (mEntries == null) {
+                final long startTime = System.currentTimeMillis();
+                mEntries = buildEntries();
+                if (SettingsSearchIndexablesProvider.DEBUG) {
+                    Log.d(TAG, "Indexed " + mEntries.length + " apps in "
+                            + (System.currentTimeMillis() - startTime) + "ms");
+                }
+            } else if (!mStalePackages.isEmpty()) {
+                mEntries = updateEntries(mEntries, mStalePackages);
+                mStalePackages.clear();
+            }
+            return mEntries;
+        }
+    }
+
+    private Entry[] buildEntries() {
+        final PackageManager pm = mPackageManager.getPackageManager();
+        final List<ResolveInfo> homeActivities = getHomeActivities();
+        final List<Entry> entries = new ArrayList<>();
+
+        for (UserInfo user : getUsers()) {
+            final List<ApplicationInfo> apps = mPackageManager.getInstalledApplicationsAsUser(
+                    getQueryFlags(user), user.id);
+            for (ApplicationInfo info : apps) {
+                entries.add(new Entry(info, user.id, info.loadLabel(pm),
+                        isLauncherEligible(info, user.id, homeActivities)));
+            }
+        }
+        return entries.toArray(new Entry[entries.size()]);
+    }
+
+    private Entry[] updateEntries(Entry[] entries, Set<Pair<Integer, String>> stalePackages) {
+        final List<Entry> updated = new ArrayList<>(entries.length + stalePackages.size());
+        for (Entry entry : entries) {
+            if (!stalePackages.contains(Pair.create(entry.userId, entry.info.packageName))) {
+                updated.add(entry);
+            }
+        }
+
+        final PackageManager pm = mPackageManager.getPackageManager();
+        final List<ResolveInfo> homeActivities = getHomeActivities();
+        for (Pair<Integer, String> stalePackage : stalePackages) {
+            final int userId = stalePackage.first;
+            final UserInfo user = findUser(userId);
+            if (user == null) {
+                continue;
+            }
+            final ApplicationInfo info;
+            try {
+                info = mPackageManager.getApplicationInfoAsUser(stalePackage.second,
+                        getQueryFlags(user), userId);
+            } catch (PackageManager.NameNotFoundException e) {
+                // Removed.
+                continue;
+            }
+            updated.add(new Entry(info, userId, info.loadLabel(pm),
+                    isLauncherEligible(info, userId, homeActivities)));
+        }
+        return updated.toArray(new Entry[updated.size()]);
+    }
+
+    /**
+     * Returns true if the app should be included in search results
+     * <p/>
+     * This method matches logic in {@code ApplicationState#FILTER_DOWNLOADED_AND_LAUNCHER}.
+     */
+    private boolean isLauncherEligible(ApplicationInfo info, int userId,
+            List<ResolveInfo> homeActivities) {
+        // Not system app
+        if ((info.flags & ApplicationInfo.FLAG_UPDATED_SYSTEM_APP) != 0
+                || (info.flags & ApplicationInfo.FLAG_SYSTEM) == 0) {
+            return true;
+        }
+        // Shows up in launcher
+        final Intent launchIntent = new Intent(LAUNCHER_PROBE)
+                .setPackage(info.packageName);
+        final List<ResolveInfo> intents = mPackageManager.queryIntentActivitiesAsUser(
+                launchIntent,
+                PackageManager.MATCH_DISABLED_COMPONENTS
+                        | PackageManager.MATCH_DIRECT_BOOT_AWARE
+                        | PackageManager.MATCH_DIRECT_BOOT_UNAWARE,
+                userId);
+        if (intents != null && intents.size() != 0) {
+            return true;
+        }
+        // Is launcher app itself
+        for (ResolveInfo homeActivity : homeActivities) {
+            if (TextUtils.equals(homeActivity.activityInfo.packageName, info.packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<ResolveInfo> getHomeActivities() {
+        final List<ResolveInfo> homeActivities = new ArrayList<>();
+        mPackageManager.getHomeActivities(homeActivities);
+        return homeActivities;
+    }
+
+    private List<UserInfo> getUsers() {
+        return mUserManager.getProfiles(UserHandle.myUserId());
+    }
+
+    private UserInfo findUser(int userId) {
+        for (UserInfo user : getUsers()) {
+            if (user.id == userId) {
+                return user;
+            }
+        }
+        return null;
+    }
+
+    private static int getQueryFlags(UserInfo user) {
+        return PackageManager.MATCH_DISABLED_COMPONENTS
+                | PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS
+                | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0);
+    }
+}
@@ -20,12 +20,7 @@ package com.android.settings.search;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
-import android.content.pm.UserInfo;
 import android.net.Uri;
-import android.os.UserHandle;
-import android.os.UserManager;
 import android.provider.Settings;
 import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
@@ -38,8 +33,6 @@ import com.android.settings.applications.PackageManagerWrapper;
 import com.android.settings.dashboard.SiteMapManager;
 import com.android.settings.utils.AsyncLoader;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -50,94 +43,60 @@ import java.util.Set;
 public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchResult>> {
 
     private static final int NAME_NO_MATCH = -1;
-    private static final Intent LAUNCHER_PROBE = new Intent(Intent.ACTION_MAIN)
-            .addCategory(Intent.CATEGORY_LAUNCHER);
 
     private List<String> mBreadcrumb;
     private SiteMapManager mSiteMapManager;
     @VisibleForTesting
     final String mQuery;
-    private final UserManager mUserManager;
-    private final PackageManagerWrapper mPackageManager;
-    private final List<ResolveInfo> mHomeActivities = new ArrayList<>();
+    private final InstalledAppIndex mAppIndex;
 
     public InstalledAppResultLoader(Context context, PackageManagerWrapper pmWrapper,
             String query, SiteMapManager mapManager) {
+        this(context, new InstalledAppIndex(context, pmWrapper), query, mapManager);
+    }
+
+    public InstalledAppResultLoader(Context context, InstalledAppIndex appIndex,
+            String query, SiteMapManager mapManager) {
         super(context);
         mSiteMapManager = mapManager;
-        mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
-        mPackageManager = pmWrapper;
+        mAppIndex = appIndex;
         mQuery = query;
     }
 
     @Override
     public Set<? extends SearchResult> loadInBackground() {
-        final Set<AppSearchResult> results = new HashSet<>();
-        final PackageManager pm = mPackageManager.getPackageManager();
-
-        mHomeActivities.clear();
-        mPackageManager.getHomeActivities(mHomeActivities);
-
-        for (UserInfo user : getUsersToCount()) {
-            final List<ApplicationInfo> apps =
-                    mPackageManager.getInstalledApplicationsAsUser(
-                            PackageManager.MATCH_DISABLED_COMPONENTS
-                                    | PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS
-                                    | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0),
-                            user.id);
-            for (ApplicationInfo info : apps) {
-                if (!shouldIncludeAsCandidate(info, user)) {
-                    continue;
-                }
-                final CharSequence label = info.loadLabel(pm);
-                final int wordDiff = getWordDifference(label.toString(), mQuery);
-                if (wordDiff == NAME_NO_MATCH) {
-                    continue;
-                }
-                final Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS)
-                        .setAction(Settings.ACTION_APPLICATION_DETAILS_SETTINGS)
-                        .setData(Uri.fromParts("package", info.packageName, null))
-                        .putExtra(SettingsActivity.EXTRA_SOURCE_METRICS_CATEGORY,
-                                MetricsProto.MetricsEvent.DASHBOARD_SEARCH_RESULTS);
-
-                final AppSearchResult.Builder builder = new AppSearchResult.Builder();
-                builder.setAppInfo(info)
-                        .setStableId(Objects.hash(info.packageName, user.id))
-                        .setTitle(info.loadLabel(pm))
-                        .setRank(getRank(wordDiff))
-                        .addBreadcrumbs(getBreadCrumb())
-                        .setPayload(new ResultPayload(intent));
-                results.add(builder.build());
-            }
+        final Set<AppSearchResult> results = new RankedSearchResults<>();
+        if (TextUtils.isEmpty(mQuery)) {
+            return results;
         }
-        return results;
-    }
+        final char[] queryTokens = mQuery.toLowerCase().toCharArray();
 
-    /**
-     * Returns true if the candidate should be included in candidate list
-     * <p/>
-     * This method matches logic in {@code ApplicationState#FILTER_DOWNLOADED_AND_LAUNCHER}.
-     */
-    private boolean shouldIncludeAsCandidate(ApplicationInfo info, UserInfo user) {
-        // Not system app
-        if ((info.flags & ApplicationInfo.FLAG_UPDATED_SYSTEM_APP) != 0
-                || (info.flags & ApplicationInfo.FLAG_SYSTEM) == 0) {
-            return true;
-        }
-        // Shows up in launcher
-        final Intent launchIntent = new Intent(LAUNCHER_PROBE)
-                .setPackage(info.packageName);
-        final List<ResolveInfo> intents = mPackageManager.queryIntentActivitiesAsUser(
-                launchIntent,
-                PackageManager.MATCH_DISABLED_COMPONENTS
-                        | PackageManager.MATCH_DIRECT_BOOT_AWARE
-                        | PackageManager.MATCH_DIRECT_BOOT_UNAWARE,
-                user.id);
-        if (intents != null && intents.size() != 0) {
-            return true;
+        for (InstalledAppIndex.Entry entry : mAppIndex.getEntries()) {
+            throwIfLoadInBackgroundCanceled();
+            if (!entry.launcherEligible) {
+                continue;
+            }
+            final int wordDiff = getWordDifference(entry.normalizedLabel, queryTokens);
+            if (wordDiff == NAME_NO_MATCH) {
+                continue;
+            }
+            final ApplicationInfo info = entry.info;
+            final Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS)
+                    .setAction(Settings.ACTION_APPLICATION_DETAILS_SETTINGS)
+                    .setData(Uri.fromParts("package", info.packageName, null))
+                    .putExtra(SettingsActivity.EXTRA_SOURCE_METRICS_CATEGORY,
+                            MetricsProto.MetricsEvent.DASHBOARD_SEARCH_RESULTS);
+
+            final AppSearchResult.Builder builder = new AppSearchResult.Builder();
+            builder.setAppInfo(info)
+                    .setStableId(Objects.hash(info.packageName, entry.userId))
+                    .setTitle(entry.label)
+                    .setRank(getRank(wordDiff))
+                    .addBreadcrumbs(getBreadCrumb())
+                    .setPayload(new ResultPayload(intent));
+            results.add(builder.build());
         }
-        // Is launcher app itself
-        return isPackageInList(mHomeActivities, info.packageName);
+        return results;
     }
 
     @Override
@@ -145,10 +104,6 @@ public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchRe
 
     }
 
-    private List<UserInfo> getUsersToCount() {
-        return mUserManager.getProfiles(UserHandle.myUserId());
-    }
-
     /**
      * Returns "difference" between appName and query string. appName must contain all
      * characters from query as a prefix to a word, in the same order.
@@ -169,9 +124,18 @@ public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchRe
         if (TextUtils.isEmpty(appName) || TextUtils.isEmpty(query)) {
             return NAME_NO_MATCH;
         }
+        return getWordDifference(appName.toLowerCase().toCharArray(),
+                query.toLowerCase().toCharArray());
+    }
 
-        final char[] queryTokens = query.toLowerCase().toCharArray();
-        final char[] appTokens = appName.toLowerCase().toCharArray();
+    /**
+     * Same as {@link #getWordDifference(String, String)}, for names and queries which are
+     * already lower cased.
+     */
+    static int getWordDifference(char[] appTokens, char[] queryTokens) {
+        if (appTokens.length == 0 || queryTokens.length == 0) {
+            return NAME_NO_MATCH;
+        }
         final int appLength = appTokens.length;
         if (queryTokens.length > appLength) {
             return NAME_NO_MATCH;
@@ -213,15 +177,6 @@ public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchRe
         return NAME_NO_MATCH;
     }
 
-    private boolean isPackageInList(List<ResolveInfo> resolveInfos, String pkg) {
-        for (ResolveInfo info : resolveInfos) {
-            if (TextUtils.equals(info.activityInfo.packageName, pkg)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private List<String> getBreadCrumb() {
         if (mBreadcrumb == null || mBreadcrumb.isEmpty()) {
             final Context context = getContext();
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A set of {@link SearchResult}s which keeps its elements bucketed by {@link SearchResult#rank},
+ * so it iterates in rank order without being sorted.
+ *
+ * Results are unique by {@link SearchResult#equals(Object)}, like in a {@link HashSet}. Within a
+ * rank, results iterate in the order they were added. Ranks above
+ * {@link SearchResult#BOTTOM_RANK} share a single, last bucket.
+ */
+public class RankedSearchResults<T extends SearchResult> extends AbstractSet<T> {
+
+    private static final int BUCKET_COUNT = SearchResult.BOTTOM_RANK + 2;
+
+    private final Set<T> mResults = new HashSet<>();
+    private final List<List<T>> mBuckets = new ArrayList<>(BUCKET_COUNT);
+
+    public RankedSearchResults() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.add(new ArrayList<>());
+        }
+    }
+
+    @Override
+    public boolean add(T result) {
+        if (!mResults.add(result)) {
+            return false;
+        }
+        mBuckets.get(getBucket(result)).add(result);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!mResults.remove(o)) {
+            return false;
+        }
+        mBuckets.get(getBucket((SearchResult) o)).remove(o);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return mResults.contains(o);
+    }
+
+    @Override
+    public int size() {
+        return mResults.size();
+    }
+
+    @Override
+    public void clear() {
+        mResults.clear();
+        for (List<T> bucket : mBuckets) {
+            bucket.clear();
+        }
+    }
+
+    /**
+     * Iterates over the results from the best rank to the worst one.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int mBucket;
+            private Iterator<T> mBucketIterator = mBuckets.get(0).iterator();
+            private T mLast;
+
+            @Override
+            public boolean hasNext() {
+                while (!mBucketIterator.hasNext()) {
+                    if (mBucket + 1 >= BUCKET_COUNT) {
+                        return false;
+                    }
+                    mBucketIterator = mBuckets.get(++mBucket).iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                mLast = mBucketIterator.next();
+                return mLast;
+            }
+
+            @Override
+            public void remove() {
+                mBucketIterator.remove();
+                mResults.remove(mLast);
+            }
+        };
+    }
+
+    /**
+     * @return the position of the bucket of {@param result}, ranks above
+     * {@link SearchResult#BOTTOM_RANK} all sharing the last one.
+     */
+    static int getBucket(SearchResult result) {
+        if (result.rank < SearchResult.TOP_RANK) {
+            return 0;
+        }
+        return Math.min(result.rank, BUCKET_COUNT - 1);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.Pair;
+
+import com.android.settings.search.SearchResult.BreadcrumbHandle;
+import com.android.settings.search.SearchResult.IconHandle;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Resolves the {@link IconHandle} and {@link BreadcrumbHandle} of {@link SearchResult}s when they
+ * are bound to a {@link SearchViewHolder}, so results which are never displayed never load them.
+ *
+ * Loading happens on a single background thread. Icons are kept in an LRU cache keyed by package
+ * and resource id, which holds {@link Drawable.ConstantState}s so each view gets its own
+ * {@link Drawable}.
+ */
+public class ResultResourceLoader {
+
+    private static final String TAG = "ResultResourceLoader";
+
+    @VisibleForTesting
+    static final int ICON_CACHE_SIZE = 64;
+    // Results come from few packages, the bound only matters to the long-lived instance.
+    @VisibleForTesting
+    static final int PACKAGE_CONTEXT_CACHE_SIZE = 16;
+
+    private static ResultResourceLoader sInstance;
+
+    /**
+     * Called on the main thread once the resources of {@param result} are loaded.
+     */
+    public interface Callback {
+        void onResourcesLoaded(SearchResult result, Drawable icon, List<String> breadcrumbs);
+    }
+
+    private final LruCache<Pair<String, Integer>, Drawable.ConstantState> mIconCache =
+            new LruCache<>(ICON_CACHE_SIZE);
+    private final LruCache<String, Context> mPackageContexts =
+            new LruCache<>(PACKAGE_CONTEXT_CACHE_SIZE);
+    private final Executor mExecutor;
+    private final Handler mMainHandler;
+
+    public static synchronized ResultResourceLoader getInstance() {
+        if (sInstance == null) {
+            sInstance = new ResultResourceLoader(Executors.newSingleThreadExecutor(),
+                    new Handler(Looper.getMainLooper()));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    ResultResourceLoader(Executor executor, Handler mainHandler) {
+        mExecutor = executor;
+        mMainHandler = mainHandler;
+    }
+
+    /**
+     * @return a new {@link Drawable} for {@param handle} if it is in the cache, null otherwise.
+     */
+    public Drawable peekIcon(IconHandle handle) {
+        final Drawable.ConstantState state = mIconCache.get(getKey(handle));
+        return state != null ? state.newDrawable() : null;
+    }
+
+    /**
+     * Loads the icon for {@param handle}, from the cache if possible. Do not call on the main
+     * thread.
+     */
+    public Drawable loadIcon(Context context, IconHandle handle) {
+        final Pair<String, Integer> key = getKey(handle);
+        final Drawable.ConstantState cachedState = mIconCache.get(key);
+        if (cachedState != null) {
+            return cachedState.newDrawable();
+        }
+        final Context packageContext = getPackageContext(context, handle.packageName);
+        if (packageContext == null) {
+            return null;
+        }
+        final Drawable icon;
+        try {
+            icon = packageContext.getDrawable(handle.iconResId);
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+        if (icon != null && icon.getConstantState() != null) {
+            mIconCache.put(key, icon.getConstantState());
+        }
+        return icon;
+    }
+
+    /**
+     * Loads the icon and breadcrumbs of {@param result} in the background, then calls
+     * {@param callback} on the main thread.
+     */
+    @MainThread
+    public void loadAsync(Context context, SearchResult result, Callback callback) {
+        mExecutor.execute(() -> {
+            final Drawable icon = result.iconHandle != null
+                    ? loadIcon(context, result.iconHandle)
+                    : null;
+            final List<String> breadcrumbs = result.breadcrumbHandle != null
+                    ? result.breadcrumbHandle.load(context)
+                    : null;
+            mMainHandler.post(() -> callback.onResourcesLoaded(result, icon, breadcrumbs));
+        });
+    }
+
+    private Context getPackageContext(Context context, String packageName) {
+        if (packageName == null) {
+            return context;
+        }
+        synchronized (mPackageContexts) {
+            Context packageContext = mPackageContexts.get(packageName);
+            if (packageContext == null) {
+                try {
+                    packageContext = context.createPackageContext(packageName, 0);
+                } catch (PackageManager.NameNotFoundException e) {
+                    Log.e(TAG, "Cannot create Context for package: " + packageName);
+                    return null;
+                }
+                mPackageContexts.put(packageName, packageContext);
+            }
+            return packageContext;
+        }
+    }
+
+    private static Pair<String, Integer> getKey(IconHandle handle) {
+        return Pair.create(handle.packageName, handle.iconResId);
+    }
+}
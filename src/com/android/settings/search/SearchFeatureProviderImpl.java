@@ -36,6 +36,7 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
 
     private DatabaseIndexingManager mDatabaseIndexingManager;
     private SiteMapManager mSiteMapManager;
+    private InstalledAppIndex mInstalledAppIndex;
 
     @Override
     public boolean isEnabled(Context context) {
@@ -50,8 +51,21 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
     @Override
     public InstalledAppResultLoader getInstalledAppSearchLoader(Context context, String query) {
         return new InstalledAppResultLoader(
-                context, new PackageManagerWrapperImpl(context.getPackageManager()),
-                cleanQuery(query), getSiteMapManager());
+                context, getInstalledAppIndex(context), cleanQuery(query), getSiteMapManager());
+    }
+
+    /**
+     * Returns the label index shared by all of the installed app loaders, which follows package
+     * changes for as long as the process lives.
+     */
+    private synchronized InstalledAppIndex getInstalledAppIndex(Context context) {
+        if (mInstalledAppIndex == null) {
+            final Context appContext = context.getApplicationContext();
+            mInstalledAppIndex = new InstalledAppIndex(appContext,
+                    new PackageManagerWrapperImpl(appContext.getPackageManager()));
+            mInstalledAppIndex.startTracking();
+        }
+        return mInstalledAppIndex;
     }
 
     @Override
@@ -99,6 +99,10 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
     // Logging
     @VisibleForTesting
     static final String RESULT_CLICK_COUNT = "settings_search_result_click_count";
+    @VisibleForTesting
+    static final String COALESCED_QUERY_COUNT = "settings_search_coalesced_query_count";
+    @VisibleForTesting
+    static final String CANCELLED_QUERY_COUNT = "settings_search_cancelled_query_count";
 
     @VisibleForTesting
     String mQuery;
@@ -117,6 +121,9 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
     @VisibleForTesting
     SearchResultsAdapter mSearchAdapter;
 
+    @VisibleForTesting
+    final SearchQueryScheduler mQueryScheduler = new SearchQueryScheduler(this::dispatchQuery);
+
     @VisibleForTesting
     RecyclerView mResultsRecyclerView;
     @VisibleForTesting
@@ -242,9 +249,20 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
     @Override
     public void onStop() {
         super.onStop();
+        // The query is sent again by requery() when the fragment resumes.
+        mQueryScheduler.cancelPendingQuery();
         final Activity activity = getActivity();
         if (activity != null && activity.isFinishing()) {
             mMetricsFeatureProvider.histogram(activity, RESULT_CLICK_COUNT, mResultClickCount);
+            mMetricsFeatureProvider.histogram(activity, COALESCED_QUERY_COUNT,
+                    mQueryScheduler.getCoalescedCount());
+            mMetricsFeatureProvider.histogram(activity, CANCELLED_QUERY_COUNT,
+                    mQueryScheduler.getCancelledCount());
+            if (SettingsSearchIndexablesProvider.DEBUG) {
+                Log.d(TAG, "Queries dispatched: " + mQueryScheduler.getDispatchedCount()
+                        + ", coalesced: " + mQueryScheduler.getCoalescedCount()
+                        + ", cancelled: " + mQueryScheduler.getCancelledCount());
+            }
             if (mNeverEnteredQuery) {
                 mMetricsFeatureProvider.action(activity,
                         MetricsEvent.ACTION_LEAVE_SEARCH_RESULT_WITHOUT_QUERY);
@@ -286,6 +304,11 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
         }
 
         if (isEmptyQuery) {
+            mQueryScheduler.cancelPendingQuery();
+            if (isQueryInFlight()) {
+                mQueryScheduler.onLoadsCancelled(mUnfinishedLoadersCount.get());
+            }
+            mUnfinishedLoadersCount.set(0);
             final LoaderManager loaderManager = getLoaderManager();
             loaderManager.destroyLoader(SearchLoaderId.DATABASE);
             loaderManager.destroyLoader(SearchLoaderId.INSTALLED_APPS);
@@ -294,9 +317,8 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
             mShowingSavedQuery = true;
             mSavedQueryController.loadSavedQueries();
             mSearchFeatureProvider.hideFeedbackButton();
-        } else {
-            mSearchAdapter.initializeSearch(mQuery);
-            restartLoaders();
+        } else if (mQueryScheduler.scheduleQuery(isQueryInFlight())) {
+            dispatchQuery();
         }
 
         return true;
@@ -395,6 +417,26 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
         onQueryTextChange(queryString);
     }
 
+    /**
+     * Restarts the result loaders for the current query. Loaders still working on the previous
+     * query are canceled by the restart.
+     */
+    @VisibleForTesting
+    void dispatchQuery() {
+        if (getActivity() == null || TextUtils.isEmpty(mQuery)) {
+            return;
+        }
+        if (isQueryInFlight()) {
+            mQueryScheduler.onLoadsCancelled(mUnfinishedLoadersCount.get());
+        }
+        mSearchAdapter.initializeSearch(mQuery);
+        restartLoaders();
+    }
+
+    private boolean isQueryInFlight() {
+        return !mShowingSavedQuery && mUnfinishedLoadersCount.get() > 0;
+    }
+
     private void restartLoaders() {
         mShowingSavedQuery = false;
         final LoaderManager loaderManager = getLoaderManager();
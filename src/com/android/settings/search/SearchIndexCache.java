@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.android.settings.search.DatabaseResultLoader.BASE_RANKS;
+import static com.android.settings.search.DatabaseResultLoader.MATCH_COLUMNS_PRIMARY;
+import static com.android.settings.search.DatabaseResultLoader.MATCH_COLUMNS_SECONDARY;
+import static com.android.settings.search.DatabaseResultLoader.MATCH_COLUMNS_TERTIARY;
+import static com.android.settings.search.DatabaseResultLoader.SELECT_COLUMNS;
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns;
+import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.CancellationSignal;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide, in-memory copy of the enabled rows of
+ * {@link IndexDatabaseHelper.Tables#TABLE_PREFS_INDEX}, used to answer search queries without
+ * going back to SQLite for each keystroke.
+ *
+ * Candidate rows are found through a sorted array of every token in the match columns. When a
+ * query extends the previous one (the user typed more characters), only the rows that matched the
+ * previous query are checked again.
+ *
+ * The cache is invalidated whenever {@link DatabaseIndexingManager} updates the index, and
+ * rebuilt once indexing completes or lazily on the next query. If the index does not fit in
+ * {@link #MAX_CACHE_SIZE_CHARS}, the cache stays disabled and callers fall back to
+ * {@link FtsQueryEngine}.
+ */
+public class SearchIndexCache {
+
+    private static final String TAG = "SearchIndexCache";
+
+    /**
+     * Number of candidate rows checked between two looks at the cancellation signal.
+     */
+    private static final int CANCELLATION_CHECK_INTERVAL = 256;
+
+    /**
+     * Rough upper bound on the characters held by the cache, about 4MB of strings.
+     */
+    @VisibleForTesting
+    static final int MAX_CACHE_SIZE_CHARS = 2 * 1024 * 1024;
+
+    private static final String[] MATCH_COLUMNS;
+
+    static {
+        MATCH_COLUMNS = new String[MATCH_COLUMNS_PRIMARY.length + MATCH_COLUMNS_SECONDARY.length
+                + MATCH_COLUMNS_TERTIARY.length];
+        int i = 0;
+        for (String column : MATCH_COLUMNS_PRIMARY) {
+            MATCH_COLUMNS[i++] = column;
+        }
+        for (String column : MATCH_COLUMNS_SECONDARY) {
+            MATCH_COLUMNS[i++] = column;
+        }
+        for (String column : MATCH_COLUMNS_TERTIARY) {
+            MATCH_COLUMNS[i++] = column;
+        }
+    }
+
+    private static final String[] RESULT_COLUMNS =
+            Arrays.copyOf(SELECT_COLUMNS, SELECT_COLUMNS.length + 1);
+
+    static {
+        RESULT_COLUMNS[SELECT_COLUMNS.length] = FtsQueryEngine.COLUMN_BASE_RANK;
+    }
+
+    private static SearchIndexCache sInstance;
+
+    private Snapshot mSnapshot;
+    private SQLiteDatabase mSnapshotDatabase;
+    private boolean mDisabled;
+
+    // Candidate set of the previous query, refined by the next one when it extends it.
+    private String mLastQuery;
+    private int[] mLastMatches;
+
+    public static synchronized SearchIndexCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new SearchIndexCache();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SearchIndexCache() {
+    }
+
+    /**
+     * Drops the cached index. It will be rebuilt from the database on the next query.
+     */
+    public synchronized void invalidate() {
+        mSnapshot = null;
+        mSnapshotDatabase = null;
+        mDisabled = false;
+        mLastQuery = null;
+        mLastMatches = null;
+    }
+
+    /**
+     * Rebuilds the cached index from {@param database}.
+     */
+    public synchronized void rebuild(SQLiteDatabase database) {
+        invalidate();
+        ensureSnapshot(database);
+    }
+
+    /**
+     * Answers {@param queryText} from memory.
+     *
+     * @return a {@link Cursor} with the same shape and order as the one returned by
+     * {@link FtsQueryEngine#query(SQLiteDatabase, String)}, or null when the cache is not
+     * available and the caller should query the database instead.
+     */
+    public Cursor query(SQLiteDatabase database, String queryText) {
+        return query(database, queryText, null /* cancellationSignal */);
+    }
+
+    /**
+     * Same as {@link #query(SQLiteDatabase, String)}, but gives up with an
+     * {@link android.os.OperationCanceledException} once {@param cancellationSignal} is canceled.
+     */
+    public synchronized Cursor query(SQLiteDatabase database, String queryText,
+            CancellationSignal cancellationSignal) {
+        final List<String> tokens = FtsQueryEngine.tokenize(queryText);
+        if (tokens.isEmpty() || !ensureSnapshot(database)) {
+            return null;
+        }
+        final Snapshot snapshot = mSnapshot;
+        final String query = TextUtils.join(" ", tokens);
+        final int[] candidates = (mLastQuery != null && query.startsWith(mLastQuery))
+                ? mLastMatches
+                : snapshot.findCandidates(tokens);
+
+        final String[] queryTokens = tokens.toArray(new String[tokens.size()]);
+        final List<int[]> rankedRows = new ArrayList<>();
+        final int[] matches = new int[candidates.length];
+        int matchCount = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            if (cancellationSignal != null && (i % CANCELLATION_CHECK_INTERVAL) == 0) {
+                cancellationSignal.throwIfCanceled();
+            }
+            final int row = candidates[i];
+            final int baseRank = snapshot.getBaseRank(row, queryTokens);
+            if (baseRank > 0) {
+                matches[matchCount++] = row;
+                rankedRows.add(new int[] {baseRank, row});
+            }
+        }
+        mLastQuery = query;
+        mLastMatches = Arrays.copyOf(matches, matchCount);
+
+        rankedRows.sort((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0])
+                : Integer.compare(a[1], b[1]));
+        final MatrixCursor cursor = new MatrixCursor(RESULT_COLUMNS, rankedRows.size());
+        for (int[] rankedRow : rankedRows) {
+            final Object[] values = snapshot.rows.get(rankedRow[1]);
+            final Object[] result = Arrays.copyOf(values, RESULT_COLUMNS.length);
+            result[SELECT_COLUMNS.length] = rankedRow[0];
+            cursor.addRow(result);
+        }
+        return cursor;
+    }
+
+    @VisibleForTesting
+    synchronized boolean isReady() {
+        return mSnapshot != null;
+    }
+
+    private boolean ensureSnapshot(SQLiteDatabase database) {
+        if (mSnapshotDatabase != database) {
+            // The database was reopened, anything cached belongs to the old one.
+            invalidate();
+        }
+        if (mSnapshot != null) {
+            return true;
+        }
+        if (mDisabled) {
+            return false;
+        }
+        final long startTime = System.currentTimeMillis();
+        mSnapshotDatabase = database;
+        mSnapshot = Snapshot.load(database);
+        mDisabled = mSnapshot == null;
+        if (SettingsSearchIndexablesProvider.DEBUG) {
+            Log.d(TAG, "Building search cache took " + (System.currentTimeMillis() - startTime)
+                    + " ms, enabled: " + !mDisabled);
+        }
+        return mSnapshot != null;
+    }
+
+    /**
+     * Immutable copy of the enabled rows and their tokens.
+     */
+    private static class Snapshot {
+        // Column values of each row, in the order of SELECT_COLUMNS.
+        final List<Object[]> rows = new ArrayList<>();
+        // Tokens of each match column of each row, in the order of MATCH_COLUMNS.
+        final List<String[][]> rowTokens = new ArrayList<>();
+        // Every distinct token, sorted, and the rows containing it.
+        String[] sortedTokens;
+        int[][] postings;
+
+        static Snapshot load(SQLiteDatabase database) {
+            final String[] projection = Arrays.copyOf(SELECT_COLUMNS,
+                    SELECT_COLUMNS.length + MATCH_COLUMNS.length);
+            System.arraycopy(MATCH_COLUMNS, 0, projection, SELECT_COLUMNS.length,
+                    MATCH_COLUMNS.length);
+
+            final Snapshot snapshot = new Snapshot();
+            final Map<String, List<Integer>> tokenRows = new HashMap<>();
+            long size = 0;
+            try (Cursor cursor = database.query(TABLE_PREFS_INDEX, projection,
+                    IndexColumns.ENABLED + " = 1", null, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    final int row = snapshot.rows.size();
+                    final Object[] values = new Object[SELECT_COLUMNS.length];
+                    for (int i = 0; i < SELECT_COLUMNS.length; i++) {
+                        values[i] = getValue(cursor, i);
+                        size += estimateSize(values[i]);
+                    }
+                    final String[][] tokens = new String[MATCH_COLUMNS.length][];
+                    for (int i = 0; i < MATCH_COLUMNS.length; i++) {
+                        final List<String> columnTokens = FtsQueryEngine.tokenize(
+                                cursor.getString(SELECT_COLUMNS.length + i));
+                        tokens[i] = columnTokens.toArray(new String[columnTokens.size()]);
+                        for (String token : tokens[i]) {
+                            size += token.length();
+                            List<Integer> rows = tokenRows.get(token);
+                            if (rows == null) {
+                                rows = new ArrayList<>();
+                                tokenRows.put(token, rows);
+                            }
+                            if (rows.isEmpty() || rows.get(rows.size() - 1) != row) {
+                                rows.add(row);
+                            }
+                        }
+                    }
+                    if (size > MAX_CACHE_SIZE_CHARS) {
+                        Log.w(TAG, "Search index too large to cache");
+                        return null;
+                    }
+                    snapshot.rows.add(values);
+                    snapshot.rowTokens.add(tokens);
+                }
+            } catch (SQLiteException e) {
+                Log.e(TAG, "Cannot read search index", e);
+                return null;
+            }
+
+            snapshot.sortedTokens = tokenRows.keySet().toArray(new String[tokenRows.size()]);
+            Arrays.sort(snapshot.sortedTokens);
+            snapshot.postings = new int[snapshot.sortedTokens.length][];
+            for (int i = 0; i < snapshot.sortedTokens.length; i++) {
+                final List<Integer> rows = tokenRows.get(snapshot.sortedTokens[i]);
+                final int[] posting = new int[rows.size()];
+                for (int j = 0; j < posting.length; j++) {
+                    posting[j] = rows.get(j);
+                }
+                snapshot.postings[i] = posting;
+            }
+            return snapshot;
+        }
+
+        /**
+         * @return the rows containing the first query token, or a token it prefixes when the
+         * query is a single token.
+         */
+        int[] findCandidates(List<String> queryTokens) {
+            final String first = queryTokens.get(0);
+            final boolean isPrefix = queryTokens.size() == 1;
+            final BitSet candidates = new BitSet(rows.size());
+            int index = Arrays.binarySearch(sortedTokens, first);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            for (int i = index; i < sortedTokens.length; i++) {
+                final String token = sortedTokens[i];
+                if (isPrefix ? !token.startsWith(first) : !token.equals(first)) {
+                    break;
+                }
+                for (int row : postings[i]) {
+                    candidates.set(row);
+                }
+            }
+            final int[] result = new int[candidates.cardinality()];
+            int i = 0;
+            for (int row = candidates.nextSetBit(0); row >= 0;
+                    row = candidates.nextSetBit(row + 1)) {
+                result[i++] = row;
+            }
+            return result;
+        }
+
+        /**
+         * Mirrors the tiers of {@link FtsQueryEngine}.
+         *
+         * @return the best base rank of {@param row} for the query, or 0 if it does not match.
+         */
+        int getBaseRank(int row, String[] queryTokens) {
+            final String[][] tokens = rowTokens.get(row);
+            int column = 0;
+            boolean matchesPrimary = false;
+            for (int i = 0; i < MATCH_COLUMNS_PRIMARY.length; i++, column++) {
+                final int position = findPhrase(tokens[column], queryTokens);
+                if (position == 0) {
+                    return BASE_RANKS[0];
+                }
+                matchesPrimary |= position > 0;
+            }
+            if (matchesPrimary) {
+                return BASE_RANKS[1];
+            }
+            for (int i = 0; i < MATCH_COLUMNS_SECONDARY.length; i++, column++) {
+                if (findPhrase(tokens[column], queryTokens) >= 0) {
+                    return BASE_RANKS[2];
+                }
+            }
+            for (int i = 0; i < MATCH_COLUMNS_TERTIARY.length; i++, column++) {
+                if (findPhrase(tokens[column], queryTokens) >= 0) {
+                    return BASE_RANKS[3];
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return the first position of the query phrase in {@param tokens}, where the last query
+         * token only needs to be a prefix, or -1.
+         */
+        private static int findPhrase(String[] tokens, String[] queryTokens) {
+            final int last = queryTokens.length - 1;
+            for (int start = 0; start + last < tokens.length; start++) {
+                boolean matches = true;
+                for (int i = 0; i < last && matches; i++) {
+                    matches = tokens[start + i].equals(queryTokens[i]);
+                }
+                if (matches && tokens[start + last].startsWith(queryTokens[last])) {
+                    return start;
+                }
+            }
+            return -1;
+        }
+
+        private static Object getValue(Cursor cursor, int column) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(column);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(column);
+                case Cursor.FIELD_TYPE_BLOB:
+                    return cursor.getBlob(column);
+                case Cursor.FIELD_TYPE_NULL:
+                    return null;
+                default:
+                    return cursor.getString(column);
+            }
+        }
+
+        private static long estimateSize(Object value) {
+            if (value instanceof String) {
+                return ((String) value).length();
+            } else if (value instanceof byte[]) {
+                return ((byte[]) value).length / 2;
+            }
+            return 1;
+        }
+    }
+}
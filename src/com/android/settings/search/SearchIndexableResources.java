@@ -90,6 +90,7 @@ import com.android.settings.wifi.SavedAccessPointsWifiSettings;
 import com.android.settings.wifi.WifiSettings;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.function.Supplier;
 
 public final class SearchIndexableResources {
 
@@ -105,15 +106,31 @@ public final class SearchIndexableResources {
     @VisibleForTesting
     static final HashMap<String, SearchIndexableResource> sResMap = new HashMap<>();
 
+    /**
+     * Map from class name to a supplier of the {@code SEARCH_INDEX_DATA_PROVIDER} of that class,
+     * so providers can be found without reflection. The field is only read when the provider is
+     * requested, so loading this class does not initialize every fragment. Classes indexed from
+     * a XML resource only are not in this map.
+     */
+    @VisibleForTesting
+    static final HashMap<String, Supplier<Indexable.SearchIndexProvider>> sProviderMap =
+            new HashMap<>();
+
     @VisibleForTesting
     static void addIndex(Class<?> indexClass, @XmlRes int xmlResId,
             @DrawableRes int iconResId) {
-        addIndex(indexClass, xmlResId, iconResId, null /* targetAction */);
+        addIndex(indexClass, null /* provider */, xmlResId, iconResId, null /* targetAction */);
     }
 
     @VisibleForTesting
-    static void addIndex(Class<?> indexClass, @XmlRes int xmlResId,
-            @DrawableRes int iconResId, String targetAction) {
+    static void addIndex(Class<?> indexClass, Supplier<Indexable.SearchIndexProvider> provider,
+            @XmlRes int xmlResId, @DrawableRes int iconResId) {
+        addIndex(indexClass, provider, xmlResId, iconResId, null /* targetAction */);
+    }
+
+    @VisibleForTesting
+    static void addIndex(Class<?> indexClass, Supplier<Indexable.SearchIndexProvider> provider,
+            @XmlRes int xmlResId, @DrawableRes int iconResId, String targetAction) {
         String className = indexClass.getName();
         SearchIndexableResource resource =
                 new SearchIndexableResource(0, xmlResId, className, iconResId);
@@ -124,97 +141,182 @@ public final class SearchIndexableResources {
         }
 
         sResMap.put(className, resource);
+        if (provider != null) {
+            sProviderMap.put(className, provider);
+        } else {
+            sProviderMap.remove(className);
+        }
     }
 
     static {
-        addIndex(WifiSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_wireless);
-        addIndex(NetworkDashboardFragment.class, NO_DATA_RES_ID, R.drawable.ic_settings_wireless);
-        addIndex(ConfigureWifiSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_wireless);
-        addIndex(SavedAccessPointsWifiSettings.class, NO_DATA_RES_ID,
+        addIndex(WifiSettings.class, () -> WifiSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_wireless);
+        addIndex(NetworkDashboardFragment.class,
+                () -> NetworkDashboardFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
                 R.drawable.ic_settings_wireless);
-        addIndex(BluetoothSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_bluetooth);
-        addIndex(SimSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_sim);
-        addIndex(DataUsageSummary.class, NO_DATA_RES_ID, R.drawable.ic_settings_data_usage);
-        addIndex(DataUsageMeteredSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_data_usage);
-        addIndex(ScreenZoomSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_display);
-        addIndex(DisplaySettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_display,
+        addIndex(ConfigureWifiSettings.class,
+                () -> ConfigureWifiSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_wireless);
+        addIndex(SavedAccessPointsWifiSettings.class,
+                () -> SavedAccessPointsWifiSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_wireless);
+        addIndex(BluetoothSettings.class, () -> BluetoothSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_bluetooth);
+        addIndex(SimSettings.class, () -> SimSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_sim);
+        addIndex(DataUsageSummary.class, () -> DataUsageSummary.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_data_usage);
+        addIndex(DataUsageMeteredSettings.class,
+                () -> DataUsageMeteredSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_data_usage);
+        addIndex(ScreenZoomSettings.class, () -> ScreenZoomSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_display);
+        addIndex(DisplaySettings.class, () -> DisplaySettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_display,
                 "android.settings.DISPLAY_SETTINGS");
-        addIndex(AmbientDisplaySettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_display);
-        addIndex(WallpaperTypeSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_display);
+        addIndex(AmbientDisplaySettings.class,
+                () -> AmbientDisplaySettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_display);
+        addIndex(WallpaperTypeSettings.class,
+                () -> WallpaperTypeSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_display);
         addIndex(ConfigureNotificationSettings.class,
+                () -> ConfigureNotificationSettings.SEARCH_INDEX_DATA_PROVIDER,
                 R.xml.configure_notification_settings, R.drawable.ic_settings_notifications);
-        addIndex(AppAndNotificationDashboardFragment.class, NO_DATA_RES_ID,
-                R.drawable.ic_settings_applications);
-        addIndex(SoundSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_sound,
-                "android.settings.SOUND_SETTINGS");
-        addIndex(ZenModeSettings.class,
-                R.xml.zen_mode_settings, R.drawable.ic_settings_notifications);
-        addIndex(ZenModePrioritySettings.class,
-                R.xml.zen_mode_priority_settings, R.drawable.ic_settings_notifications);
-        addIndex(StorageSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_storage);
-        addIndex(PowerUsageSummary.class,
+        addIndex(AppAndNotificationDashboardFragment.class,
+                () -> AppAndNotificationDashboardFragment.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_applications);
+        addIndex(SoundSettings.class, () -> SoundSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_sound, "android.settings.SOUND_SETTINGS");
+        addIndex(ZenModeSettings.class, R.xml.zen_mode_settings,
+                R.drawable.ic_settings_notifications);
+        addIndex(ZenModePrioritySettings.class, R.xml.zen_mode_priority_settings,
+                R.drawable.ic_settings_notifications);
+        addIndex(StorageSettings.class, () -> StorageSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_storage);
+        addIndex(PowerUsageSummary.class, () -> PowerUsageSummary.SEARCH_INDEX_DATA_PROVIDER,
                 R.xml.power_usage_summary, R.drawable.ic_settings_battery);
-        addIndex(PowerUsageAdvanced.class, NO_DATA_RES_ID, R.drawable.ic_settings_battery);
-        addIndex(BatterySaverSettings.class,
-                R.xml.battery_saver_settings, R.drawable.ic_settings_battery);
-        addIndex(DefaultAppSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_applications);
-        addIndex(ManageAssist.class, NO_DATA_RES_ID, R.drawable.ic_settings_applications);
-        addIndex(SpecialAccessSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_applications);
-        addIndex(UserSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_multiuser);
-        addIndex(AssistGestureSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_gestures);
-        addIndex(PickupGestureSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_gestures);
-        addIndex(DoubleTapScreenSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_gestures);
-        addIndex(DoubleTapPowerSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_gestures);
-        addIndex(DoubleTwistGestureSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_gestures);
-        addIndex(SwipeToNotificationSettings.class, NO_DATA_RES_ID,
+        addIndex(PowerUsageAdvanced.class, () -> PowerUsageAdvanced.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_battery);
+        addIndex(BatterySaverSettings.class, R.xml.battery_saver_settings,
+                R.drawable.ic_settings_battery);
+        addIndex(DefaultAppSettings.class, () -> DefaultAppSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_applications);
+        addIndex(ManageAssist.class, () -> ManageAssist.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_applications);
+        addIndex(SpecialAccessSettings.class,
+                () -> SpecialAccessSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_applications);
+        addIndex(UserSettings.class, () -> UserSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_multiuser);
+        addIndex(AssistGestureSettings.class,
+                () -> AssistGestureSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_gestures);
+        addIndex(PickupGestureSettings.class,
+                () -> PickupGestureSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_gestures);
+        addIndex(DoubleTapScreenSettings.class,
+                () -> DoubleTapScreenSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
                 R.drawable.ic_settings_gestures);
-        addIndex(GestureSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_gestures);
-        addIndex(LanguageAndInputSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_language);
+        addIndex(DoubleTapPowerSettings.class,
+                () -> DoubleTapPowerSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_gestures);
+        addIndex(DoubleTwistGestureSettings.class,
+                () -> DoubleTwistGestureSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_gestures);
+        addIndex(SwipeToNotificationSettings.class,
+                () -> SwipeToNotificationSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_gestures);
+        addIndex(GestureSettings.class, () -> GestureSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_gestures);
+        addIndex(LanguageAndInputSettings.class,
+                () -> LanguageAndInputSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_language);
         addIndex(LocationSettings.class, R.xml.location_settings, R.drawable.ic_settings_location);
         addIndex(ScanningSettings.class, R.xml.location_scanning, R.drawable.ic_settings_location);
-        addIndex(SecuritySettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_security);
-        addIndex(EncryptionAndCredential.class, NO_DATA_RES_ID, R.drawable.ic_settings_security);
-        addIndex(ScreenPinningSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_security);
-        addIndex(UserAndAccountDashboardFragment.class, NO_DATA_RES_ID,
+        addIndex(SecuritySettings.class, () -> SecuritySettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_security);
+        addIndex(EncryptionAndCredential.class,
+                () -> EncryptionAndCredential.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_security);
+        addIndex(ScreenPinningSettings.class,
+                () -> ScreenPinningSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_security);
+        addIndex(UserAndAccountDashboardFragment.class,
+                () -> UserAndAccountDashboardFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
                 R.drawable.ic_settings_accounts);
-        addIndex(VirtualKeyboardFragment.class, NO_DATA_RES_ID, R.drawable.ic_settings_language);
+        addIndex(VirtualKeyboardFragment.class,
+                () -> VirtualKeyboardFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_language);
         addIndex(AvailableVirtualKeyboardFragment.class,
-                NO_DATA_RES_ID, R.drawable.ic_settings_language);
-        addIndex(PhysicalKeyboardFragment.class, NO_DATA_RES_ID, R.drawable.ic_settings_language);
-        addIndex(BackupSettingsActivity.class, NO_DATA_RES_ID, R.drawable.ic_settings_backup);
-        addIndex(BackupSettingsFragment.class, NO_DATA_RES_ID, R.drawable.ic_settings_backup);
-        addIndex(DateTimeSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_date_time);
-        addIndex(AccessibilitySettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_accessibility);
-        addIndex(PrintSettingsFragment.class, NO_DATA_RES_ID, R.drawable.ic_settings_print);
-        addIndex(DevelopmentSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_development);
-        addIndex(DeviceInfoSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_about);
-        addIndex(Status.class, NO_DATA_RES_ID, 0 /* icon */);
-        addIndex(LegalSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_about);
+                () -> AvailableVirtualKeyboardFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_language);
+        addIndex(PhysicalKeyboardFragment.class,
+                () -> PhysicalKeyboardFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_language);
+        addIndex(BackupSettingsActivity.class,
+                () -> BackupSettingsActivity.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_backup);
+        addIndex(BackupSettingsFragment.class,
+                () -> BackupSettingsFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_backup);
+        addIndex(DateTimeSettings.class, () -> DateTimeSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_date_time);
+        addIndex(AccessibilitySettings.class,
+                () -> AccessibilitySettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_accessibility);
+        addIndex(PrintSettingsFragment.class,
+                () -> PrintSettingsFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_print);
+        addIndex(DevelopmentSettings.class, () -> DevelopmentSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_development);
+        addIndex(DeviceInfoSettings.class, () -> DeviceInfoSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_about);
+        addIndex(Status.class, () -> Status.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                0 /* icon */);
+        addIndex(LegalSettings.class, () -> LegalSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_about);
         addIndex(ZenModeVisualInterruptionSettings.class,
-                R.xml.zen_mode_visual_interruptions_settings,
-                R.drawable.ic_settings_notifications);
-        addIndex(SystemDashboardFragment.class, NO_DATA_RES_ID, R.drawable.ic_settings_about);
-        addIndex(ResetDashboardFragment.class, NO_DATA_RES_ID, R.drawable.ic_restore);
-        addIndex(StorageDashboardFragment.class, NO_DATA_RES_ID, R.drawable.ic_settings_storage);
-        addIndex(ConnectedDeviceDashboardFragment.class, NO_DATA_RES_ID,
+                R.xml.zen_mode_visual_interruptions_settings, R.drawable.ic_settings_notifications);
+        addIndex(SystemDashboardFragment.class,
+                () -> SystemDashboardFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_about);
+        addIndex(ResetDashboardFragment.class,
+                () -> ResetDashboardFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_restore);
+        addIndex(StorageDashboardFragment.class,
+                () -> StorageDashboardFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_storage);
+        addIndex(ConnectedDeviceDashboardFragment.class,
+                () -> ConnectedDeviceDashboardFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
                 R.drawable.ic_devices_other);
-        addIndex(EnterprisePrivacySettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_about);
-        addIndex(PaymentSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_nfc_payment);
-        addIndex(
-                TtsEnginePreferenceFragment.class, NO_DATA_RES_ID, R.drawable.ic_settings_language);
-        addIndex(LockscreenDashboardFragment.class, R.xml.security_lockscreen_settings,
-                R.drawable.ic_settings_security);
-        addIndex(MagnificationPreferenceFragment.class, NO_DATA_RES_ID,
+        addIndex(EnterprisePrivacySettings.class,
+                () -> EnterprisePrivacySettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_about);
+        addIndex(PaymentSettings.class, () -> PaymentSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_nfc_payment);
+        addIndex(TtsEnginePreferenceFragment.class,
+                () -> TtsEnginePreferenceFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_settings_language);
+        addIndex(LockscreenDashboardFragment.class,
+                () -> LockscreenDashboardFragment.SEARCH_INDEX_DATA_PROVIDER,
+                R.xml.security_lockscreen_settings, R.drawable.ic_settings_security);
+        addIndex(MagnificationPreferenceFragment.class,
+                () -> MagnificationPreferenceFragment.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
                 R.drawable.ic_settings_accessibility);
-        addIndex(AccessibilityShortcutPreferenceFragment.class, NO_DATA_RES_ID,
-                R.drawable.ic_settings_accessibility);
-        addIndex(ChannelImportanceSettings.class, NO_DATA_RES_ID,
+        addIndex(AccessibilityShortcutPreferenceFragment.class,
+                () -> AccessibilityShortcutPreferenceFragment.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_accessibility);
+        addIndex(ChannelImportanceSettings.class,
+                () -> ChannelImportanceSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
                 R.drawable.ic_settings_notifications);
-        addIndex(DreamSettings.class, NO_DATA_RES_ID, R.drawable.ic_settings_display);
-        addIndex(SupportDashboardActivity.class, NO_DATA_RES_ID, R.drawable.ic_help);
-        addIndex(
-                AutomaticStorageManagerSettings.class,
-                NO_DATA_RES_ID,
+        addIndex(DreamSettings.class, () -> DreamSettings.SEARCH_INDEX_DATA_PROVIDER,
+                NO_DATA_RES_ID, R.drawable.ic_settings_display);
+        addIndex(SupportDashboardActivity.class,
+                () -> SupportDashboardActivity.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
+                R.drawable.ic_help);
+        addIndex(AutomaticStorageManagerSettings.class,
+                () -> AutomaticStorageManagerSettings.SEARCH_INDEX_DATA_PROVIDER, NO_DATA_RES_ID,
                 R.drawable.ic_settings_storage);
     }
 
@@ -232,4 +334,21 @@ public final class SearchIndexableResources {
     public static Collection<SearchIndexableResource> values() {
         return sResMap.values();
     }
+
+    /**
+     * @return true if {@param className} is registered in this class, in which case
+     * {@link #getProviderByName(String)} is authoritative for it.
+     */
+    public static boolean contains(String className) {
+        return sResMap.containsKey(className);
+    }
+
+    /**
+     * @return the {@link Indexable.SearchIndexProvider} registered for {@param className}, or null
+     * if it has none.
+     */
+    public static Indexable.SearchIndexProvider getProviderByName(String className) {
+        final Supplier<Indexable.SearchIndexProvider> provider = sProviderMap.get(className);
+        return provider != null ? provider.get() : null;
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.VisibleForTesting;
+
+/**
+ * Decides when {@link SearchFragment} restarts its result loaders for a new query.
+ *
+ * When no query is running, the new query is dispatched right away so the first keystroke gets
+ * results without delay. While a query is running, new queries are held back for
+ * {@link #DEBOUNCE_DELAY_MS} and only the last of a burst of keystrokes is dispatched.
+ *
+ * The scheduler also counts the queries which never ran because a newer one replaced them
+ * (coalesced), and the loads which were interrupted by a newer query (cancelled).
+ *
+ * All of the methods must be called on the main thread.
+ */
+public class SearchQueryScheduler {
+
+    @VisibleForTesting
+    static final long DEBOUNCE_DELAY_MS = 150;
+
+    private final Handler mHandler;
+    private final Runnable mDispatcher;
+
+    private boolean mPending;
+    private int mDispatchedCount;
+    private int mCoalescedCount;
+    private int mCancelledCount;
+
+    private final Runnable mPendingDispatch = new Runnable() {
+        @Override
+        public void run() {
+            mPending = false;
+            mDispatchedCount++;
+            mDispatcher.run();
+        }
+    };
+
+    /**
+     * @param dispatcher restarts the loaders, run for the queries which are held back.
+     */
+    public SearchQueryScheduler(Runnable dispatcher) {
+        this(new Handler(Looper.getMainLooper()), dispatcher);
+    }
+
+    @VisibleForTesting
+    SearchQueryScheduler(Handler handler, Runnable dispatcher) {
+        mHandler = handler;
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * Schedules a new query.
+     *
+     * @param queryInFlight whether the loaders are still working on a previous query.
+     * @return true if the caller should dispatch the query now, false if it was held back and the
+     * dispatcher will run later.
+     */
+    public boolean scheduleQuery(boolean queryInFlight) {
+        if (mPending) {
+            mCoalescedCount++;
+            mHandler.removeCallbacks(mPendingDispatch);
+        } else if (!queryInFlight) {
+            mDispatchedCount++;
+            return true;
+        }
+        mPending = true;
+        mHandler.postDelayed(mPendingDispatch, DEBOUNCE_DELAY_MS);
+        return false;
+    }
+
+    /**
+     * Drops the query held back, if any. It counts as coalesced.
+     */
+    public void cancelPendingQuery() {
+        if (!mPending) {
+            return;
+        }
+        mPending = false;
+        mCoalescedCount++;
+        mHandler.removeCallbacks(mPendingDispatch);
+    }
+
+    /**
+     * Records that {@param count} loads were interrupted before they delivered their results.
+     */
+    public void onLoadsCancelled(int count) {
+        mCancelledCount += count;
+    }
+
+    public boolean hasPendingQuery() {
+        return mPending;
+    }
+
+    public int getDispatchedCount() {
+        return mDispatchedCount;
+    }
+
+    public int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    public int getCancelledCount() {
+        return mCancelledCount;
+    }
+}
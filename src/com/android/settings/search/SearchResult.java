@@ -17,10 +17,13 @@
 
 package com.android.settings.search;
 
+import android.content.Context;
 import android.graphics.drawable.Drawable;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.android.settings.dashboard.SiteMapManager;
+
 import java.util.List;
 
 /**
@@ -84,6 +87,18 @@ public class SearchResult implements Comparable<SearchResult> {
      */
     public final Drawable icon;
 
+    /**
+     * Where to load the icon from, for results whose {@link #icon} is resolved when the result is
+     * displayed. See {@link ResultResourceLoader}.
+     */
+    public final IconHandle iconHandle;
+
+    /**
+     * How to build the breadcrumbs, for results whose {@link #breadcrumbs} are resolved when the
+     * result is displayed. See {@link ResultResourceLoader}.
+     */
+    public final BreadcrumbHandle breadcrumbHandle;
+
     /**
      * Stable id for this object.
      */
@@ -96,6 +111,8 @@ public class SearchResult implements Comparable<SearchResult> {
         breadcrumbs = builder.mBreadcrumbs;
         rank = builder.mRank;
         icon = builder.mIcon;
+        iconHandle = builder.mIconHandle;
+        breadcrumbHandle = builder.mBreadcrumbHandle;
         payload = builder.mResultPayload;
         viewType = payload.getType();
     }
@@ -131,6 +148,8 @@ public class SearchResult implements Comparable<SearchResult> {
         protected int mRank = 42;
         protected ResultPayload mResultPayload;
         protected Drawable mIcon;
+        protected IconHandle mIconHandle;
+        protected BreadcrumbHandle mBreadcrumbHandle;
         protected int mStableId;
 
         public Builder setTitle(CharSequence title) {
@@ -160,6 +179,16 @@ public class SearchResult implements Comparable<SearchResult> {
             return this;
         }
 
+        public Builder setIconHandle(IconHandle iconHandle) {
+            mIconHandle = iconHandle;
+            return this;
+        }
+
+        public Builder setBreadcrumbHandle(BreadcrumbHandle breadcrumbHandle) {
+            mBreadcrumbHandle = breadcrumbHandle;
+            return this;
+        }
+
         public Builder setPayload(ResultPayload payload) {
             mResultPayload = payload;
             return this;
@@ -183,4 +212,58 @@ public class SearchResult implements Comparable<SearchResult> {
             return new SearchResult(this);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A drawable resource which has not been loaded yet.
+     */
+    public static class IconHandle {
+        /**
+         * Package holding the resource, or null for the resources of Settings itself.
+         */
+        public final String packageName;
+        public final int iconResId;
+
+        public IconHandle(String packageName, int iconResId) {
+            this.packageName = packageName;
+            this.iconResId = iconResId;
+        }
+    }
+
+    /**
+     * The breadcrumbs of a screen, built from {@link SiteMapManager} the first time they are
+     * needed.
+     */
+    public static class BreadcrumbHandle {
+        private final SiteMapManager mSiteMapManager;
+        private final String mScreenClass;
+        private final String mScreenTitle;
+        private volatile List<String> mBreadcrumbs;
+
+        public BreadcrumbHandle(SiteMapManager siteMapManager, String screenClass,
+                String screenTitle) {
+            mSiteMapManager = siteMapManager;
+            mScreenClass = screenClass;
+            mScreenTitle = screenTitle;
+        }
+
+        /**
+         * @return the breadcrumbs if they were already built, null otherwise.
+         */
+        public List<String> peek() {
+            return mBreadcrumbs;
+        }
+
+        /**
+         * Builds the breadcrumbs. May query the site map database, do not call on the main
+         * thread.
+         */
+        public List<String> load(Context context) {
+            List<String> breadcrumbs = mBreadcrumbs;
+            if (breadcrumbs == null) {
+                breadcrumbs = mSiteMapManager.buildBreadCrumb(context, mScreenClass, mScreenTitle);
+                mBreadcrumbs = breadcrumbs;
+            }
+            return breadcrumbs;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Lazily merges the results of several loaders into a single list ordered by
+ * {@link SearchResult#rank}, with a heap holding the next result of each loader.
+ *
+ * Results of the same rank are ordered by the position of their loader in the list given to the
+ * constructor, so earlier loaders take priority. Ranks above {@link SearchResult#BOTTOM_RANK}
+ * are not ordered, so those results come last, all of one loader before the next. Results are
+ * only merged as they are requested, so the first page can be shown before the rest of the list
+ * is merged.
+ */
+public class SearchResultMerger {
+
+    private static class Source {
+        final int priority;
+        final Iterator<? extends SearchResult> iterator;
+        SearchResult head;
+
+        Source(int priority, Iterator<? extends SearchResult> iterator) {
+            this.priority = priority;
+            this.iterator = iterator;
+            this.head = iterator.next();
+        }
+    }
+
+    private final PriorityQueue<Source> mHeap;
+    private final int mCount;
+
+    /**
+     * @param sources the results of each loader, by decreasing priority. Sources which are
+     *                {@link RankedSearchResults} are read as is, others are sorted first.
+     */
+    public SearchResultMerger(List<? extends Set<? extends SearchResult>> sources) {
+        mHeap = new PriorityQueue<>(Math.max(1, sources.size()), (s1, s2) -> {
+            final int rankDiff = Integer.compare(RankedSearchResults.getBucket(s1.head),
+                    RankedSearchResults.getBucket(s2.head));
+            return rankDiff != 0 ? rankDiff : Integer.compare(s1.priority, s2.priority);
+        });
+        int count = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            final Set<? extends SearchResult> source = sources.get(i);
+            if (source == null || source.isEmpty()) {
+                continue;
+            }
+            count += source.size();
+            mHeap.add(new Source(i, getRankedIterator(source)));
+        }
+        mCount = count;
+    }
+
+    /**
+     * @return the number of results of every loader, whether merged yet or not.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    public boolean hasNext() {
+        return !mHeap.isEmpty();
+    }
+
+    /**
+     * Appends up to {@param maxCount} of the next results to {@param out}.
+     *
+     * @return the number of results appended.
+     */
+    public int next(List<? super SearchResult> out, int maxCount) {
+        int count = 0;
+        while (count < maxCount && !mHeap.isEmpty()) {
+            final Source source = mHeap.poll();
+            out.add(source.head);
+            count++;
+            if (source.iterator.hasNext()) {
+                source.head = source.iterator.next();
+                mHeap.add(source);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Appends all of the remaining results to {@param out}.
+     */
+    public int drain(List<? super SearchResult> out) {
+        return next(out, Integer.MAX_VALUE);
+    }
+
+    private static Iterator<? extends SearchResult> getRankedIterator(
+            Set<? extends SearchResult> source) {
+        if (source instanceof RankedSearchResults) {
+            return source.iterator();
+        }
+        final List<SearchResult> sorted = new ArrayList<>(source);
+        Collections.sort(sorted);
+        return sorted.iterator();
+    }
+}
@@ -39,6 +39,7 @@ import com.android.settings.search.ranking.SearchResultsRankerCallback;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -63,11 +64,20 @@ public class SearchResultsAdapter extends RecyclerView.Adapter<SearchViewHolder>
 
     @VisibleForTesting
     static final int MSG_RANKING_TIMED_OUT = 1;
+    @VisibleForTesting
+    static final int MSG_APPEND_REMAINING_RESULTS = 2;
+
+    /**
+     * Number of statically ranked results displayed before the rest of the results are merged.
+     */
+    @VisibleForTesting
+    static final int FIRST_PAGE_SIZE = 20;
 
     private final SearchFragment mFragment;
     private final Context mContext;
     private final List<SearchResult> mSearchResults;
     private final List<SearchResult> mStaticallyRankedSearchResults;
+    private SearchResultMerger mStaticResultsMerger;
     private Map<String, Set<? extends SearchResult>> mResultsMap;
     private final SearchFeatureProvider mSearchFeatureProvider;
     private List<Pair<String, Float>> mSearchRankingScores;
@@ -222,6 +232,10 @@ public class SearchResultsAdapter extends RecyclerView.Adapter<SearchViewHolder>
     }
 
     public void clearResults() {
+        if (mHandler != null) {
+            mHandler.removeMessages(MSG_APPEND_REMAINING_RESULTS);
+        }
+        mStaticResultsMerger = null;
         mSearchResults.clear();
         mStaticallyRankedSearchResults.clear();
         mResultsMap.clear();
@@ -258,58 +272,34 @@ public class SearchResultsAdapter extends RecyclerView.Adapter<SearchViewHolder>
     /**
      * Merge the results from each of the loaders into one list for the adapter.
      * Prioritizes results from the local database over installed apps.
+     *
+     * Only the first {@link #FIRST_PAGE_SIZE} results are merged here, the rest are merged and
+     * appended once the first page is displayed.
      */
     private void doStaticRanking() {
-        List<? extends SearchResult> databaseResults =
-                getSortedLoadedResults(DB_RESULTS_LOADER_KEY);
-        List<? extends SearchResult> installedAppResults =
-                getSortedLoadedResults(APP_RESULTS_LOADER_KEY);
-        List<? extends SearchResult> accessibilityResults =
-                getSortedLoadedResults(ACCESSIBILITY_LOADER_KEY);
-        List<? extends SearchResult> inputDeviceResults =
-                getSortedLoadedResults(INPUT_DEVICE_LOADER_KEY);
-
-        int dbSize = databaseResults.size();
-        int appSize = installedAppResults.size();
-        int a11ySize = accessibilityResults.size();
-        int inputDeviceSize = inputDeviceResults.size();
-        int dbIndex = 0;
-        int appIndex = 0;
-        int a11yIndex = 0;
-        int inputDeviceIndex = 0;
-        int rank = SearchResult.TOP_RANK;
-
-        // TODO: We need a helper method to do k-way merge.
+        final List<Set<? extends SearchResult>> loaderResults = Arrays.asList(
+                getUnsortedLoadedResults(DB_RESULTS_LOADER_KEY),
+                getUnsortedLoadedResults(APP_RESULTS_LOADER_KEY),
+                getUnsortedLoadedResults(ACCESSIBILITY_LOADER_KEY),
+                getUnsortedLoadedResults(INPUT_DEVICE_LOADER_KEY));
+        mStaticResultsMerger = new SearchResultMerger(loaderResults);
         mStaticallyRankedSearchResults.clear();
-        while (rank <= SearchResult.BOTTOM_RANK) {
-            while ((dbIndex < dbSize) && (databaseResults.get(dbIndex).rank == rank)) {
-                mStaticallyRankedSearchResults.add(databaseResults.get(dbIndex++));
-            }
-            while ((appIndex < appSize) && (installedAppResults.get(appIndex).rank == rank)) {
-                mStaticallyRankedSearchResults.add(installedAppResults.get(appIndex++));
-            }
-            while ((a11yIndex < a11ySize) && (accessibilityResults.get(a11yIndex).rank == rank)) {
-                mStaticallyRankedSearchResults.add(accessibilityResults.get(a11yIndex++));
-            }
-            while (inputDeviceIndex < inputDeviceSize
-                    && inputDeviceResults.get(inputDeviceIndex).rank == rank) {
-                mStaticallyRankedSearchResults.add(inputDeviceResults.get(inputDeviceIndex++));
-            }
-            rank++;
-        }
+        mStaticResultsMerger.next(mStaticallyRankedSearchResults, FIRST_PAGE_SIZE);
+    }
 
-        while (dbIndex < dbSize) {
-            mStaticallyRankedSearchResults.add(databaseResults.get(dbIndex++));
-        }
-        while (appIndex < appSize) {
-            mStaticallyRankedSearchResults.add(installedAppResults.get(appIndex++));
-        }
-        while(a11yIndex < a11ySize) {
-            mStaticallyRankedSearchResults.add(accessibilityResults.get(a11yIndex++));
-        }
-        while (inputDeviceIndex < inputDeviceSize) {
-            mStaticallyRankedSearchResults.add(inputDeviceResults.get(inputDeviceIndex++));
+    /**
+     * Merges the static results which did not fit in the first page, and appends them to the
+     * displayed list.
+     */
+    private void appendRemainingStaticResults() {
+        if (mStaticResultsMerger == null || !mStaticResultsMerger.hasNext()) {
+            return;
         }
+        final int start = mStaticallyRankedSearchResults.size();
+        final int count = mStaticResultsMerger.drain(mStaticallyRankedSearchResults);
+        final int insertPosition = mSearchResults.size();
+        mSearchResults.addAll(mStaticallyRankedSearchResults.subList(start, start + count));
+        notifyItemRangeInserted(insertPosition, count);
     }
 
     private void updateSearchResults() {
@@ -320,7 +310,14 @@ public class SearchResultsAdapter extends RecyclerView.Adapter<SearchViewHolder>
             case FAILED:
             case TIMED_OUT:
                 // When DISABLED or FAILED or TIMED_OUT, we use static ranking results.
-                postSearchResults(mStaticallyRankedSearchResults, false);
+                // The count includes the results appended after the first page.
+                postSearchResults(mStaticallyRankedSearchResults, false,
+                        mStaticResultsMerger != null
+                                ? mStaticResultsMerger.getCount()
+                                : mStaticallyRankedSearchResults.size());
+                if (mStaticResultsMerger != null && mStaticResultsMerger.hasNext()) {
+                    getHandler().sendEmptyMessage(MSG_APPEND_REMAINING_RESULTS);
+                }
                 break;
             case SUCCEEDED:
                 postSearchResults(doAsyncRanking(), true);
@@ -384,9 +381,12 @@ public class SearchResultsAdapter extends RecyclerView.Adapter<SearchViewHolder>
 
     @VisibleForTesting
     List<? extends SearchResult> getSortedLoadedResults(String loaderKey) {
-        List<? extends SearchResult> sortedLoadedResults =
-                new ArrayList<>(getUnsortedLoadedResults(loaderKey));
-        Collections.sort(sortedLoadedResults);
+        final Set<? extends SearchResult> loadedResults = getUnsortedLoadedResults(loaderKey);
+        List<? extends SearchResult> sortedLoadedResults = new ArrayList<>(loadedResults);
+        // Loaders returning RankedSearchResults already iterate in rank order.
+        if (!(loadedResults instanceof RankedSearchResults)) {
+            Collections.sort(sortedLoadedResults);
+        }
         return sortedLoadedResults;
     }
 
@@ -415,17 +415,22 @@ public class SearchResultsAdapter extends RecyclerView.Adapter<SearchViewHolder>
             mHandler = new Handler(Looper.getMainLooper()) {
                 @Override
                 public void handleMessage(Message msg) {
-                    if (msg.what == MSG_RANKING_TIMED_OUT) {
-                        mSearchFeatureProvider.cancelPendingSearchQuery(mContext);
-                        if (mAsyncRankingState == PENDING_RESULTS) {
-                            mAsyncRankingState = TIMED_OUT;
-                            if (canUpdateSearchResults()) {
-                                updateSearchResults();
+                    switch (msg.what) {
+                        case MSG_RANKING_TIMED_OUT:
+                            mSearchFeatureProvider.cancelPendingSearchQuery(mContext);
+                            if (mAsyncRankingState == PENDING_RESULTS) {
+                                mAsyncRankingState = TIMED_OUT;
+                                if (canUpdateSearchResults()) {
+                                    updateSearchResults();
+                                }
+                            } else {
+                                Log.w(TAG, "Ranking scores timed out in invalid state: " +
+                                        mAsyncRankingState);
                             }
-                        } else {
-                            Log.w(TAG, "Ranking scores timed out in invalid state: " +
-                                    mAsyncRankingState);
-                        }
+                            break;
+                        case MSG_APPEND_REMAINING_RESULTS:
+                            appendRemainingStaticResults();
+                            break;
                     }
                 }
             };
@@ -435,12 +440,17 @@ public class SearchResultsAdapter extends RecyclerView.Adapter<SearchViewHolder>
 
     @VisibleForTesting
     public void postSearchResults(List<SearchResult> newSearchResults, boolean detectMoves) {
+        postSearchResults(newSearchResults, detectMoves, newSearchResults.size());
+    }
+
+    private void postSearchResults(List<SearchResult> newSearchResults, boolean detectMoves,
+            int totalCount) {
         final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
                 new SearchResultDiffCallback(mSearchResults, newSearchResults), detectMoves);
         mSearchResults.clear();
         mSearchResults.addAll(newSearchResults);
         diffResult.dispatchUpdatesTo(this);
-        mFragment.onSearchResultsDisplayed(mSearchResults.size());
+        mFragment.onSearchResultsDisplayed(totalCount);
         mSearchResultsUpdated = true;
     }
 }
@@ -31,6 +31,8 @@ import com.android.settings.R;
 import com.android.settings.core.instrumentation.MetricsFeatureProvider;
 import com.android.settings.overlay.FeatureFactory;
 
+import java.util.List;
+
 /**
  * The ViewHolder for the Search RecyclerView.
  * There are multiple search result types in the same Recycler view with different UI requirements.
@@ -50,6 +52,12 @@ public abstract class SearchViewHolder extends RecyclerView.ViewHolder {
     protected final MetricsFeatureProvider mMetricsFeatureProvider;
     protected final SearchFeatureProvider mSearchFeatureProvider;
     private final IconDrawableFactory mIconDrawableFactory;
+    private final ResultResourceLoader mResourceLoader;
+
+    /**
+     * The result currently bound, used to drop resources loaded for a previous result.
+     */
+    private SearchResult mBoundResult;
 
     public SearchViewHolder(View view) {
         super(view);
@@ -64,11 +72,13 @@ public abstract class SearchViewHolder extends RecyclerView.ViewHolder {
 
         mPlaceholderSummary = view.getContext().getString(R.string.summary_placeholder);
         mIconDrawableFactory = IconDrawableFactory.newInstance(view.getContext());
+        mResourceLoader = ResultResourceLoader.getInstance();
     }
 
     public abstract int getClickActionMetricName();
 
     public void onBind(SearchFragment fragment, SearchResult result) {
+        mBoundResult = result;
         titleView.setText(result.title);
         // TODO (b/36101902) remove check for DYNAMIC_PLACEHOLDER
         if (TextUtils.isEmpty(result.summary)
@@ -80,6 +90,7 @@ public abstract class SearchViewHolder extends RecyclerView.ViewHolder {
             summaryView.setVisibility(View.VISIBLE);
         }
 
+        boolean needsLoading = false;
         if (result instanceof AppSearchResult) {
             AppSearchResult appResult = (AppSearchResult) result;
             PackageManager pm = fragment.getActivity().getPackageManager();
@@ -89,25 +100,51 @@ public abstract class SearchViewHolder extends RecyclerView.ViewHolder {
             iconView.setImageDrawable(badgedIcon);
             titleView.setContentDescription(
                     pm.getUserBadgedLabel(appResult.info.loadLabel(pm), userHandle));
+        } else if (result.iconHandle != null) {
+            final Drawable cachedIcon = mResourceLoader.peekIcon(result.iconHandle);
+            iconView.setImageDrawable(cachedIcon);
+            needsLoading = cachedIcon == null;
         } else {
             // Valid even when result.icon is null.
             iconView.setImageDrawable(result.icon);
         }
 
-        bindBreadcrumbView(result);
+        if (result.breadcrumbHandle != null) {
+            final List<String> breadcrumbs = result.breadcrumbHandle.peek();
+            bindBreadcrumbView(breadcrumbs);
+            needsLoading |= breadcrumbs == null;
+        } else {
+            bindBreadcrumbView(result.breadcrumbs);
+        }
+        if (needsLoading) {
+            mResourceLoader.loadAsync(itemView.getContext(), result, this::onResourcesLoaded);
+        }
+    }
+
+    private void onResourcesLoaded(SearchResult result, Drawable icon, List<String> breadcrumbs) {
+        if (result != mBoundResult) {
+            // The view was recycled for another result in the meantime.
+            return;
+        }
+        if (result.iconHandle != null) {
+            iconView.setImageDrawable(icon);
+        }
+        if (result.breadcrumbHandle != null) {
+            bindBreadcrumbView(breadcrumbs);
+        }
     }
 
-    private void bindBreadcrumbView(SearchResult result) {
-        if (result.breadcrumbs == null || result.breadcrumbs.isEmpty()) {
+    private void bindBreadcrumbView(List<String> breadcrumbs) {
+        if (breadcrumbs == null || breadcrumbs.isEmpty()) {
             breadcrumbView.setVisibility(View.GONE);
             return;
         }
         final Context context = breadcrumbView.getContext();
-        String breadcrumb = result.breadcrumbs.get(0);
-        final int count = result.breadcrumbs.size();
+        String breadcrumb = breadcrumbs.get(0);
+        final int count = breadcrumbs.size();
         for (int i = 1; i < count; i++) {
             breadcrumb = context.getString(R.string.search_breadcrumb_connector,
-                    breadcrumb, result.breadcrumbs.get(i));
+                    breadcrumb, breadcrumbs.get(i));
         }
         breadcrumbView.setText(breadcrumb);
         breadcrumbView.setVisibility(View.VISIBLE);
@@ -97,18 +97,13 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
                 Log.d(TAG, "Getting non-indexable from " + sir.className);
             }
             final long startTime = System.currentTimeMillis();
-            final Class<?> clazz = DatabaseIndexingUtils.getIndexableClass(sir.className);
-            if (clazz == null) {
-                Log.d(TAG, "SearchIndexableResource '" + sir.className +
-                        "' should implement the " + Indexable.class.getName() + " interface!");
-                continue;
-            }
-
             final Indexable.SearchIndexProvider provider =
-                    DatabaseIndexingUtils.getSearchIndexProvider(clazz);
+                    SearchIndexableResources.getProviderByName(sir.className);
 
             if (provider == null) {
-                Log.d(TAG, "Unable to get SearchIndexableProvider from " + clazz);
+                if (DEBUG) {
+                    Log.d(TAG, "No SearchIndexableProvider for " + sir.className);
+                }
                 continue;
             }
 
@@ -123,7 +118,7 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
             }
 
             if (providerNonIndexableKeys.removeAll(INVALID_KEYS)) {
-                Log.v(TAG, clazz.getName() + " tried to add an empty non-indexable key");
+                Log.v(TAG, sir.className + " tried to add an empty non-indexable key");
             }
             if (DEBUG) {
                 final long totalTime = System.currentTimeMillis() - startTime;
@@ -19,6 +19,7 @@ package com.android.settings.utils;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.os.OperationCanceledException;
 
 /**
  * This class fills in some boilerplate for AsyncTaskLoader to actually load things.
@@ -94,6 +95,18 @@ public abstract class AsyncLoader<T> extends AsyncTaskLoader<T> {
         }
     }
 
+    /**
+     * Throws {@link OperationCanceledException} when the load in progress was canceled, e.g.
+     * because the loader was restarted. Subclasses with long running
+     * {@link AsyncLoader#loadInBackground()} should call this between units of work, so a
+     * superseded load gives its thread up early.
+     */
+    protected void throwIfLoadInBackgroundCanceled() {
+        if (isLoadInBackgroundCanceled()) {
+            throw new OperationCanceledException();
+        }
+    }
+
     /**
      * Called when discarding the load results so subclasses can take care of clean-up or
      * recycling tasks. This is not called if the same result (by way of pointer equality) is
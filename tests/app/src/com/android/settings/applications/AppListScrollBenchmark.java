@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.format.Formatter;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.FrameMetrics;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.Window;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+
+import com.android.settings.search.SearchActivity;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scrolls a synthetic list of 2,000 apps from top to bottom at a fixed speed, once with the
+ * RecyclerView app list and its precomputed rows and once with a ListView that, like the
+ * original app list, locks each item and computes its summary while binding. Reports how many
+ * frames missed their deadline and the frame time percentiles of each.
+ *
+ * Run with:
+ * adb shell am instrument -w -e class \
+ *   com.android.settings.applications.AppListScrollBenchmark \
+ *   com.android.settings.tests/android.support.test.runner.AndroidJUnitRunner
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class AppListScrollBenchmark {
+
+    private static final String TAG = "AppListScrollBenchmark";
+    private static final int APP_COUNT = 2000;
+    // Scrolled every frame, about a brisk fling.
+    private static final int SCROLL_PX_PER_FRAME = 60;
+    private static final long FRAME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+    private static final long TIMEOUT_SECONDS = 120;
+
+    @Rule
+    public ActivityTestRule<SearchActivity> mActivityRule =
+            new ActivityTestRule<>(SearchActivity.class, true, true);
+
+    private Instrumentation mInstrumentation;
+    private List<SyntheticApp> mApps;
+    private Drawable mIcon;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mIcon = new ColorDrawable(Color.GRAY);
+        mApps = new ArrayList<>(APP_COUNT);
+        for (int i = 0; i < APP_COUNT; i++) {
+            mApps.add(new SyntheticApp(i, String.format("App %04d", i), (i + 1) * 104_857L));
+        }
+    }
+
+    @Test
+    public void benchmarkRecyclerList() throws InterruptedException {
+        final Activity activity = mActivityRule.getActivity();
+        final RecyclerView[] list = new RecyclerView[1];
+        mInstrumentation.runOnMainSync(() -> {
+            final List<AppListRecyclerAdapter.Row> rows = new ArrayList<>(APP_COUNT);
+            for (SyntheticApp app : mApps) {
+                // Computed ahead of binding, like ManageApplications does in the background.
+                rows.add(new AppListRecyclerAdapter.Row(null /* entry */, app.id, app.label,
+                        mIcon, Formatter.formatFileSize(activity, app.size),
+                        null /* disabledText */, true /* enabled */));
+            }
+            final AppListRecyclerAdapter adapter = new AppListRecyclerAdapter(
+                    LayoutInflater.from(activity), activity.getMainLooper(),
+                    null /* iconLoader */, null /* listener */);
+            adapter.setRows(rows, null /* updates */);
+            final RecyclerView recyclerView = new RecyclerView(activity);
+            recyclerView.setLayoutManager(new LinearLayoutManager(activity));
+            recyclerView.setHasFixedSize(true);
+            recyclerView.setAdapter(adapter);
+            activity.setContentView(recyclerView);
+            list[0] = recyclerView;
+        });
+        mInstrumentation.waitForIdleSync();
+
+        report("recycler", scrollToEnd(activity, list[0], () ->
+                list[0].scrollBy(0, SCROLL_PX_PER_FRAME)));
+    }
+
+    @Test
+    public void benchmarkListView() throws InterruptedException {
+        final Activity activity = mActivityRule.getActivity();
+        final ListView[] list = new ListView[1];
+        mInstrumentation.runOnMainSync(() -> {
+            final ListView listView = new ListView(activity);
+            listView.setAdapter(new LockingAdapter(activity, mApps, mIcon));
+            activity.setContentView(listView);
+            list[0] = listView;
+        });
+        mInstrumentation.waitForIdleSync();
+
+        report("listview", scrollToEnd(activity, list[0], () ->
+                list[0].scrollListBy(SCROLL_PX_PER_FRAME)));
+    }
+
+    /**
+     * Scrolls {@param list} by one step every frame until it reaches the end.
+     *
+     * @return the duration of every frame drawn meanwhile, in nanoseconds.
+     */
+    private List<Long> scrollToEnd(Activity activity, View list, Runnable scrollStep)
+            throws InterruptedException {
+        final List<Long> frameNanos = Collections.synchronizedList(new ArrayList<>());
+        final HandlerThread metricsThread = new HandlerThread(TAG);
+        metricsThread.start();
+        final Window window = activity.getWindow();
+        final Window.OnFrameMetricsAvailableListener listener = (w, metrics, dropCount) ->
+                frameNanos.add(metrics.getMetric(FrameMetrics.TOTAL_DURATION));
+        final CountDownLatch done = new CountDownLatch(1);
+        mInstrumentation.runOnMainSync(() -> {
+            window.addOnFrameMetricsAvailableListener(listener,
+                    new Handler(metricsThread.getLooper()));
+            Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    if (!list.canScrollVertically(1)) {
+                        done.countDown();
+                        return;
+                    }
+                    scrollStep.run();
+                    Choreographer.getInstance().postFrameCallback(this);
+                }
+            });
+        });
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        mInstrumentation.waitForIdleSync();
+        mInstrumentation.runOnMainSync(() -> window.removeOnFrameMetricsAvailableListener(
+                listener));
+        metricsThread.quitSafely();
+        synchronized (frameNanos) {
+            return new ArrayList<>(frameNanos);
+        }
+    }
+
+    private void report(String name, List<Long> frameNanos) {
+        assertThat(frameNanos).isNotEmpty();
+        int janky = 0;
+        for (long nanos : frameNanos) {
+            if (nanos > FRAME_BUDGET_NANOS) {
+                janky++;
+            }
+        }
+        Collections.sort(frameNanos);
+        final Bundle results = new Bundle();
+        results.putInt(name + "_frames", frameNanos.size());
+        results.putInt(name + "_janky_frames", janky);
+        results.putLong(name + "_frame_p50_us", percentileMicros(frameNanos, 50));
+        results.putLong(name + "_frame_p90_us", percentileMicros(frameNanos, 90));
+        results.putLong(name + "_frame_p99_us", percentileMicros(frameNanos, 99));
+        for (String key : results.keySet()) {
+            Log.i(TAG, key + ": " + results.get(key));
+        }
+        mInstrumentation.sendStatus(Activity.RESULT_OK, results);
+    }
+
+    private static long percentileMicros(List<Long> sortedNanos, int percentile) {
+        final int index = Math.min(sortedNanos.size() - 1,
+                sortedNanos.size() * percentile / 100);
+        return TimeUnit.NANOSECONDS.toMicros(sortedNanos.get(index));
+    }
+
+    private static class SyntheticApp {
+        final long id;
+        final String label;
+        final long size;
+
+        SyntheticApp(long id, String label, long size) {
+            this.id = id;
+            this.label = label;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Binds like the ListView app list: locks the item and computes its summary in getView.
+     */
+    private static class LockingAdapter extends BaseAdapter {
+        private final Context mContext;
+        private final List<SyntheticApp> mApps;
+        private final Drawable mIcon;
+        private final LayoutInflater mInflater;
+
+        LockingAdapter(Context context, List<SyntheticApp> apps, Drawable icon) {
+            mContext = context;
+            mApps = apps;
+            mIcon = icon;
+            mInflater = LayoutInflater.from(context);
+        }
+
+        @Override
+        public int getCount() {
+            return mApps.size();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return mApps.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mApps.get(position).id;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final AppViewHolder holder = AppViewHolder.createOrRecycle(mInflater, convertView);
+            final SyntheticApp app = mApps.get(position);
+            synchronized (app) {
+                holder.appName.setText(app.label);
+                holder.appIcon.setImageDrawable(mIcon);
+                holder.summary.setText(Formatter.formatFileSize(mContext, app.size));
+                holder.disabled.setVisibility(View.GONE);
+            }
+            return holder.rootView;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.anomaly;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.BatteryStats;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import com.android.internal.os.BatterySipper;
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.fuelgauge.FakeUid;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures detecting anomalies among thousands of synthetic apps, with the detectors run one
+ * after another over every app and with {@link AnomalyUtils#detectAnomaliesInParallel}, and
+ * checks both find the same anomalies in the same order.
+ *
+ * Run with:
+ * adb shell am instrument -w -e class \
+ *   com.android.settings.fuelgauge.anomaly.AnomalyDetectionBenchmark \
+ *   com.android.settings.tests/android.support.test.runner.AndroidJUnitRunner
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class AnomalyDetectionBenchmark {
+
+    private static final String TAG = "AnomalyDetectionBench";
+    private static final int UID_COUNT = 5000;
+    private static final int ITERATIONS = 10;
+
+    private Context mContext;
+    private AnomalyUtils mAnomalyUtils;
+    private AnomalyDetectionPolicy mPolicy;
+    private BatteryStatsHelper mBatteryStatsHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mAnomalyUtils = AnomalyUtils.getInstance(mContext);
+        mPolicy = stub(AnomalyDetectionPolicy.class);
+        doReturn(true).when(mPolicy).isAnomalyDetectorEnabled(anyInt());
+
+        // Below every threshold, so detection only reads the stats of each app.
+        final BatteryStats.Timer wakeLockSubTimer = stub(BatteryStats.Timer.class);
+        doReturn(DateUtils.MINUTE_IN_MILLIS).when(wakeLockSubTimer)
+                .getTotalDurationMsLocked(anyLong());
+        final BatteryStats.Timer wakeLockTimer = stub(BatteryStats.Timer.class);
+        doReturn(0L).when(wakeLockTimer).getCurrentDurationMsLocked(anyLong());
+        doReturn(wakeLockSubTimer).when(wakeLockTimer).getSubTimer();
+        final BatteryStats.Timer bluetoothTimer = stub(BatteryStats.Timer.class);
+        doReturn(DateUtils.MINUTE_IN_MILLIS).when(bluetoothTimer)
+                .getTotalDurationMsLocked(anyLong());
+        final BatteryStats.Counter alarmCounter = stub(BatteryStats.Counter.class);
+        doReturn(1).when(alarmCounter).getCountLocked(anyInt());
+        final ArrayMap<String, BatteryStats.Counter> alarms = new ArrayMap<>();
+        alarms.put("alarm1", alarmCounter);
+        alarms.put("alarm2", alarmCounter);
+        final BatteryStats.Uid.Pkg pkg = stub(BatteryStats.Uid.Pkg.class);
+        doReturn(alarms).when(pkg).getWakeupAlarmStats();
+        final ArrayMap<String, BatteryStats.Uid.Pkg> packageStats = new ArrayMap<>();
+        packageStats.put("com.example.app", pkg);
+
+        final List<BatterySipper> batterySippers = new ArrayList<>(UID_COUNT);
+        for (int i = 0; i < UID_COUNT; i++) {
+            final SyntheticUid uid = new SyntheticUid(Process.FIRST_APPLICATION_UID + i,
+                    wakeLockTimer, bluetoothTimer, packageStats);
+            batterySippers.add(new BatterySipper(BatterySipper.DrainType.APP, uid,
+                    10 /* value */));
+        }
+        final BatteryStats stats = stub(BatteryStats.class);
+        doReturn(10 * DateUtils.HOUR_IN_MILLIS * 1000).when(stats)
+                .computeBatteryRealtime(anyLong(), anyInt());
+        mBatteryStatsHelper = stub(BatteryStatsHelper.class);
+        doReturn(batterySippers).when(mBatteryStatsHelper).getUsageList();
+        doReturn(stats).when(mBatteryStatsHelper).getStats();
+    }
+
+    @Test
+    public void benchmarkDetectAnomalies() {
+        // Warm up, so class loading and the pool threads are not counted.
+        final List<Anomaly> expected = detectSequentially();
+        assertThat(mAnomalyUtils.detectAnomaliesInParallel(mBatteryStatsHelper, mPolicy))
+                .containsExactlyElementsIn(expected).inOrder();
+
+        long sequentialNanos = 0;
+        long parallelNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            detectSequentially();
+            sequentialNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            mAnomalyUtils.detectAnomaliesInParallel(mBatteryStatsHelper, mPolicy);
+            parallelNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        final Bundle results = new Bundle();
+        results.putInt("uids", UID_COUNT);
+        results.putLong("detect_sequential_us", sequentialNanos / ITERATIONS / 1000);
+        results.putLong("detect_parallel_us", parallelNanos / ITERATIONS / 1000);
+        for (String key : results.keySet()) {
+            Log.i(TAG, key + ": " + results.get(key));
+        }
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+    }
+
+    private List<Anomaly> detectSequentially() {
+        final List<Anomaly> anomalies = new ArrayList<>();
+        for (@Anomaly.AnomalyType int type : Anomaly.ANOMALY_TYPE_LIST) {
+            anomalies.addAll(mAnomalyUtils.getAnomalyDetector(type).detectAnomalies(
+                    mBatteryStatsHelper, null /* targetPackageName */));
+        }
+        return anomalies;
+    }
+
+    /**
+     * Mocks {@param clazz} without recording calls, which would otherwise dominate the
+     * measurement and serialize the parallel detection.
+     */
+    private static <T> T stub(Class<T> clazz) {
+        return mock(clazz, withSettings().stubOnly());
+    }
+
+    private static class SyntheticUid extends FakeUid {
+        private final BatteryStats.Timer mWakeLockTimer;
+        private final BatteryStats.Timer mBluetoothTimer;
+        private final ArrayMap<String, BatteryStats.Uid.Pkg> mPackageStats;
+
+        SyntheticUid(int uid, BatteryStats.Timer wakeLockTimer,
+                BatteryStats.Timer bluetoothTimer,
+                ArrayMap<String, BatteryStats.Uid.Pkg> packageStats) {
+            super(uid);
+            mWakeLockTimer = wakeLockTimer;
+            mBluetoothTimer = bluetoothTimer;
+            mPackageStats = packageStats;
+        }
+
+        @Override
+        public BatteryStats.Timer getAggregatedPartialWakelockTimer() {
+            return mWakeLockTimer;
+        }
+
+        @Override
+        public BatteryStats.Timer getBluetoothUnoptimizedScanBackgroundTimer() {
+            return mBluetoothTimer;
+        }
+
+        @Override
+        public ArrayMap<String, ? extends BatteryStats.Uid.Pkg> getPackageStats() {
+            return mPackageStats;
+        }
+    }
+}
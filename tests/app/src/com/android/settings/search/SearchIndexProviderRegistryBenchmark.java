@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.SearchIndexableResource;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures how long indexing spends finding the {@link Indexable.SearchIndexProvider} of every
+ * {@link SearchIndexableResources} entry, through the static registry and through reflection,
+ * and how long a cold index of the Settings database takes.
+ *
+ * Run with:
+ * adb shell am instrument -w -e class \
+ *   com.android.settings.search.SearchIndexProviderRegistryBenchmark \
+ *   com.android.settings.tests/android.support.test.runner.AndroidJUnitRunner
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SearchIndexProviderRegistryBenchmark {
+
+    private static final String TAG = "SearchIndexBenchmark";
+    private static final int ITERATIONS = 20;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+    }
+
+    @Test
+    public void benchmarkProviderLookup() {
+        // Warm up, so class loading is not counted against the first method measured.
+        lookUpWithReflection();
+        lookUpWithRegistry();
+
+        long reflectionNanos = 0;
+        long registryNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            final int reflected = lookUpWithReflection();
+            reflectionNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            final int registered = lookUpWithRegistry();
+            registryNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            assertThat(registered).isEqualTo(reflected);
+        }
+
+        final Bundle results = new Bundle();
+        results.putLong("provider_lookup_reflection_us", reflectionNanos / ITERATIONS / 1000);
+        results.putLong("provider_lookup_registry_us", registryNanos / ITERATIONS / 1000);
+        report(results);
+    }
+
+    @Test
+    public void benchmarkColdIndex() {
+        final DatabaseIndexingManager manager =
+                new DatabaseIndexingManager(mContext, mContext.getPackageName());
+        // Dropping the tables also drops the recorded provider versions, so every provider is
+        // indexed again.
+        final IndexDatabaseHelper helper = IndexDatabaseHelper.getInstance(mContext);
+        helper.reconstruct(helper.getWritableDatabase());
+
+        final long start = SystemClock.elapsedRealtime();
+        manager.performIndexing();
+        final long coldIndexMillis = SystemClock.elapsedRealtime() - start;
+
+        final Bundle results = new Bundle();
+        results.putLong("cold_index_ms", coldIndexMillis);
+        report(results);
+    }
+
+    private int lookUpWithReflection() {
+        int count = 0;
+        for (SearchIndexableResource sir : SearchIndexableResources.values()) {
+            final Class<?> clazz = DatabaseIndexingUtils.getIndexableClass(sir.className);
+            if (clazz != null && DatabaseIndexingUtils.getSearchIndexProvider(clazz) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int lookUpWithRegistry() {
+        int count = 0;
+        for (SearchIndexableResource sir : SearchIndexableResources.values()) {
+            if (SearchIndexableResources.getProviderByName(sir.className) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void report(Bundle results) {
+        for (String key : results.keySet()) {
+            Log.i(TAG, key + ": " + results.get(key));
+        }
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.ApplicationInfo;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+import com.android.settingslib.applications.ApplicationsState.AppFilter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AppListModelTest {
+
+    private static final Comparator<AppEntry> LABEL_COMPARATOR =
+            (lhs, rhs) -> lhs.label.compareTo(rhs.label);
+    private static final Comparator<AppEntry> SIZE_COMPARATOR =
+            (lhs, rhs) -> Long.compare(lhs.size, rhs.size);
+
+    private AppListModel mModel;
+    private AppEntry mCalendar;
+    private AppEntry mCamera;
+    private AppEntry mMaps;
+    private CountingFilter mAllFilter;
+
+    @Before
+    public void setUp() {
+        mModel = new AppListModel(RuntimeEnvironment.application);
+        mMaps = createEntry("com.example.maps", "Maps", 3);
+        mCamera = createEntry("com.example.camera", "Camera", 1);
+        mCalendar = createEntry("com.example.calendar", "Calendar", 2);
+        mModel.setApps(Arrays.asList(mMaps, mCamera, mCalendar));
+        mAllFilter = new CountingFilter(null);
+    }
+
+    @Test
+    public void query_sortsByComparator() {
+        final AppListModel.Result result =
+                mModel.query("all", mAllFilter, LABEL_COMPARATOR, null, false);
+
+        assertThat(result.entries).containsExactly(mCalendar, mCamera, mMaps).inOrder();
+        assertThat(result.updates).isNull();
+    }
+
+    @Test
+    public void query_sameFilterKey_evaluatesFilterOnce() {
+        mModel.query("all", mAllFilter, LABEL_COMPARATOR, null, false);
+
+        final AppListModel.Result result =
+                mModel.query("all", mAllFilter, LABEL_COMPARATOR, null, false);
+
+        assertThat(mAllFilter.mCount).isEqualTo(3);
+        assertThat(result.isUnchanged()).isTrue();
+    }
+
+    @Test
+    public void query_otherFilter_returnsRemovals() {
+        mModel.query("all", mAllFilter, LABEL_COMPARATOR, null, false);
+
+        final AppListModel.Result result = mModel.query("noCamera",
+                new CountingFilter(mCamera), LABEL_COMPARATOR, null, false);
+
+        assertThat(result.entries).containsExactly(mCalendar, mMaps).inOrder();
+        assertThat(result.updates).hasSize(1);
+        assertThat(result.updates.get(0).type).isEqualTo(AppListModel.Update.REMOVE);
+        assertThat(result.updates.get(0).position).isEqualTo(1);
+    }
+
+    @Test
+    public void filterPrefix_narrowsPreviousQuery() {
+        mModel.query("all", mAllFilter, LABEL_COMPARATOR, null, false);
+
+        final AppListModel.Result result = mModel.filterPrefix("ca");
+
+        assertThat(result.entries).containsExactly(mCalendar, mCamera).inOrder();
+        assertThat(mModel.filterPrefix("cam").entries).containsExactly(mCamera);
+        assertThat(mModel.filterPrefix(null).entries).hasSize(3);
+    }
+
+    @Test
+    public void onPackageChanged_repositionsInOrder() {
+        mModel.query("all", mAllFilter, SIZE_COMPARATOR, null, false);
+        mCamera.size = 4;
+
+        mModel.onPackageChanged("com.example.camera");
+        final AppListModel.Result result =
+                mModel.query("all", mAllFilter, SIZE_COMPARATOR, null, false);
+
+        assertThat(result.entries).containsExactly(mCalendar, mMaps, mCamera).inOrder();
+        assertThat(mAllFilter.mCount).isEqualTo(4);
+    }
+
+    @Test
+    public void onPackageChanged_sizeComparator_sortsOnSizesAsOfLastChange() {
+        mModel.query("all", mAllFilter, ApplicationsState.SIZE_COMPARATOR, null, false);
+        // Sizes change without the model's lock; only the changed package is re-read.
+        mCamera.size = 5;
+
+        mModel.onPackageChanged("com.example.maps");
+        AppListModel.Result result = mModel.query("all", mAllFilter,
+                ApplicationsState.SIZE_COMPARATOR, null, false);
+
+        assertThat(result.entries).containsExactly(mMaps, mCalendar, mCamera).inOrder();
+
+        mModel.onPackageChanged("com.example.camera");
+        result = mModel.query("all", mAllFilter, ApplicationsState.SIZE_COMPARATOR, null, false);
+
+        assertThat(result.entries).containsExactly(mCamera, mMaps, mCalendar).inOrder();
+    }
+
+    @Test
+    public void diff_insertionsAndRemovals_coalesced() {
+        final int[] ranks = {0, 1, 2, 3, 4};
+
+        final List<AppListModel.Update> updates = AppListModel.diff(
+                new int[] {0, 1, 2}, new int[] {2, 3, 4}, ranks);
+
+        assertThat(updates).hasSize(2);
+        assertThat(updates.get(0).type).isEqualTo(AppListModel.Update.REMOVE);
+        assertThat(updates.get(0).position).isEqualTo(0);
+        assertThat(updates.get(0).count).isEqualTo(2);
+        assertThat(updates.get(1).type).isEqualTo(AppListModel.Update.INSERT);
+        assertThat(updates.get(1).position).isEqualTo(1);
+        assertThat(updates.get(1).count).isEqualTo(2);
+    }
+
+    private static AppEntry createEntry(String packageName, String label, long size) {
+        final AppEntry entry = mock(AppEntry.class);
+        final ApplicationInfo info = new ApplicationInfo();
+        info.packageName = packageName;
+        ReflectionHelpers.setField(entry, "info", info);
+        entry.label = label;
+        entry.size = size;
+        when(entry.getNormalizedLabel()).thenReturn(label.toLowerCase());
+        return entry;
+    }
+
+    private static class CountingFilter implements AppFilter {
+        private final AppEntry mExcluded;
+        private int mCount;
+
+        CountingFilter(AppEntry excluded) {
+            mExcluded = excluded;
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public boolean filterApp(AppEntry entry) {
+            mCount++;
+            return entry != mExcluded;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AppListRecyclerAdapterTest {
+
+    private AppListRecyclerAdapter mAdapter;
+    private RecyclerView.AdapterDataObserver mObserver;
+
+    @Before
+    public void setUp() {
+        mAdapter = new AppListRecyclerAdapter(
+                LayoutInflater.from(RuntimeEnvironment.application), Looper.myLooper(),
+                null /* iconLoader */, null /* listener */);
+        mAdapter.setRows(Arrays.asList(createRow(1, "Calendar", "1 MB"),
+                createRow(2, "Camera", "2 MB"), createRow(3, "Maps", "3 MB")), null);
+        mObserver = mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(mObserver);
+    }
+
+    @Test
+    public void setRows_withUpdates_notifiesOnlyChangedRanges() {
+        final List<AppListModel.Update> updates = new ArrayList<>();
+        updates.add(new AppListModel.Update(AppListModel.Update.REMOVE, 1, 1));
+
+        mAdapter.setRows(Arrays.asList(createRow(1, "Calendar", "1 MB"),
+                createRow(3, "Maps", "3 MB")), updates);
+
+        verify(mObserver).onItemRangeRemoved(1, 1);
+        verify(mObserver, never()).onChanged();
+        verify(mObserver, never()).onItemRangeChanged(anyInt(), anyInt(), any());
+        assertThat(mAdapter.getItemCount()).isEqualTo(2);
+        assertThat(mAdapter.getItemId(1)).isEqualTo(3);
+    }
+
+    @Test
+    public void setRows_summaryChanged_notifiesItemChanged() {
+        mAdapter.setRows(Arrays.asList(createRow(1, "Calendar", "1 MB"),
+                createRow(2, "Camera", "5 MB"), createRow(3, "Maps", "3 MB")),
+                Collections.emptyList());
+
+        verify(mObserver).onItemRangeChanged(1, 1, null);
+    }
+
+    @Test
+    public void setRows_withoutUpdates_notifiesDataSetChanged() {
+        mAdapter.setRows(Arrays.asList(createRow(3, "Maps", "3 MB")), null);
+
+        verify(mObserver).onChanged();
+    }
+
+    @Test
+    public void updateRow_sameContent_doesNotNotify() {
+        mAdapter.updateRow(createRow(2, "Camera", "2 MB"));
+
+        verify(mObserver, never()).onItemRangeChanged(anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void updateRow_newSummary_notifiesItemChanged() {
+        mAdapter.updateRow(createRow(2, "Camera", "4 MB"));
+
+        verify(mObserver).onItemRangeChanged(1, 1, null);
+    }
+
+    private static AppListRecyclerAdapter.Row createRow(long id, String label, String summary) {
+        return new AppListRecyclerAdapter.Row(null /* entry */, id, label, null /* icon */,
+                summary, null /* disabledText */, true /* enabled */);
+    }
+}
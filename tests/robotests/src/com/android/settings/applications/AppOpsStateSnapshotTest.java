@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.Manifest;
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.ParceledListSlice;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AppOpsStateSnapshotTest {
+
+    private static final String PACKAGE = "com.example.app";
+    private static final int UID = 10001;
+    private static final String[] OVERLAY_PERMISSIONS = {
+            Manifest.permission.SYSTEM_ALERT_WINDOW
+    };
+    private static final String[] WRITE_SETTINGS_PERMISSIONS = {
+            Manifest.permission.WRITE_SETTINGS
+    };
+
+    @Mock
+    private Context mContext;
+    @Mock
+    private UserManager mUserManager;
+    @Mock
+    private AppOpsManager mAppOpsManager;
+    @Mock
+    private IPackageManagerWrapper mPackageManager;
+
+    private AppOpsStateSnapshot mSnapshot;
+
+    @Before
+    public void setUp() throws RemoteException {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.getSystemService(Context.USER_SERVICE)).thenReturn(mUserManager);
+        when(mContext.getSystemService(Context.APP_OPS_SERVICE)).thenReturn(mAppOpsManager);
+        when(mContext.getPackageName()).thenReturn("com.android.settings");
+        when(mUserManager.getUserProfiles()).thenReturn(Arrays.asList(UserHandle.of(0)));
+        when(mPackageManager.getAppOpPermissionPackages(anyString()))
+                .thenReturn(new String[] {PACKAGE});
+        when(mPackageManager.isPackageAvailable(PACKAGE, 0)).thenReturn(true);
+        when(mPackageManager.getPackagesHoldingPermissions(any(String[].class), anyInt(),
+                anyInt())).thenReturn(new ParceledListSlice<>(Collections.emptyList()));
+        mSnapshot = new AppOpsStateSnapshot(mContext, mPackageManager);
+    }
+
+    @Test
+    public void load_twoSlices_queriesOnceForBoth() throws RemoteException {
+        final AppOpsStateSnapshot.Slice overlay =
+                mSnapshot.subscribe(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, OVERLAY_PERMISSIONS);
+        final AppOpsStateSnapshot.Slice writeSettings =
+                mSnapshot.subscribe(AppOpsManager.OP_WRITE_SETTINGS, WRITE_SETTINGS_PERMISSIONS);
+
+        mSnapshot.load();
+
+        verify(mPackageManager).getPackagesHoldingPermissions(any(String[].class), anyInt(),
+                eq(0));
+        verify(mPackageManager).isPackageAvailable(PACKAGE, 0);
+        verify(mAppOpsManager).getPackagesForOps(any(int[].class));
+        assertThat(mSnapshot.getState(overlay, PACKAGE, 0).permissionDeclared).isTrue();
+        assertThat(mSnapshot.getState(writeSettings, PACKAGE, 0)).isNotNull();
+    }
+
+    @Test
+    public void load_alreadyLoaded_doesNotQueryAgain() throws RemoteException {
+        mSnapshot.subscribe(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, OVERLAY_PERMISSIONS);
+        mSnapshot.load();
+
+        mSnapshot.load();
+
+        verify(mPackageManager, times(1)).getPackagesHoldingPermissions(any(String[].class),
+                anyInt(), anyInt());
+    }
+
+    @Test
+    public void load_afterInvalidate_queriesAgain() throws RemoteException {
+        mSnapshot.subscribe(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, OVERLAY_PERMISSIONS);
+        mSnapshot.load();
+
+        mSnapshot.invalidate();
+        mSnapshot.load();
+
+        verify(mPackageManager, times(2)).getPackagesHoldingPermissions(any(String[].class),
+                anyInt(), anyInt());
+    }
+
+    @Test
+    public void load_invalidatedWhileLoading_staysUnloaded() throws RemoteException {
+        final AppOpsStateSnapshot.Slice overlay =
+                mSnapshot.subscribe(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, OVERLAY_PERMISSIONS);
+        when(mPackageManager.getPackagesHoldingPermissions(any(String[].class), anyInt(),
+                anyInt())).thenAnswer(invocation -> {
+                    mSnapshot.invalidate();
+                    return new ParceledListSlice<>(Collections.emptyList());
+                });
+
+        mSnapshot.load();
+
+        assertThat(mSnapshot.getState(overlay, PACKAGE, 0)).isNull();
+        mSnapshot.load();
+        verify(mPackageManager, times(2)).getPackagesHoldingPermissions(any(String[].class),
+                anyInt(), anyInt());
+    }
+
+    @Test
+    public void updatePackage_reloadsOnlyThatPackage() throws RemoteException {
+        final AppOpsStateSnapshot.Slice overlay =
+                mSnapshot.subscribe(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, OVERLAY_PERMISSIONS);
+        mSnapshot.load();
+        final PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = PACKAGE;
+        packageInfo.applicationInfo = new ApplicationInfo();
+        packageInfo.applicationInfo.uid = UID;
+        packageInfo.requestedPermissions = OVERLAY_PERMISSIONS;
+        packageInfo.requestedPermissionsFlags =
+                new int[] {PackageInfo.REQUESTED_PERMISSION_GRANTED};
+        when(mPackageManager.getPackageInfo(eq(PACKAGE), anyInt(), eq(0)))
+                .thenReturn(packageInfo);
+
+        mSnapshot.updatePackage(PACKAGE, UID);
+
+        assertThat(mSnapshot.getState(overlay, PACKAGE, 0).staticPermissionGranted).isTrue();
+        verify(mAppOpsManager).getOpsForPackage(eq(UID), eq(PACKAGE), any(int[].class));
+        verify(mPackageManager, times(1)).getPackagesHoldingPermissions(any(String[].class),
+                anyInt(), anyInt());
+    }
+
+    @Test
+    public void getAppOpMode_packageNotRequesting_returnsDefault() {
+        final AppOpsStateSnapshot.Slice overlay =
+                mSnapshot.subscribe(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, OVERLAY_PERMISSIONS);
+        mSnapshot.load();
+
+        assertThat(mSnapshot.getState(overlay, "com.example.other", 0)).isNull();
+        assertThat(mSnapshot.getAppOpMode(overlay, "com.example.other", 0))
+                .isEqualTo(AppOpsManager.MODE_DEFAULT);
+    }
+
+    @Test
+    public void subscribe_sameOpTwice_watchesOnce() {
+        mSnapshot.subscribe(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, OVERLAY_PERMISSIONS);
+        mSnapshot.subscribe(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, OVERLAY_PERMISSIONS);
+
+        verify(mAppOpsManager, times(1)).startWatchingMode(
+                eq(AppOpsManager.OP_SYSTEM_ALERT_WINDOW), eq(null),
+                any(AppOpsManager.OnOpChangedListener.class));
+        verify(mAppOpsManager, never()).stopWatchingMode(
+                any(AppOpsManager.OnOpChangedListener.class));
+    }
+}
@@ -24,6 +24,7 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -33,6 +34,8 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Parcelable;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -210,7 +213,7 @@ public class ManageApplicationsTest {
     }
 
     @Test
-    public void onRebuildComplete_shouldHideLoadingView() {
+    public void onModelUpdated_shouldHideLoadingView() {
         final Context context = RuntimeEnvironment.application;
         final ManageApplications fragment = mock(ManageApplications.class);
         final View loadingContainer = mock(View.class);
@@ -240,11 +243,40 @@ public class ManageApplicationsTest {
         appList.add(mock(ApplicationsState.AppEntry.class));
         when(mSession.getAllApps()).thenReturn(appList);
 
-        adapter.onRebuildComplete(null);
+        adapter.onModelUpdated(new AppListModel.Result(new ArrayList<>(), null), null);
 
         verify(loadingViewController).showContent(true /* animate */);
     }
 
+    @Test
+    public void pause_recyclerList_restoresLayoutManagerStateOnNextEntries() {
+        final ManageApplications fragment = mock(ManageApplications.class);
+        when(fragment.getActivity()).thenReturn(mock(Activity.class));
+        final RecyclerView recyclerView = mock(RecyclerView.class);
+        final RecyclerView.LayoutManager layoutManager = mock(RecyclerView.LayoutManager.class);
+        final Parcelable state = mock(Parcelable.class);
+        when(recyclerView.getLayoutManager()).thenReturn(layoutManager);
+        when(layoutManager.onSaveInstanceState()).thenReturn(state);
+        ReflectionHelpers.setField(fragment, "mRecyclerView", recyclerView);
+        ReflectionHelpers.setField(fragment, "mListContainer", mock(View.class));
+        final ManageApplications.ApplicationsAdapter adapter =
+                new ManageApplications.ApplicationsAdapter(mState, fragment, 0);
+        ReflectionHelpers.setField(adapter, "mLoadingViewController",
+                mock(LoadingViewController.class));
+
+        adapter.pause();
+        adapter.onModelUpdated(new AppListModel.Result(new ArrayList<>(), null), null);
+
+        verify(layoutManager, never()).onRestoreInstanceState(any(Parcelable.class));
+
+        final ArrayList<ApplicationsState.AppEntry> entries = new ArrayList<>();
+        entries.add(mock(ApplicationsState.AppEntry.class));
+        adapter.onModelUpdated(new AppListModel.Result(entries, null), null);
+        adapter.onModelUpdated(new AppListModel.Result(entries, null), null);
+
+        verify(layoutManager, times(1)).onRestoreInstanceState(state);
+    }
+
     private void setUpOptionMenus() {
         when(mMenu.findItem(anyInt())).thenAnswer(invocation -> {
             final Object[] args = invocation.getArguments();
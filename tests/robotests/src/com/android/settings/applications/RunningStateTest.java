@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class RunningStateTest {
+
+    private static final long NOW = 100000;
+
+    private Context mContext;
+    private RunningState mState;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mState = RunningState.getInstance(mContext);
+        mState.mAllProcessItems.clear();
+        mState.mTmpPssPids = new int[0];
+    }
+
+    @Test
+    public void getNextUpdateDelay_unchanged_doublesUpToMax() {
+        long delay = RunningState.CONTENTS_UPDATE_DELAY;
+
+        delay = RunningState.getNextUpdateDelay(delay, false);
+        assertThat(delay).isEqualTo(RunningState.CONTENTS_UPDATE_DELAY * 2);
+
+        for (int i = 0; i < 10; i++) {
+            delay = RunningState.getNextUpdateDelay(delay, false);
+        }
+        assertThat(delay).isEqualTo(RunningState.MAX_CONTENTS_UPDATE_DELAY);
+    }
+
+    @Test
+    public void getNextUpdateDelay_changed_resets() {
+        assertThat(RunningState.getNextUpdateDelay(RunningState.MAX_CONTENTS_UPDATE_DELAY, true))
+                .isEqualTo(RunningState.CONTENTS_UPDATE_DELAY);
+    }
+
+    @Test
+    public void updateRunningInfo_sameState_notChanged() {
+        final RunningState.ProcessItem proc = createProcess(1);
+        proc.setPss(10, NOW);
+
+        assertThat(proc.updateRunningInfo(createInfo(1))).isFalse();
+        assertThat(proc.needsPss(NOW)).isFalse();
+    }
+
+    @Test
+    public void updateRunningInfo_importanceChanged_needsPss() {
+        final RunningState.ProcessItem proc = createProcess(1);
+        proc.setPss(10, NOW);
+        final ActivityManager.RunningAppProcessInfo info = createInfo(1);
+        info.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND;
+
+        assertThat(proc.updateRunningInfo(info)).isTrue();
+        assertThat(proc.needsPss(NOW)).isTrue();
+    }
+
+    @Test
+    public void needsPss_newProcess_true() {
+        final RunningState.ProcessItem proc = new RunningState.ProcessItem(mContext, 1000, "p");
+        proc.mPid = 1;
+
+        assertThat(proc.needsPss(NOW)).isTrue();
+    }
+
+    @Test
+    public void needsPss_sampleOld_true() {
+        final RunningState.ProcessItem proc = createProcess(1);
+        proc.setPss(10, NOW);
+
+        assertThat(proc.needsPss(NOW + RunningState.PSS_MAX_AGE - 1)).isFalse();
+        assertThat(proc.needsPss(NOW + RunningState.PSS_MAX_AGE)).isTrue();
+    }
+
+    @Test
+    public void needsPss_pidChanged_true() {
+        final RunningState.ProcessItem proc = createProcess(1);
+        proc.setPss(10, NOW);
+
+        proc.mPid = 2;
+
+        assertThat(proc.needsPss(NOW)).isTrue();
+    }
+
+    @Test
+    public void setPss_recordsSampleAndClearsStateChange() {
+        final RunningState.ProcessItem proc = createProcess(1);
+        proc.mStateChanged = true;
+
+        proc.setPss(42, NOW);
+
+        assertThat(proc.mPss).isEqualTo(42);
+        assertThat(proc.mPssPid).isEqualTo(1);
+        assertThat(proc.mPssTime).isEqualTo(NOW);
+        assertThat(proc.mStateChanged).isFalse();
+    }
+
+    @Test
+    public void collectPssPids_nothingNeedsPss_returnsNull() {
+        final RunningState.ProcessItem proc = createProcess(1);
+        proc.setPss(10, NOW);
+        mState.mAllProcessItems.add(proc);
+
+        assertThat(mState.collectPssPids(NOW)).isNull();
+        assertThat(proc.mPssIndex).isEqualTo(-1);
+    }
+
+    @Test
+    public void collectPssPids_fewerNeedPss_reusesBufferWithProcessesSampledAhead() {
+        final RunningState.ProcessItem first = createProcess(1);
+        final RunningState.ProcessItem second = createProcess(2);
+        final RunningState.ProcessItem third = createProcess(3);
+        mState.mAllProcessItems.add(first);
+        mState.mAllProcessItems.add(second);
+        mState.mAllProcessItems.add(third);
+        final int[] pids = mState.collectPssPids(NOW);
+        assertThat(pids).asList().containsExactly(1, 2, 3);
+        first.setPss(10, NOW);
+        second.setPss(10, NOW);
+
+        final int[] nextPids = mState.collectPssPids(NOW);
+
+        assertThat(nextPids).isSameAs(pids);
+        assertThat(nextPids).asList().containsExactly(3, 1, 2).inOrder();
+        assertThat(third.mPssIndex).isEqualTo(0);
+    }
+
+    @Test
+    public void collectPssPids_moreNeedPss_grows() {
+        mState.mAllProcessItems.add(createProcess(1));
+        mState.collectPssPids(NOW);
+        mState.mAllProcessItems.add(createProcess(2));
+
+        final int[] nextPids = mState.collectPssPids(NOW);
+
+        assertThat(nextPids).asList().containsExactly(1, 2);
+    }
+
+    @Test
+    public void collectPssPids_processesGone_shrinks() {
+        mState.mAllProcessItems.add(createProcess(1));
+        mState.mAllProcessItems.add(createProcess(2));
+        mState.collectPssPids(NOW);
+        mState.mAllProcessItems.remove(1);
+
+        final int[] pids = mState.collectPssPids(NOW);
+
+        assertThat(pids).asList().containsExactly(1);
+    }
+
+    private RunningState.ProcessItem createProcess(int pid) {
+        final RunningState.ProcessItem proc =
+                new RunningState.ProcessItem(mContext, 1000, "process" + pid);
+        proc.mPid = pid;
+        proc.updateRunningInfo(createInfo(pid));
+        return proc;
+    }
+
+    private static ActivityManager.RunningAppProcessInfo createInfo(int pid) {
+        final ActivityManager.RunningAppProcessInfo info =
+                new ActivityManager.RunningAppProcessInfo("process" + pid, pid, null);
+        info.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+        return info;
+    }
+}
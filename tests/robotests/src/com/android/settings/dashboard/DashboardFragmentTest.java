@@ -18,12 +18,15 @@ package com.android.settings.dashboard;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import android.app.Activity;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -114,6 +117,52 @@ public class DashboardFragmentTest {
                 nullable(Preference.class));
     }
 
+    @Test
+    public void refreshDashboardTiles_unchangedTiles_shouldNotRebind() {
+        when(mFakeFeatureFactory.dashboardFeatureProvider
+                .getDashboardKeyForTile(nullable(Tile.class)))
+                .thenReturn("test_key");
+        mTestFragment.onCreatePreferences(new Bundle(), "rootKey");
+
+        mTestFragment.refreshDashboardTiles("TEST_FRAG");
+
+        verify(mFakeFeatureFactory.dashboardFeatureProvider, times(1)).bindPreferenceToTile(
+                nullable(Activity.class), anyInt(), nullable(Preference.class),
+                nullable(Tile.class), eq("test_key"), anyInt());
+    }
+
+    @Test
+    public void refreshDashboardTiles_summaryChanged_shouldNotRebind() {
+        when(mFakeFeatureFactory.dashboardFeatureProvider
+                .getDashboardKeyForTile(nullable(Tile.class)))
+                .thenReturn("test_key");
+        mTestFragment.onCreatePreferences(new Bundle(), "rootKey");
+
+        mDashboardCategory.tiles.get(0).summary = "new_summary";
+        mTestFragment.refreshDashboardTiles("TEST_FRAG");
+
+        verify(mFakeFeatureFactory.dashboardFeatureProvider, times(1)).bindPreferenceToTile(
+                nullable(Activity.class), anyInt(), nullable(Preference.class),
+                nullable(Tile.class), eq("test_key"), anyInt());
+    }
+
+    @Test
+    public void refreshDashboardTiles_changedTile_shouldRebind() {
+        when(mFakeFeatureFactory.dashboardFeatureProvider
+                .getDashboardKeyForTile(nullable(Tile.class)))
+                .thenReturn("test_key");
+        mTestFragment.onCreatePreferences(new Bundle(), "rootKey");
+
+        mDashboardCategory.tiles.get(0).title = "new_title";
+        mTestFragment.refreshDashboardTiles("TEST_FRAG");
+
+        verify(mFakeFeatureFactory.dashboardFeatureProvider, times(2)).bindPreferenceToTile(
+                nullable(Activity.class), anyInt(), nullable(Preference.class),
+                nullable(Tile.class), eq("test_key"), anyInt());
+        verify(mDisclosureMixin, times(1)).addPreference(nullable(PreferenceScreen.class),
+                nullable(Preference.class));
+    }
+
     @Test
     public void displayTilesAsPreference_shouldNotAddTilesWithoutIntent() {
         mTestFragment.onCreatePreferences(new Bundle(), "rootKey");
@@ -240,6 +289,8 @@ public class DashboardFragmentTest {
             when(mPreferenceManager.getContext()).thenReturn(mContext);
             ReflectionHelpers.setField(
                     this, "mVisibilityLoggerMixin", mock(VisibilityLoggerMixin.class));
+            // Load tiles on the calling thread.
+            mTileLoadExecutor = Runnable::run;
         }
 
         @Override
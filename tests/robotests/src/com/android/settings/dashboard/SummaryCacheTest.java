@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class SummaryCacheTest {
+
+    private static final String KEY = "dashboard_tile_pref_WifiSettingsActivity";
+    private static final String SUMMARY = "Connected";
+
+    private SharedPreferences mPrefs;
+    private SummaryCache mCache;
+    private Locale mDefaultLocale;
+
+    @Before
+    public void setUp() {
+        mDefaultLocale = Locale.getDefault();
+        mPrefs = RuntimeEnvironment.application.getSharedPreferences(
+                SummaryCache.PREF_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mCache = createLoadedCache();
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(mDefaultLocale);
+    }
+
+    @Test
+    public void restore_nothingStored_returnsNullAndNotStale() {
+        assertThat(mCache.restore(KEY)).isNull();
+        assertThat(mCache.isStale(KEY)).isFalse();
+    }
+
+    @Test
+    public void restore_storedByPreviousInstance_returnsStaleSummary() {
+        mCache.put(KEY, SUMMARY);
+
+        final SummaryCache cache = createLoadedCache();
+
+        assertThat(cache.restore(KEY).toString()).isEqualTo(SUMMARY);
+        assertThat(cache.isStale(KEY)).isTrue();
+    }
+
+    @Test
+    public void restore_beforeLoaded_returnsNull() {
+        mCache.put(KEY, SUMMARY);
+        final List<Runnable> tasks = new ArrayList<>();
+        final SummaryCache cache = new SummaryCache(mPrefs, tasks::add);
+        cache.startLoading();
+
+        assertThat(cache.restore(KEY)).isNull();
+
+        tasks.get(0).run();
+
+        assertThat(cache.restore(KEY).toString()).isEqualTo(SUMMARY);
+    }
+
+    @Test
+    public void addOnLoadedListener_beforeLoaded_calledOnceLoaded() {
+        final List<Runnable> tasks = new ArrayList<>();
+        final SummaryCache cache = new SummaryCache(mPrefs, tasks::add);
+        cache.startLoading();
+        final List<Boolean> loaded = new ArrayList<>();
+
+        cache.addOnLoadedListener(() -> loaded.add(cache.isLoaded()));
+
+        assertThat(loaded).isEmpty();
+
+        tasks.get(0).run();
+
+        assertThat(loaded).containsExactly(true);
+    }
+
+    @Test
+    public void addOnLoadedListener_afterLoaded_calledRightAway() {
+        final List<Boolean> loaded = new ArrayList<>();
+
+        mCache.addOnLoadedListener(() -> loaded.add(mCache.isLoaded()));
+
+        assertThat(loaded).containsExactly(true);
+    }
+
+    @Test
+    public void removeOnLoadedListener_beforeLoaded_notCalled() {
+        final List<Runnable> tasks = new ArrayList<>();
+        final SummaryCache cache = new SummaryCache(mPrefs, tasks::add);
+        cache.startLoading();
+        final List<Boolean> loaded = new ArrayList<>();
+        final SummaryCache.OnLoadedListener listener = () -> loaded.add(true);
+        cache.addOnLoadedListener(listener);
+
+        cache.removeOnLoadedListener(listener);
+        tasks.get(0).run();
+
+        assertThat(loaded).isEmpty();
+    }
+
+    @Test
+    public void restore_storedInOtherLocale_returnsNull() {
+        Locale.setDefault(Locale.US);
+        mCache = createLoadedCache();
+        mCache.put(KEY, SUMMARY);
+
+        Locale.setDefault(Locale.FRANCE);
+        final SummaryCache cache = createLoadedCache();
+
+        assertThat(cache.restore(KEY)).isNull();
+        assertThat(mPrefs.contains(KEY)).isFalse();
+    }
+
+    @Test
+    public void restore_localeChangedSinceLoaded_returnsNull() {
+        Locale.setDefault(Locale.US);
+        mCache = createLoadedCache();
+        mCache.put(KEY, SUMMARY);
+
+        Locale.setDefault(Locale.FRANCE);
+
+        assertThat(mCache.restore(KEY)).isNull();
+        assertThat(mPrefs.contains(KEY)).isFalse();
+    }
+
+    @Test
+    public void put_afterRestore_clearsStale() {
+        mCache.put(KEY, SUMMARY);
+        mCache.restore(KEY);
+
+        mCache.put(KEY, SUMMARY);
+
+        assertThat(mCache.isStale(KEY)).isFalse();
+    }
+
+    @Test
+    public void put_nullSummary_removesStoredSummary() {
+        mCache.put(KEY, SUMMARY);
+
+        mCache.put(KEY, null);
+
+        assertThat(mPrefs.contains(KEY)).isFalse();
+    }
+
+    @Test
+    public void put_nullKey_ignored() {
+        mCache.put(null, SUMMARY);
+
+        assertThat(mPrefs.getAll().keySet()).containsExactly(SummaryCache.KEY_LOCALE);
+        assertThat(mCache.isStale(null)).isFalse();
+    }
+
+    private SummaryCache createLoadedCache() {
+        final SummaryCache cache = new SummaryCache(mPrefs, Runnable::run);
+        cache.startLoading();
+        return cache;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class SummaryLoaderStatsTest {
+
+    private static final String PROVIDER = "com.android.settings.Settings$WifiSettingsActivity";
+
+    private SummaryLoaderStats mStats;
+
+    @Before
+    public void setUp() {
+        mStats = new SummaryLoaderStats();
+    }
+
+    @Test
+    public void toJson_noCalls_empty() throws Exception {
+        assertThat(mStats.toJson().length()).isEqualTo(0);
+    }
+
+    @Test
+    public void toJson_callsAndTimeouts_aggregatedPerProvider() throws Exception {
+        mStats.onCall(PROVIDER, 10);
+        mStats.onCall(PROVIDER, 30);
+        mStats.onTimeout(PROVIDER);
+
+        final JSONObject provider = mStats.toJson().getJSONObject(PROVIDER);
+
+        assertThat(provider.getInt(SummaryLoaderStats.KEY_CALLS)).isEqualTo(2);
+        assertThat(provider.getLong(SummaryLoaderStats.KEY_TOTAL_MS)).isEqualTo(40);
+        assertThat(provider.getLong(SummaryLoaderStats.KEY_MAX_MS)).isEqualTo(30);
+        assertThat(provider.getInt(SummaryLoaderStats.KEY_TIMEOUTS)).isEqualTo(1);
+    }
+
+    @Test
+    public void loadsToJson_warmAndColdLoads_recordedSeparately() throws Exception {
+        mStats.onFullyLoaded(true /* warm */, 100);
+        mStats.onFullyLoaded(true /* warm */, 300);
+        mStats.onFullyLoaded(false /* warm */, 500);
+
+        final JSONObject loads = mStats.loadsToJson();
+        final JSONObject warm = loads.getJSONObject(SummaryLoaderStats.KEY_WARM);
+        final JSONObject cold = loads.getJSONObject(SummaryLoaderStats.KEY_COLD);
+
+        assertThat(warm.getInt(SummaryLoaderStats.KEY_LOADS)).isEqualTo(2);
+        assertThat(warm.getLong(SummaryLoaderStats.KEY_TOTAL_MS)).isEqualTo(400);
+        assertThat(warm.getLong(SummaryLoaderStats.KEY_LAST_MS)).isEqualTo(300);
+        assertThat(cold.getInt(SummaryLoaderStats.KEY_LOADS)).isEqualTo(1);
+    }
+}
@@ -17,15 +17,20 @@
 package com.android.settings.dashboard;
 
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Bundle;
+import android.os.Looper;
 
+import com.android.settings.SettingsActivity;
 import com.android.settings.TestConfig;
 import com.android.settings.testutils.FakeFeatureFactory;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
 
+import org.json.JSONException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -34,6 +39,8 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.Robolectric;
 import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -54,6 +61,8 @@ public class SummaryLoaderTest {
     private boolean mCallbackInvoked;
     private Tile mTile;
     private FakeFeatureFactory mFeatureFactory;
+    private Activity mActivity;
+    private int mCallbackCount;
 
     @Before
     public void SetUp() {
@@ -64,15 +73,22 @@ public class SummaryLoaderTest {
         mTile.summary = SUMMARY_1;
         mCallbackInvoked = false;
 
-        final Activity activity = Robolectric.buildActivity(Activity.class).get();
+        mActivity = Robolectric.buildActivity(Activity.class).get();
+        // Reads and writes the summary cache right away.
+        final SummaryCache summaryCache = new SummaryCache(mActivity.getSharedPreferences(
+                SummaryCache.PREF_NAME, Context.MODE_PRIVATE), Runnable::run);
+        summaryCache.startLoading();
+        ReflectionHelpers.setStaticField(SummaryCache.class, "sInstance", summaryCache);
         final List<DashboardCategory> categories = new ArrayList<>();
-        mSummaryLoader = new SummaryLoader(activity, categories);
+        mSummaryLoader = new SummaryLoader(mActivity, categories);
         mSummaryLoader.setSummaryConsumer(new SummaryLoader.SummaryConsumer() {
             @Override
             public void notifySummaryChanged(Tile tile) {
                 mCallbackInvoked = true;
+                mCallbackCount++;
             }
         });
+        FakeSummaryProvider.sLastProvider = null;
     }
 
     @Test
@@ -107,4 +123,215 @@ public class SummaryLoaderTest {
 
         assertThat(tile.summary).isEqualTo(testSummary);
     }
+
+    @Test
+    public void testUpdateSummaryToCache_noSummary_restoresStaleSummary() {
+        final Tile tile = buildTileWithKey("restored_key");
+        SummaryCache.getInstance(mActivity).put(tile.key, SUMMARY_1);
+        final DashboardCategory category = new DashboardCategory();
+        category.addTile(tile);
+
+        mSummaryLoader.updateSummaryToCache(category);
+
+        assertThat(tile.summary).isEqualTo(SUMMARY_1);
+        assertThat(SummaryCache.getInstance(mActivity).isStale(tile.key)).isTrue();
+    }
+
+    @Test
+    public void testUpdateSummaryToCache_cacheNotLoaded_restoresOnceLoaded() {
+        final Tile tile = buildTileWithKey("restored_key");
+        SummaryCache.getInstance(mActivity).put(tile.key, SUMMARY_1);
+        final List<Runnable> tasks = new ArrayList<>();
+        final SummaryCache summaryCache = new SummaryCache(mActivity.getSharedPreferences(
+                SummaryCache.PREF_NAME, Context.MODE_PRIVATE), tasks::add);
+        summaryCache.startLoading();
+        ReflectionHelpers.setStaticField(SummaryCache.class, "sInstance", summaryCache);
+        final SummaryLoader loader = new SummaryLoader(mActivity, new ArrayList<>());
+        loader.setSummaryConsumer(t -> mCallbackCount++);
+        final DashboardCategory category = new DashboardCategory();
+        category.addTile(tile);
+
+        loader.updateSummaryToCache(category);
+
+        assertThat(tile.summary).isNull();
+
+        tasks.get(0).run();
+        ShadowLooper.runUiThreadTasks();
+
+        assertThat(tile.summary).isEqualTo(SUMMARY_1);
+        assertThat(mCallbackCount).isEqualTo(1);
+        assertThat(summaryCache.isStale(tile.key)).isTrue();
+    }
+
+    @Test
+    public void testUpdateSummaryIfNeeded_sameAsStaleSummary_hasCallback() {
+        final Tile tile = buildTileWithKey("stale_key");
+        SummaryCache.getInstance(mActivity).put(tile.key, SUMMARY_1);
+        final DashboardCategory category = new DashboardCategory();
+        category.addTile(tile);
+        mSummaryLoader.updateSummaryToCache(category);
+
+        mSummaryLoader.updateSummaryIfNeeded(tile, SUMMARY_1);
+
+        assertThat(mCallbackInvoked).isTrue();
+        assertThat(SummaryCache.getInstance(mActivity).isStale(tile.key)).isFalse();
+    }
+
+    @Test
+    public void testProviders_allSummariesDelivered_recordsFullLoad() throws Exception {
+        final int loads = getColdLoadCount();
+        final SummaryLoader loader = createLoader(buildCategoryWithProviderTile());
+
+        loader.setListening(true);
+        ShadowLooper.runUiThreadTasks();
+
+        assertThat(getColdLoadCount()).isEqualTo(loads + 1);
+    }
+
+    @Test
+    public void testProviders_providerListensAndSummaryDelivered() {
+        final DashboardCategory category = buildCategoryWithProviderTile();
+        final SummaryLoader loader = createLoader(category);
+
+        loader.setListening(true);
+        ShadowLooper.runUiThreadTasks();
+
+        assertThat(FakeSummaryProvider.sLastProvider.mListening).isTrue();
+        assertThat(category.tiles.get(0).summary).isEqualTo(FakeSummaryProvider.SUMMARY_2);
+
+        loader.release();
+        ShadowLooper.runUiThreadTasks();
+        assertThat(FakeSummaryProvider.sLastProvider.mListening).isFalse();
+    }
+
+    @Test
+    public void testCallOverdue_otherProvidersMoveToNewWorker() {
+        final DashboardCategory category = new DashboardCategory();
+        final Tile slowTile = buildProviderTile("SlowSettingsActivity",
+                SlowSummaryProvider.class);
+        final Tile tile = buildProviderTile("FakeSettingsActivity", FakeSummaryProvider.class);
+        category.addTile(slowTile);
+        category.addTile(tile);
+        final SummaryLoader loader = createLoader(category);
+
+        // The slow provider reports itself overdue when it starts listening.
+        SlowSummaryProvider.sComponent = slowTile.intent.getComponent();
+        loader.setListening(true);
+        ShadowLooper.runUiThreadTasks();
+
+        assertThat(loader.hasSharedWorker(slowTile.intent.getComponent())).isFalse();
+        assertThat(FakeSummaryProvider.sLastProvider.mListening).isTrue();
+        assertThat(tile.summary).isEqualTo(FakeSummaryProvider.SUMMARY_2);
+    }
+
+    @Test
+    public void testSetSummary_severalTimesBeforeDelivery_deliveredOnce() {
+        final DashboardCategory category = buildCategoryWithProviderTile();
+        final SummaryLoader loader = createLoader(category);
+
+        // The fake provider sets two summaries when it starts listening.
+        loader.setListening(true);
+        ShadowLooper.runUiThreadTasks();
+
+        assertThat(mCallbackCount).isEqualTo(1);
+        assertThat(category.tiles.get(0).summary).isEqualTo(FakeSummaryProvider.SUMMARY_2);
+    }
+
+    @Test
+    public void testSetSummary_unknownProvider_ignored() {
+        mSummaryLoader.setSummary(listening -> {}, SUMMARY_2);
+        ShadowLooper.runUiThreadTasks();
+
+        assertThat(mCallbackInvoked).isFalse();
+    }
+
+    private SummaryLoader createLoader(DashboardCategory category) {
+        when(mFeatureFactory.dashboardFeatureProvider.getTilesForCategory(null))
+                .thenReturn(category);
+        final List<DashboardCategory> categories = new ArrayList<>();
+        categories.add(category);
+        // Runs the workers on the main thread, which is enough to check the provider calls.
+        final SummaryLoader loader =
+                new SummaryLoader(mActivity, categories, Looper.getMainLooper());
+        loader.setSummaryConsumer(tile -> mCallbackCount++);
+        return loader;
+    }
+
+    private Tile buildTileWithKey(String key) {
+        final Tile tile = new Tile();
+        tile.key = key;
+        tile.intent = new Intent();
+        when(mFeatureFactory.dashboardFeatureProvider.getDashboardKeyForTile(tile))
+                .thenReturn(key);
+        return tile;
+    }
+
+    private static int getColdLoadCount() throws JSONException {
+        return SummaryLoaderStats.getInstance().loadsToJson()
+                .getJSONObject(SummaryLoaderStats.KEY_COLD)
+                .getInt(SummaryLoaderStats.KEY_LOADS);
+    }
+
+    private DashboardCategory buildCategoryWithProviderTile() {
+        final DashboardCategory category = new DashboardCategory();
+        category.addTile(buildProviderTile("FakeSettingsActivity", FakeSummaryProvider.class));
+        return category;
+    }
+
+    private Tile buildProviderTile(String className, Class<?> providerClass) {
+        final Tile tile = new Tile();
+        tile.intent = new Intent().setComponent(
+                new ComponentName(mActivity.getPackageName(), className));
+        tile.metaData = new Bundle();
+        tile.metaData.putString(SettingsActivity.META_DATA_KEY_FRAGMENT_CLASS,
+                providerClass.getName());
+        return tile;
+    }
+
+    public static class FakeSummaryProvider implements SummaryLoader.SummaryProvider {
+        static final String SUMMARY_1 = "fake_summary1";
+        static final String SUMMARY_2 = "fake_summary2";
+
+        public static final SummaryLoader.SummaryProviderFactory SUMMARY_PROVIDER_FACTORY =
+                (activity, summaryLoader) -> new FakeSummaryProvider(summaryLoader);
+
+        static FakeSummaryProvider sLastProvider;
+
+        private final SummaryLoader mSummaryLoader;
+        boolean mListening;
+
+        FakeSummaryProvider(SummaryLoader summaryLoader) {
+            mSummaryLoader = summaryLoader;
+            sLastProvider = this;
+        }
+
+        @Override
+        public void setListening(boolean listening) {
+            mListening = listening;
+            if (listening) {
+                mSummaryLoader.setSummary(this, SUMMARY_1);
+                mSummaryLoader.setSummary(this, SUMMARY_2);
+            }
+        }
+    }
+
+    public static class SlowSummaryProvider implements SummaryLoader.SummaryProvider {
+        public static final SummaryLoader.SummaryProviderFactory SUMMARY_PROVIDER_FACTORY =
+                (activity, summaryLoader) -> new SlowSummaryProvider(summaryLoader);
+
+        static ComponentName sComponent;
+
+        private final SummaryLoader mSummaryLoader;
+
+        SlowSummaryProvider(SummaryLoader summaryLoader) {
+            mSummaryLoader = summaryLoader;
+        }
+
+        @Override
+        public void setListening(boolean listening) {
+            if (listening) {
+                mSummaryLoader.onCallOverdue(sComponent);
+            }
+        }
+    }
 }
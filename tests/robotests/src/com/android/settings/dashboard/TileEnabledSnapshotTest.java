@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class TileEnabledSnapshotTest {
+
+    private static final String BUILD_ID = "build/1/1000";
+    private static final ComponentName WIFI =
+            new ComponentName("com.android.settings", "WifiSettingsActivity");
+    private static final ComponentName PRINT =
+            new ComponentName("com.android.settings", "PrintSettingsActivity");
+
+    @Mock
+    private TileEnabledSnapshot.TileEnabler mEnabler;
+
+    private SharedPreferences mPrefs;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mPrefs = RuntimeEnvironment.application.getSharedPreferences(
+                TileEnabledSnapshot.PREF_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        when(mEnabler.setTileEnabled(any(ComponentName.class), anyBoolean())).thenReturn(true);
+    }
+
+    @Test
+    public void apply_noPreviousSnapshot_setsEveryComponent() {
+        final TileEnabledSnapshot snapshot = createSnapshot(BUILD_ID);
+
+        assertThat(snapshot.apply(mEnabler)).isTrue();
+
+        verify(mEnabler).setTileEnabled(WIFI, true);
+        verify(mEnabler).setTileEnabled(PRINT, false);
+        assertThat(snapshot.getSkippedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void apply_unchangedStates_skipsComponents() {
+        createSnapshot(BUILD_ID).apply(mEnabler);
+        final TileEnabledSnapshot snapshot = createSnapshot(BUILD_ID);
+        snapshot.setEnabled(PRINT, true);
+
+        snapshot.apply(mEnabler);
+
+        verify(mEnabler).setTileEnabled(WIFI, true);
+        verify(mEnabler).setTileEnabled(PRINT, true);
+        assertThat(snapshot.getSkippedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void apply_nothingChanged_returnsFalse() {
+        createSnapshot(BUILD_ID).apply(mEnabler);
+        final TileEnabledSnapshot snapshot = createSnapshot(BUILD_ID);
+
+        assertThat(snapshot.apply(mEnabler)).isFalse();
+        assertThat(snapshot.getSkippedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void apply_buildChanged_setsEveryComponent() {
+        createSnapshot(BUILD_ID).apply(mEnabler);
+        final TileEnabledSnapshot snapshot = createSnapshot("build/2/1000");
+
+        snapshot.apply(mEnabler);
+
+        assertThat(snapshot.getSkippedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void apply_settingsUpdated_setsEveryComponent() {
+        createSnapshot(BUILD_ID).apply(mEnabler);
+        final TileEnabledSnapshot snapshot = createSnapshot("build/1/2000");
+
+        snapshot.apply(mEnabler);
+
+        verify(mEnabler, times(2)).setTileEnabled(WIFI, true);
+        assertThat(snapshot.getSkippedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void setEnabled_calledTwice_laterStateWins() {
+        final TileEnabledSnapshot snapshot = createSnapshot(BUILD_ID);
+        snapshot.setEnabled(WIFI, false);
+
+        snapshot.apply(mEnabler);
+
+        verify(mEnabler).setTileEnabled(WIFI, false);
+        verify(mEnabler, never()).setTileEnabled(WIFI, true);
+    }
+
+    private TileEnabledSnapshot createSnapshot(String buildId) {
+        final TileEnabledSnapshot snapshot = new TileEnabledSnapshot(mPrefs, buildId);
+        snapshot.setEnabled(WIFI, true);
+        snapshot.setEnabled(PRINT, false);
+        return snapshot;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard.conditional;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.IntentFilter;
+import android.graphics.drawable.Icon;
+import android.os.PersistableBundle;
+import android.provider.Settings.Global;
+import android.util.Xml;
+
+import com.android.settings.TestConfig;
+import com.android.settings.core.instrumentation.MetricsFeatureProvider;
+import com.android.settings.testutils.FakeFeatureFactory;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class ConditionManagerTest {
+
+    private static final String ACTION_TEST = "com.android.settings.TEST_ACTION";
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private Context mContext;
+    @Mock
+    private NotificationManager mNotificationManager;
+    @Mock
+    private MetricsFeatureProvider mMetricsFeatureProvider;
+
+    private File mFilesDir;
+    private final List<Runnable> mWrites = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        FakeFeatureFactory.setupForTest(mContext);
+        mFilesDir = new File(RuntimeEnvironment.application.getFilesDir(), "conditions");
+        mFilesDir.mkdirs();
+        when(mContext.getFilesDir()).thenReturn(mFilesDir);
+        when(mContext.getSystemServiceName(NotificationManager.class))
+                .thenReturn(Context.NOTIFICATION_SERVICE);
+        when(mContext.getSystemService(Context.NOTIFICATION_SERVICE))
+                .thenReturn(mNotificationManager);
+        when(mNotificationManager.getZenMode()).thenReturn(Global.ZEN_MODE_ALARMS);
+    }
+
+    @After
+    public void tearDown() {
+        new File(mFilesDir, ConditionManager.FILE_NAME).delete();
+        new File(mFilesDir, ConditionManager.LEGACY_FILE_NAME).delete();
+    }
+
+    @Test
+    public void readSavedConditions_afterSave_restoresState() {
+        final ConditionManager manager = new ConditionManager(mContext, Runnable::run, true);
+        final DndCondition dnd = new DndCondition(manager);
+        manager.onConditionsLoaded(Arrays.asList(dnd));
+        dnd.silence();
+
+        final List<Condition> conditions =
+                new ConditionManager(mContext, Runnable::run, true).readSavedConditions();
+
+        assertThat(conditions).hasSize(1);
+        final Condition restored = conditions.get(0);
+        assertThat(restored).isInstanceOf(DndCondition.class);
+        assertThat(restored.isActive()).isTrue();
+        assertThat(restored.isSilenced()).isTrue();
+        assertThat(restored.getLastChange()).isEqualTo(dnd.getLastChange());
+        assertThat((int) ReflectionHelpers.getField(restored, "mZen"))
+                .isEqualTo(Global.ZEN_MODE_ALARMS);
+    }
+
+    @Test
+    public void readSavedConditions_unknownCondition_skipsItsRecord() throws Exception {
+        try (DataOutputStream out = openStateFile()) {
+            out.writeInt(ConditionManager.STATE_VERSION);
+            out.writeInt(2);
+            out.writeUTF("RemovedCondition");
+            out.writeInt(3);
+            out.write(new byte[] {1, 2, 3});
+            out.writeUTF(DndCondition.class.getSimpleName());
+            out.writeInt(14);
+            writeBaseState(out);
+            out.writeInt(Global.ZEN_MODE_ALARMS);
+        }
+
+        final List<Condition> conditions =
+                new ConditionManager(mContext, Runnable::run, true).readSavedConditions();
+
+        assertThat(conditions).hasSize(1);
+        assertThat(conditions.get(0).isSilenced()).isTrue();
+        assertThat((int) ReflectionHelpers.getField(conditions.get(0), "mZen"))
+                .isEqualTo(Global.ZEN_MODE_ALARMS);
+    }
+
+    @Test
+    public void readSavedConditions_version2_readsRecordsWithoutLength() throws Exception {
+        try (DataOutputStream out = openStateFile()) {
+            out.writeInt(2);
+            out.writeInt(2);
+            out.writeUTF(DndCondition.class.getSimpleName());
+            writeBaseState(out);
+            out.writeInt(Global.ZEN_MODE_NO_INTERRUPTIONS);
+            out.writeUTF(AirplaneModeCondition.class.getSimpleName());
+            writeBaseState(out);
+        }
+
+        final List<Condition> conditions =
+                new ConditionManager(mContext, Runnable::run, true).readSavedConditions();
+
+        assertThat(conditions).hasSize(2);
+        assertThat((int) ReflectionHelpers.getField(conditions.get(0), "mZen"))
+                .isEqualTo(Global.ZEN_MODE_NO_INTERRUPTIONS);
+        assertThat(conditions.get(1)).isInstanceOf(AirplaneModeCondition.class);
+        assertThat(conditions.get(1).isSilenced()).isTrue();
+    }
+
+    @Test
+    public void readSavedConditions_version1_keepsDefaultsOfNewerFields() throws Exception {
+        try (DataOutputStream out = openStateFile()) {
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeUTF(DndCondition.class.getSimpleName());
+            writeBaseState(out);
+        }
+
+        final List<Condition> conditions =
+                new ConditionManager(mContext, Runnable::run, true).readSavedConditions();
+
+        assertThat(conditions).hasSize(1);
+        assertThat(conditions.get(0).isSilenced()).isTrue();
+        assertThat(conditions.get(0).isActive()).isTrue();
+    }
+
+    @Test
+    public void readSavedConditions_legacyXml_migratesAndDeletesAfterWrite() throws Exception {
+        final File legacyFile = new File(mFilesDir, ConditionManager.LEGACY_FILE_NAME);
+        final PersistableBundle bundle = new PersistableBundle();
+        bundle.putBoolean("silence", true);
+        bundle.putInt("state", Global.ZEN_MODE_NO_INTERRUPTIONS);
+        try (FileOutputStream out = new FileOutputStream(legacyFile)) {
+            final XmlSerializer serializer = Xml.newSerializer();
+            serializer.setOutput(out, "utf-8");
+            serializer.startDocument(null, true);
+            serializer.startTag("", "cs");
+            serializer.startTag("", "c");
+            serializer.attribute("", "cls", DndCondition.class.getName());
+            bundle.saveToXml(serializer);
+            serializer.endTag("", "c");
+            serializer.endTag("", "cs");
+            serializer.endDocument();
+        }
+        final ConditionManager manager = new ConditionManager(mContext, Runnable::run, true);
+
+        final List<Condition> conditions = manager.readSavedConditions();
+
+        assertThat(conditions).hasSize(1);
+        assertThat(conditions.get(0).isSilenced()).isTrue();
+        assertThat((int) ReflectionHelpers.getField(conditions.get(0), "mZen"))
+                .isEqualTo(Global.ZEN_MODE_NO_INTERRUPTIONS);
+        assertThat(legacyFile.exists()).isTrue();
+
+        // Refreshing turns the condition on, which saves the new state.
+        manager.onConditionsLoaded(conditions);
+
+        assertThat(legacyFile.exists()).isFalse();
+        assertThat(new File(mFilesDir, ConditionManager.FILE_NAME).exists()).isTrue();
+    }
+
+    @Test
+    public void notifyChanged_severalTimesBeforeWrite_writesLatestStateOnce() {
+        final ConditionManager manager = new ConditionManager(mContext, mWrites::add, true);
+        final DndCondition dnd = new DndCondition(manager);
+        manager.onConditionsLoaded(Arrays.asList(dnd));
+        dnd.silence();
+
+        assertThat(mWrites).hasSize(1);
+        mWrites.get(0).run();
+
+        final List<Condition> conditions =
+                new ConditionManager(mContext, Runnable::run, true).readSavedConditions();
+        assertThat(conditions).hasSize(1);
+        assertThat(conditions.get(0).isSilenced()).isTrue();
+    }
+
+    @Test
+    public void refreshStale_resumed_refreshesOnlyConditionsWithoutActions() {
+        final ConditionManager manager = new ConditionManager(mContext, Runnable::run, true);
+        final TestCondition scoped = new TestCondition(manager, new String[] {ACTION_TEST});
+        final TestCondition unscoped = new TestCondition(manager, null);
+        manager.onConditionsLoaded(Arrays.asList(scoped, unscoped));
+        manager.onResume();
+
+        manager.refreshStale();
+
+        assertThat(scoped.mRefreshCount).isEqualTo(1);
+        assertThat(unscoped.mRefreshCount).isEqualTo(2);
+    }
+
+    @Test
+    public void refreshStale_afterPause_refreshesConditionsWhichMissedBroadcasts() {
+        final ConditionManager manager = new ConditionManager(mContext, Runnable::run, true);
+        final TestCondition scoped = new TestCondition(manager, new String[] {ACTION_TEST});
+        manager.onConditionsLoaded(Arrays.asList(scoped));
+        manager.onResume();
+        manager.onPause();
+        manager.onResume();
+
+        manager.refreshStale();
+        manager.refreshStale();
+
+        assertThat(scoped.mRefreshCount).isEqualTo(2);
+    }
+
+    @Test
+    public void refreshStale_scopedRefreshOff_refreshesEveryCondition() {
+        final ConditionManager manager = new ConditionManager(mContext, Runnable::run, false);
+        final TestCondition scoped = new TestCondition(manager, new String[] {ACTION_TEST});
+        manager.onConditionsLoaded(Arrays.asList(scoped));
+
+        manager.refreshStale();
+
+        assertThat(scoped.mRefreshCount).isEqualTo(2);
+    }
+
+    @Test
+    public void refreshForAction_refreshesOnlyConditionsListeningToIt() {
+        final ConditionManager manager = new ConditionManager(mContext, Runnable::run, true);
+        final TestCondition scoped = new TestCondition(manager, new String[] {ACTION_TEST});
+        final TestCondition other = new TestCondition(manager, new String[] {"other"});
+        manager.onConditionsLoaded(Arrays.asList(scoped, other));
+
+        manager.refreshForAction(ACTION_TEST);
+
+        assertThat(scoped.mRefreshCount).isEqualTo(2);
+        assertThat(other.mRefreshCount).isEqualTo(1);
+    }
+
+    @Test
+    public void onResume_dndCondition_registersOnlyItsOwnReceiver() {
+        final ConditionManager manager = new ConditionManager(mContext, Runnable::run, true);
+        manager.onConditionsLoaded(Arrays.asList(new DndCondition(manager)));
+
+        manager.onResume();
+
+        verify(mContext, times(1)).registerReceiver(any(BroadcastReceiver.class),
+                any(IntentFilter.class));
+    }
+
+    private DataOutputStream openStateFile() throws IOException {
+        return new DataOutputStream(
+                new FileOutputStream(new File(mFilesDir, ConditionManager.FILE_NAME)));
+    }
+
+    /**
+     * Writes the state of a silenced and active {@link Condition}.
+     */
+    private static void writeBaseState(DataOutputStream out) throws IOException {
+        out.writeBoolean(true);
+        out.writeBoolean(true);
+        out.writeLong(1000L);
+    }
+
+    private final class TestCondition extends Condition {
+
+        private final String[] mRefreshActions;
+        private int mRefreshCount;
+
+        TestCondition(ConditionManager manager, String[] refreshActions) {
+            super(manager, mMetricsFeatureProvider);
+            mRefreshActions = refreshActions;
+        }
+
+        @Override
+        public void refreshState() {
+            mRefreshCount++;
+        }
+
+        @Override
+        protected String[] getRefreshActions() {
+            return mRefreshActions;
+        }
+
+        @Override
+        public int getMetricsConstant() {
+            return 0;
+        }
+
+        @Override
+        public Icon getIcon() {
+            return null;
+        }
+
+        @Override
+        public CharSequence getTitle() {
+            return null;
+        }
+
+        @Override
+        public CharSequence getSummary() {
+            return null;
+        }
+
+        @Override
+        public CharSequence[] getActions() {
+            return new CharSequence[0];
+        }
+
+        @Override
+        public void onPrimaryClick() {
+        }
+
+        @Override
+        public void onActionClick(int index) {
+        }
+    }
+}
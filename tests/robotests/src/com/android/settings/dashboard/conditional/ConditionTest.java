@@ -31,6 +31,11 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.annotation.Config;
 import org.robolectric.RuntimeEnvironment;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -101,6 +106,32 @@ public class ConditionTest {
         // no crash
     }
 
+    @Test
+    public void writeState_readState_shouldRestoreState() throws Exception {
+        mCondition.silence();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mCondition.writeState(new DataOutputStream(bytes));
+
+        final TestCondition restored =
+                new TestCondition(mConditionManager, mMetricsFeatureProvider);
+        restored.readState(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertThat(restored.isSilenced()).isTrue();
+        assertThat(restored.isActive()).isFalse();
+        assertThat(restored.hasState()).isTrue();
+    }
+
+    @Test
+    public void hasState_notSilencedNorActive_shouldBeFalse() {
+        assertThat(mCondition.hasState()).isFalse();
+    }
+
+    @Test
+    public void getRefreshActions_shouldDefaultToIntentFilterActions() {
+        assertThat(mCondition.getRefreshActions()).asList().containsExactly("TestIntent");
+    }
+
     private static final class TestCondition extends Condition {
 
         private static final int TEST_METRIC_CONSTANT = 1234;
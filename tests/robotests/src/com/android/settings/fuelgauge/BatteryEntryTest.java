@@ -21,6 +21,7 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Handler;
+import android.os.Message;
 import android.os.Process;
 import android.os.UserManager;
 
@@ -28,6 +29,7 @@ import com.android.internal.os.BatterySipper;
 import com.android.internal.os.BatterySipper.DrainType;
 import com.android.settings.TestConfig;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -38,6 +40,9 @@ import org.mockito.junit.MockitoJUnit;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -47,6 +52,7 @@ import static org.mockito.Mockito.when;
 public class BatteryEntryTest {
 
     private static final int APP_UID = 123;
+    private static final int OTHER_APP_UID = 456;
     private static final int SYSTEM_UID = Process.SYSTEM_UID;
     private static final String APP_DEFAULT_PACKAGE_NAME = "com.android.test";
     private static final String APP_LABEL = "Test App Name";
@@ -77,13 +83,24 @@ public class BatteryEntryTest {
         when(mockPackageManager.getApplicationLabel(appInfo)).thenReturn(APP_LABEL);
     }
 
+    @After
+    public void tearDown() {
+        BatteryEntry.stopRequestQueue();
+        BatteryEntry.clearUidCache();
+        BatteryEntry.sLoaderExecutor = null;
+    }
+
     private BatteryEntry createBatteryEntryForApp() {
         return new BatteryEntry(mockContext, mockHandler, mockUserManager, createSipperForApp());
     }
 
     private BatterySipper createSipperForApp() {
+        return createSipperForUid(APP_UID);
+    }
+
+    private BatterySipper createSipperForUid(int uid) {
         BatterySipper sipper =
-            new BatterySipper(DrainType.APP, new FakeUid(APP_UID), 0 /* power use */);
+            new BatterySipper(DrainType.APP, new FakeUid(uid), 0 /* power use */);
         sipper.packageWithHighestDrain = HIGH_DRAIN_PACKAGE;
         return sipper;
     }
@@ -152,4 +169,99 @@ public class BatteryEntryTest {
 
         assertThat(entry.extractPackagesFromSipper(entry.sipper)).isEqualTo(entry.sipper.mPackages);
     }
+
+    @Test
+    public void batteryEntryForApp_cachedUid_usesCachedNameAndPackage() {
+        when(mockPackageManager.getPackagesForUid(APP_UID)).thenReturn(null);
+        BatteryEntry.UidToDetail utd = new BatteryEntry.UidToDetail();
+        utd.name = APP_LABEL;
+        utd.packageName = APP_DEFAULT_PACKAGE_NAME;
+        BatteryEntry.sUidCache.put(APP_UID, utd);
+
+        BatteryEntry entry = createBatteryEntryForApp();
+
+        assertThat(entry.getLabel()).isEqualTo(APP_LABEL);
+        assertThat(entry.defaultPackageName).isEqualTo(APP_DEFAULT_PACKAGE_NAME);
+    }
+
+    @Test
+    public void startRequestQueue_entriesOfSameUid_loadsOncePerUidAndReportsFullyDrawnOnce() {
+        final List<Runnable> loads = new ArrayList<>();
+        BatteryEntry.sLoaderExecutor = runnable -> {
+            loads.add(runnable);
+            runnable.run();
+        };
+        when(mockPackageManager.getPackagesForUid(APP_UID)).thenReturn(null);
+        final RecordingHandler handler = new RecordingHandler();
+        new BatteryEntry(mockContext, handler, mockUserManager, createSipperForUid(APP_UID));
+        new BatteryEntry(mockContext, handler, mockUserManager, createSipperForUid(APP_UID));
+        new BatteryEntry(mockContext, handler, mockUserManager,
+                createSipperForUid(OTHER_APP_UID));
+
+        BatteryEntry.startRequestQueue();
+
+        assertThat(loads).hasSize(2);
+        assertThat(handler.mMessages).containsExactly(BatteryEntry.MSG_UPDATE_NAME_ICON,
+                BatteryEntry.MSG_UPDATE_NAME_ICON, BatteryEntry.MSG_UPDATE_NAME_ICON,
+                BatteryEntry.MSG_REPORT_FULLY_DRAWN).inOrder();
+        assertThat(BatteryEntry.sUidCache.get(APP_UID)).isNotNull();
+        assertThat(BatteryEntry.sUidCache.get(OTHER_APP_UID)).isNotNull();
+    }
+
+    @Test
+    public void stopRequestQueue_beforeLoadsRun_cancelsThem() {
+        final List<Runnable> loads = new ArrayList<>();
+        BatteryEntry.sLoaderExecutor = loads::add;
+        when(mockPackageManager.getPackagesForUid(APP_UID)).thenReturn(null);
+        final RecordingHandler handler = new RecordingHandler();
+        new BatteryEntry(mockContext, handler, mockUserManager, createSipperForUid(APP_UID));
+        BatteryEntry.startRequestQueue();
+
+        BatteryEntry.stopRequestQueue();
+        for (Runnable load : loads) {
+            load.run();
+        }
+
+        assertThat(handler.mMessages).isEmpty();
+        assertThat(BatteryEntry.sUidCache.get(APP_UID)).isNull();
+    }
+
+    @Test
+    public void stopRequestQueue_duringLoad_reportsNothingToLaterHandler() {
+        BatteryEntry.sLoaderExecutor = Runnable::run;
+        when(mockPackageManager.getPackagesForUid(APP_UID)).thenReturn(null);
+        final RecordingHandler handler = new RecordingHandler();
+        new BatteryEntry(mockContext, handler, mockUserManager, createSipperForUid(APP_UID));
+        final RecordingHandler laterHandler = new RecordingHandler();
+        // The screen is left, then opened again, while the load runs.
+        when(mockPackageManager.getPackagesForUid(APP_UID)).thenAnswer(invocation -> {
+            BatteryEntry.stopRequestQueue();
+            BatteryEntry.sHandler = laterHandler;
+            return null;
+        });
+
+        BatteryEntry.startRequestQueue();
+
+        assertThat(handler.mMessages).isEmpty();
+        assertThat(laterHandler.mMessages).isEmpty();
+    }
+
+    @Test
+    public void clearUidCache_removesCachedUids() {
+        BatteryEntry.sUidCache.put(APP_UID, new BatteryEntry.UidToDetail());
+
+        BatteryEntry.clearUidCache();
+
+        assertThat(BatteryEntry.sUidCache.get(APP_UID)).isNull();
+    }
+
+    private static class RecordingHandler extends Handler {
+        private final List<Integer> mMessages = new ArrayList<>();
+
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            mMessages.add(msg.what);
+            return true;
+        }
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.res.Resources;
+import android.graphics.Color;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class BatteryHistoryChartTest {
+    private Resources.Theme mTheme;
+    private BatteryHistoryTimeline mTimeline;
+
+    @Before
+    public void setUp() {
+        mTheme = RuntimeEnvironment.application.getResources().newTheme();
+        mTimeline = new BatteryHistoryTimeline();
+    }
+
+    @Test
+    public void contentKey_equalFields_equal() {
+        assertThat(createKey()).isEqualTo(createKey());
+        assertThat(createKey().hashCode()).isEqualTo(createKey().hashCode());
+    }
+
+    @Test
+    public void contentKey_otherField_notEqual() {
+        final BatteryHistoryChart.ContentKey textColor = createKey();
+        textColor.textColor = Color.RED;
+        final BatteryHistoryChart.ContentKey fontScale = createKey();
+        fontScale.fontScale = 1.3f;
+        final BatteryHistoryChart.ContentKey theme = createKey();
+        theme.theme = RuntimeEnvironment.application.getResources().newTheme();
+        final BatteryHistoryChart.ContentKey timeline = createKey();
+        timeline.timeline = new BatteryHistoryTimeline();
+
+        assertThat(textColor).isNotEqualTo(createKey());
+        assertThat(fontScale).isNotEqualTo(createKey());
+        assertThat(theme).isNotEqualTo(createKey());
+        assertThat(timeline).isNotEqualTo(createKey());
+    }
+
+    private BatteryHistoryChart.ContentKey createKey() {
+        final BatteryHistoryChart.ContentKey key = new BatteryHistoryChart.ContentKey();
+        key.timeline = mTimeline;
+        key.endWallTime = 1000L;
+        key.batteryLevel = 80;
+        key.discharging = true;
+        key.chargeLabel = "80%";
+        key.havePhoneSignal = true;
+        key.is24Hour = false;
+        key.locale = Locale.US;
+        key.fontScale = 1.0f;
+        key.uiMode = 0;
+        key.theme = mTheme;
+        key.textColor = Color.BLACK;
+        key.headerTextColor = Color.BLACK;
+        return key;
+    }
+}
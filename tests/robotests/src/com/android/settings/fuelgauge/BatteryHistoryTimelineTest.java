@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class BatteryHistoryTimelineTest {
+    private static final long START_WALLTIME = 1000000;
+
+    @Mock
+    private BatteryStats mBatteryStats;
+
+    private int mNext;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        final HistoryItem[] history = {
+                createTimeRecord(HistoryItem.CMD_RESET, 0, START_WALLTIME),
+                createDataRecord(1000, 90, HistoryItem.STATE_SCREEN_ON_FLAG),
+                createDataRecord(2000, 89, 0),
+                createCommandRecord(HistoryItem.CMD_START, 3000),
+                createDataRecord(4000, 88, 0),
+                // A small clock change, which does not break the graph.
+                createTimeRecord(HistoryItem.CMD_CURRENT_TIME, 5000, START_WALLTIME + 5000),
+                createDataRecord(6000, 87, 0),
+                createCommandRecord(HistoryItem.CMD_START, 7000)};
+        doAnswer(invocation -> {
+            mNext = 0;
+            return true;
+        }).when(mBatteryStats).startIteratingHistoryLocked();
+        doAnswer(invocation -> {
+            if (mNext == history.length) {
+                return false;
+            }
+            final HistoryItem rec = invocation.getArgument(0);
+            final HistoryItem next = history[mNext++];
+            rec.cmd = next.cmd;
+            rec.time = next.time;
+            rec.currentTime = next.currentTime;
+            rec.batteryLevel = next.batteryLevel;
+            rec.states = next.states;
+            rec.states2 = next.states2;
+            return true;
+        }).when(mBatteryStats).getNextHistoryLocked(any(HistoryItem.class));
+    }
+
+    @Test
+    public void decode_walksHistoryOnce() {
+        BatteryHistoryTimeline.decode(mBatteryStats);
+
+        verify(mBatteryStats, times(1)).startIteratingHistoryLocked();
+    }
+
+    @Test
+    public void decode_keepsDataPointsAndGaps() {
+        final BatteryHistoryTimeline timeline = BatteryHistoryTimeline.decode(mBatteryStats);
+
+        assertThat(timeline.getStartWalltime()).isEqualTo(START_WALLTIME);
+        assertThat(timeline.getEndWalltime()).isEqualTo(START_WALLTIME + 6000);
+        assertThat(timeline.getHistoryEnd()).isEqualTo(6000L);
+        assertThat(timeline.getAggregatedStates()).isEqualTo(HistoryItem.STATE_SCREEN_ON_FLAG);
+        // The reset and the start are gaps, the clock change and the trailing start dropped.
+        assertThat(timeline.size()).isEqualTo(6);
+        assertThat(timeline.isGap(0)).isTrue();
+        assertThat(timeline.getTime(1)).isEqualTo(1000L);
+        assertThat(timeline.getBatteryLevel(1)).isEqualTo(90);
+        assertThat(timeline.getStates(1)).isEqualTo(HistoryItem.STATE_SCREEN_ON_FLAG);
+        assertThat(timeline.isGap(3)).isTrue();
+        assertThat(timeline.getTime(4)).isEqualTo(4000L);
+        assertThat(timeline.getTime(5)).isEqualTo(6000L);
+        assertThat(timeline.getBatteryLevel(5)).isEqualTo(87);
+    }
+
+    @Test
+    public void replay_feedsParsersInOrder() {
+        final BatteryInfo.BatteryDataParser parser = mock(BatteryInfo.BatteryDataParser.class);
+
+        BatteryHistoryTimeline.decode(mBatteryStats).replay(parser);
+
+        final InOrder inOrder = inOrder(parser);
+        inOrder.verify(parser).onParsingStarted(START_WALLTIME, START_WALLTIME + 6000);
+        inOrder.verify(parser).onDataGap();
+        inOrder.verify(parser).onDataPoint(eq(1000L), any(HistoryItem.class));
+        inOrder.verify(parser).onDataPoint(eq(2000L), any(HistoryItem.class));
+        inOrder.verify(parser).onDataGap();
+        inOrder.verify(parser).onDataPoint(eq(4000L), any(HistoryItem.class));
+        inOrder.verify(parser).onDataPoint(eq(6000L), any(HistoryItem.class));
+        inOrder.verify(parser).onParsingDone();
+    }
+
+    @Test
+    public void add_pastInitialCapacity_keepsRows() {
+        final BatteryHistoryTimeline timeline = new BatteryHistoryTimeline();
+        final int count = BatteryHistoryTimeline.INITIAL_CAPACITY * 3;
+
+        for (int i = 0; i < count; i++) {
+            timeline.add(i, i % 100, i, 0);
+        }
+
+        assertThat(timeline.size()).isEqualTo(count);
+        assertThat(timeline.getTime(count - 1)).isEqualTo((long) count - 1);
+        assertThat(timeline.getStates(count - 1)).isEqualTo(count - 1);
+    }
+
+    private static HistoryItem createDataRecord(long time, int level, int states) {
+        final HistoryItem rec = createCommandRecord(HistoryItem.CMD_UPDATE, time);
+        rec.batteryLevel = (byte) level;
+        rec.states = states;
+        return rec;
+    }
+
+    private static HistoryItem createTimeRecord(byte cmd, long time, long currentTime) {
+        final HistoryItem rec = createCommandRecord(cmd, time);
+        rec.currentTime = currentTime;
+        return rec;
+    }
+
+    private static HistoryItem createCommandRecord(byte cmd, long time) {
+        final HistoryItem rec = new HistoryItem();
+        rec.cmd = cmd;
+        rec.time = time;
+        return rec;
+    }
+}
@@ -15,15 +15,19 @@
  */
 package com.android.settings.fuelgauge;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
 import android.content.Context;
 import android.net.ConnectivityManager;
 
+import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.TestConfig;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 
@@ -55,6 +59,7 @@ public class BatteryStatsHelperLoaderTest {
 
         mBatteryStatsHelperLoader = spy(new BatteryStatsHelperLoader(mContext));
         mBatteryStatsHelperLoader.mBatteryUtils = mBatteryUtils;
+        mBatteryStatsHelperLoader.mBatteryStatsSnapshot = new BatteryStatsSnapshot();
     }
 
     @Test
@@ -65,4 +70,30 @@ public class BatteryStatsHelperLoaderTest {
         verify(mBatteryUtils).initBatteryStatsHelper(any(), eq(null), any());
     }
 
+    @Test
+    public void testLoadInBackground_snapshotAcquired_reusesHelper() {
+        doReturn(mContext).when(mBatteryStatsHelperLoader).getContext();
+        mBatteryStatsHelperLoader.mBatteryStatsSnapshot.acquire();
+
+        final BatteryStatsHelper first = mBatteryStatsHelperLoader.loadInBackground();
+        final BatteryStatsHelper second = mBatteryStatsHelperLoader.loadInBackground();
+
+        assertThat(second).isSameAs(first);
+        verify(mBatteryUtils).initBatteryStatsHelper(any(), eq(null), any());
+        verify(mBatteryUtils, never()).resetBatteryStatsHelper(any(), any());
+    }
+
+    @Test
+    public void testLoadInBackground_resetStats_loadsAndResetsNewHelper() {
+        doReturn(mContext).when(mBatteryStatsHelperLoader).getContext();
+        mBatteryStatsHelperLoader.mBatteryStatsSnapshot.acquire();
+        final BatteryStatsHelper cached = mBatteryStatsHelperLoader.loadInBackground();
+
+        mBatteryStatsHelperLoader.mResetStats = true;
+        final BatteryStatsHelper statsHelper = mBatteryStatsHelperLoader.loadInBackground();
+
+        assertThat(statsHelper).isNotSameAs(cached);
+        verify(mBatteryUtils).resetBatteryStatsHelper(eq(statsHelper), any());
+    }
+
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class BatteryStatsSnapshotTest {
+    @Mock
+    private BatteryStatsSnapshot.StatsLoader mLoader;
+    @Mock
+    private BatteryStatsSnapshot.OnBatteryStatsChangedListener mListener;
+
+    private BatteryStatsSnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mLoader.load()).thenAnswer(invocation -> mock(BatteryStatsHelper.class));
+        mSnapshot = new BatteryStatsSnapshot();
+    }
+
+    @Test
+    public void get_acquired_reusesLoadedHelper() {
+        mSnapshot.acquire();
+
+        final BatteryStatsHelper first = mSnapshot.get(mLoader);
+        final BatteryStatsHelper second = mSnapshot.get(mLoader);
+
+        assertThat(second).isSameAs(first);
+        verify(mLoader, times(1)).load();
+    }
+
+    @Test
+    public void get_notAcquired_doesNotKeepHelper() {
+        final BatteryStatsHelper first = mSnapshot.get(mLoader);
+        final BatteryStatsHelper second = mSnapshot.get(mLoader);
+
+        assertThat(second).isNotSameAs(first);
+    }
+
+    @Test
+    public void get_afterLastRelease_loadsAgain() {
+        mSnapshot.acquire();
+        final BatteryStatsHelper first = mSnapshot.get(mLoader);
+        mSnapshot.release();
+        mSnapshot.acquire();
+
+        assertThat(mSnapshot.get(mLoader)).isNotSameAs(first);
+    }
+
+    @Test
+    public void get_afterInvalidate_loadsAgain() {
+        mSnapshot.acquire();
+        final BatteryStatsHelper first = mSnapshot.get(mLoader);
+
+        mSnapshot.invalidate();
+
+        assertThat(mSnapshot.get(mLoader)).isNotSameAs(first);
+    }
+
+    @Test
+    public void get_afterBatteryChanged_loadsAgain() {
+        mSnapshot.acquire();
+        mSnapshot.onBatteryChanged("50%", "Charging");
+        final BatteryStatsHelper first = mSnapshot.get(mLoader);
+
+        mSnapshot.onBatteryChanged("51%", "Charging");
+
+        assertThat(mSnapshot.get(mLoader)).isNotSameAs(first);
+    }
+
+    @Test
+    public void get_sameBatteryStateReported_reusesLoadedHelper() {
+        mSnapshot.acquire();
+        mSnapshot.onBatteryChanged("50%", "Charging");
+        final BatteryStatsHelper first = mSnapshot.get(mLoader);
+
+        mSnapshot.onBatteryChanged("50%", "Charging");
+
+        assertThat(mSnapshot.get(mLoader)).isSameAs(first);
+    }
+
+    @Test
+    public void get_newHelper_notifiesListeners() {
+        mSnapshot.acquire();
+        mSnapshot.addListener(mListener);
+
+        final BatteryStatsHelper statsHelper = mSnapshot.get(mLoader);
+        mSnapshot.get(mLoader);
+
+        verify(mListener, times(1)).onBatteryStatsChanged(statsHelper);
+    }
+
+    @Test
+    public void get_removedListener_notNotified() {
+        mSnapshot.acquire();
+        mSnapshot.addListener(mListener);
+        mSnapshot.removeListener(mListener);
+
+        mSnapshot.get(mLoader);
+
+        verify(mListener, never()).onBatteryStatsChanged(any());
+    }
+}
@@ -188,6 +188,17 @@ public class PowerUsageAdvancedTest {
                 .isEqualTo(UsageType.SYSTEM);
     }
 
+    @Test
+    public void testParsePowerUsageData_sharedHelper_sippersNotChanged() {
+        when(mPackageManager.getPackagesForUid(anyInt())).thenReturn(new String[] {STUB_STRING});
+
+        mPowerUsageAdvanced.parsePowerUsageData(mBatteryStatsHelper);
+
+        for (BatterySipper sipper : mBatteryStatsHelper.getUsageList()) {
+            assertThat(sipper.mPackages).isNull();
+        }
+    }
+
     @Test
     public void testParsePowerUsageData_PercentageCalculatedCorrectly() {
         final double percentApp = TYPE_APP_USAGE * 2 / TOTAL_USAGE * DISCHARGE_AMOUNT;
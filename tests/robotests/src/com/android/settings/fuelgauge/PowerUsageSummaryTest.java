@@ -38,6 +38,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.PowerManager;
+import android.os.UserHandle;
 import android.support.v7.preference.PreferenceGroup;
 import android.support.v7.preference.PreferenceScreen;
 import android.text.TextUtils;
@@ -573,6 +574,38 @@ public class PowerUsageSummaryTest {
         verify(mBatteryHeaderPreferenceController, never()).quickUpdateHeaderPreference();
     }
 
+    @Test
+    public void testBuildUsageList_calledTwiceOnSameHelper_keepsValues() {
+        final int appUid = 10123;
+        final BatterySipper appSipper = new BatterySipper(BatterySipper.DrainType.APP,
+                new FakeUid(appUid), POWER_MAH);
+        final BatterySipper sharedGidSipper = new BatterySipper(BatterySipper.DrainType.APP,
+                new FakeUid(UserHandle.getSharedAppGid(appUid)), POWER_MAH);
+        final BatterySipper screenSipper = new BatterySipper(BatterySipper.DrainType.SCREEN,
+                null, BATTERY_SCREEN_USAGE);
+        mUsageList.clear();
+        mUsageList.add(appSipper);
+        mUsageList.add(sharedGidSipper);
+        mUsageList.add(screenSipper);
+        doReturn(DateUtils.HOUR_IN_MILLIS).when(mFragment.mBatteryUtils).getProcessTimeMs(
+                eq(BatteryUtils.StatusType.SCREEN_USAGE), any(), anyInt());
+
+        final List<BatterySipper> firstList = new ArrayList<>();
+        mFragment.buildUsageList(firstList);
+        final List<BatterySipper> secondList = new ArrayList<>();
+        mFragment.buildUsageList(secondList);
+
+        // The shared GID and all of the screen power go to the app, once.
+        assertThat(firstList).hasSize(1);
+        assertThat(firstList.get(0).totalPowerMah).isWithin(PRECISION)
+                .of(2 * POWER_MAH + BATTERY_SCREEN_USAGE);
+        assertThat(secondList).hasSize(1);
+        assertThat(secondList.get(0).totalPowerMah).isWithin(PRECISION)
+                .of(firstList.get(0).totalPowerMah);
+        assertThat(appSipper.totalPowerMah).isWithin(PRECISION).of(POWER_MAH);
+        assertThat(mUsageList).containsExactly(appSipper, sharedGidSipper, screenSipper);
+    }
+
     public static class TestFragment extends PowerUsageSummary {
 
         private Context mContext;
@@ -18,17 +18,23 @@ package com.android.settings.fuelgauge.anomaly;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
 import android.os.Build;
 import android.util.Pair;
 
 import com.android.internal.logging.nano.MetricsProto;
+import com.android.internal.os.BatterySipper;
+import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.core.instrumentation.MetricsFeatureProvider;
 import com.android.settings.fuelgauge.anomaly.action.StopAndBackgroundCheckAction;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 import com.android.settings.TestConfig;
 import com.android.settings.fuelgauge.anomaly.action.ForceStopAction;
+import com.android.settings.fuelgauge.anomaly.checker.AnomalyDetector;
 import com.android.settings.fuelgauge.anomaly.checker.WakeLockAnomalyDetector;
 import com.android.settings.testutils.shadow.ShadowKeyValueListParserWrapperImpl;
 import com.android.settings.fuelgauge.anomaly.checker.WakeupAlarmAnomalyDetector;
@@ -54,6 +60,10 @@ public class AnomalyUtilsTest {
 
     @Mock
     private MetricsFeatureProvider mMetricsFeatureProvider;
+    @Mock
+    private BatteryStatsHelper mBatteryStatsHelper;
+    @Mock
+    private AnomalyDetectionPolicy mPolicy;
     private AnomalyUtils mAnomalyUtils;
     private Anomaly mWakeupAnomaly;
     private Anomaly mWakeLockAnomaly;
@@ -169,4 +179,65 @@ public class AnomalyUtilsTest {
                         MetricsProto.MetricsEvent.FIELD_ANOMALY_ACTION_TYPE,
                         Anomaly.AnomalyActionType.STOP_AND_BACKGROUND_CHECK));
     }
+
+    @Test
+    public void testDetectAnomaliesInParallel_sameOrderAsSequential() {
+        final List<BatterySipper> batterySippers = new ArrayList<>();
+        for (int i = 0; i < AnomalyUtils.PARALLEL_MIN_SIPPERS; i++) {
+            batterySippers.add(new BatterySipper(BatterySipper.DrainType.APP, null, i));
+        }
+        doReturn(batterySippers).when(mBatteryStatsHelper).getUsageList();
+        doReturn(true).when(mPolicy).isAnomalyDetectorEnabled(anyInt());
+        final AnomalyUtils anomalyUtils = spy(mAnomalyUtils);
+        for (@Anomaly.AnomalyType int type : Anomaly.ANOMALY_TYPE_LIST) {
+            doReturn(new EveryAppAnomalyDetector(type)).when(anomalyUtils)
+                    .getAnomalyDetector(type);
+        }
+
+        final List<Anomaly> parallel = anomalyUtils.detectAnomaliesInParallel(
+                mBatteryStatsHelper, mPolicy);
+        final List<Anomaly> sequential = new ArrayList<>();
+        for (@Anomaly.AnomalyType int type : Anomaly.ANOMALY_TYPE_LIST) {
+            sequential.addAll(new EveryAppAnomalyDetector(type).detectAnomalies(
+                    mBatteryStatsHelper, null /* targetPackageName */));
+        }
+
+        assertThat(parallel).containsExactlyElementsIn(sequential).inOrder();
+    }
+
+    /**
+     * Reports one anomaly for every sipper, with the power of the sipper as uid.
+     */
+    private static class EveryAppAnomalyDetector implements AnomalyDetector {
+        private final int mType;
+
+        EveryAppAnomalyDetector(int type) {
+            mType = type;
+        }
+
+        @Override
+        public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper) {
+            return detectAnomalies(batteryStatsHelper, null /* targetPackageName */);
+        }
+
+        @Override
+        public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
+                String targetPackageName) {
+            return detectAnomalies(batteryStatsHelper, batteryStatsHelper.getUsageList(),
+                    targetPackageName);
+        }
+
+        @Override
+        public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
+                List<BatterySipper> batterySippers, String targetPackageName) {
+            final List<Anomaly> anomalies = new ArrayList<>();
+            for (BatterySipper sipper : batterySippers) {
+                anomalies.add(new Anomaly.Builder()
+                        .setType(mType)
+                        .setUid((int) sipper.totalPowerMah)
+                        .build());
+            }
+            return anomalies;
+        }
+    }
 }
@@ -65,15 +65,16 @@ public class CursorToSearchResultConverterTest {
 
     @Mock(answer = Answers.RETURNS_DEEP_STUBS)
     private SiteMapManager mSiteMapManager;
+    private Context mContext;
     private Drawable mDrawable;
     private CursorToSearchResultConverter mConverter;
 
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
-        Context context = Robolectric.buildActivity(Activity.class).get();
-        mDrawable = context.getDrawable(ICON);
-        mConverter = new CursorToSearchResultConverter(context);
+        mContext = Robolectric.buildActivity(Activity.class).get();
+        mDrawable = mContext.getDrawable(ICON);
+        mConverter = new CursorToSearchResultConverter(mContext);
     }
 
     @Test
@@ -142,7 +143,12 @@ public class CursorToSearchResultConverterTest {
                 mSiteMapManager, cursor, BASE_RANK);
 
         for (SearchResult result : results) {
-            Drawable resultDrawable = result.icon;
+            // Icons are only loaded when the result is displayed.
+            assertThat(result.icon).isNull();
+            assertThat(result.iconHandle.packageName).isNull();
+            assertThat(result.iconHandle.iconResId).isEqualTo(ICON);
+            Drawable resultDrawable = ResultResourceLoader.getInstance()
+                    .loadIcon(mContext, result.iconHandle);
             assertThat(resultDrawable).isNotNull();
             assertThat(resultDrawable.toString()).isEqualTo(mDrawable.toString());
         }
@@ -154,6 +160,7 @@ public class CursorToSearchResultConverterTest {
                 mSiteMapManager, getDummyCursor("noIcon" /* key */, "" /* className */), BASE_RANK);
         for (SearchResult result : results) {
             assertThat(result.icon).isNull();
+            assertThat(result.iconHandle).isNull();
         }
     }
 
@@ -117,6 +117,7 @@ public class DatabaseIndexingManagerTest {
     private final boolean enabled = true;
 
     private final String AUTHORITY_ONE = "authority";
+    private final String AUTHORITY_TWO = "authority.two";
     private final String PACKAGE_ONE = "com.android.settings";
 
     private final String TITLE_ONE = "title one";
@@ -772,6 +773,53 @@ public class DatabaseIndexingManagerTest {
         verify(manager).updateDatabase(true /* isFullIndex */, Locale.getDefault().toString());
     }
 
+    @Test
+    public void testPerformIndexing_multipleProviders_allProvidersQueried() {
+        DummyProvider provider = new DummyProvider();
+        provider.onCreate();
+        ShadowContentResolver.registerProvider(AUTHORITY_ONE, provider);
+        ShadowContentResolver.registerProvider(AUTHORITY_TWO, provider);
+
+        final List<ResolveInfo> providers = getDummyResolveInfo();
+        final ResolveInfo secondProvider = getDummyResolveInfo().get(0);
+        secondProvider.providerInfo.authority = AUTHORITY_TWO;
+        providers.add(secondProvider);
+        when(mPackageManager.queryIntentContentProviders(any(Intent.class), anyInt()))
+                .thenReturn(providers);
+
+        DatabaseIndexingManager manager =
+                spy(new DatabaseIndexingManager(mContext, PACKAGE_ONE));
+
+        manager.performIndexing();
+
+        verify(manager).addNonIndexablesKeysFromRemoteProvider(PACKAGE_ONE, AUTHORITY_ONE);
+        verify(manager).addNonIndexablesKeysFromRemoteProvider(PACKAGE_ONE, AUTHORITY_TWO);
+        verify(manager).addIndexablesFromRemoteProvider(PACKAGE_ONE, AUTHORITY_ONE);
+        verify(manager).addIndexablesFromRemoteProvider(PACKAGE_ONE, AUTHORITY_TWO);
+        assertThat(manager.mDataToProcess.dataToUpdate).isEmpty();
+    }
+
+    @Test
+    public void testPerformIndexing_providerFailed_versionNotRecorded() {
+        DummyProvider provider = new DummyProvider();
+        provider.onCreate();
+        // Nothing answers for AUTHORITY_TWO, so its data cannot be fetched.
+        ShadowContentResolver.registerProvider(AUTHORITY_ONE, provider);
+
+        final List<ResolveInfo> providers = getDummyResolveInfo();
+        final ResolveInfo failingProvider = getDummyResolveInfo().get(0);
+        failingProvider.providerInfo.authority = AUTHORITY_TWO;
+        providers.add(failingProvider);
+        when(mPackageManager.queryIntentContentProviders(any(Intent.class), anyInt()))
+                .thenReturn(providers);
+
+        new DatabaseIndexingManager(mContext, PACKAGE_ONE).performIndexing();
+
+        final Map<String, String> versions = IndexDatabaseHelper.getIndexedProviderVersions(mDb);
+        assertThat(versions).containsKey(AUTHORITY_ONE);
+        assertThat(versions).doesNotContainKey(AUTHORITY_TWO);
+    }
+
     @Test
     public void testPerformIndexing_incrementalIndex_noDataAdded() {
         final List<ResolveInfo> providerInfo = getDummyResolveInfo();
@@ -854,24 +902,83 @@ public class DatabaseIndexingManagerTest {
     }
 
     @Test
-    public void testPerformIndexing_onPackageChange_shouldFullIndex() {
+    public void testPerformIndexing_onPackageChange_shouldNotFullIndex() {
         final List<ResolveInfo> providers = getDummyResolveInfo();
         final String buildNumber = Build.FINGERPRINT;
         final String locale = Locale.getDefault().toString();
         skipFullIndex(providers);
 
         // This snapshot is already indexed. Should return false
-        assertThat(IndexDatabaseHelper.isFullIndex(
-                mContext, locale, buildNumber,
-                IndexDatabaseHelper.buildProviderVersionedNames(providers)))
-                .isFalse();
+        assertThat(IndexDatabaseHelper.isFullIndex(mContext, locale, buildNumber)).isFalse();
 
-        // Change provider version number, this should trigger full index.
+        // Change provider version number, this should only reindex the provider.
         providers.get(0).providerInfo.applicationInfo.versionCode++;
 
-        assertThat(IndexDatabaseHelper.isFullIndex(mContext, locale, buildNumber,
-                IndexDatabaseHelper.buildProviderVersionedNames(providers)))
-                .isTrue();
+        assertThat(IndexDatabaseHelper.isFullIndex(mContext, locale, buildNumber)).isFalse();
+        assertThat(mManager.removeUpdatedProviderRows(providers)).containsExactly(providers.get(0));
+    }
+
+    @Test
+    public void testRemoveUpdatedProviderRows_unchangedProvider_rowsKept() {
+        final List<ResolveInfo> providers = getDummyResolveInfo();
+        skipFullIndex(providers);
+        insertProviderRow(KEY_ONE, PACKAGE_ONE);
+
+        assertThat(mManager.removeUpdatedProviderRows(providers)).isEmpty();
+
+        assertThat(getPrefsIndexCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRemoveUpdatedProviderRows_updatedProvider_onlyItsRowsDeleted() {
+        final List<ResolveInfo> providers = getDummyResolveInfo();
+        final ResolveInfo otherProvider = getDummyResolveInfo().get(0);
+        otherProvider.providerInfo.authority = AUTHORITY_TWO;
+        otherProvider.providerInfo.packageName = packageName;
+        providers.add(otherProvider);
+        skipFullIndex(providers);
+        insertProviderRow(KEY_ONE, PACKAGE_ONE);
+        insertProviderRow(KEY_TWO, packageName);
+
+        otherProvider.providerInfo.applicationInfo.versionCode++;
+
+        assertThat(mManager.removeUpdatedProviderRows(providers)).containsExactly(otherProvider);
+        final Cursor cursor = mDb.rawQuery("SELECT data_key_reference FROM prefs_index", null);
+        assertThat(cursor.getCount()).isEqualTo(1);
+        cursor.moveToFirst();
+        assertThat(cursor.getString(0)).isEqualTo(KEY_ONE);
+    }
+
+    @Test
+    public void testRemoveUpdatedProviderRows_newProviderInIndexedPackage_refetchesWholePackage() {
+        final List<ResolveInfo> providers = getDummyResolveInfo();
+        skipFullIndex(providers);
+        insertProviderRow(KEY_ONE, PACKAGE_ONE);
+        final ResolveInfo newProvider = getDummyResolveInfo().get(0);
+        newProvider.providerInfo.authority = AUTHORITY_TWO;
+        providers.add(newProvider);
+
+        // The rows of the package are deleted, so its indexed provider is fetched again too.
+        assertThat(mManager.removeUpdatedProviderRows(providers))
+                .containsExactly(providers.get(0), newProvider);
+        assertThat(getPrefsIndexCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testRemoveUpdatedProviderRows_removedProvider_rowsDeleted() {
+        final List<ResolveInfo> providers = getDummyResolveInfo();
+        final ResolveInfo removedProvider = getDummyResolveInfo().get(0);
+        removedProvider.providerInfo.authority = AUTHORITY_TWO;
+        removedProvider.providerInfo.packageName = packageName;
+        providers.add(removedProvider);
+        skipFullIndex(providers);
+        insertProviderRow(KEY_ONE, PACKAGE_ONE);
+        insertProviderRow(KEY_TWO, packageName);
+
+        providers.remove(removedProvider);
+
+        assertThat(mManager.removeUpdatedProviderRows(providers)).isEmpty();
+        assertThat(getPrefsIndexCount()).isEqualTo(1);
     }
 
     @Test
@@ -1059,8 +1166,24 @@ public class DatabaseIndexingManagerTest {
     private void skipFullIndex(List<ResolveInfo> providers) {
         IndexDatabaseHelper.setLocaleIndexed(mContext, Locale.getDefault().toString());
         IndexDatabaseHelper.setBuildIndexed(mContext, Build.FINGERPRINT);
-        IndexDatabaseHelper.setProvidersIndexed(mContext,
-                IndexDatabaseHelper.buildProviderVersionedNames(providers));
+        IndexDatabaseHelper.setProvidersIndexed(mDb, providers);
+    }
+
+    private void insertProviderRow(String key, String providerPackage) {
+        ContentValues values = new ContentValues();
+        values.put(IndexDatabaseHelper.IndexColumns.DOCID, key.hashCode());
+        values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE, key);
+        values.put(IndexDatabaseHelper.IndexColumns.DATA_KEY_REF, key);
+        values.put(IndexDatabaseHelper.IndexColumns.ENABLED, true);
+        values.put(IndexDatabaseHelper.IndexColumns.PROVIDER_PACKAGE, providerPackage);
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, values);
+    }
+
+    private int getPrefsIndexCount() {
+        final Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index", null);
+        final int count = cursor.getCount();
+        cursor.close();
+        return count;
     }
 
     private SearchIndexableRaw getFakeRaw() {
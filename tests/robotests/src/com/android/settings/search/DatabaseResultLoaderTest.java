@@ -45,7 +45,7 @@ import java.util.Set;
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -83,7 +83,8 @@ public class DatabaseResultLoaderTest {
     public void testMatchTitle() {
         DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "title", mSiteMapManager);
         assertThat(loader.loadInBackground().size()).isEqualTo(2);
-        verify(mSiteMapManager, times(2)).buildBreadCrumb(eq(mContext), anyString(), anyString());
+        // Breadcrumbs are only built when the results are displayed.
+        verify(mSiteMapManager, never()).buildBreadCrumb(eq(mContext), anyString(), anyString());
     }
 
     @Test
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.settings.TestConfig;
+import com.android.settings.search.IndexDatabaseHelper.IndexColumns;
+import com.android.settings.testutils.DatabaseTestUtils;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class FtsQueryEngineTest {
+
+    private Context mContext;
+    private SQLiteDatabase mDb;
+    private FtsQueryEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mDb = IndexDatabaseHelper.getInstance(mContext).getWritableDatabase();
+        mEngine = new FtsQueryEngine();
+    }
+
+    @After
+    public void cleanUp() {
+        DatabaseTestUtils.clearDb(mContext);
+    }
+
+    @Test
+    public void testTokenize_stripsPunctuationAndLowerCases() {
+        assertThat(FtsQueryEngine.tokenize("Wi-Fi \"calling*\""))
+                .containsExactly("wi", "fi", "calling").inOrder();
+    }
+
+    @Test
+    public void testTokenize_nonAsciiLetters_notFolded() {
+        // The simple tokenizer only folds ASCII, so neither should the query.
+        assertThat(FtsQueryEngine.tokenize("\u00c9CRAN \u0130D"))
+                .containsExactly("\u00c9cran", "\u0130d").inOrder();
+    }
+
+    @Test
+    public void testTokenize_nonAsciiPunctuation_keptInToken() {
+        // The simple tokenizer only splits on ASCII, so a non-breaking hyphen or an ideographic
+        // comma is part of the token.
+        assertThat(FtsQueryEngine.tokenize("Wi\u2011Fi \u84dd\u7259\u3001wlan"))
+                .containsExactly("wi\u2011fi", "\u84dd\u7259\u3001wlan").inOrder();
+    }
+
+    @Test
+    public void testTokenize_emptyQuery_returnsNoTokens() {
+        assertThat(FtsQueryEngine.tokenize("  - ")).isEmpty();
+        assertThat(FtsQueryEngine.tokenize(null)).isEmpty();
+    }
+
+    @Test
+    public void testBuildMatchExpression_lastTokenIsPrefix() {
+        assertThat(FtsQueryEngine.buildMatchExpression(Arrays.asList("wifi", "call"), false))
+                .isEqualTo("\"wifi call*\"");
+        assertThat(FtsQueryEngine.buildMatchExpression(Arrays.asList("wifi", "call"), true))
+                .isEqualTo("\"^wifi call*\"");
+    }
+
+    @Test
+    public void testQuery_noTokens_returnsNull() {
+        assertThat(mEngine.query(mDb, "&&")).isNull();
+    }
+
+    @Test
+    public void testQuery_ranksByBestMatchingTier() {
+        insertRow(1, "Apps & Notifications", "", "");
+        insertRow(2, "Banana apple", "", "");
+        insertRow(3, "Display", "Apply brightness", "");
+        insertRow(4, "Sound", "", "application");
+
+        final Map<Integer, Integer> ranks = queryRanks("app");
+
+        assertThat(ranks.keySet()).containsExactly(1, 2, 3, 4).inOrder();
+        assertThat(ranks.get(1)).isEqualTo(DatabaseResultLoader.BASE_RANKS[0]);
+        assertThat(ranks.get(2)).isEqualTo(DatabaseResultLoader.BASE_RANKS[1]);
+        assertThat(ranks.get(3)).isEqualTo(DatabaseResultLoader.BASE_RANKS[2]);
+        assertThat(ranks.get(4)).isEqualTo(DatabaseResultLoader.BASE_RANKS[3]);
+    }
+
+    @Test
+    public void testQuery_rowMatchingSeveralTiers_returnedOnceWithBestRank() {
+        insertRow(1, "Apps", "Apps summary", "apps");
+
+        final Map<Integer, Integer> ranks = queryRanks("apps");
+
+        assertThat(ranks).hasSize(1);
+        assertThat(ranks.get(1)).isEqualTo(DatabaseResultLoader.BASE_RANKS[0]);
+    }
+
+    @Test
+    public void testQuery_doesNotMatchInsideWords() {
+        insertRow(1, "Photos", "", "");
+
+        assertThat(queryRanks("hot")).isEmpty();
+    }
+
+    private Map<Integer, Integer> queryRanks(String query) {
+        final Map<Integer, Integer> ranks = new LinkedHashMap<>();
+        try (Cursor cursor = mEngine.query(mDb, query)) {
+            while (cursor.moveToNext()) {
+                ranks.put(cursor.getInt(DatabaseResultLoader.COLUMN_INDEX_ID),
+                        cursor.getInt(DatabaseResultLoader.COLUMN_INDEX_BASE_RANK));
+            }
+        }
+        return ranks;
+    }
+
+    private void insertRow(int docId, String title, String summary, String keywords) {
+        final String normalized = DatabaseIndexingUtils.normalizeString(title);
+        ContentValues values = new ContentValues();
+        values.put(IndexColumns.DOCID, docId);
+        values.put(IndexColumns.LOCALE, "en-us");
+        values.put(IndexColumns.DATA_RANK, 1);
+        values.put(IndexColumns.DATA_TITLE, title);
+        values.put(IndexColumns.DATA_TITLE_NORMALIZED, normalized);
+        values.put(IndexColumns.DATA_SUMMARY_ON, summary);
+        values.put(IndexColumns.DATA_SUMMARY_ON_NORMALIZED, summary);
+        values.put(IndexColumns.DATA_SUMMARY_OFF, summary);
+        values.put(IndexColumns.DATA_SUMMARY_OFF_NORMALIZED, summary);
+        values.put(IndexColumns.DATA_ENTRIES, "");
+        values.put(IndexColumns.DATA_KEYWORDS, keywords);
+        values.put(IndexColumns.ENABLED, true);
+        values.put(IndexColumns.DATA_KEY_REF, "key_" + docId);
+        values.put(IndexColumns.USER_ID, 0);
+        values.put(IndexColumns.PAYLOAD_TYPE, 0);
+
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, values);
+    }
+}
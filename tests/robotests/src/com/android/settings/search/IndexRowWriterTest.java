@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.settings.TestConfig;
+import com.android.settings.search.DatabaseIndexingManager.DatabaseRow;
+import com.android.settings.testutils.DatabaseTestUtils;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class IndexRowWriterTest {
+
+    private Context mContext;
+    private SQLiteDatabase mDb;
+    private IndexRowWriter mWriter;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mDb = IndexDatabaseHelper.getInstance(mContext).getWritableDatabase();
+        mWriter = new IndexRowWriter(mDb);
+    }
+
+    @After
+    public void cleanUp() {
+        DatabaseTestUtils.clearDb(mContext);
+    }
+
+    @Test
+    public void testWrite_buffersUntilFlush() {
+        mWriter.write(buildRow("key", "title", null));
+
+        assertThat(getCount(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX)).isEqualTo(0);
+
+        mWriter.close();
+
+        assertThat(getCount(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX)).isEqualTo(1);
+        assertThat(mWriter.getRowCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testWrite_fullBatch_flushedInChunks() {
+        for (int i = 0; i < IndexRowWriter.BATCH_SIZE * 2; i++) {
+            mWriter.write(buildRow("key" + i, "title" + i, null));
+        }
+
+        assertThat(mWriter.getFlushCount()).isEqualTo(2);
+        assertThat(getCount(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX))
+                .isEqualTo(IndexRowWriter.BATCH_SIZE * 2);
+    }
+
+    @Test
+    public void testWrite_emptyTitle_dropped() {
+        mWriter.write(buildRow("key", "", null));
+        mWriter.close();
+
+        assertThat(mWriter.getRowCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testWrite_childClass_insertsSiteMapPair() {
+        mWriter.write(buildRow("key", "title", "child.class"));
+        mWriter.close();
+
+        assertThat(mWriter.getSiteMapCount()).isEqualTo(1);
+        assertThat(getCount(IndexDatabaseHelper.Tables.TABLE_SITE_MAP)).isEqualTo(1);
+    }
+
+    @Test
+    public void testFlush_failingRow_keepsRestOfChunk() {
+        mDb.execSQL("CREATE TEMP TRIGGER fail_bad_row BEFORE INSERT ON site_map"
+                + " WHEN NEW.child_class = 'bad.class'"
+                + " BEGIN SELECT RAISE(ABORT, 'bad row'); END");
+        try {
+            mWriter.write(buildRow("key1", "title1", "child.class"));
+            mWriter.write(buildRow("key2", "title2", "bad.class"));
+            mWriter.write(buildRow("key3", "title3", "other.class"));
+            mWriter.close();
+        } finally {
+            mDb.execSQL("DROP TRIGGER IF EXISTS fail_bad_row");
+        }
+
+        assertThat(mWriter.getFailedRowCount()).isEqualTo(1);
+        assertThat(mWriter.getSiteMapCount()).isEqualTo(2);
+        assertThat(getCount(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX)).isEqualTo(3);
+    }
+
+    @Test
+    public void testWrite_sameKey_replacesRow() {
+        mWriter.write(buildRow("key", "title", null));
+        mWriter.write(buildRow("key", "new title", null));
+        mWriter.close();
+
+        final Cursor cursor = mDb.rawQuery("SELECT data_title FROM prefs_index", null);
+        assertThat(cursor.getCount()).isEqualTo(1);
+        cursor.moveToFirst();
+        assertThat(cursor.getString(0)).isEqualTo("new title");
+        cursor.close();
+    }
+
+    private DatabaseRow buildRow(String key, String title, String childClass) {
+        return new DatabaseRow.Builder()
+                .setLocale("en_US")
+                .setUpdatedTitle(title)
+                .setNormalizedTitle(title)
+                .setClassName("parent.class")
+                .setChildClassName(childClass)
+                .setScreenTitle("screen title")
+                .setEnabled(true)
+                .setKey(key)
+                .build(mContext);
+    }
+
+    private int getCount(String table) {
+        final Cursor cursor = mDb.rawQuery("SELECT * FROM " + table, null);
+        final int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.UserInfo;
+import android.os.UserManager;
+
+import com.android.settings.TestConfig;
+import com.android.settings.applications.PackageManagerWrapper;
+import com.android.settings.testutils.ApplicationTestUtils;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class InstalledAppIndexTest {
+
+    private static final int USER_ID = 1;
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private Context mContext;
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private PackageManagerWrapper mPackageManagerWrapper;
+    @Mock
+    private UserManager mUserManager;
+
+    private InstalledAppIndex mIndex;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        final List<UserInfo> infos = new ArrayList<>();
+        infos.add(new UserInfo(USER_ID, "user 1", 0));
+        when(mUserManager.getProfiles(anyInt())).thenReturn(infos);
+        when(mContext.getSystemService(Context.USER_SERVICE)).thenReturn(mUserManager);
+        when(mPackageManagerWrapper.getInstalledApplicationsAsUser(anyInt(), anyInt()))
+                .thenReturn(Arrays.asList(
+                        ApplicationTestUtils.buildInfo(0 /* uid */, "Apple", 0 /* flags */,
+                                0 /* targetSdkVersion */),
+                        ApplicationTestUtils.buildInfo(0 /* uid */, "Banana", 0 /* flags */,
+                                0 /* targetSdkVersion */)));
+
+        mIndex = new InstalledAppIndex(mContext, mPackageManagerWrapper);
+    }
+
+    @Test
+    public void getEntries_calledTwice_loadsAppsOnce() {
+        mIndex.getEntries();
+        mIndex.getEntries();
+
+        verify(mPackageManagerWrapper, times(1))
+                .getInstalledApplicationsAsUser(anyInt(), eq(USER_ID));
+    }
+
+    @Test
+    public void getEntries_normalizesLabels() {
+        final InstalledAppIndex.Entry[] entries = mIndex.getEntries();
+
+        assertThat(new String(entries[0].normalizedLabel)).isEqualTo("apple");
+        assertThat(entries[0].label.toString()).isEqualTo("Apple");
+        assertThat(entries[0].userId).isEqualTo(USER_ID);
+        assertThat(entries[0].launcherEligible).isTrue();
+    }
+
+    @Test
+    public void onPackageChanged_reloadsOnlyThatPackage() throws Exception {
+        mIndex.getEntries();
+        when(mPackageManagerWrapper.getApplicationInfoAsUser(eq("Cherry"), anyInt(),
+                eq(USER_ID)))
+                .thenReturn(ApplicationTestUtils.buildInfo(0 /* uid */, "Cherry", 0 /* flags */,
+                        0 /* targetSdkVersion */));
+
+        mIndex.onPackageChanged(USER_ID, "Cherry");
+
+        assertThat(getPackageNames(mIndex.getEntries()))
+                .containsExactly("Apple", "Banana", "Cherry");
+        verify(mPackageManagerWrapper, times(1))
+                .getInstalledApplicationsAsUser(anyInt(), anyInt());
+    }
+
+    @Test
+    public void onPackageChanged_packageRemoved_dropsEntry() throws Exception {
+        mIndex.getEntries();
+        when(mPackageManagerWrapper.getApplicationInfoAsUser(eq("Apple"), anyInt(),
+                eq(USER_ID)))
+                .thenThrow(new PackageManager.NameNotFoundException());
+
+        mIndex.onPackageChanged(USER_ID, "Apple");
+
+        assertThat(getPackageNames(mIndex.getEntries())).containsExactly("Banana");
+    }
+
+    @Test
+    public void onPackageChanged_beforeFirstQuery_ignored() throws Exception {
+        mIndex.onPackageChanged(USER_ID, "Apple");
+        mIndex.getEntries();
+
+        verify(mPackageManagerWrapper, never())
+                .getApplicationInfoAsUser(anyString(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void invalidate_rebuildsIndex() {
+        mIndex.getEntries();
+        mIndex.invalidate();
+        mIndex.getEntries();
+
+        verify(mPackageManagerWrapper, times(2))
+                .getInstalledApplicationsAsUser(anyInt(), eq(USER_ID));
+    }
+
+    private List<String> getPackageNames(InstalledAppIndex.Entry[] entries) {
+        final List<String> names = new ArrayList<>();
+        for (InstalledAppIndex.Entry entry : entries) {
+            names.add(entry.info.packageName);
+        }
+        return names;
+    }
+}
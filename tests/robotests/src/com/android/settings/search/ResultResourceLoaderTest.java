@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.settings.R;
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.Robolectric;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class ResultResourceLoaderTest {
+
+    private static final int ICON = R.drawable.ic_search_24dp;
+
+    @Mock
+    private ResultResourceLoader.Callback mCallback;
+
+    private Context mContext;
+    private ResultResourceLoader mLoader;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = Robolectric.buildActivity(Activity.class).get();
+        mLoader = new ResultResourceLoader(Runnable::run, new Handler(Looper.getMainLooper()));
+    }
+
+    @Test
+    public void peekIcon_notLoaded_returnsNull() {
+        assertThat(mLoader.peekIcon(new SearchResult.IconHandle(null, ICON))).isNull();
+    }
+
+    @Test
+    public void peekIcon_afterLoadIcon_returnsCachedIcon() {
+        final SearchResult.IconHandle handle = new SearchResult.IconHandle(null, ICON);
+
+        assertThat(mLoader.loadIcon(mContext, handle)).isNotNull();
+
+        assertThat(mLoader.peekIcon(handle)).isNotNull();
+    }
+
+    @Test
+    public void loadIcon_unknownPackage_returnsNull() {
+        assertThat(mLoader.loadIcon(mContext,
+                new SearchResult.IconHandle("com.example.unknown", ICON))).isNull();
+    }
+
+    @Test
+    public void loadIcon_manyPackages_evictsOldestPackageContext() throws Exception {
+        final Context context = mock(Context.class);
+        // Icons which fail to load are not cached, so every load needs the package context.
+        when(context.createPackageContext(any(String.class), anyInt()))
+                .thenReturn(mock(Context.class));
+        for (int i = 0; i <= ResultResourceLoader.PACKAGE_CONTEXT_CACHE_SIZE; i++) {
+            mLoader.loadIcon(context, new SearchResult.IconHandle("package" + i, ICON));
+        }
+
+        mLoader.loadIcon(context, new SearchResult.IconHandle("package0", ICON));
+        mLoader.loadIcon(context, new SearchResult.IconHandle("package0", ICON));
+
+        verify(context, times(2)).createPackageContext("package0", 0);
+    }
+
+    @Test
+    public void loadAsync_deliversIconOnMainThread() {
+        final SearchResult result = new SearchResult.Builder()
+                .setTitle("title")
+                .setIconHandle(new SearchResult.IconHandle(null, ICON))
+                .setPayload(new ResultPayload(new Intent()))
+                .build();
+
+        mLoader.loadAsync(mContext, result, mCallback);
+        ShadowLooper.runUiThreadTasks();
+
+        verify(mCallback).onResourcesLoaded(eq(result), any(Drawable.class), eq(null));
+    }
+}
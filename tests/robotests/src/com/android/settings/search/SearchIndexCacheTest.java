@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.settings.TestConfig;
+import com.android.settings.search.IndexDatabaseHelper.IndexColumns;
+import com.android.settings.testutils.DatabaseTestUtils;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class SearchIndexCacheTest {
+
+    private Context mContext;
+    private SQLiteDatabase mDb;
+    private SearchIndexCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mDb = IndexDatabaseHelper.getInstance(mContext).getWritableDatabase();
+        mCache = new SearchIndexCache();
+    }
+
+    @After
+    public void cleanUp() {
+        DatabaseTestUtils.clearDb(mContext);
+    }
+
+    @Test
+    public void testQuery_matchesSameTiersAsDatabase() {
+        insertRow(1, "Apps & Notifications", "", "", true);
+        insertRow(2, "Banana apple", "", "", true);
+        insertRow(3, "Display", "Apply brightness", "", true);
+        insertRow(4, "Sound", "", "application", true);
+        insertRow(5, "Photos", "", "", true);
+
+        assertThat(queryRanks(mCache.query(mDb, "app")))
+                .isEqualTo(queryRanks(new FtsQueryEngine().query(mDb, "app")));
+    }
+
+    @Test
+    public void testQuery_nonAsciiCase_matchesSameRowsAsDatabase() {
+        insertRow(1, "\u00c9cran", "", "", true);
+        insertRow(2, "\u00e9cran", "", "", true);
+        insertRow(3, "ECRAN", "", "", true);
+
+        assertThat(queryRanks(mCache.query(mDb, "\u00e9cr")))
+                .isEqualTo(queryRanks(new FtsQueryEngine().query(mDb, "\u00e9cr")));
+        assertThat(queryRanks(mCache.query(mDb, "\u00e9cr")).keySet()).containsExactly(2);
+    }
+
+    @Test
+    public void testQuery_nonAsciiPunctuation_matchesSameRowsAsDatabase() {
+        insertRow(1, "Wi\u2011Fi", "", "", true);
+        insertRow(2, "Fi", "", "", true);
+
+        assertThat(queryRanks(mCache.query(mDb, "fi")))
+                .isEqualTo(queryRanks(new FtsQueryEngine().query(mDb, "fi")));
+        assertThat(queryRanks(mCache.query(mDb, "fi")).keySet()).containsExactly(2);
+        assertThat(queryRanks(mCache.query(mDb, "wi\u2011f")).keySet()).containsExactly(1);
+    }
+
+    @Test
+    public void testQuery_disabledRows_notReturned() {
+        insertRow(1, "Apps", "", "", false);
+
+        assertThat(queryRanks(mCache.query(mDb, "app"))).isEmpty();
+    }
+
+    @Test
+    public void testQuery_multipleWords_matchesPhrasePrefix() {
+        insertRow(1, "wi-fi calling", "", "", true);
+        insertRow(2, "calling wifi", "", "", true);
+
+        final Map<Integer, Integer> ranks = queryRanks(mCache.query(mDb, "wifi cal"));
+
+        assertThat(ranks.keySet()).containsExactly(1);
+        assertThat(ranks.get(1)).isEqualTo(DatabaseResultLoader.BASE_RANKS[0]);
+    }
+
+    @Test
+    public void testQuery_extendedQuery_refinesPreviousMatches() {
+        insertRow(1, "Photos", "", "", true);
+        insertRow(2, "Phone", "", "", true);
+
+        assertThat(queryRanks(mCache.query(mDb, "ph")).keySet()).containsExactly(1, 2);
+        assertThat(queryRanks(mCache.query(mDb, "pho")).keySet()).containsExactly(1, 2);
+        assertThat(queryRanks(mCache.query(mDb, "phot")).keySet()).containsExactly(1);
+        assertThat(queryRanks(mCache.query(mDb, "phon")).keySet()).containsExactly(2);
+    }
+
+    @Test
+    public void testInvalidate_rowsAddedAfterwards_returned() {
+        insertRow(1, "Photos", "", "", true);
+        assertThat(queryRanks(mCache.query(mDb, "pho")).keySet()).containsExactly(1);
+
+        insertRow(2, "Phone", "", "", true);
+        mCache.invalidate();
+
+        assertThat(queryRanks(mCache.query(mDb, "pho")).keySet()).containsExactly(1, 2);
+    }
+
+    @Test
+    public void testQuery_noTokens_returnsNull() {
+        assertThat(mCache.query(mDb, " & ")).isNull();
+        assertThat(mCache.isReady()).isFalse();
+    }
+
+    private Map<Integer, Integer> queryRanks(Cursor cursor) {
+        final Map<Integer, Integer> ranks = new LinkedHashMap<>();
+        try {
+            while (cursor.moveToNext()) {
+                ranks.put(cursor.getInt(DatabaseResultLoader.COLUMN_INDEX_ID),
+                        cursor.getInt(DatabaseResultLoader.COLUMN_INDEX_BASE_RANK));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ranks;
+    }
+
+    private void insertRow(int docId, String title, String summary, String keywords,
+            boolean enabled) {
+        final String normalized = DatabaseIndexingUtils.normalizeString(title);
+        ContentValues values = new ContentValues();
+        values.put(IndexColumns.DOCID, docId);
+        values.put(IndexColumns.DATA_TITLE, title);
+        values.put(IndexColumns.DATA_TITLE_NORMALIZED, normalized);
+        values.put(IndexColumns.DATA_SUMMARY_ON, summary);
+        values.put(IndexColumns.DATA_SUMMARY_ON_NORMALIZED, summary);
+        values.put(IndexColumns.DATA_SUMMARY_OFF, summary);
+        values.put(IndexColumns.DATA_SUMMARY_OFF_NORMALIZED, summary);
+        values.put(IndexColumns.DATA_KEYWORDS, keywords);
+        values.put(IndexColumns.ENABLED, enabled);
+        values.put(IndexColumns.DATA_KEY_REF, "key_" + docId);
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, values);
+    }
+}
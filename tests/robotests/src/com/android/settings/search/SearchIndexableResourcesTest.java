@@ -41,6 +41,7 @@ import org.robolectric.annotation.Config;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 @RunWith(SettingsRobolectricTestRunner.class)
 @Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
@@ -52,10 +53,12 @@ public class SearchIndexableResourcesTest {
     private static final int ICON_RES_ID = R.drawable.ic_settings_language;
 
     Map<String, SearchIndexableResource> sResMapCopy;
+    Map<String, Supplier<Indexable.SearchIndexProvider>> sProviderMapCopy;
 
     @Before
     public void setUp() {
         sResMapCopy = new HashMap<>(SearchIndexableResources.sResMap);
+        sProviderMapCopy = new HashMap<>(SearchIndexableResources.sProviderMap);
     }
 
     @After
@@ -64,6 +67,8 @@ public class SearchIndexableResourcesTest {
         for (String key : sResMapCopy.keySet()) {
             SearchIndexableResources.sResMap.put(key, sResMapCopy.get(key));
         }
+        SearchIndexableResources.sProviderMap.clear();
+        SearchIndexableResources.sProviderMap.putAll(sProviderMapCopy);
     }
 
     @Test
@@ -98,7 +103,8 @@ public class SearchIndexableResourcesTest {
     @Test
     public void testNonIndexableKeys_GetsKeyFromProvider() {
         SearchIndexableResources.sResMap.clear();
-        SearchIndexableResources.addIndex(FakeIndexProvider.class, 0, 0);
+        SearchIndexableResources.addIndex(FakeIndexProvider.class,
+                () -> FakeIndexProvider.SEARCH_INDEX_DATA_PROVIDER, 0, 0);
 
         SettingsSearchIndexablesProvider provider = spy(new SettingsSearchIndexablesProvider());
 
@@ -114,4 +120,45 @@ public class SearchIndexableResourcesTest {
 
         assertThat(hasTestKey).isTrue();
     }
+
+    @Test
+    public void testProviderRegistry_matchesSearchIndexDataProviderFields() {
+        for (SearchIndexableResource sir : SearchIndexableResources.values()) {
+            final Class<?> clazz = DatabaseIndexingUtils.getIndexableClass(sir.className);
+            final Indexable.SearchIndexProvider reflected =
+                    DatabaseIndexingUtils.getSearchIndexProvider(clazz);
+
+            assertThat(SearchIndexableResources.getProviderByName(sir.className))
+                    .isSameAs(reflected);
+        }
+    }
+
+    @Test
+    public void testAddIndex_resolvesProviderOnlyWhenRequested() {
+        final int[] resolved = new int[1];
+        SearchIndexableResources.addIndex(FakeIndexProvider.class, () -> {
+            resolved[0]++;
+            return FakeIndexProvider.SEARCH_INDEX_DATA_PROVIDER;
+        }, XML_RES_ID, ICON_RES_ID);
+
+        assertThat(resolved[0]).isEqualTo(0);
+        assertThat(SearchIndexableResources.getProviderByName(FakeIndexProvider.class.getName()))
+                .isSameAs(FakeIndexProvider.SEARCH_INDEX_DATA_PROVIDER);
+        assertThat(resolved[0]).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetSearchIndexProvider_registeredClass_usesRegistry() {
+        SearchIndexableResources.addIndex(FakeIndexProvider.class, XML_RES_ID, ICON_RES_ID);
+
+        // Registered without a provider, so the SEARCH_INDEX_DATA_PROVIDER field is not read.
+        assertThat(DatabaseIndexingUtils.getSearchIndexProvider(FakeIndexProvider.class.getName()))
+                .isNull();
+    }
+
+    @Test
+    public void testGetSearchIndexProvider_unregisteredClass_fallsBackToField() {
+        assertThat(DatabaseIndexingUtils.getSearchIndexProvider(FakeIndexProvider.class.getName()))
+                .isSameAs(FakeIndexProvider.SEARCH_INDEX_DATA_PROVIDER);
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class SearchQuerySchedulerTest {
+
+    @Mock
+    private Runnable mDispatcher;
+
+    private SearchQueryScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mScheduler = new SearchQueryScheduler(mDispatcher);
+    }
+
+    @Test
+    public void scheduleQuery_noQueryInFlight_dispatchesNow() {
+        assertThat(mScheduler.scheduleQuery(false /* queryInFlight */)).isTrue();
+        assertThat(mScheduler.hasPendingQuery()).isFalse();
+        assertThat(mScheduler.getDispatchedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void scheduleQuery_queryInFlight_dispatchedAfterDelay() {
+        assertThat(mScheduler.scheduleQuery(true /* queryInFlight */)).isFalse();
+        verify(mDispatcher, never()).run();
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(mDispatcher).run();
+        assertThat(mScheduler.hasPendingQuery()).isFalse();
+    }
+
+    @Test
+    public void scheduleQuery_burst_onlyLastDispatched() {
+        mScheduler.scheduleQuery(true /* queryInFlight */);
+        mScheduler.scheduleQuery(true /* queryInFlight */);
+        // A pending query holds back the next one even once the loaders are done.
+        assertThat(mScheduler.scheduleQuery(false /* queryInFlight */)).isFalse();
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(mDispatcher, times(1)).run();
+        assertThat(mScheduler.getCoalescedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void cancelPendingQuery_notDispatched() {
+        mScheduler.scheduleQuery(true /* queryInFlight */);
+
+        mScheduler.cancelPendingQuery();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(mDispatcher, never()).run();
+        assertThat(mScheduler.getCoalescedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void onLoadsCancelled_addsUp() {
+        mScheduler.onLoadsCancelled(3);
+        mScheduler.onLoadsCancelled(1);
+
+        assertThat(mScheduler.getCancelledCount()).isEqualTo(4);
+    }
+}
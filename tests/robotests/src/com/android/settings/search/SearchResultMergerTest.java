@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Intent;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class SearchResultMergerTest {
+
+    @Test
+    public void rankedSearchResults_iteratesInRankOrder() {
+        final RankedSearchResults<SearchResult> results = new RankedSearchResults<>();
+        results.add(buildResult("c", 5));
+        results.add(buildResult("a", 1));
+        results.add(buildResult("none", -1 /* not set */));
+        results.add(buildResult("b", 3));
+
+        assertThat(getTitles(new ArrayList<>(results)))
+                .containsExactly("a", "b", "c", "none").inOrder();
+    }
+
+    @Test
+    public void rankedSearchResults_duplicateStableId_notAdded() {
+        final RankedSearchResults<SearchResult> results = new RankedSearchResults<>();
+
+        assertThat(results.add(buildResult("a", 1))).isTrue();
+        assertThat(results.add(buildResult("a", 1))).isFalse();
+        assertThat(results).hasSize(1);
+    }
+
+    @Test
+    public void next_mergesByRankThenLoaderPriority() {
+        final RankedSearchResults<SearchResult> db = new RankedSearchResults<>();
+        db.add(buildResult("db1", 1));
+        db.add(buildResult("db3", 3));
+        final Set<SearchResult> apps = new HashSet<>(Arrays.asList(
+                buildResult("app3", 3), buildResult("app2", 2)));
+
+        final List<SearchResult> merged = new ArrayList<>();
+        new SearchResultMerger(Arrays.asList(db, apps)).drain(merged);
+
+        assertThat(getTitles(merged))
+                .containsExactly("db1", "app2", "db3", "app3").inOrder();
+    }
+
+    @Test
+    public void next_belowBottomRank_keepsLoaderOrder() {
+        final RankedSearchResults<SearchResult> db = new RankedSearchResults<>();
+        db.add(buildResult("db1", 1));
+        db.add(buildUnrankedResult("dbUnranked1"));
+        db.add(buildUnrankedResult("dbUnranked2"));
+        final RankedSearchResults<SearchResult> apps = new RankedSearchResults<>();
+        apps.add(buildResult("app2", 2));
+        apps.add(buildUnrankedResult("appUnranked"));
+
+        final List<SearchResult> merged = new ArrayList<>();
+        new SearchResultMerger(Arrays.asList(db, apps)).drain(merged);
+
+        assertThat(getTitles(merged)).containsExactly(
+                "db1", "app2", "dbUnranked1", "dbUnranked2", "appUnranked").inOrder();
+    }
+
+    @Test
+    public void getCount_includesResultsNotMergedYet() {
+        final RankedSearchResults<SearchResult> db = new RankedSearchResults<>();
+        db.add(buildResult("db1", 1));
+        db.add(buildResult("db2", 2));
+        final Set<SearchResult> apps = new HashSet<>(Arrays.asList(buildResult("app1", 1)));
+        final SearchResultMerger merger = new SearchResultMerger(Arrays.asList(db, apps));
+
+        merger.next(new ArrayList<>(), 1);
+
+        assertThat(merger.getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void next_stopsAtMaxCount_andResumes() {
+        final RankedSearchResults<SearchResult> db = new RankedSearchResults<>();
+        db.add(buildResult("db1", 1));
+        db.add(buildResult("db2", 2));
+        db.add(buildResult("db3", 3));
+        final SearchResultMerger merger = new SearchResultMerger(Arrays.asList(db, null));
+        final List<SearchResult> merged = new ArrayList<>();
+
+        assertThat(merger.next(merged, 2)).isEqualTo(2);
+        assertThat(merger.hasNext()).isTrue();
+        assertThat(merger.drain(merged)).isEqualTo(1);
+        assertThat(merger.hasNext()).isFalse();
+        assertThat(getTitles(merged)).containsExactly("db1", "db2", "db3").inOrder();
+    }
+
+    private SearchResult buildResult(String title, int rank) {
+        return new SearchResult.Builder()
+                .setTitle(title)
+                .setRank(rank)
+                .setStableId(title.hashCode())
+                .setPayload(new ResultPayload(new Intent()))
+                .build();
+    }
+
+    private SearchResult buildUnrankedResult(String title) {
+        // The builder only accepts ranks it orders, so unranked results keep the default.
+        return new SearchResult.Builder()
+                .setTitle(title)
+                .setStableId(title.hashCode())
+                .setPayload(new ResultPayload(new Intent()))
+                .build();
+    }
+
+    private List<String> getTitles(List<SearchResult> results) {
+        final List<String> titles = new ArrayList<>();
+        for (SearchResult result : results) {
+            titles.add(result.title.toString());
+        }
+        return titles;
+    }
+}
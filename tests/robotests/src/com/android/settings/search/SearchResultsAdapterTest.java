@@ -142,6 +142,32 @@ public class SearchResultsAdapterTest {
         assertThat(mSearchResultsCountCaptor.getValue()).isEqualTo(6);
     }
 
+    @Test
+    public void testEndToEndSearch_moreThanOnePage_remainingResultsAppended() {
+        final RankedSearchResults<SearchResult> dbResults = new RankedSearchResults<>();
+        final int resultCount = SearchResultsAdapter.FIRST_PAGE_SIZE + 5;
+        for (int i = 0; i < resultCount; i++) {
+            dbResults.add(new Builder()
+                    .setTitle("title" + i)
+                    .setRank(i % 10)
+                    .setStableId(i)
+                    .setPayload(new ResultPayload(new Intent()))
+                    .build());
+        }
+        mAdapter.initializeSearch("");
+        mAdapter.addSearchResults(dbResults, DatabaseResultLoader.class.getName());
+        mAdapter.notifyResultsLoaded();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        final List<SearchResult> results = mAdapter.getSearchResults();
+        assertThat(results).hasSize(resultCount);
+        for (int i = 1; i < results.size(); i++) {
+            assertThat(results.get(i - 1).rank).isAtMost(results.get(i).rank);
+        }
+        verify(mFragment).onSearchResultsDisplayed(mSearchResultsCountCaptor.capture());
+        assertThat(mSearchResultsCountCaptor.getValue()).isEqualTo(resultCount);
+    }
+
     @Test
     public void testEndToEndSearch_addResults_resultsAddedInOrder() {
         List<SearchResult> appResults = getDummyAppResults();
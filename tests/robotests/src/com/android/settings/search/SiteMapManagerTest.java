@@ -94,23 +94,8 @@ public class SiteMapManagerTest {
 
     @Test
     public void buildBreadCrumb_fromSiteMapDbAndDashboardProvider_breadcrumbShouldLinkUp() {
-        final String iaClass = SystemDashboardFragment.class.getName();
         final String iaTitle = "ia_title";
-
-        ContentValues index = new ContentValues();
-        index.put(IndexDatabaseHelper.IndexColumns.CLASS_NAME, iaClass);
-        index.put(IndexDatabaseHelper.IndexColumns.SCREEN_TITLE, iaTitle);
-        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, index);
-
-        final DashboardCategory category = new DashboardCategory();
-        category.key = CategoryKey.CATEGORY_SYSTEM;
-        category.tiles.add(new Tile());
-        category.tiles.get(0).title = TITLE_PREFIX + STATIC_DB_DEPTH;
-        category.tiles.get(0).metaData = new Bundle();
-        category.tiles.get(0).metaData.putString(SettingsActivity.META_DATA_KEY_FRAGMENT_CLASS,
-                CLASS_PREFIX + STATIC_DB_DEPTH);
-        when(mFeatureFactory.dashboardFeatureProvider.getAllCategories())
-                .thenReturn(Arrays.asList(category));
+        addSystemTile(iaTitle);
 
         final List<String> breadcrumb = mSiteMapManager.buildBreadCrumb(mContext,
                 CLASS_PREFIX + 0, TITLE_PREFIX + 0);
@@ -131,6 +116,110 @@ public class SiteMapManagerTest {
         assertThat(breadcrumb.get(0)).isEqualTo(title);
     }
 
+    @Test
+    public void buildBreadCrumb_newManager_readsStoredBreadcrumbs() {
+        mSiteMapManager.buildBreadCrumb(mContext, CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+        // The site map is no longer read once breadcrumbs are stored.
+        mDb.delete(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, null, null);
+
+        final List<String> breadcrumb = new SiteMapManager().buildBreadCrumb(mContext,
+                CLASS_PREFIX + 1, TITLE_PREFIX + 1);
+
+        assertThat(breadcrumb.size()).isEqualTo(STATIC_DB_DEPTH);
+        assertThat(breadcrumb.get(0)).isEqualTo(TITLE_PREFIX + STATIC_DB_DEPTH);
+        assertThat(breadcrumb.get(STATIC_DB_DEPTH - 1)).isEqualTo(TITLE_PREFIX + 1);
+    }
+
+    @Test
+    public void buildBreadCrumb_siteMapChanged_rebuildsBreadcrumbs() {
+        mSiteMapManager.buildBreadCrumb(mContext, CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+        final ContentValues siteMapPair = new ContentValues();
+        siteMapPair.put(SiteMapColumns.DOCID, STATIC_DB_DEPTH);
+        siteMapPair.put(SiteMapColumns.PARENT_CLASS, CLASS_PREFIX + (STATIC_DB_DEPTH + 1));
+        siteMapPair.put(SiteMapColumns.PARENT_TITLE, TITLE_PREFIX + (STATIC_DB_DEPTH + 1));
+        siteMapPair.put(SiteMapColumns.CHILD_CLASS, CLASS_PREFIX + STATIC_DB_DEPTH);
+        siteMapPair.put(SiteMapColumns.CHILD_TITLE, TITLE_PREFIX + STATIC_DB_DEPTH);
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, null, siteMapPair);
+
+        IndexDatabaseHelper.clearBreadcrumbs(mDb);
+        final List<String> breadcrumb = mSiteMapManager.buildBreadCrumb(mContext,
+                CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+
+        assertThat(breadcrumb.size()).isEqualTo(STATIC_DB_DEPTH + 2);
+        assertThat(breadcrumb.get(0)).isEqualTo(TITLE_PREFIX + (STATIC_DB_DEPTH + 1));
+    }
+
+    @Test
+    public void buildBreadCrumb_tilesChanged_rebuildsStoredBreadcrumbs() {
+        mSiteMapManager.buildBreadCrumb(mContext, CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+        final String iaTitle = "ia_title";
+
+        addSystemTile(iaTitle);
+        final List<String> breadcrumb = new SiteMapManager().buildBreadCrumb(mContext,
+                CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+
+        assertThat(breadcrumb.size()).isEqualTo(STATIC_DB_DEPTH + 2);
+        assertThat(breadcrumb.get(0)).isEqualTo(iaTitle);
+    }
+
+    @Test
+    public void getTilesFingerprint_tileMovedToOtherCategory_changes() {
+        final Tile tile = new Tile();
+        tile.title = TITLE_PREFIX + 0;
+        final DashboardCategory first = new DashboardCategory();
+        first.key = CategoryKey.CATEGORY_SYSTEM;
+        final DashboardCategory second = new DashboardCategory();
+        second.key = CategoryKey.CATEGORY_HOMEPAGE;
+        first.tiles.add(tile);
+        final String fingerprint = SiteMapManager.getTilesFingerprint(
+                Arrays.asList(first, second));
+
+        first.tiles.remove(tile);
+        second.tiles.add(tile);
+
+        assertThat(SiteMapManager.getTilesFingerprint(Arrays.asList(first, second)))
+                .isNotEqualTo(fingerprint);
+    }
+
+    @Test
+    public void buildBreadCrumb_cycleInSiteMap_stops() {
+        final ContentValues siteMapPair = new ContentValues();
+        siteMapPair.put(SiteMapColumns.DOCID, STATIC_DB_DEPTH);
+        siteMapPair.put(SiteMapColumns.PARENT_CLASS, CLASS_PREFIX + 0);
+        siteMapPair.put(SiteMapColumns.PARENT_TITLE, TITLE_PREFIX + 0);
+        siteMapPair.put(SiteMapColumns.CHILD_CLASS, CLASS_PREFIX + STATIC_DB_DEPTH);
+        siteMapPair.put(SiteMapColumns.CHILD_TITLE, TITLE_PREFIX + STATIC_DB_DEPTH);
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, null, siteMapPair);
+
+        final List<String> breadcrumb = mSiteMapManager.buildBreadCrumb(mContext,
+                CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+
+        assertThat(breadcrumb.size()).isEqualTo(STATIC_DB_DEPTH + 1);
+        assertThat(breadcrumb.get(STATIC_DB_DEPTH)).isEqualTo(TITLE_PREFIX + 0);
+    }
+
+    /**
+     * Adds a tile for the top page of the site map to the system category, whose page is titled
+     * {@param systemTitle}.
+     */
+    private void addSystemTile(String systemTitle) {
+        final ContentValues index = new ContentValues();
+        index.put(IndexDatabaseHelper.IndexColumns.CLASS_NAME,
+                SystemDashboardFragment.class.getName());
+        index.put(IndexDatabaseHelper.IndexColumns.SCREEN_TITLE, systemTitle);
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, index);
+
+        final DashboardCategory category = new DashboardCategory();
+        category.key = CategoryKey.CATEGORY_SYSTEM;
+        category.tiles.add(new Tile());
+        category.tiles.get(0).title = TITLE_PREFIX + STATIC_DB_DEPTH;
+        category.tiles.get(0).metaData = new Bundle();
+        category.tiles.get(0).metaData.putString(SettingsActivity.META_DATA_KEY_FRAGMENT_CLASS,
+                CLASS_PREFIX + STATIC_DB_DEPTH);
+        when(mFeatureFactory.dashboardFeatureProvider.getAllCategories())
+                .thenReturn(Arrays.asList(category));
+    }
+
     private void buildDb() {
         for (int i = 0; i < STATIC_DB_DEPTH; i++) {
             final ContentValues siteMapPair = new ContentValues();
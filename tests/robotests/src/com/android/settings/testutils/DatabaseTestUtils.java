@@ -19,6 +19,7 @@ package com.android.settings.testutils;
 import android.content.Context;
 
 import com.android.settings.search.IndexDatabaseHelper;
+import com.android.settings.search.SearchIndexCache;
 
 import java.lang.reflect.Field;
 
@@ -27,6 +28,7 @@ public class DatabaseTestUtils {
     public static void clearDb(Context context) {
         IndexDatabaseHelper helper = IndexDatabaseHelper.getInstance(context);
         helper.close();
+        SearchIndexCache.getInstance().invalidate();
 
         Field instance;
         Class clazz = IndexDatabaseHelper.class;